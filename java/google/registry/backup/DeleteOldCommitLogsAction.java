@@ -28,6 +28,7 @@ import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMarker;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.ofy.Ofy;
 import google.registry.request.Action;
@@ -51,7 +52,7 @@ import org.joda.time.Duration;
  * queries {@code CommitLogManifest} entities older than the threshold, using an ancestor query
  * operating under the assumption under the assumption that the ID is the transaction timestamp in
  * milliseconds since the UNIX epoch. It then deletes them inside a transaction, along with their
- * associated {@link CommitLogMutation} entities.
+ * associated {@link CommitLogMutation} and {@link CommitLogMarker} entities.
  *
  * <p>If additional data is leftover, we show a warning at the INFO level, because it's not
  * actionable. If anything, it just shows that the system was under high load thirty days ago, and
@@ -112,11 +113,11 @@ public final class DeleteOldCommitLogsAction implements Runnable {
         // the queries are launched by iterable(), put into a list, and then the list of iterables
         // is consumed and concatenated.
         ofy.deleteWithoutBackup().keys(concat(copyOf(transform(manifestKeys,
-            new Function<Key<CommitLogManifest>, Iterable<Key<CommitLogMutation>>>() {
+            new Function<Key<CommitLogManifest>, Iterable<Key<Object>>>() {
               @Override
-              public Iterable<Key<CommitLogMutation>> apply(Key<CommitLogManifest> manifestKey) {
+              public Iterable<Key<Object>> apply(Key<CommitLogManifest> manifestKey) {
+                // This kindless query finds the mutations and the marker under the manifest.
                 return ofy.load()
-                    .type(CommitLogMutation.class)
                     .ancestor(manifestKey)
                     .keys()
                     .iterable(); // launches the query asynchronously
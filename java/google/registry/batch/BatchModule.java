@@ -14,12 +14,16 @@
 
 package google.registry.batch;
 
+import static google.registry.request.RequestParameters.extractBooleanParameter;
+
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.common.collect.ImmutableList;
 import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.IntoMap;
 import dagger.multibindings.StringKey;
+import google.registry.request.Parameter;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Dagger module for injecting common settings for batch actions.
@@ -33,4 +37,10 @@ public class BatchModule {
   static ImmutableList<TableFieldSchema> provideEntityIntegrityAlertsSchema() {
     return EntityIntegrityAlertsSchema.SCHEMA_FIELDS;
   }
+
+  @Provides
+  @Parameter(DeleteContactsAndHostsAction.PARAM_USE_MAPREDUCE)
+  static boolean provideUseMapreduce(HttpServletRequest req) {
+    return extractBooleanParameter(req, DeleteContactsAndHostsAction.PARAM_USE_MAPREDUCE);
+  }
 }
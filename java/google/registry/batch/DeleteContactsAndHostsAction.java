@@ -29,6 +29,7 @@ import static google.registry.flows.async.AsyncFlowEnqueuer.PARAM_RESOURCE_KEY;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_DELETE;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.isDeleted;
+import static google.registry.model.EppResourceUtils.queryDomainsUsingResource;
 import static google.registry.model.eppcommon.StatusValue.PENDING_DELETE;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.reporting.HistoryEntry.Type.CONTACT_DELETE;
@@ -49,6 +50,7 @@ import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
@@ -73,22 +75,35 @@ import google.registry.model.poll.PollMessage;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.request.Action;
+import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.joda.time.DateTime;
 
 /**
- * A mapreduce that processes batch asynchronous deletions of contact and host resources by mapping
- * over all domains and domain applications and checking for any references to the contacts/hosts in
- * pending deletion.
+ * An action that processes batch asynchronous deletions of contact and host resources.
+ *
+ * <p>By default, each contact/host pending deletion is checked for references in parallel, using a
+ * keys-only query for a single domain or domain application on the {@code allContacts.contact} or
+ * {@code nsHosts} index. A request that fails is returned to the queue to be retried on its own,
+ * without affecting the rest of the batch.
+ *
+ * <p>Setting {@link #PARAM_USE_MAPREDUCE} instead runs a mapreduce that maps over all domains and
+ * domain applications and checks each for references to the contacts/hosts pending deletion. This
+ * is much more expensive, but doesn't rely on the indexes, so a daily cron job runs it as a
+ * consistency sweep: it runs even when no deletions are pending, and also counts and logs active
+ * domains that reference contacts/hosts which have already been deleted, as would happen if an
+ * index query ever missed a reference.
  */
 @Action(path = "/_dr/task/deleteContactsAndHosts")
 public class DeleteContactsAndHostsAction implements Runnable {
@@ -96,6 +111,9 @@ public class DeleteContactsAndHostsAction implements Runnable {
   static final String KIND_CONTACT = getKind(ContactResource.class);
   static final String KIND_HOST = getKind(HostResource.class);
 
+  /** Request parameter to process the pending deletions with a mapreduce over all domains. */
+  public static final String PARAM_USE_MAPREDUCE = "useMapreduce";
+
   private static final long LEASE_MINUTES = 20;
   private static final FormattingLogger logger = getLoggerForCallerClass();
   private static final int MAX_REDUCE_SHARDS = 50;
@@ -106,6 +124,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
   @Inject @Named(QUEUE_ASYNC_DELETE) Queue queue;
   @Inject Response response;
   @Inject Retrier retrier;
+  @Inject @Parameter(PARAM_USE_MAPREDUCE) boolean useMapreduce;
   @Inject DeleteContactsAndHostsAction() {}
 
   @Override
@@ -114,7 +133,11 @@ public class DeleteContactsAndHostsAction implements Runnable {
         LeaseOptions.Builder.withCountLimit(maxLeaseCount()).leasePeriod(LEASE_MINUTES, MINUTES);
     List<TaskHandle> tasks = queue.leaseTasks(options);
     if (tasks.isEmpty()) {
-      response.setPayload("No contact/host deletion tasks in pull queue.");
+      if (useMapreduce) {
+        runMapreduce(ImmutableList.<DeletionRequest>of());
+      } else {
+        response.setPayload("No contact/host deletion tasks in pull queue.");
+      }
       return;
     }
     Multiset<String> kindCounts = HashMultiset.create(2);
@@ -144,12 +167,86 @@ public class DeleteContactsAndHostsAction implements Runnable {
     ImmutableList<DeletionRequest> deletionRequests = builder.build();
     if (deletionRequests.isEmpty()) {
       logger.info("No asynchronous deletions to process because all were already handled.");
-      response.setPayload("All requested deletions of contacts/hosts have already occurred.");
     } else {
       logger.infofmt(
           "Processing asynchronous deletion of %d contacts and %d hosts: %s",
           kindCounts.count(KIND_CONTACT), kindCounts.count(KIND_HOST), resourceKeys.build());
+    }
+    if (useMapreduce) {
       runMapreduce(deletionRequests);
+    } else if (deletionRequests.isEmpty()) {
+      response.setPayload("All requested deletions of contacts/hosts have already occurred.");
+    } else {
+      processDeletionsUsingIndexes(deletionRequests);
+    }
+  }
+
+  /**
+   * Checks each deletion request for references with an indexed query and processes it directly.
+   *
+   * <p>The requests are independent of each other, so they are all checked and processed in
+   * parallel. The indexes are only eventually consistent, but so is the mapreduce, which is why
+   * {@link google.registry.flows.async.AsyncFlowEnqueuer} delays the deletion tasks.
+   *
+   * <p>If checking or processing a request fails, its transaction has rolled back and its task is
+   * still in the queue, so the lease on that task alone is given up for it to be retried by the
+   * next run, and the other requests in the batch carry on.
+   */
+  private void processDeletionsUsingIndexes(ImmutableList<DeletionRequest> deletionRequests) {
+    ImmutableList<Optional<DeletionResult>> results = Concurrent.transform(
+        deletionRequests,
+        new Function<DeletionRequest, Optional<DeletionResult>>() {
+          @Override
+          public Optional<DeletionResult> apply(DeletionRequest deletionRequest) {
+            Key<? extends EppResource> key = deletionRequest.key();
+            try {
+              boolean hasNoActiveReferences =
+                  queryDomainsUsingResource(
+                          key.getKind().equals(KIND_CONTACT)
+                              ? ContactResource.class
+                              : HostResource.class,
+                          key,
+                          deletionRequest.lastUpdateTime(),
+                          1)
+                      .isEmpty();
+              DeletionResult result =
+                  DeleteEppResourceReducer.processDeletion(deletionRequest, hasNoActiveReferences);
+              logger.infofmt(
+                  "Result of async deletion for resource %s: %s", key, result.pollMessageText());
+              return Optional.of(result);
+            } catch (RuntimeException e) {
+              logger.severefmt(e, "Error processing async deletion of %s, requeueing it", key);
+              requeueTask(deletionRequest.task());
+              return Optional.absent();
+            }
+          }});
+    Multiset<Type> resultCounts = HashMultiset.create();
+    int requeued = 0;
+    for (Optional<DeletionResult> result : results) {
+      if (result.isPresent()) {
+        resultCounts.add(result.get().type());
+      } else {
+        requeued++;
+      }
+    }
+    response.setPayload(
+        String.format(
+            "Processed %d contact/host deletions: %d deleted, %d not deleted, %d errored, "
+                + "%d requeued.",
+            results.size(),
+            resultCounts.count(Type.DELETED),
+            resultCounts.count(Type.NOT_DELETED),
+            resultCounts.count(Type.ERRORED),
+            requeued));
+  }
+
+  /** Gives up the lease on a task so that it can be leased again straight away. */
+  private void requeueTask(TaskHandle task) {
+    try {
+      queue.modifyTaskLease(task, 0, MINUTES);
+    } catch (RuntimeException e) {
+      // The lease will run out on its own, so the task will still be retried, just later.
+      logger.warningfmt(e, "Could not give up the lease on task %s", task.getName());
     }
   }
 
@@ -169,14 +266,16 @@ public class DeleteContactsAndHostsAction implements Runnable {
 
   private void runMapreduce(ImmutableList<DeletionRequest> deletionRequests) {
     try {
-      int numReducers =
-          Math.min(MAX_REDUCE_SHARDS, divide(deletionRequests.size(), DELETES_PER_SHARD, CEILING));
+      int numReducers = Math.max(
+          1,
+          Math.min(
+              MAX_REDUCE_SHARDS, divide(deletionRequests.size(), DELETES_PER_SHARD, CEILING)));
       response.sendJavaScriptRedirect(createJobPath(mrRunner
           .setJobName("Check for EPP resource references and then delete")
           .setModuleName("backend")
           .setDefaultReduceShards(numReducers)
           .runMapreduce(
-              new DeleteContactsAndHostsMapper(deletionRequests),
+              new DeleteContactsAndHostsMapper(deletionRequests, clock.nowUtc()),
               new DeleteEppResourceReducer(),
               ImmutableList.of(
                   // Add an extra shard that maps over a null domain. See the mapper code for why.
@@ -191,7 +290,8 @@ public class DeleteContactsAndHostsAction implements Runnable {
    * A mapper that iterates over all {@link DomainBase} entities.
    *
    * <p>It emits the target key and {@code true} for domains referencing the target resource. For
-   * the special input of {@code null} it emits the target key and {@code false}.
+   * the special input of {@code null} it emits the target key and {@code false}. It also checks
+   * that no domain active at the start of the sweep references a deleted contact or host.
    */
   public static class DeleteContactsAndHostsMapper
       extends Mapper<DomainBase, DeletionRequest, Boolean> {
@@ -199,9 +299,11 @@ public class DeleteContactsAndHostsAction implements Runnable {
     private static final long serialVersionUID = -253652818502690537L;
 
     private final ImmutableList<DeletionRequest> deletionRequests;
+    private final DateTime now;
 
-    DeleteContactsAndHostsMapper(ImmutableList<DeletionRequest> resourcesToDelete) {
+    DeleteContactsAndHostsMapper(ImmutableList<DeletionRequest> resourcesToDelete, DateTime now) {
       this.deletionRequests = resourcesToDelete;
+      this.now = now;
     }
 
     @Override
@@ -221,10 +323,35 @@ public class DeleteContactsAndHostsAction implements Runnable {
         }
       }
       if (domain != null) {
+        checkForDeletedReferences(domain);
         getContext().incrementCounter("domains processed");
       }
     }
 
+    /** Counts and logs the contacts and hosts referenced by an active domain that are deleted. */
+    private void checkForDeletedReferences(DomainBase domain) {
+      if (!isActive(domain, now)) {
+        return;
+      }
+      @SuppressWarnings("unchecked")
+      ImmutableList<Key<EppResource>> keys =
+          (ImmutableList<Key<EppResource>>) (ImmutableList<?>)
+              new ImmutableList.Builder<Key<? extends EppResource>>()
+                  .addAll(domain.getReferencedContacts())
+                  .addAll(domain.getNameservers())
+                  .build();
+      Map<Key<EppResource>, EppResource> resources = ofy().load().keys(keys);
+      for (Key<EppResource> key : keys) {
+        EppResource resource = resources.get(key);
+        if (resource == null || isDeleted(resource, now)) {
+          logger.severefmt(
+              "Active domain %s references deleted %s", domain.getFullyQualifiedDomainName(), key);
+          getContext().incrementCounter(
+              String.format("active Domain-deleted %s links found", key.getKind()));
+        }
+      }
+    }
+
     /** Determine whether the target resource is a linked resource on the domain. */
     private boolean isLinked(DomainBase domain, Key<? extends EppResource> resourceKey) {
       if (resourceKey.getKind().equals(KIND_CONTACT)) {
@@ -250,8 +377,22 @@ public class DeleteContactsAndHostsAction implements Runnable {
     @Override
     public void reduce(final DeletionRequest deletionRequest, ReducerInput<Boolean> values) {
       final boolean hasNoActiveReferences = !Iterators.contains(values, true);
+      DeletionResult result = processDeletion(deletionRequest, hasNoActiveReferences);
+      String resourceNamePlural = deletionRequest.key().getKind() + "s";
+      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
+      logger.infofmt(
+          "Result of async deletion for resource %s: %s",
+          deletionRequest.key(), result.pollMessageText());
+    }
+
+    /**
+     * Transactionally deletes the resource, or takes it out of PENDING_DELETE if it can't be
+     * deleted, and removes the deletion task from the queue.
+     */
+    static DeletionResult processDeletion(
+        final DeletionRequest deletionRequest, final boolean hasNoActiveReferences) {
       logger.infofmt("Processing async deletion request for %s", deletionRequest.key());
-      DeletionResult result = ofy().transactNew(new Work<DeletionResult>() {
+      return ofy().transactNew(new Work<DeletionResult>() {
         @Override
         @SuppressWarnings("unchecked")
         public DeletionResult run() {
@@ -260,14 +401,9 @@ public class DeleteContactsAndHostsAction implements Runnable {
           getQueue(QUEUE_ASYNC_DELETE).deleteTask(deletionRequest.task());
           return deletionResult;
         }});
-      String resourceNamePlural = deletionRequest.key().getKind() + "s";
-      getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
-      logger.infofmt(
-          "Result of async deletion for resource %s: %s",
-          deletionRequest.key(), result.pollMessageText());
     }
 
-    private DeletionResult attemptToDeleteResource(
+    private static DeletionResult attemptToDeleteResource(
         DeletionRequest deletionRequest, boolean hasNoActiveReferences) {
       DateTime now = ofy().getTransactionTime();
       EppResource resource =
@@ -343,7 +479,8 @@ public class DeleteContactsAndHostsAction implements Runnable {
      * Determine the proper history entry type for the delete operation, as a function of
      * whether or not the delete was successful.
      */
-    private HistoryEntry.Type getHistoryEntryType(EppResource resource, boolean successfulDelete) {
+    private static HistoryEntry.Type getHistoryEntryType(
+        EppResource resource, boolean successfulDelete) {
       if (resource instanceof ContactResource) {
         return successfulDelete ? CONTACT_DELETE : CONTACT_DELETE_FAILURE;
       } else if (resource instanceof HostResource) {
@@ -354,7 +491,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
     }
 
     /** Perform any type-specific tasks on the resource to be deleted (and/or its dependencies). */
-    private void performDeleteTasks(
+    private static void performDeleteTasks(
         EppResource existingResource,
         EppResource deletedResource,
         DateTime deletionTime,
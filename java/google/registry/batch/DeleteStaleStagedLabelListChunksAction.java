@@ -0,0 +1,66 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.request.Action.Method.POST;
+
+import com.google.common.collect.Iterables;
+import com.googlecode.objectify.Key;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.request.Action;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import java.util.List;
+import javax.inject.Inject;
+import org.joda.time.Duration;
+
+/**
+ * Deletes the staged chunks of premium and reserved list uploads that were never committed.
+ *
+ * <p>Chunked uploads normally finish within minutes, and a successful commit deletes its own
+ * chunks, so any chunk staged more than {@link #MAX_AGE} ago belongs to an abandoned upload. An
+ * upload that is resumed after its chunks were deleted fails to commit with the chunks reported as
+ * missing, and re-running the upload stages them again.
+ */
+@Action(
+  path = "/_dr/task/deleteStaleStagedLabelListChunks",
+  method = POST,
+  automaticallyPrintOk = true
+)
+public class DeleteStaleStagedLabelListChunksAction implements Runnable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** How long after being staged a chunk is deleted if its upload hasn't been committed. */
+  static final Duration MAX_AGE = Duration.standardDays(1);
+
+  /** Maximum number of chunks deleted in a single batch. */
+  private static final int BATCH_SIZE = 500;
+
+  @Inject Clock clock;
+  @Inject DeleteStaleStagedLabelListChunksAction() {}
+
+  @Override
+  public void run() {
+    int deleted = 0;
+    for (List<Key<StagedLabelListChunk>> batch : Iterables.partition(
+        StagedLabelListChunk.loadKeysCreatedBefore(clock.nowUtc().minus(MAX_AGE)), BATCH_SIZE)) {
+      ofy().deleteWithoutBackup().keys(batch).now();
+      deleted += batch.size();
+    }
+    logger.infofmt("Deleted %d stale staged label list chunks.", deleted);
+  }
+}
@@ -36,18 +36,24 @@ import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsQueue;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.Serializable;
@@ -59,14 +65,29 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import org.joda.time.DateTime;
 
-/** Performs batched DNS refreshes for applicable domains following a host rename. */
+/**
+ * Performs batched DNS refreshes for applicable domains following a host rename.
+ *
+ * <p>The domains referencing the renamed hosts are normally found with keys-only queries on the
+ * {@code nsHosts} index, and their DNS refreshes are enqueued directly. Only if the renamed hosts
+ * are referenced by more than {@code asyncHostRenameMaxDirectRefreshes} domains is a mapreduce over
+ * all domains started instead.
+ */
 @Action(path = "/_dr/task/refreshDnsOnHostRename")
 public class RefreshDnsOnHostRenameAction implements Runnable {
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
   private static final long LEASE_MINUTES = 20;
 
+  /** Number of keys fetched per round trip when querying for referencing domains. */
+  private static final int QUERY_PAGE_SIZE = 500;
+
+  /** Number of domains loaded or refreshed at a time. */
+  private static final int BATCH_SIZE = 100;
+
   @Inject Clock clock;
+  @Inject DnsQueue dnsQueue;
+  @Inject @Config("asyncHostRenameMaxDirectRefreshes") int maxDirectRefreshes;
   @Inject MapreduceRunner mrRunner;
   @Inject @Named(QUEUE_ASYNC_HOST_RENAME) Queue pullQueue;
   @Inject Response response;
@@ -85,6 +106,7 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
     ImmutableList.Builder<DnsRefreshRequest> requestsBuilder = new ImmutableList.Builder<>();
     ImmutableList.Builder<Key<HostResource>> hostKeys = new ImmutableList.Builder<>();
     final List<TaskHandle> tasksToDelete = new ArrayList<>();
+    final List<TaskHandle> tasksToProcess = new ArrayList<>();
 
     for (TaskHandle task : tasks) {
       try {
@@ -93,6 +115,7 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
         if (request.isPresent()) {
           requestsBuilder.add(request.get());
           hostKeys.add(request.get().hostKey());
+          tasksToProcess.add(task);
         } else {
           // Skip hosts that are deleted.
           tasksToDelete.add(task);
@@ -113,8 +136,95 @@ public class RefreshDnsOnHostRenameAction implements Runnable {
       response.setPayload("All requested DNS refreshes are on hosts that were since deleted.");
     } else {
       logger.infofmt("Processing asynchronous DNS refresh for renamed hosts: %s", hostKeys.build());
-      runMapreduce(refreshRequests, tasks);
+      Optional<ImmutableSet<String>> domainNames = findReferencingDomains(refreshRequests);
+      if (domainNames.isPresent()) {
+        enqueueDnsRefreshes(domainNames.get());
+        deleteTasksWithRetry(tasksToProcess, pullQueue, retrier);
+        response.setPayload(
+            String.format(
+                "Enqueued DNS refreshes for %d domains referencing renamed hosts.",
+                domainNames.get().size()));
+      } else {
+        logger.infofmt(
+            "Renamed hosts are referenced by more than %d domains, falling back to a mapreduce.",
+            maxDirectRefreshes);
+        runMapreduce(refreshRequests, tasks);
+      }
+    }
+  }
+
+  /**
+   * Returns the names of the domains that reference the renamed hosts, or absent if there are more
+   * than {@link #maxDirectRefreshes} of them.
+   *
+   * <p>Each renamed host is looked up in parallel with a keys-only query on the {@code nsHosts}
+   * index, paged {@link #QUERY_PAGE_SIZE} keys at a time and stopping as soon as the limit is
+   * exceeded. The matching entities are then loaded in batches to apply the same checks as the
+   * mapreduce, since the index also covers domain applications.
+   */
+  private Optional<ImmutableSet<String>> findReferencingDomains(
+      ImmutableList<DnsRefreshRequest> refreshRequests) {
+    final int limit = maxDirectRefreshes + 1;
+    ImmutableList<Optional<ImmutableSet<String>>> namesPerRequest = Concurrent.transform(
+        refreshRequests,
+        new Function<DnsRefreshRequest, Optional<ImmutableSet<String>>>() {
+          @Override
+          public Optional<ImmutableSet<String>> apply(DnsRefreshRequest request) {
+            List<Key<DomainBase>> domainKeys = ofy().load()
+                .type(DomainBase.class)
+                .filter("nsHosts", request.hostKey())
+                .filter("deletionTime >", request.lastUpdateTime())
+                .chunk(QUERY_PAGE_SIZE)
+                .limit(limit)
+                .keys()
+                .list();
+            if (domainKeys.size() >= limit) {
+              return Optional.absent();
+            }
+            ImmutableSet.Builder<String> names = new ImmutableSet.Builder<>();
+            for (List<Key<DomainBase>> batch : Lists.partition(domainKeys, BATCH_SIZE)) {
+              for (DomainBase domain : ofy().load().keys(batch).values()) {
+                if (domain instanceof DomainResource
+                    && isActive(domain, request.lastUpdateTime())
+                    && domain.getNameservers().contains(request.hostKey())) {
+                  names.add(domain.getFullyQualifiedDomainName());
+                }
+              }
+            }
+            return Optional.of(names.build());
+          }});
+    ImmutableSet.Builder<String> domainNamesBuilder = new ImmutableSet.Builder<>();
+    for (Optional<ImmutableSet<String>> names : namesPerRequest) {
+      if (!names.isPresent()) {
+        return Optional.absent();
+      }
+      domainNamesBuilder.addAll(names.get());
     }
+    ImmutableSet<String> domainNames = domainNamesBuilder.build();
+    return (domainNames.size() > maxDirectRefreshes)
+        ? Optional.<ImmutableSet<String>>absent()
+        : Optional.of(domainNames);
+  }
+
+  /** Enqueues DNS refreshes for the given domains, in parallel batches. */
+  private void enqueueDnsRefreshes(ImmutableSet<String> domainNames) {
+    Concurrent.transform(
+        Lists.partition(domainNames.asList(), BATCH_SIZE),
+        new Function<List<String>, Void>() {
+          @Override
+          public Void apply(List<String> batch) {
+            for (final String domainName : batch) {
+              retrier.callWithRetry(
+                  new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                      dnsQueue.addDomainRefreshTask(domainName);
+                      return null;
+                    }}, TransientFailureException.class);
+              logger.infofmt("Enqueued DNS refresh for domain %s.", domainName);
+            }
+            return null;
+          }});
   }
 
   private void runMapreduce(
@@ -342,6 +342,31 @@ public final class RegistryConfig {
       return Duration.standardSeconds(75);
     }
 
+    /**
+     * The maximum amount of time ReadDnsQueueAction keeps leasing tasks from the dns-pull queue.
+     *
+     * <p>Every task leased during a run stays leased until the run finishes, so this must be
+     * comfortably shorter than {@link #provideDnsWriteLockTimeout}, the length of those leases.
+     *
+     * @see google.registry.dns.ReadDnsQueueAction
+     */
+    @Provides
+    @Config("readDnsQueueActionRuntime")
+    public static Duration provideReadDnsQueueActionRuntime() {
+      return Duration.standardSeconds(45);
+    }
+
+    /**
+     * The width of the time buckets within which refresh requests for the same name are coalesced.
+     *
+     * @see google.registry.dns.DnsQueue
+     */
+    @Provides
+    @Config("dnsRefreshCoalescingWindow")
+    public static Duration provideDnsRefreshCoalescingWindow() {
+      return RegistryConfig.getDnsRefreshCoalescingWindow();
+    }
+
     /**
      * Returns the default time to live for DNS records.
      *
@@ -955,6 +980,21 @@ public final class RegistryConfig {
       return Duration.standardSeconds(90);
     }
 
+    /**
+     * Maximum number of domains that a batch of host renames may fan out to before the DNS
+     * refresh falls back to a mapreduce over all domains.
+     *
+     * <p>Below this, the referencing domains are found directly with queries on the
+     * {@code nsHosts} index, which is much cheaper than scanning every domain in the registry.
+     *
+     * @see google.registry.batch.RefreshDnsOnHostRenameAction
+     */
+    @Provides
+    @Config("asyncHostRenameMaxDirectRefreshes")
+    public static int provideAsyncHostRenameMaxDirectRefreshes() {
+      return 10000;
+    }
+
     /**
      * The server ID used in the 'svID' element of an EPP 'greeting'.
      *
@@ -1214,6 +1254,15 @@ public final class RegistryConfig {
     }
   }
 
+  /**
+   * Returns the maximum number of rendered WHOIS domain responses to cache in memory.
+   *
+   * @see "google.registry.whois.DomainWhoisResponseCache"
+   */
+  public static int getWhoisDomainResponseCacheMaxSize() {
+    return 1000;
+  }
+
   /**
    * Returns default WHOIS server to use when {@code Registrar#getWhoisServer()} is {@code null}.
    *
@@ -1265,6 +1314,33 @@ public final class RegistryConfig {
     }
   }
 
+  /**
+   * Returns the longest that {@code Ofy} will spend retrying a failed transaction, counted from the
+   * start of the first attempt.
+   *
+   * <p>Retries also stop early if the next one couldn't start before the request deadline.
+   */
+  public static Duration getOfyRetryBudget() {
+    return Duration.standardSeconds(25);
+  }
+
+  /**
+   * Returns the width of the time buckets within which DNS refresh requests for the same name are
+   * coalesced into a single pull queue task, or zero to disable coalescing.
+   *
+   * <p>This is also the longest a coalesced refresh request is delayed before it can be read.
+   *
+   * @see google.registry.dns.DnsQueue
+   */
+  public static Duration getDnsRefreshCoalescingWindow() {
+    switch (RegistryEnvironment.get()) {
+      case UNITTEST:
+        return Duration.ZERO;
+      default:
+        return Duration.standardSeconds(30);
+    }
+  }
+
   /** Config values used for local and unit test environments. */
   public static class LocalTestConfig {
 
@@ -15,10 +15,12 @@
 package google.registry.dns;
 
 import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
 import google.registry.monitoring.metrics.IncrementableMetric;
 import google.registry.monitoring.metrics.LabelDescriptor;
 import google.registry.monitoring.metrics.MetricRegistryImpl;
 import javax.inject.Inject;
+import org.joda.time.Duration;
 
 /** DNS instrumentation. */
 public class DnsMetrics {
@@ -48,6 +50,15 @@ public class DnsMetrics {
               "count",
               LABEL_DESCRIPTORS);
 
+  private static final EventMetric queueLag =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/dns/queue_lag",
+              "time between a refresh request and the reading of it from the DNS pull queue",
+              "milliseconds",
+              ImmutableSet.of(LabelDescriptor.create("tld", "TLD")),
+              EventMetric.DEFAULT_FITTER);
+
   @Inject
   DnsMetrics() {}
 
@@ -66,4 +77,12 @@ public class DnsMetrics {
   public void incrementPublishHostRequests(String tld, Status status) {
     publishHostRequests.increment(tld, status.name());
   }
+
+  /**
+   * Records how long a refresh request waited in the DNS pull queue before {@link
+   * ReadDnsQueueAction} read it, per TLD.
+   */
+  public void recordQueueLag(String tld, Duration lag) {
+    queueLag.record(lag.getMillis(), tld);
+  }
 }
@@ -18,9 +18,12 @@ import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.dns.PublishDnsUpdatesAction.DOMAINS_PARAM;
 import static google.registry.dns.PublishDnsUpdatesAction.HOSTS_PARAM;
+import static google.registry.dns.PublishDnsUpdatesAction.PARAM_LOCK_INDEX;
+import static google.registry.dns.PublishDnsUpdatesAction.PARAM_NUM_PUBLISH_LOCKS;
 import static google.registry.dns.ReadDnsQueueAction.KEEP_TASKS_PARAM;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractEnumParameter;
+import static google.registry.request.RequestParameters.extractOptionalIntParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static google.registry.request.RequestParameters.extractSetOfParameters;
 
@@ -69,6 +72,20 @@ public abstract class DnsModule {
     return extractSetOfParameters(req, HOSTS_PARAM);
   }
 
+  // Publish tasks enqueued before DNS updates were sharded don't have lock parameters, and are
+  // equivalent to those for the single lock of an unsharded TLD.
+  @Provides
+  @Parameter(PARAM_LOCK_INDEX)
+  static int provideLockIndex(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, PARAM_LOCK_INDEX).or(1);
+  }
+
+  @Provides
+  @Parameter(PARAM_NUM_PUBLISH_LOCKS)
+  static int provideNumPublishLocks(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, PARAM_NUM_PUBLISH_LOCKS).or(1);
+  }
+
   @Provides
   @Parameter(KEEP_TASKS_PARAM)
   static boolean provideKeepTasks(HttpServletRequest req) {
@@ -16,58 +16,188 @@ package google.registry.dns;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
+import static google.registry.dns.DnsConstants.DNS_TARGET_CREATE_TIME_PARAM;
 import static google.registry.dns.DnsConstants.DNS_TARGET_NAME_PARAM;
 import static google.registry.dns.DnsConstants.DNS_TARGET_TYPE_PARAM;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.assertTldExists;
 import static google.registry.request.RequestParameters.PARAM_TLD;
 import static google.registry.util.DomainNameUtils.getTldFromDomainName;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TaskOptions.Method;
 import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.apphosting.api.DeadlineExceededException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.google.common.net.InternetDomainName;
+import google.registry.config.RegistryConfig;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsConstants.TargetType;
 import google.registry.model.registry.Registries;
+import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
+import google.registry.util.SystemClock;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
-/** Methods for manipulating the queue used for DNS write tasks. */
+/**
+ * Methods for manipulating the queue used for DNS write tasks.
+ *
+ * <p>If a coalescing window is configured, refresh requests are coalesced: time is divided into
+ * buckets the width of the window, and a request gets a task that only becomes available for
+ * leasing once its bucket has ended. A later request for the same name is covered by that task,
+ * and needs none of its own, as long as the change it announces is visible by then.
+ *
+ * <p>Outside of a transaction, all requests for a name in a bucket share one named task, and the
+ * later ones are dropped when adding it fails. Inside a transaction that isn't possible, since App
+ * Engine doesn't allow named transactional tasks, and the task has to stay transactional so that a
+ * refresh is never read before the change it announces commits. Instead, each instance remembers
+ * the ETAs of the transactional tasks that it has committed, and a later transaction for the same
+ * name that commits before that ETA adds no task. If it commits too late to be covered after all,
+ * it adds a task once it has committed. The delay before a refresh can be read is therefore never
+ * more than the window, and the number of tasks grows with the number of distinct names per bucket
+ * on each instance rather than with the number of mutations.
+ */
 public class DnsQueue {
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
+  /**
+   * The ETA of the latest transactional task that this instance has committed for each target.
+   *
+   * <p>An entry that is out of date, or evicted, only means that a request adds a task it could
+   * have done without, so the size bound is just to limit memory use.
+   */
+  private static final Cache<String, Long> committedTaskEtas =
+      CacheBuilder.newBuilder().maximumSize(10000).<String, Long>build();
+
   @Inject @Named(DNS_PULL_QUEUE_NAME) Queue queue;
+  @Inject Clock clock;
+  @Inject @Config("dnsRefreshCoalescingWindow") Duration coalescingWindow;
   @Inject DnsQueue() {}
 
   long writeBatchSize = QueueConstants.maxLeaseCount();
 
   /**
    * Enqueues the given task type with the given target name to the DNS queue.
+   *
+   * @return the handle of the new task, or null if the request was coalesced into another one
    */
+  @Nullable
   private TaskHandle addToQueue(TargetType targetType, String targetName, String tld) {
-    return queue.add(TaskOptions.Builder
+    DateTime now = clock.nowUtc();
+    TaskOptions options = createTaskOptions(targetType, targetName, tld, now);
+    if (!coalescingWindow.isLongerThan(Duration.ZERO)) {
+      return queue.add(options);
+    }
+    long bucket = now.getMillis() / coalescingWindow.getMillis();
+    long etaMillis = (bucket + 1) * coalescingWindow.getMillis();
+    if (ofy().inTransaction()) {
+      return addTransactionalTask(targetType, targetName, tld, options, now, etaMillis);
+    }
+    options
+        .taskName(getCoalescedTaskName(targetType, targetName, tld, bucket))
+        .etaMillis(etaMillis);
+    try {
+      return queue.add(options);
+    } catch (TaskAlreadyExistsException e) {
+      return null;
+    }
+  }
+
+  private static TaskOptions createTaskOptions(
+      TargetType targetType, String targetName, String tld, DateTime now) {
+    return TaskOptions.Builder
         .withDefaults()
         .method(Method.PULL)
         .param(DNS_TARGET_TYPE_PARAM, targetType.toString())
         .param(DNS_TARGET_NAME_PARAM, targetName)
-        .param(PARAM_TLD, tld));
+        .param(PARAM_TLD, tld)
+        .param(DNS_TARGET_CREATE_TIME_PARAM, now.toString());
+  }
+
+  /**
+   * Adds a transactional task, unless one that this instance has already committed for the same
+   * target will only become available for leasing after this transaction commits.
+   */
+  @Nullable
+  private TaskHandle addTransactionalTask(
+      final TargetType targetType,
+      final String targetName,
+      final String tld,
+      TaskOptions options,
+      DateTime now,
+      final long etaMillis) {
+    final String key = getCoalescingKey(targetType, targetName, tld);
+    final Long committedEtaMillis = committedTaskEtas.getIfPresent(key);
+    if (committedEtaMillis != null && committedEtaMillis > now.getMillis()) {
+      ofy().runAfterCommit(new Runnable() {
+        @Override
+        public void run() {
+          if (clock.nowUtc().getMillis() >= committedEtaMillis) {
+            // The other task might have been read before this transaction committed.
+            addToQueue(targetType, targetName, tld);
+          }
+        }});
+      return null;
+    }
+    TaskHandle handle = queue.add(options.etaMillis(etaMillis));
+    ofy().runAfterCommit(new Runnable() {
+      @Override
+      public void run() {
+        committedTaskEtas.put(key, etaMillis);
+      }});
+    return handle;
+  }
+
+  private static String getCoalescingKey(TargetType targetType, String targetName, String tld) {
+    return targetType + "/" + tld + "/" + targetName;
+  }
+
+  /** Forgets the tasks committed so far, so that tests can't see each other's. */
+  @VisibleForTesting
+  public static void clearCommittedTasks() {
+    committedTaskEtas.invalidateAll();
+  }
+
+  /**
+   * Returns the name shared by all requests to refresh a target within one time bucket.
+   *
+   * <p>Target names can contain characters that aren't allowed in task names, so they are hashed.
+   */
+  private static String getCoalescedTaskName(
+      TargetType targetType, String targetName, String tld, long bucket) {
+    return String.format(
+        "dns-%s-%s-%d",
+        Ascii.toLowerCase(targetType.name()),
+        Hashing.murmur3_128().hashString(tld + "/" + targetName, UTF_8),
+        bucket);
   }
 
   /**
    * Adds a task to the queue to refresh the DNS information for the specified subordinate host.
+   *
+   * @return the handle of the new task, or null if the request was coalesced into another one
    */
+  @Nullable
   public TaskHandle addHostRefreshTask(String fullyQualifiedHostName) {
     Optional<InternetDomainName> tld =
         Registries.findTldForName(InternetDomainName.from(fullyQualifiedHostName));
@@ -76,7 +206,12 @@ public class DnsQueue {
     return addToQueue(TargetType.HOST, fullyQualifiedHostName, tld.get().toString());
   }
 
-  /** Adds a task to the queue to refresh the DNS information for the specified domain. */
+  /**
+   * Adds a task to the queue to refresh the DNS information for the specified domain.
+   *
+   * @return the handle of the new task, or null if the request was coalesced into another one
+   */
+  @Nullable
   public TaskHandle addDomainRefreshTask(String fullyQualifiedDomainName) {
     return addToQueue(
         TargetType.DOMAIN,
@@ -84,7 +219,12 @@ public class DnsQueue {
         assertTldExists(getTldFromDomainName(fullyQualifiedDomainName)));
   }
 
-  /** Adds a task to the queue to refresh the DNS information for the specified zone. */
+  /**
+   * Adds a task to the queue to refresh the DNS information for the specified zone.
+   *
+   * @return the handle of the new task, or null if the request was coalesced into another one
+   */
+  @Nullable
   public TaskHandle addZoneRefreshTask(String fullyQualifiedZoneName) {
     return addToQueue(TargetType.ZONE, fullyQualifiedZoneName, fullyQualifiedZoneName);
   }
@@ -138,6 +278,17 @@ public class DnsQueue {
   public static DnsQueue create() {
     DnsQueue result = new DnsQueue();
     result.queue = QueueFactory.getQueue(DNS_PULL_QUEUE_NAME);
+    result.clock = new SystemClock();
+    result.coalescingWindow = RegistryConfig.getDnsRefreshCoalescingWindow();
+    return result;
+  }
+
+  /** Creates a new instance with the given clock and coalescing window, for tests. */
+  @VisibleForTesting
+  public static DnsQueue createForTesting(Clock clock, Duration coalescingWindow) {
+    DnsQueue result = create();
+    result.clock = clock;
+    result.coalescingWindow = coalescingWindow;
     return result;
   }
 }
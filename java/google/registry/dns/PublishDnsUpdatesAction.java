@@ -14,7 +14,7 @@
 
 package google.registry.dns;
 
-import static google.registry.model.server.Lock.executeWithLocks;
+import static google.registry.model.server.Lock.executeWithReentrantLocks;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 
@@ -22,6 +22,7 @@ import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.model.registry.Registry;
 import google.registry.request.Action;
 import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
@@ -40,6 +41,8 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   public static final String PATH = "/_dr/task/publishDnsUpdates";
   public static final String DOMAINS_PARAM = "domains";
   public static final String HOSTS_PARAM = "hosts";
+  public static final String PARAM_LOCK_INDEX = "lockIndex";
+  public static final String PARAM_NUM_PUBLISH_LOCKS = "numPublishLocks";
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
@@ -50,17 +53,32 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(DOMAINS_PARAM) Set<String> domains;
   @Inject @Parameter(HOSTS_PARAM) Set<String> hosts;
+  @Inject @Parameter(PARAM_LOCK_INDEX) int lockIndex;
+  @Inject @Parameter(PARAM_NUM_PUBLISH_LOCKS) int numPublishLocks;
   @Inject PublishDnsUpdatesAction() {}
 
   /** Runs the task. */
   @Override
   public void run() {
-    String lockName = String.format("DNS zone %s", tld);
-    // If executeWithLocks fails to get the lock, it does not throw an exception, simply returns
-    // false. We need to make sure to take note of this error; otherwise, a failed lock might result
-    // in the update task being dequeued and dropped. A message will already have been logged
-    // to indicate the problem.
-    if (!executeWithLocks(this, getClass(), tld, timeout, lockName)) {
+    // If the TLD's number of publish locks has changed since this batch was created, its names may
+    // now belong to several different locks, so holding the one it was assigned to wouldn't keep
+    // other batches from publishing the same names concurrently. Send the names back through the
+    // pull queue to be sharded afresh.
+    if (numPublishLocks != Registry.get(tld).getNumDnsPublishLocks()) {
+      logger.warningfmt(
+          "%s: number of publish locks changed from %d, requeueing batch", tld, numPublishLocks);
+      requeueBatch();
+      return;
+    }
+    String lockName = (numPublishLocks == 1)
+        ? String.format("DNS zone %s", tld)
+        : String.format("DNS zone %s lock %d of %d", tld, lockIndex, numPublishLocks);
+    // If executeWithReentrantLocks fails to get the lock, it does not throw an exception, simply
+    // returns false. We need to make sure to take note of this error; otherwise, a failed lock
+    // might result in the update task being dequeued and dropped. A message will already have been
+    // logged to indicate the problem. The lock is reentrant so that a publish running under a lock
+    // that this thread already holds reuses that lease rather than failing as contended.
+    if (!executeWithReentrantLocks(this, getClass(), tld, timeout, lockName)) {
       throw new ServiceUnavailableException("Lock failure");
     }
   }
@@ -72,6 +90,16 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
     return null;
   }
 
+  /** Adds all the domains and hosts in the batch back to the DNS pull queue. */
+  private void requeueBatch() {
+    for (String domain : nullToEmpty(domains)) {
+      dnsQueue.addDomainRefreshTask(domain);
+    }
+    for (String host : nullToEmpty(hosts)) {
+      dnsQueue.addHostRefreshTask(host);
+    }
+  }
+
   /** Steps through the domain and host refreshes contained in the parameters and processes them. */
   private void processBatch() {
     try (DnsWriter writer = dnsWriterProxy.getForTld(tld)) {
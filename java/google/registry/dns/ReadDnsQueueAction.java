@@ -17,15 +17,22 @@ package google.registry.dns;
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 import static com.google.common.collect.Sets.difference;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
+import static google.registry.dns.DnsConstants.DNS_TARGET_CREATE_TIME_PARAM;
 import static google.registry.dns.DnsConstants.DNS_TARGET_NAME_PARAM;
 import static google.registry.dns.DnsConstants.DNS_TARGET_TYPE_PARAM;
+import static google.registry.dns.PublishDnsUpdatesAction.PARAM_LOCK_INDEX;
+import static google.registry.dns.PublishDnsUpdatesAction.PARAM_NUM_PUBLISH_LOCKS;
 import static google.registry.model.registry.Registries.getTlds;
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
@@ -34,28 +41,39 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.Hashing;
+import com.google.common.net.InternetDomainName;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.DnsConstants.TargetType;
 import google.registry.model.registry.Registry;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
+import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.TaskEnqueuer;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /**
  * Action for fanning out DNS refresh tasks by TLD, using data taken from the DNS pull queue.
  *
+ * <p>Tasks are leased repeatedly until the queue is empty or the configured running time has been
+ * used up. The refresh items for each TLD are sharded among the TLD's {@link
+ * Registry#getNumDnsPublishLocks publish locks} and split into batches, each of which becomes a
+ * {@link PublishDnsUpdatesAction} task.
+ *
  * <h3>Parameters Reference</h3>
  *
  * <ul>
@@ -75,11 +93,14 @@ public final class ReadDnsQueueAction implements Runnable {
 
   @Inject @Config("dnsTldUpdateBatchSize") int tldUpdateBatchSize;
   @Inject @Config("dnsWriteLockTimeout") Duration writeLockTimeout;
+  @Inject @Config("readDnsQueueActionRuntime") Duration requestedMaximumDuration;
   @Inject @Named(DNS_PUBLISH_PUSH_QUEUE_NAME) Queue dnsPublishPushQueue;
   @Inject @Parameter(JITTER_SECONDS_PARAM) Optional<Integer> jitterSeconds;
   @Inject @Parameter(KEEP_TASKS_PARAM) boolean keepTasks;
   @Inject DnsQueue dnsQueue;
+  @Inject DnsMetrics dnsMetrics;
   @Inject TaskEnqueuer taskEnqueuer;
+  @Inject Clock clock;
   @Inject ReadDnsQueueAction() {}
 
   /** Container for items we pull out of the DNS pull queue and process for fanout. */
@@ -102,16 +123,17 @@ public final class ReadDnsQueueAction implements Runnable {
     }
   }
 
-  /** Leases all tasks from the pull queue and creates per-tld update actions for them. */
+  /**
+   * Leases all tasks from the pull queue (or as many as can be leased in the allotted time) and
+   * creates per-tld update actions for them.
+   */
   @Override
   public void run() {
+    DateTime requestedEndTime = clock.nowUtc().plus(requestedMaximumDuration);
     Set<String> tldsOfInterest = getTlds();
 
-    List<TaskHandle> tasks = dnsQueue.leaseTasks(writeLockTimeout);
-    if (tasks.isEmpty()) {
-      return;
-    }
-    logger.infofmt("leased %d tasks", tasks.size());
+    // All leased tasks, which must be deleted or have their leases dropped once we are done.
+    List<TaskHandle> tasks = new ArrayList<>();
     // Normally, all tasks will be deleted from the pull queue. But some might have to remain if
     // we are not interested in the associated TLD, or if the TLD is paused. Remember which these
     // are.
@@ -121,59 +143,93 @@ public final class ReadDnsQueueAction implements Runnable {
     // Create a sorted multimap into which we will insert the refresh items, so that the items for
     // each TLD will be grouped together, and domains and hosts will be grouped within a TLD. The
     // grouping and ordering of domains and hosts is not technically necessary, but a predictable
-    // ordering makes it possible to write detailed tests.
+    // ordering makes it possible to write detailed tests. Since this is a set multimap, repeated
+    // refresh requests for the same name (in the same or different leases) are collapsed into one.
     SortedSetMultimap<String, RefreshItem> refreshItemMultimap = TreeMultimap.create();
-    // Read all tasks on the DNS pull queue and load them into the refresh item multimap.
-    for (TaskHandle task : tasks) {
-      try {
-        Map<String, String> params = ImmutableMap.copyOf(task.extractParams());
-        String tld = params.get(RequestParameters.PARAM_TLD);
-        if (tld == null) {
-          logger.severe("discarding invalid DNS refresh request; no TLD specified");
-        } else if (!tldsOfInterest.contains(tld)) {
-          tasksToKeep.add(task);
-        } else if (Registry.get(tld).getDnsPaused()) {
-          tasksToKeep.add(task);
-          pausedTlds.add(tld);
-        } else {
-          String typeString = params.get(DNS_TARGET_TYPE_PARAM);
-          String name = params.get(DNS_TARGET_NAME_PARAM);
-          TargetType type = TargetType.valueOf(typeString);
-          switch (type) {
-            case DOMAIN:
-            case HOST:
-              refreshItemMultimap.put(tld, RefreshItem.create(type, name));
-              break;
-            default:
-              logger.severefmt("discarding DNS refresh request of type %s", typeString);
-              break;
+    // Keep leasing until the queue has been drained or we run out of time. The publish tasks are
+    // only enqueued once all leasing is done, so they will see the results of every mutation that
+    // led to one of the refresh requests they cover.
+    while (clock.nowUtc().isBefore(requestedEndTime)) {
+      List<TaskHandle> leasedTasks = dnsQueue.leaseTasks(writeLockTimeout);
+      if (leasedTasks.isEmpty()) {
+        break;
+      }
+      logger.infofmt("leased %d tasks", leasedTasks.size());
+      tasks.addAll(leasedTasks);
+      DateTime now = clock.nowUtc();
+      // Read the leased tasks and load them into the refresh item multimap.
+      for (TaskHandle task : leasedTasks) {
+        try {
+          Map<String, String> params = ImmutableMap.copyOf(task.extractParams());
+          String tld = params.get(RequestParameters.PARAM_TLD);
+          if (tld == null) {
+            logger.severe("discarding invalid DNS refresh request; no TLD specified");
+          } else if (!tldsOfInterest.contains(tld)) {
+            tasksToKeep.add(task);
+          } else if (Registry.get(tld).getDnsPaused()) {
+            tasksToKeep.add(task);
+            pausedTlds.add(tld);
+          } else {
+            recordQueueLag(tld, params.get(DNS_TARGET_CREATE_TIME_PARAM), now);
+            String typeString = params.get(DNS_TARGET_TYPE_PARAM);
+            String name = params.get(DNS_TARGET_NAME_PARAM);
+            TargetType type = TargetType.valueOf(typeString);
+            switch (type) {
+              case DOMAIN:
+              case HOST:
+                refreshItemMultimap.put(tld, RefreshItem.create(type, name));
+                break;
+              default:
+                logger.severefmt("discarding DNS refresh request of type %s", typeString);
+                break;
+            }
           }
+        } catch (RuntimeException | UnsupportedEncodingException e) {
+          logger.severefmt(e, "discarding invalid DNS refresh request (task %s)", task);
         }
-      } catch (RuntimeException | UnsupportedEncodingException e) {
-        logger.severefmt(e, "discarding invalid DNS refresh request (task %s)", task);
       }
     }
+    if (tasks.isEmpty()) {
+      return;
+    }
+    logger.infofmt(
+        "leased %d tasks in total, refreshing %d distinct names",
+        tasks.size(),
+        refreshItemMultimap.size());
     if (!pausedTlds.isEmpty()) {
       logger.infofmt("the dns-pull queue is paused for tlds: %s", pausedTlds);
     }
     // Loop through the multimap by TLD and generate refresh tasks for the hosts and domains.
     for (Map.Entry<String, Collection<RefreshItem>> tldRefreshItemsEntry
         : refreshItemMultimap.asMap().entrySet()) {
-      for (List<RefreshItem> chunk : Iterables.partition(
-          tldRefreshItemsEntry.getValue(), tldUpdateBatchSize)) {
-        TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
-            .countdownMillis(jitterSeconds.isPresent()
-                ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
-                : 0)
-            .param(RequestParameters.PARAM_TLD, tldRefreshItemsEntry.getKey());
-        for (RefreshItem refreshItem : chunk) {
-          options.param(
-              (refreshItem.type() == TargetType.HOST)
-                  ? PublishDnsUpdatesAction.HOSTS_PARAM
-                  : PublishDnsUpdatesAction.DOMAINS_PARAM,
-              refreshItem.name());
+      String tld = tldRefreshItemsEntry.getKey();
+      // Shard the TLD's refresh items among its publish locks, so that the batches for different
+      // locks can be published in parallel.
+      int numPublishLocks = Registry.get(tld).getNumDnsPublishLocks();
+      SortedSetMultimap<Integer, RefreshItem> refreshItemsByLock = TreeMultimap.create();
+      for (RefreshItem refreshItem : tldRefreshItemsEntry.getValue()) {
+        refreshItemsByLock.put(getLockIndex(tld, numPublishLocks, refreshItem), refreshItem);
+      }
+      for (Map.Entry<Integer, Collection<RefreshItem>> lockRefreshItemsEntry
+          : refreshItemsByLock.asMap().entrySet()) {
+        for (List<RefreshItem> chunk : Iterables.partition(
+            lockRefreshItemsEntry.getValue(), tldUpdateBatchSize)) {
+          TaskOptions options = withUrl(PublishDnsUpdatesAction.PATH)
+              .countdownMillis(jitterSeconds.isPresent()
+                  ? random.nextInt((int) SECONDS.toMillis(jitterSeconds.get()))
+                  : 0)
+              .param(RequestParameters.PARAM_TLD, tld)
+              .param(PARAM_LOCK_INDEX, Integer.toString(lockRefreshItemsEntry.getKey()))
+              .param(PARAM_NUM_PUBLISH_LOCKS, Integer.toString(numPublishLocks));
+          for (RefreshItem refreshItem : chunk) {
+            options.param(
+                (refreshItem.type() == TargetType.HOST)
+                    ? PublishDnsUpdatesAction.HOSTS_PARAM
+                    : PublishDnsUpdatesAction.DOMAINS_PARAM,
+                refreshItem.name());
+          }
+          taskEnqueuer.enqueue(dnsPublishPushQueue, options);
         }
-        taskEnqueuer.enqueue(dnsPublishPushQueue, options);
       }
     }
     Set<TaskHandle> tasksToDelete = difference(ImmutableSet.copyOf(tasks), tasksToKeep);
@@ -194,4 +250,36 @@ public final class ReadDnsQueueAction implements Runnable {
       logger.infofmt("done");
     }
   }
+
+  /** Records the time a refresh request spent in the queue, if it recorded its creation time. */
+  private void recordQueueLag(String tld, @Nullable String createTime, DateTime now) {
+    if (createTime == null) {
+      return;
+    }
+    try {
+      dnsMetrics.recordQueueLag(tld, new Duration(DateTime.parse(createTime), now));
+    } catch (IllegalArgumentException e) {
+      logger.warningfmt(e, "unparseable DNS refresh request creation time %s", createTime);
+    }
+  }
+
+  /**
+   * Returns the (one-based) index of the publish lock responsible for a refresh item.
+   *
+   * <p>A host is always assigned the same lock as the domain it is subordinate to, since the DNS
+   * writers publish glue records along with the domain's delegation. Consistent hashing keeps
+   * most names on the same lock when the number of locks changes.
+   */
+  @VisibleForTesting
+  static int getLockIndex(String tld, int numPublishLocks, RefreshItem refreshItem) {
+    if (numPublishLocks == 1) {
+      return 1;
+    }
+    List<String> parts = InternetDomainName.from(refreshItem.name()).parts();
+    int numDomainParts = InternetDomainName.from(tld).parts().size() + 1;
+    String domainName =
+        Joiner.on('.').join(parts.subList(max(0, parts.size() - numDomainParts), parts.size()));
+    return Hashing.consistentHash(
+        Hashing.murmur3_32().hashString(domainName, UTF_8), numPublishLocks) + 1;
+  }
 }
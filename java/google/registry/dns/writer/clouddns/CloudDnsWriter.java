@@ -15,7 +15,11 @@
 package google.registry.dns.writer.clouddns;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.math.IntMath.divide;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.math.RoundingMode.CEILING;
 
 import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
@@ -23,14 +27,17 @@ import com.google.api.services.dns.Dns;
 import com.google.api.services.dns.model.Change;
 import com.google.api.services.dns.model.ResourceRecordSet;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
@@ -39,6 +46,7 @@ import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
 import google.registry.model.registry.Registries;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.IOException;
@@ -46,7 +54,9 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
@@ -79,6 +89,8 @@ public class CloudDnsWriter implements DnsWriter {
   private final String projectId;
   private final String zoneName;
   private final Dns dnsConnection;
+  private final int numThreads;
+  private final int maxNamesPerChange;
   private final ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>
       desiredRecordsBuilder = new ImmutableMap.Builder<>();
 
@@ -89,6 +101,8 @@ public class CloudDnsWriter implements DnsWriter {
       @DnsWriterZone String zoneName,
       @Config("dnsDefaultTtl") Duration defaultTtl,
       @Named("cloudDns") RateLimiter rateLimiter,
+      @Named("cloudDnsNumThreads") int numThreads,
+      @Named("cloudDnsMaxNamesPerChange") int maxNamesPerChange,
       Clock clock,
       Retrier retrier) {
     this.dnsConnection = dnsConnection;
@@ -96,6 +110,8 @@ public class CloudDnsWriter implements DnsWriter {
     this.zoneName = zoneName;
     this.defaultTtl = defaultTtl;
     this.rateLimiter = rateLimiter;
+    this.numThreads = numThreads;
+    this.maxNamesPerChange = maxNamesPerChange;
     this.clock = clock;
     this.retrier = retrier;
   }
@@ -262,6 +278,10 @@ public class CloudDnsWriter implements DnsWriter {
    * <p>The relevant resource records (including those of all subordinate hosts) will be retrieved
    * and the operation will be retried until the state of the retrieved zone data matches the
    * representation built via this writer.
+   *
+   * <p>The names are split into change sets of bounded size which are fetched and submitted
+   * concurrently, sharing the Cloud DNS rate limiter. A change set that fails because the zone
+   * changed underneath it is retried on its own, re-fetching only the records for its names.
    */
   @Override
   public void close() {
@@ -270,10 +290,80 @@ public class CloudDnsWriter implements DnsWriter {
 
   @VisibleForTesting
   void close(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
-    retrier.callWithRetry(getMutateZoneCallback(desiredRecords), ZoneStateException.class);
+    ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changeSets =
+        partitionIntoChangeSets(desiredRecords);
+    logger.infofmt(
+        "Writing %d names to Cloud DNS in %d change sets",
+        desiredRecords.size(),
+        changeSets.size());
+    try {
+      // Each change set is fetched, submitted and (on a zone state conflict) retried
+      // independently, so a conflict on one name only redoes the work for its own change set.
+      Concurrent.transform(
+          changeSets,
+          max(1, min(changeSets.size(), numThreads)),
+          new Function<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>, Void>() {
+            @Override
+            public Void apply(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> changeSet) {
+              return retrier.callWithRetry(
+                  getMutateZoneCallback(changeSet), ZoneStateException.class);
+            }});
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
     logger.info("Wrote to Cloud DNS");
   }
 
+  /**
+   * Splits {@code desiredRecords} into change sets that can be applied to the zone independently.
+   *
+   * <p>A domain and any of its subordinate hosts are always kept in the same change set, since
+   * updating a domain also replaces the glue records of its in-bailiwick nameservers. Change sets
+   * are otherwise sized so that the work is spread over all available threads, but never exceed
+   * {@code maxNamesPerChange} names unless a single domain and its hosts are larger than that.
+   */
+  @VisibleForTesting
+  ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> partitionIntoChangeSets(
+      ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+    // Group each name under the outermost name in the batch that it is a subdomain of.
+    Map<String, ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>> groups =
+        new LinkedHashMap<>();
+    for (Map.Entry<String, ImmutableSet<ResourceRecordSet>> entry : desiredRecords.entrySet()) {
+      String name = entry.getKey();
+      String groupName = name;
+      for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf('.', dot + 1)) {
+        if (desiredRecords.containsKey(name.substring(dot + 1))) {
+          groupName = name.substring(dot + 1);
+        }
+      }
+      if (!groups.containsKey(groupName)) {
+        groups.put(groupName, new ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>());
+      }
+      groups.get(groupName).put(entry);
+    }
+    int namesPerChangeSet =
+        max(1, min(maxNamesPerChange, divide(desiredRecords.size(), numThreads, CEILING)));
+    ImmutableList.Builder<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> changeSets =
+        new ImmutableList.Builder<>();
+    ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>> changeSet =
+        new ImmutableMap.Builder<>();
+    int changeSetSize = 0;
+    for (ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>> group : groups.values()) {
+      ImmutableMap<String, ImmutableSet<ResourceRecordSet>> groupRecords = group.build();
+      if (changeSetSize > 0 && changeSetSize + groupRecords.size() > namesPerChangeSet) {
+        changeSets.add(changeSet.build());
+        changeSet = new ImmutableMap.Builder<>();
+        changeSetSize = 0;
+      }
+      changeSet.putAll(groupRecords);
+      changeSetSize += groupRecords.size();
+    }
+    if (changeSetSize > 0) {
+      changeSets.add(changeSet.build());
+    }
+    return changeSets.build();
+  }
+
   /**
    * Get a callback to mutate the zone with the provided {@code desiredRecords}.
    */
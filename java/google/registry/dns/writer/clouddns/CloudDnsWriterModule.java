@@ -68,4 +68,20 @@ public final class CloudDnsWriterModule {
     int cloudDnsMaxQps = 20;
     return RateLimiter.create(cloudDnsMaxQps);
   }
+
+  @Provides
+  @Named("cloudDnsNumThreads")
+  static int provideNumThreads() {
+    // Fetches and changes are throttled by the rate limiter above, so there is no point in using
+    // more threads than are needed to keep it saturated.
+    return 10;
+  }
+
+  @Provides
+  @Named("cloudDnsMaxNamesPerChange")
+  static int provideMaxNamesPerChange() {
+    // Cloud DNS limits the number of record sets that a single change can add or delete. Each name
+    // has at most a handful of record sets, so this stays well within those limits.
+    return 100;
+  }
 }
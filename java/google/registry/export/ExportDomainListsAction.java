@@ -15,8 +15,10 @@
 package google.registry.export;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.isActive;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.PipelineUtils.createJobPath;
@@ -28,21 +30,41 @@ import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.Closer;
+import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsExternalSorter;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.request.Action;
+import google.registry.request.Parameter;
 import google.registry.request.Response;
+import google.registry.util.Concurrent;
 import google.registry.util.FormattingLogger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -51,6 +73,13 @@ import org.joda.time.DateTime;
  *
  * Each TLD's active domain names are exported as a newline-delimited flat text file with the name
  * TLD.txt into the domain-lists bucket.  Note that this overwrites the files in place.
+ *
+ * <p>If the {@code streaming} parameter is set, the lists are instead exported synchronously, one
+ * TLD at a time, by querying the {@code tld} index rather than mapping over every domain in the
+ * registry. Each TLD's names are sorted and written gzipped to TLD.txt.gz, along with a gzipped
+ * delta against the previous TLD.txt.gz in TLD.delta.txt.gz, which has a line {@code +name} for
+ * each added name and {@code -name} for each removed one. Consumers that only need the changes
+ * can therefore read an amount of data proportional to the churn, not to the size of the TLD.
  */
 @Action(path = "/_dr/task/exportDomainLists", method = POST)
 public class ExportDomainListsAction implements Runnable {
@@ -58,16 +87,39 @@ public class ExportDomainListsAction implements Runnable {
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
   private static final int MAX_NUM_REDUCE_SHARDS = 100;
 
+  public static final String PARAM_STREAMING = "streaming";
+
+  /** Number of domains loaded by each thread at a time when streaming. */
+  private static final int STREAMING_BATCH_SIZE = 100;
+
+  /** Number of batches of domains that are loaded in parallel when streaming. */
+  private static final int STREAMING_PARALLEL_BATCHES = 10;
+
   @Inject MapreduceRunner mrRunner;
   @Inject Response response;
+  @Inject GcsUtils gcsUtils;
   @Inject @Config("domainListsGcsBucket") String gcsBucket;
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
+  @Inject @Parameter(PARAM_STREAMING) boolean streaming;
+
+  /** Number of names buffered in memory before a sorted run is written to GCS when streaming. */
+  @VisibleForTesting int maxNamesInMemory = 500000;
+
   @Inject ExportDomainListsAction() {}
 
   @Override
   public void run() {
     ImmutableSet<String> realTlds = getTldsOfType(TldType.REAL);
     logger.infofmt("Exporting domain lists for tlds %s", realTlds);
+    if (streaming) {
+      DateTime exportTime = DateTime.now(UTC);
+      for (String tld : realTlds) {
+        exportSortedDomainList(tld, exportTime);
+      }
+      response.setContentType(PLAIN_TEXT_UTF_8);
+      response.setPayload(String.format("Exported domain lists for %d TLDs.", realTlds.size()));
+      return;
+    }
     response.sendJavaScriptRedirect(createJobPath(mrRunner
         .setJobName("Export domain lists")
         .setModuleName("backend")
@@ -78,6 +130,143 @@ public class ExportDomainListsAction implements Runnable {
             ImmutableList.of(createEntityInput(DomainResource.class)))));
   }
 
+  /**
+   * Exports the sorted list of active domains on a TLD, and its delta against the previous export.
+   *
+   * <p>The names are sorted with an external merge sort that spills to GCS, so memory use doesn't
+   * grow with the size of the TLD. The sorted names are then merged against the previous sorted
+   * export in a single pass, which produces the new export and the delta together.
+   */
+  private void exportSortedDomainList(String tld, final DateTime exportTime) {
+    GcsFilename listFile = new GcsFilename(gcsBucket, tld + ".txt.gz");
+    GcsFilename deltaFile = new GcsFilename(gcsBucket, tld + ".delta.txt.gz");
+    try (GcsExternalSorter sorter =
+        new GcsExternalSorter(gcsUtils, gcsBucket, "tmp/" + tld + ".txt", maxNamesInMemory)) {
+      Iterable<Key<DomainResource>> domainKeys =
+          ofy().load().type(DomainResource.class).filter("tld", tld).keys();
+      for (List<Key<DomainResource>> keys :
+          Iterables.partition(domainKeys, STREAMING_BATCH_SIZE * STREAMING_PARALLEL_BATCHES)) {
+        List<ImmutableList<String>> nameBatches = Concurrent.transform(
+            Lists.partition(keys, STREAMING_BATCH_SIZE),
+            new Function<List<Key<DomainResource>>, ImmutableList<String>>() {
+              @Override
+              public ImmutableList<String> apply(List<Key<DomainResource>> batch) {
+                return loadActiveDomainNames(batch, exportTime);
+              }});
+        for (ImmutableList<String> names : nameBatches) {
+          sorter.addAll(names);
+        }
+      }
+      try (Closer closer = Closer.create()) {
+        Iterator<String> previousNames = gcsUtils.existsAndNotEmpty(listFile)
+            ? readLines(closer.register(openGzippedReader(listFile)))
+            : Collections.<String>emptyIterator();
+        // GCS files only appear once they are closed, so the writers are deliberately not closed
+        // if anything fails. That way a failed export leaves the previous list intact for the next
+        // delta. The previous list is also read to the end before the new one replaces it. The new
+        // list is published before the new delta, so that a delta is never visible without the
+        // list it leads to.
+        Writer listWriter = openGzippedWriter(listFile);
+        Writer deltaFileWriter = openGzippedWriter(deltaFile);
+        DeltaWriter deltaWriter = new DeltaWriter(previousNames, listWriter, deltaFileWriter);
+        long count = sorter.forEachSorted(deltaWriter);
+        deltaWriter.finish();
+        listWriter.close();
+        deltaFileWriter.close();
+        logger.infofmt(
+            "Wrote out %d domains for tld %s: %d added and %d removed since the previous export.",
+            count, tld, deltaWriter.added, deltaWriter.removed);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Returns the names of those of a batch of domains that are active at {@code exportTime}. */
+  private static ImmutableList<String> loadActiveDomainNames(
+      List<Key<DomainResource>> domainKeys, DateTime exportTime) {
+    ImmutableList.Builder<String> names = new ImmutableList.Builder<>();
+    for (DomainResource domain : ofy().load().keys(domainKeys).values()) {
+      if (isActive(domain, exportTime)) {
+        names.add(domain.getFullyQualifiedDomainName());
+      }
+    }
+    return names.build();
+  }
+
+  private BufferedReader openGzippedReader(GcsFilename filename) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(new GZIPInputStream(gcsUtils.openInputStream(filename)), UTF_8));
+  }
+
+  private Writer openGzippedWriter(GcsFilename filename) throws IOException {
+    return new BufferedWriter(
+        new OutputStreamWriter(new GZIPOutputStream(gcsUtils.openOutputStream(filename)), UTF_8));
+  }
+
+  private static Iterator<String> readLines(final BufferedReader reader) {
+    return new AbstractIterator<String>() {
+      @Override
+      protected String computeNext() {
+        try {
+          String line = reader.readLine();
+          return (line == null) ? endOfData() : line;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }};
+  }
+
+  /**
+   * Writes each name of a new sorted list, and merges it against the previous sorted list to write
+   * out the names that were added and removed.
+   */
+  private static final class DeltaWriter implements GcsExternalSorter.LineConsumer {
+
+    private final PeekingIterator<String> previousNames;
+    private final Writer listWriter;
+    private final Writer deltaWriter;
+    long added;
+    long removed;
+
+    DeltaWriter(Iterator<String> previousNames, Writer listWriter, Writer deltaWriter) {
+      this.previousNames = Iterators.peekingIterator(previousNames);
+      this.listWriter = listWriter;
+      this.deltaWriter = deltaWriter;
+    }
+
+    @Override
+    public void accept(String name) throws IOException {
+      while (previousNames.hasNext() && previousNames.peek().compareTo(name) < 0) {
+        writeRemoved(previousNames.next());
+      }
+      if (previousNames.hasNext() && previousNames.peek().equals(name)) {
+        previousNames.next();
+      } else {
+        deltaWriter.write('+');
+        deltaWriter.write(name);
+        deltaWriter.write('\n');
+        added++;
+      }
+      listWriter.write(name);
+      listWriter.write('\n');
+    }
+
+    /** Writes out the previous names that sort after all of the new ones, as removed. */
+    void finish() throws IOException {
+      while (previousNames.hasNext()) {
+        writeRemoved(previousNames.next());
+      }
+    }
+
+    private void writeRemoved(String name) throws IOException {
+      deltaWriter.write('-');
+      deltaWriter.write(name);
+      deltaWriter.write('\n');
+      removed++;
+    }
+  }
+
   static class ExportDomainListsMapper extends Mapper<DomainResource, String, String> {
 
     private static final long serialVersionUID = -7312206212434039854L;
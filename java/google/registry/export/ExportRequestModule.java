@@ -23,6 +23,7 @@ import static google.registry.export.LoadSnapshotAction.LOAD_SNAPSHOT_KINDS_PARA
 import static google.registry.export.UpdateSnapshotViewAction.UPDATE_SNAPSHOT_DATASET_ID_PARAM;
 import static google.registry.export.UpdateSnapshotViewAction.UPDATE_SNAPSHOT_KIND_PARAM;
 import static google.registry.export.UpdateSnapshotViewAction.UPDATE_SNAPSHOT_TABLE_ID_PARAM;
+import static google.registry.request.RequestParameters.extractBooleanParameter;
 import static google.registry.request.RequestParameters.extractRequiredHeader;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 
@@ -72,6 +73,12 @@ public final class ExportRequestModule {
     return extractRequiredParameter(req, LOAD_SNAPSHOT_KINDS_PARAM);
   }
 
+  @Provides
+  @Parameter(ExportDomainListsAction.PARAM_STREAMING)
+  static boolean provideStreaming(HttpServletRequest req) {
+    return extractBooleanParameter(req, ExportDomainListsAction.PARAM_STREAMING);
+  }
+
   @Provides
   @Header(CHAINED_TASK_QUEUE_HEADER)
   static String provideChainedTaskQueue(HttpServletRequest req) {
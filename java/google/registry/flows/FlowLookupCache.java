@@ -0,0 +1,118 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.registrar.Registrar;
+import google.registry.model.registry.Registry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Read-through cache of the {@link Registry}, {@link Registrar} and {@link ForeignKeyIndex}
+ * lookups made while running a single flow.
+ *
+ * <p>One instance is provided per flow by {@link FlowModule}, so a flow and the helpers it calls
+ * can look up the same TLD, registrar or foreign key as many times as they need and pay for it
+ * once. All of these lookups are already made outside of the flow's transaction, so the cached
+ * values are kept across transaction retries, and soft deleted foreign key indexes are cached
+ * as-is, so that callers can still check them against their own time.
+ *
+ * <p>The cache also counts how many loads it has made from datastore, which is reported with the
+ * flow's {@link google.registry.monitoring.whitebox.EppMetric}. Instances are not thread-safe.
+ */
+public class FlowLookupCache implements ForeignKeyIndex.BatchLoader {
+
+  private final Map<String, Registry> registries = new HashMap<>();
+  private final Map<String, Optional<Registrar>> registrars = new HashMap<>();
+  private final Map<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>> foreignKeyIndexes =
+      new HashMap<>();
+  private final ForeignKeyIndex.BatchLoader foreignKeyIndexLoader;
+  private int datastoreLoads;
+
+  FlowLookupCache() {
+    this(ForeignKeyIndex.TRANSACTIONLESS_BATCH_LOADER);
+  }
+
+  FlowLookupCache(ForeignKeyIndex.BatchLoader foreignKeyIndexLoader) {
+    this.foreignKeyIndexLoader = foreignKeyIndexLoader;
+  }
+
+  /**
+   * Returns the {@link Registry} for a TLD.
+   *
+   * @throws RegistryNotFoundException if there is no such TLD, as {@link Registry#get} does
+   */
+  public Registry getRegistry(String tld) {
+    Registry registry = registries.get(tld);
+    if (registry == null) {
+      registry = Registry.get(tld);
+      registries.put(tld, registry);
+    }
+    return registry;
+  }
+
+  /** Returns the {@link Registrar} with this client id, or null if there isn't one. */
+  @Nullable
+  public Registrar getRegistrar(String clientId) {
+    Optional<Registrar> registrar = registrars.get(clientId);
+    if (registrar == null) {
+      registrar = Optional.fromNullable(Registrar.loadByClientId(clientId));
+      registrars.put(clientId, registrar);
+      datastoreLoads++;
+    }
+    return registrar.orNull();
+  }
+
+  /**
+   * Returns the requested foreign key indexes that exist, loading any that haven't been looked up
+   * by this flow yet in a single batch.
+   */
+  @Override
+  public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> load(
+      Set<Key<ForeignKeyIndex<?>>> keys) {
+    Set<Key<ForeignKeyIndex<?>>> keysToLoad =
+        ImmutableSet.copyOf(Sets.difference(keys, foreignKeyIndexes.keySet()));
+    if (!keysToLoad.isEmpty()) {
+      Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> loaded =
+          foreignKeyIndexLoader.load(keysToLoad);
+      for (Key<ForeignKeyIndex<?>> key : keysToLoad) {
+        foreignKeyIndexes.put(key, Optional.<ForeignKeyIndex<?>>fromNullable(loaded.get(key)));
+      }
+      datastoreLoads++;
+    }
+    ImmutableMap.Builder<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> result =
+        new ImmutableMap.Builder<>();
+    for (Key<ForeignKeyIndex<?>> key : keys) {
+      Optional<ForeignKeyIndex<?>> foreignKeyIndex = foreignKeyIndexes.get(key);
+      if (foreignKeyIndex.isPresent()) {
+        result.put(key, foreignKeyIndex.get());
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the number of loads from datastore this cache has made. */
+  public int getDatastoreLoads() {
+    return datastoreLoads;
+  }
+}
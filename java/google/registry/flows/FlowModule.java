@@ -152,6 +152,18 @@ public class FlowModule {
     return credentials;
   }
 
+  /**
+   * Provides the cache of datastore lookups made while running the flow.
+   *
+   * <p>This is marked with {@link FlowScope} so that all of the flow's helpers share it, and so
+   * that it survives transaction retries; it only holds data that is loaded transactionlessly.
+   */
+  @Provides
+  @FlowScope
+  static FlowLookupCache provideFlowLookupCache() {
+    return new FlowLookupCache();
+  }
+
   @Provides
   @FlowScope
   @ClientId
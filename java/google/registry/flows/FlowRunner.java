@@ -60,6 +60,7 @@ public class FlowRunner {
   @Inject @DryRun boolean isDryRun;
   @Inject @Superuser boolean isSuperuser;
   @Inject @Transactional boolean isTransactional;
+  @Inject FlowLookupCache lookupCache;
   @Inject EppMetric.Builder metric;
   @Inject SessionMetadata sessionMetadata;
   @Inject Trid trid;
@@ -92,6 +93,14 @@ public class FlowRunner {
             "clientId", clientId,
             "xml", prettyXml,
             "xmlBytes", xmlBase64)));
+    try {
+      return runFlow();
+    } finally {
+      metric.setDatastoreLoads(lookupCache.getDatastoreLoads());
+    }
+  }
+
+  private EppOutput runFlow() throws EppException {
     if (!isTransactional) {
       metric.incrementAttempts();
       return EppOutput.create(flowProvider.get().run());
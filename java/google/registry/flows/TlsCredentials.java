@@ -21,7 +21,6 @@ import static google.registry.request.RequestParameters.extractRequiredHeader;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import com.google.common.net.InetAddresses;
 import dagger.Module;
@@ -29,7 +28,7 @@ import dagger.Provides;
 import google.registry.flows.EppException.AuthenticationErrorException;
 import google.registry.model.registrar.Registrar;
 import google.registry.request.Header;
-import google.registry.util.CidrAddressBlock;
+import google.registry.util.CidrAddressBlockSet;
 import google.registry.util.FormattingLogger;
 import java.net.InetAddress;
 import javax.inject.Inject;
@@ -100,20 +99,17 @@ public class TlsCredentials implements TransportCredentials {
    * @throws BadRegistrarIpAddressException If IP address is not in the whitelist provided
    */
   private void validateIp(Registrar registrar) throws AuthenticationErrorException {
-    ImmutableList<CidrAddressBlock> ipWhitelist = registrar.getIpAddressWhitelist();
+    CidrAddressBlockSet ipWhitelist = registrar.getCompiledIpAddressWhitelist();
     if (ipWhitelist.isEmpty()) {
       logger.infofmt("Skipping IP whitelist check because %s doesn't have an IP whitelist",
           registrar.getClientId());
       return;
     }
-    for (CidrAddressBlock cidrAddressBlock : ipWhitelist) {
-      if (cidrAddressBlock.contains(clientInetAddr)) {
-        // IP address is in whitelist; return early.
-        return;
-      }
+    if (ipWhitelist.contains(clientInetAddr)) {
+      return;
     }
-    logger.infofmt("%s not in %s's CIDR whitelist: %s",
-        clientInetAddr, registrar.getClientId(), ipWhitelist);
+    logger.infofmt("%s not in %s's CIDR whitelist of %d blocks",
+        clientInetAddr, registrar.getClientId(), ipWhitelist.getBlocks().size());
     throw new BadRegistrarIpAddressException();
   }
 
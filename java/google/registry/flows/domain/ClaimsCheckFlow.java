@@ -31,6 +31,7 @@ import google.registry.flows.EppException;
 import google.registry.flows.EppException.CommandUseErrorException;
 import google.registry.flows.ExtensionManager;
 import google.registry.flows.Flow;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.model.domain.DomainCommand.Check;
@@ -65,6 +66,7 @@ public final class ClaimsCheckFlow implements Flow {
   @Inject ExtensionManager extensionManager;
   @Inject ResourceCommand resourceCommand;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @Superuser boolean isSuperuser;
   @Inject Clock clock;
   @Inject @Config("maxChecks") int maxChecks;
@@ -86,8 +88,8 @@ public final class ClaimsCheckFlow implements Flow {
       String tld = domainName.parent().toString();
       // Only validate access to a TLD the first time it is encountered.
       if (seenTlds.add(tld)) {
-        checkAllowedAccessToTld(clientId, tld);
-        Registry registry = Registry.get(tld);
+        checkAllowedAccessToTld(clientId, tld, lookupCache);
+        Registry registry = lookupCache.getRegistry(tld);
         if (!isSuperuser) {
           DateTime now = clock.nowUtc();
           verifyNotInPredelegation(registry, now);
@@ -47,6 +47,7 @@ import google.registry.flows.EppException.AuthorizationErrorException;
 import google.registry.flows.EppException.ObjectDoesNotExistException;
 import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -105,6 +106,7 @@ public class DomainAllocateFlow implements TransactionalFlow {
   @Inject AuthInfo authInfo;
   @Inject ResourceCommand resourceCommand;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -124,15 +126,15 @@ public class DomainAllocateFlow implements TransactionalFlow {
     validateClientIsLoggedIn(clientId);
     verifyIsSuperuser();
     DateTime now = ofy().getTransactionTime();
-    Create command = cloneAndLinkReferences((Create) resourceCommand, now);
+    Create command = cloneAndLinkReferences((Create) resourceCommand, now, lookupCache);
     failfastForCreate(targetId, now);
     verifyResourceDoesNotExist(DomainResource.class, targetId, now);
     InternetDomainName domainName = validateDomainName(command.getFullyQualifiedDomainName());
-    Registry registry = Registry.get(domainName.parent().toString());
+    Registry registry = lookupCache.getRegistry(domainName.parent().toString());
     Period period = command.getPeriod();
     Integer years = period.getValue();
     verifyUnitIsYears(period);
-    validateCreateCommandContactsAndNameservers(command, registry.getTldStr());
+    validateCreateCommandContactsAndNameservers(command, registry);
     SecDnsCreateExtension secDnsCreate =
         validateSecDnsExtension(eppInput.getSingleExtension(SecDnsCreateExtension.class));
     boolean isSunrushAddGracePeriod = isNullOrEmpty(command.getNameservers());
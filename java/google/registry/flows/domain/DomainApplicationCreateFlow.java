@@ -53,6 +53,7 @@ import google.registry.flows.EppException.CommandUseErrorException;
 import google.registry.flows.EppException.ObjectAlreadyExistsException;
 import google.registry.flows.EppException.RequiredParameterMissingException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -164,6 +165,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
   @Inject AuthInfo authInfo;
   @Inject ResourceCommand resourceCommand;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -185,7 +187,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
     extensionManager.validate();
     validateClientIsLoggedIn(clientId);
     DateTime now = ofy().getTransactionTime();
-    Create command = cloneAndLinkReferences((Create) resourceCommand, now);
+    Create command = cloneAndLinkReferences((Create) resourceCommand, now, lookupCache);
     failfastForCreate(targetId, now);
     // Fail if the domain is already registered (e.g. this is a landrush application but the domain
     // was awarded at the end of sunrise). However, multiple domain applications can be created for
@@ -195,15 +197,15 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
     InternetDomainName domainName = validateDomainName(targetId);
     String idnTableName = validateDomainNameWithIdnTables(domainName);
     String tld = domainName.parent().toString();
-    checkAllowedAccessToTld(clientId, tld);
-    Registry registry = Registry.get(tld);
+    checkAllowedAccessToTld(clientId, tld, lookupCache);
+    Registry registry = lookupCache.getRegistry(tld);
     FeesAndCredits feesAndCredits =
         pricingLogic.getCreatePrice(registry, targetId, now, command.getPeriod().getValue());
     // Superusers can create reserved domains, force creations on domains that require a claims
     // notice without specifying a claims key, and override blocks on registering premium domains.
     verifyUnitIsYears(command.getPeriod());
     int years = command.getPeriod().getValue();
-    validateCreateCommandContactsAndNameservers(command, tld);
+    validateCreateCommandContactsAndNameservers(command, registry);
     LaunchCreateExtension launchCreate = eppInput.getSingleExtension(LaunchCreateExtension.class);
     if (launchCreate != null) {
       validateLaunchCreateExtension(launchCreate, registry, domainName, now);
@@ -211,7 +213,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
     boolean isAnchorTenant =
         matchesAnchorTenantReservation(domainName, authInfo.getPw().getValue());
     if (!isSuperuser) {
-      verifyPremiumNameIsNotBlocked(targetId, now, clientId);
+      verifyPremiumNameIsNotBlocked(targetId, now, clientId, lookupCache);
       prohibitLandrushIfExactlyOneSunrise(registry, now);
       if (!isAnchorTenant) {
         boolean isSunriseApplication = !launchCreate.getSignedMarks().isEmpty();
@@ -31,6 +31,7 @@ import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ApplicationId;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
@@ -67,6 +68,7 @@ public final class DomainApplicationDeleteFlow implements TransactionalFlow {
   @Inject EppInput eppInput;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @ApplicationId String applicationId;
   @Inject @Superuser boolean isSuperuser;
@@ -85,9 +87,9 @@ public final class DomainApplicationDeleteFlow implements TransactionalFlow {
     verifyApplicationDomainMatchesTargetId(existingApplication, targetId);
     verifyOptionalAuthInfo(authInfo, existingApplication);
     String tld = existingApplication.getTld();
-    checkAllowedAccessToTld(clientId, tld);
+    checkAllowedAccessToTld(clientId, tld, lookupCache);
     if (!isSuperuser) {
-      Registry registry = Registry.get(tld);
+      Registry registry = lookupCache.getRegistry(tld);
       verifyRegistryStateAllowsLaunchFlows(registry, now);
       verifyLaunchPhaseMatchesRegistryPhase(
           registry, eppInput.getSingleExtension(LaunchDeleteExtension.class), now);
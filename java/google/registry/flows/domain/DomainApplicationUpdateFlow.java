@@ -49,6 +49,7 @@ import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ApplicationId;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
@@ -70,7 +71,6 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
-import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -129,6 +129,7 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
   @Inject EppInput eppInput;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @ApplicationId String applicationId;
   @Inject @Superuser boolean isSuperuser;
@@ -147,7 +148,7 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
     extensionManager.validate();
     validateClientIsLoggedIn(clientId);
     DateTime now = ofy().getTransactionTime();
-    Update command = cloneAndLinkReferences((Update) resourceCommand, now);
+    Update command = cloneAndLinkReferences((Update) resourceCommand, now, lookupCache);
     DomainApplication existingApplication = verifyExistence(
         DomainApplication.class, applicationId, loadDomainApplication(applicationId, now));
     verifyApplicationDomainMatchesTargetId(existingApplication, targetId);
@@ -171,14 +172,15 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
       verifyAllStatusesAreClientSettable(union(add.getStatusValues(), remove.getStatusValues()));
     }
     String tld = existingApplication.getTld();
-    checkAllowedAccessToTld(clientId, tld);
+    checkAllowedAccessToTld(clientId, tld, lookupCache);
     if (UPDATE_DISALLOWED_APPLICATION_STATUSES
         .contains(existingApplication.getApplicationStatus())) {
       throw new ApplicationStatusProhibitsUpdateException(
           existingApplication.getApplicationStatus());
     }
     FeesAndCredits feesAndCredits =
-        pricingLogic.getApplicationUpdatePrice(Registry.get(tld), existingApplication, now);
+        pricingLogic.getApplicationUpdatePrice(
+            lookupCache.getRegistry(tld), existingApplication, now);
     FeeUpdateCommandExtension feeUpdate =
         eppInput.getSingleExtension(FeeUpdateCommandExtension.class);
     // If the fee extension is present, validate it (even if the cost is zero, to check for price
@@ -196,9 +198,10 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
         add.getNameservers());
     validateContactsHaveTypes(add.getContacts());
     validateContactsHaveTypes(remove.getContacts());
-    validateRegistrantAllowedOnTld(tld, command.getInnerChange().getRegistrantContactId());
+    validateRegistrantAllowedOnTld(
+        lookupCache.getRegistry(tld), command.getInnerChange().getRegistrantContactId());
     validateNameserversAllowedOnTld(
-        tld, add.getNameserverFullyQualifiedHostNames());
+        lookupCache.getRegistry(tld), add.getNameserverFullyQualifiedHostNames());
   }
 
   private HistoryEntry buildHistory(DomainApplication existingApplication, DateTime now) {
@@ -240,7 +243,9 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
     validateNoDuplicateContacts(newApplication.getContacts());
     validateRequiredContactsPresent(newApplication.getRegistrant(), newApplication.getContacts());
     validateDsData(newApplication.getDsData());
-    validateNameserversCountForTld(newApplication.getTld(), newApplication.getNameservers().size());
+    validateNameserversCountForTld(
+        lookupCache.getRegistry(newApplication.getTld()),
+        newApplication.getNameservers().size());
   }
 
   /** Application status prohibits this domain update. */
@@ -17,18 +17,16 @@ package google.registry.flows.domain;
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyTargetIdCount;
 import static google.registry.flows.domain.DomainFlowUtils.checkAllowedAccessToTld;
-import static google.registry.flows.domain.DomainFlowUtils.getReservationType;
+import static google.registry.flows.domain.DomainFlowUtils.getReservationTypes;
 import static google.registry.flows.domain.DomainFlowUtils.handleFeeRequest;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainName;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainNameWithIdnTables;
 import static google.registry.flows.domain.DomainFlowUtils.verifyNotInPredelegation;
 import static google.registry.model.EppResourceUtils.checkResourcesExist;
-import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.model.registry.label.ReservationType.UNRESERVED;
 import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -39,6 +37,7 @@ import google.registry.flows.EppException;
 import google.registry.flows.EppException.ParameterValuePolicyErrorException;
 import google.registry.flows.ExtensionManager;
 import google.registry.flows.Flow;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.custom.DomainCheckFlowCustomLogic;
@@ -62,7 +61,9 @@ import google.registry.model.registry.Registry.TldState;
 import google.registry.model.registry.label.ReservationType;
 import google.registry.util.Clock;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -105,6 +106,7 @@ public final class DomainCheckFlow implements Flow {
   @Inject ExtensionManager extensionManager;
   @Inject EppInput eppInput;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @Config("maxChecks") int maxChecks;
   @Inject @Superuser boolean isSuperuser;
   @Inject Clock clock;
@@ -132,9 +134,9 @@ public final class DomainCheckFlow implements Flow {
       domains.put(targetId, domainName);
       String tld = domainName.parent().toString();
       if (seenTlds.add(tld)) {
-        checkAllowedAccessToTld(clientId, tld);
+        checkAllowedAccessToTld(clientId, tld, lookupCache);
         if (!isSuperuser) {
-          verifyNotInPredelegation(Registry.get(tld), now);
+          verifyNotInPredelegation(lookupCache.getRegistry(tld), now);
         }
       }
     }
@@ -146,9 +148,24 @@ public final class DomainCheckFlow implements Flow {
             .setAsOfDate(now)
             .build());
     Set<String> existingIds = checkResourcesExist(DomainResource.class, targetIds, now);
+    // Resolve the state of all of the names up front, so that a full check costs a fixed number of
+    // batch lookups rather than a few per name.
+    ImmutableMap<InternetDomainName, ReservationType> reservationTypes =
+        getReservationTypes(domainNames.values());
+    Set<String> pendingAllocationIds =
+        getIdsPendingAllocation(domainNames.values(), existingIds, now);
+    boolean hasFeeCheck = eppInput.getSingleExtension(FeeCheckCommandExtension.class) != null;
     ImmutableList.Builder<DomainCheck> checks = new ImmutableList.Builder<>();
     for (String targetId : targetIds) {
-      String message = getMessageForCheck(domainNames.get(targetId), existingIds, now);
+      InternetDomainName domainName = domainNames.get(targetId);
+      String message =
+          getMessageForCheck(
+              domainName,
+              existingIds,
+              pendingAllocationIds,
+              reservationTypes.get(domainName),
+              hasFeeCheck,
+              now);
       checks.add(DomainCheck.create(message == null, targetId, message));
     }
     BeforeResponseReturnData responseData =
@@ -165,30 +182,55 @@ public final class DomainCheckFlow implements Flow {
   }
 
   private String getMessageForCheck(
-      InternetDomainName domainName, Set<String> existingIds, DateTime now) {
+      InternetDomainName domainName,
+      Set<String> existingIds,
+      Set<String> pendingAllocationIds,
+      ReservationType reservationType,
+      boolean hasFeeCheck,
+      DateTime now) {
     if (existingIds.contains(domainName.toString())) {
       return "In use";
     }
-    Registry registry = Registry.get(domainName.parent().toString());
-    if (PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))
-        && FluentIterable.from(loadActiveApplicationsByDomainName(domainName.toString(), now))
-            .anyMatch(new Predicate<DomainApplication>() {
-              @Override
-              public boolean apply(DomainApplication input) {
-                return !input.getApplicationStatus().isFinalStatus();
-              }})) {
+    if (pendingAllocationIds.contains(domainName.toString())) {
       return "Pending allocation";
     }
-    ReservationType reservationType = getReservationType(domainName);
+    // Check the premium price last, since it is the only part of this that is done per name.
     if (reservationType == UNRESERVED
-        && isDomainPremium(domainName.toString(), now)
-        && registry.getPremiumPriceAckRequired()
-        && eppInput.getSingleExtension(FeeCheckCommandExtension.class) == null) {
+        && !hasFeeCheck
+        && lookupCache.getRegistry(domainName.parent().toString()).getPremiumPriceAckRequired()
+        && isDomainPremium(domainName.toString(), now)) {
       return "Premium names require EPP ext.";
     }
     return reservationType.getMessageForCheck();
   }
 
+  /**
+   * Returns the names that don't exist yet but have pending applications, on TLDs in a state where
+   * that makes them unavailable, using one batch load of the applications for all of the names.
+   */
+  private ImmutableSet<String> getIdsPendingAllocation(
+      Iterable<InternetDomainName> domainNames, Set<String> existingIds, DateTime now) {
+    Set<String> candidates = new LinkedHashSet<>();
+    for (InternetDomainName domainName : domainNames) {
+      Registry registry = lookupCache.getRegistry(domainName.parent().toString());
+      if (!existingIds.contains(domainName.toString())
+          && PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))) {
+        candidates.add(domainName.toString());
+      }
+    }
+    if (candidates.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<String> pendingAllocationIds = new ImmutableSet.Builder<>();
+    for (Map.Entry<String, DomainApplication> entry
+        : loadActiveApplicationsByDomainNames(candidates, now).entries()) {
+      if (!entry.getValue().getApplicationStatus().isFinalStatus()) {
+        pendingAllocationIds.add(entry.getKey());
+      }
+    }
+    return pendingAllocationIds.build();
+  }
+
   /** Handle the fee check extension. */
   private ImmutableList<? extends ResponseExtension> getResponseExtensions(
       ImmutableMap<String, InternetDomainName> domainNames, DateTime now) throws EppException {
@@ -53,6 +53,7 @@ import google.registry.flows.EppException;
 import google.registry.flows.EppException.CommandUseErrorException;
 import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -159,6 +160,7 @@ public class DomainCreateFlow implements TransactionalFlow {
   @Inject AuthInfo authInfo;
   @Inject ResourceCommand resourceCommand;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -180,7 +182,7 @@ public class DomainCreateFlow implements TransactionalFlow {
     extensionManager.validate();
     validateClientIsLoggedIn(clientId);
     DateTime now = ofy().getTransactionTime();
-    Create command = cloneAndLinkReferences((Create) resourceCommand, now);
+    Create command = cloneAndLinkReferences((Create) resourceCommand, now, lookupCache);
     Period period = command.getPeriod();
     verifyUnitIsYears(period);
     int years = period.getValue();
@@ -189,8 +191,8 @@ public class DomainCreateFlow implements TransactionalFlow {
     // Validate that this is actually a legal domain name on a TLD that the registrar has access to.
     InternetDomainName domainName = validateDomainName(command.getFullyQualifiedDomainName());
     String domainLabel = domainName.parts().get(0);
-    Registry registry = Registry.get(domainName.parent().toString());
-    validateCreateCommandContactsAndNameservers(command, registry.getTldStr());
+    Registry registry = lookupCache.getRegistry(domainName.parent().toString());
+    validateCreateCommandContactsAndNameservers(command, registry);
     TldState tldState = registry.getTldState(now);
     boolean isAnchorTenant = isAnchorTenant(domainName);
     LaunchCreateExtension launchCreate = eppInput.getSingleExtension(LaunchCreateExtension.class);
@@ -205,7 +207,7 @@ public class DomainCreateFlow implements TransactionalFlow {
     // notice without specifying a claims key, ignore the registry phase, and override blocks on
     // registering premium domains.
     if (!isSuperuser) {
-      checkAllowedAccessToTld(clientId, registry.getTldStr());
+      checkAllowedAccessToTld(clientId, registry.getTldStr(), lookupCache);
       if (launchCreate != null) {
         verifyLaunchPhaseMatchesRegistryPhase(registry, launchCreate, now);
       }
@@ -218,7 +220,7 @@ public class DomainCreateFlow implements TransactionalFlow {
       if (now.isBefore(registry.getClaimsPeriodEnd())) {
         verifyClaimsNoticeIfAndOnlyIfNeeded(domainName, hasSignedMarks, hasClaimsNotice);
       }
-      verifyPremiumNameIsNotBlocked(targetId, now, clientId);
+      verifyPremiumNameIsNotBlocked(targetId, now, clientId, lookupCache);
       verifyNoOpenApplications(now);
       verifyIsGaOrIsSpecialCase(tldState, isAnchorTenant);
     }
@@ -40,6 +40,7 @@ import google.registry.dns.DnsQueue;
 import google.registry.flows.EppException;
 import google.registry.flows.EppException.AssociationProhibitsOperationException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -107,6 +108,7 @@ public final class DomainDeleteFlow implements TransactionalFlow {
   @Inject SessionMetadata sessionMetadata;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -125,7 +127,7 @@ public final class DomainDeleteFlow implements TransactionalFlow {
     DateTime now = ofy().getTransactionTime();
     // Loads the target resource if it exists
     DomainResource existingDomain = loadAndVerifyExistence(DomainResource.class, targetId, now);
-    Registry registry = Registry.get(existingDomain.getTld());
+    Registry registry = lookupCache.getRegistry(existingDomain.getTld());
     verifyDeleteAllowed(existingDomain, registry, now);
     customLogic.afterValidation(
         AfterValidationParameters.newBuilder().setExistingDomain(existingDomain).build());
@@ -205,7 +207,7 @@ public final class DomainDeleteFlow implements TransactionalFlow {
       verifyResourceOwnership(clientId, existingDomain);
       verifyNotInPredelegation(registry, now);
     }
-    checkAllowedAccessToTld(clientId, registry.getTld().toString());
+    checkAllowedAccessToTld(clientId, registry.getTld().toString(), lookupCache);
     if (!existingDomain.getSubordinateHosts().isEmpty()) {
       throw new DomainToDeleteHasHostsException();
     }
@@ -25,6 +25,7 @@ import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.findTldForName;
 import static google.registry.model.registry.label.ReservedList.getReservation;
+import static google.registry.model.registry.label.ReservedList.getReservations;
 import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 import static google.registry.tldconfig.idn.IdnLabelValidator.findValidIdnTableForTld;
 import static google.registry.util.CollectionUtils.nullToEmpty;
@@ -33,12 +34,15 @@ import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DomainNameUtils.ACE_PREFIX;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.net.InternetDomainName;
 import com.googlecode.objectify.Key;
@@ -54,6 +58,7 @@ import google.registry.flows.EppException.ParameterValueSyntaxErrorException;
 import google.registry.flows.EppException.RequiredParameterMissingException;
 import google.registry.flows.EppException.StatusProhibitsOperationException;
 import google.registry.flows.EppException.UnimplementedOptionException;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.exceptions.ResourceAlreadyExistsException;
 import google.registry.flows.exceptions.ResourceHasClientUpdateProhibitedException;
 import google.registry.model.EppResource;
@@ -96,7 +101,6 @@ import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.host.HostResource;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
-import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.registry.label.ReservationType;
@@ -108,6 +112,7 @@ import google.registry.util.Idn;
 import java.math.BigDecimal;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -224,9 +229,9 @@ public class DomainFlowUtils {
   }
 
   /** Check if the registrar running the flow has access to the TLD in question. */
-  public static void checkAllowedAccessToTld(String clientId, String tld)
-      throws EppException {
-    if (!Registrar.loadByClientId(clientId).getAllowedTlds().contains(tld)) {
+  public static void checkAllowedAccessToTld(
+      String clientId, String tld, FlowLookupCache lookupCache) throws EppException {
+    if (!lookupCache.getRegistrar(clientId).getAllowedTlds().contains(tld)) {
       throw new DomainFlowUtils.NotAuthorizedForTldException(tld);
     }
   }
@@ -252,23 +257,25 @@ public class DomainFlowUtils {
       Set<DesignatedContact> contacts,
       Key<ContactResource> registrant,
       Set<Key<HostResource>> nameservers) throws EppException {
+    // Load all of the linked resources in one batch, but check them in the same order as before.
+    ImmutableList.Builder<Key<? extends EppResource>> keys = new ImmutableList.Builder<>();
     for (DesignatedContact contact : nullToEmpty(contacts)) {
-      verifyNotInPendingDelete(contact.getContactKey());
+      keys.add(contact.getContactKey());
     }
     if (registrant != null) {
-      verifyNotInPendingDelete(registrant);
-    }
-    for (Key<HostResource> host : nullToEmpty(nameservers)) {
-      verifyNotInPendingDelete(host);
-    }
-  }
-
-  private static void verifyNotInPendingDelete(
-      Key<? extends EppResource> resourceKey) throws EppException {
-
-    EppResource resource = ofy().load().key(resourceKey).now();
-    if (resource.getStatusValues().contains(StatusValue.PENDING_DELETE)) {
-      throw new LinkedResourceInPendingDeleteProhibitsOperationException(resource.getForeignKey());
+      keys.add(registrant);
+    }
+    keys.addAll(nullToEmpty(nameservers));
+    @SuppressWarnings("unchecked")
+    ImmutableList<Key<EppResource>> resourceKeys =
+        (ImmutableList<Key<EppResource>>) (ImmutableList<?>) keys.build();
+    Map<Key<EppResource>, EppResource> resources = ofy().load().keys(resourceKeys);
+    for (Key<EppResource> resourceKey : resourceKeys) {
+      EppResource resource = resources.get(resourceKey);
+      if (resource.getStatusValues().contains(StatusValue.PENDING_DELETE)) {
+        throw new LinkedResourceInPendingDeleteProhibitsOperationException(
+            resource.getForeignKey());
+      }
     }
   }
 
@@ -281,8 +288,9 @@ public class DomainFlowUtils {
     }
   }
 
-  static void validateNameserversCountForTld(String tld, int count) throws EppException {
-    ImmutableSet<String> whitelist = Registry.get(tld).getAllowedFullyQualifiedHostNames();
+  static void validateNameserversCountForTld(Registry registry, int count)
+      throws EppException {
+    ImmutableSet<String> whitelist = registry.getAllowedFullyQualifiedHostNames();
     // For TLDs with a nameserver whitelist, all domains must have at least 1 nameserver.
     if (!whitelist.isEmpty() && count == 0) {
       throw new NameserversNotSpecifiedException();
@@ -322,9 +330,9 @@ public class DomainFlowUtils {
     }
   }
 
-  static void validateRegistrantAllowedOnTld(String tld, String registrantContactId)
+  static void validateRegistrantAllowedOnTld(Registry registry, String registrantContactId)
       throws RegistrantNotAllowedException {
-    ImmutableSet<String> whitelist = Registry.get(tld).getAllowedRegistrantContactIds();
+    ImmutableSet<String> whitelist = registry.getAllowedRegistrantContactIds();
     // Empty whitelist or null registrantContactId are ignored.
     if (registrantContactId != null && !whitelist.isEmpty()
         && !whitelist.contains(registrantContactId)) {
@@ -332,9 +340,9 @@ public class DomainFlowUtils {
     }
   }
 
-  static void validateNameserversAllowedOnTld(String tld, Set<String> fullyQualifiedHostNames)
-      throws EppException {
-    ImmutableSet<String> whitelist = Registry.get(tld).getAllowedFullyQualifiedHostNames();
+  static void validateNameserversAllowedOnTld(
+      Registry registry, Set<String> fullyQualifiedHostNames) throws EppException {
+    ImmutableSet<String> whitelist = registry.getAllowedFullyQualifiedHostNames();
     Set<String> hostnames = nullToEmpty(fullyQualifiedHostNames);
     if (!whitelist.isEmpty()) { // Empty whitelist is ignored.
       Set<String> disallowedNameservers = difference(hostnames, whitelist);
@@ -364,6 +372,35 @@ public class DomainFlowUtils {
     return getReservation(domainName.parts().get(0), domainName.parent().toString());
   }
 
+  /**
+   * Returns how each of these names is reserved in its tld, looking up the reserved lists of each
+   * tld only once.
+   */
+  static ImmutableMap<InternetDomainName, ReservationType> getReservationTypes(
+      Iterable<InternetDomainName> domainNames) {
+    ImmutableListMultimap<String, InternetDomainName> domainNamesByTld =
+        Multimaps.index(domainNames, new Function<InternetDomainName, String>() {
+          @Override
+          public String apply(InternetDomainName domainName) {
+            return domainName.parent().toString();
+          }});
+    ImmutableMap.Builder<InternetDomainName, ReservationType> reservationTypes =
+        new ImmutableMap.Builder<>();
+    for (String tld : domainNamesByTld.keySet()) {
+      ImmutableList<InternetDomainName> tldDomainNames = domainNamesByTld.get(tld);
+      ImmutableSet.Builder<String> labels = new ImmutableSet.Builder<>();
+      for (InternetDomainName domainName : tldDomainNames) {
+        labels.add(domainName.parts().get(0));
+      }
+      ImmutableMap<String, ReservationType> reservationsByLabel =
+          getReservations(labels.build(), tld);
+      for (InternetDomainName domainName : ImmutableSet.copyOf(tldDomainNames)) {
+        reservationTypes.put(domainName, reservationsByLabel.get(domainName.parts().get(0)));
+      }
+    }
+    return reservationTypes.build();
+  }
+
   /** Verifies that a launch extension's specified phase matches the specified registry's phase. */
   static void verifyLaunchPhaseMatchesRegistryPhase(
       Registry registry, LaunchExtension launchExtension, DateTime now) throws EppException {
@@ -389,11 +426,12 @@ public class DomainFlowUtils {
    * this registrar.
    */
   static void verifyPremiumNameIsNotBlocked(
-      String domainName, DateTime priceTime, String clientId) throws EppException {
+      String domainName, DateTime priceTime, String clientId, FlowLookupCache lookupCache)
+      throws EppException {
     if (isDomainPremium(domainName, priceTime)) {
       // NB: The load of the Registar object is transactionless, which means that it should hit
-      // memcache most of the time.
-      if (Registrar.loadByClientId(clientId).getBlockPremiumNames()) {
+      // memcache most of the time, and the flow will usually have loaded it already.
+      if (lookupCache.getRegistrar(clientId).getBlockPremiumNames()) {
         throw new PremiumNameBlockedException();
       }
     }
@@ -401,12 +439,13 @@ public class DomainFlowUtils {
 
   /**
    * Helper to call {@link CreateOrUpdate#cloneAndLinkReferences} and convert exceptions to
-   * EppExceptions, since this is needed in several places.
+   * EppExceptions, since this is needed in several places. All of the hosts and contacts in the
+   * command are resolved in a single batch through the flow's lookup cache.
    */
-  static <T extends CreateOrUpdate<T>> T cloneAndLinkReferences(T command, DateTime now)
-      throws EppException {
+  static <T extends CreateOrUpdate<T>> T cloneAndLinkReferences(
+      T command, DateTime now, FlowLookupCache lookupCache) throws EppException {
     try {
-      return command.cloneAndLinkReferences(now);
+      return command.cloneAndLinkReferences(now, lookupCache);
     } catch (InvalidReferencesException e) {
       throw new LinkedResourcesDoNotExistException(e.getType(), e.getForeignKeys());
     }
@@ -750,20 +789,20 @@ public class DomainFlowUtils {
   }
 
   /** Validate the contacts and nameservers specified in a domain or application create command. */
-  static void validateCreateCommandContactsAndNameservers(Create command, String tld)
+  static void validateCreateCommandContactsAndNameservers(Create command, Registry registry)
       throws EppException {
     verifyNotInPendingDelete(
         command.getContacts(),
         command.getRegistrant(),
         command.getNameservers());
     validateContactsHaveTypes(command.getContacts());
-    validateRegistrantAllowedOnTld(tld, command.getRegistrantContactId());
+    validateRegistrantAllowedOnTld(registry, command.getRegistrantContactId());
     validateNoDuplicateContacts(command.getContacts());
     validateRequiredContactsPresent(command.getRegistrant(), command.getContacts());
     Set<String> fullyQualifiedHostNames =
         nullToEmpty(command.getNameserverFullyQualifiedHostNames());
-    validateNameserversCountForTld(tld, fullyQualifiedHostNames.size());
-    validateNameserversAllowedOnTld(tld, fullyQualifiedHostNames);
+    validateNameserversCountForTld(registry, fullyQualifiedHostNames.size());
+    validateNameserversAllowedOnTld(registry, fullyQualifiedHostNames);
   }
 
   /**
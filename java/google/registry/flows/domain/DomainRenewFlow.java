@@ -39,6 +39,7 @@ import google.registry.flows.EppException;
 import google.registry.flows.EppException.ObjectPendingTransferException;
 import google.registry.flows.EppException.ParameterValueRangeErrorException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -69,7 +70,6 @@ import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.poll.PollMessage;
-import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferStatus;
 import javax.inject.Inject;
@@ -115,6 +115,7 @@ public final class DomainRenewFlow implements TransactionalFlow {
   @Inject EppInput eppInput;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -138,7 +139,8 @@ public final class DomainRenewFlow implements TransactionalFlow {
     FeeRenewCommandExtension feeRenew =
         eppInput.getSingleExtension(FeeRenewCommandExtension.class);
     FeesAndCredits feesAndCredits =
-        pricingLogic.getRenewPrice(Registry.get(existingDomain.getTld()), targetId, now, years);
+        pricingLogic.getRenewPrice(
+            lookupCache.getRegistry(existingDomain.getTld()), targetId, now, years);
     validateFeeChallenge(targetId, existingDomain.getTld(), now, feeRenew, feesAndCredits);
     customLogic.afterValidation(
         AfterValidationParameters.newBuilder()
@@ -221,7 +223,7 @@ public final class DomainRenewFlow implements TransactionalFlow {
     if (!isSuperuser) {
       verifyResourceOwnership(clientId, existingDomain);
     }
-    checkAllowedAccessToTld(clientId, existingDomain.getTld());
+    checkAllowedAccessToTld(clientId, existingDomain.getTld(), lookupCache);
     // Verify that the resource does not have a pending transfer on it.
     if (existingDomain.getTransferData().getTransferStatus() == TransferStatus.PENDING) {
       throw new DomainHasPendingTransferException(targetId);
@@ -243,7 +245,7 @@ public final class DomainRenewFlow implements TransactionalFlow {
         .setPeriodYears(years)
         .setCost(renewCost)
         .setEventTime(now)
-        .setBillingTime(now.plus(Registry.get(tld).getRenewGracePeriodLength()))
+        .setBillingTime(now.plus(lookupCache.getRegistry(tld).getRenewGracePeriodLength()))
         .setParent(historyEntry)
         .build();
   }
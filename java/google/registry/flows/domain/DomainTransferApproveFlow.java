@@ -37,6 +37,7 @@ import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.TargetId;
 import google.registry.flows.TransactionalFlow;
@@ -51,7 +52,6 @@ import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.eppcommon.AuthInfo;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.poll.PollMessage;
-import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
@@ -81,6 +81,7 @@ public final class DomainTransferApproveFlow implements TransactionalFlow {
   @Inject ExtensionManager extensionManager;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject HistoryEntry.Builder historyBuilder;
   @Inject EppResponse.Builder responseBuilder;
@@ -101,7 +102,7 @@ public final class DomainTransferApproveFlow implements TransactionalFlow {
     verifyHasPendingTransfer(existingDomain);
     verifyResourceOwnership(clientId, existingDomain);
     String tld = existingDomain.getTld();
-    checkAllowedAccessToTld(clientId, tld);
+    checkAllowedAccessToTld(clientId, tld, lookupCache);
     TransferData transferData = existingDomain.getTransferData();
     String gainingClientId = transferData.getGainingClientId();
     HistoryEntry historyEntry = historyBuilder
@@ -119,7 +120,7 @@ public final class DomainTransferApproveFlow implements TransactionalFlow {
         .setPeriodYears(extraYears)
         .setCost(getDomainRenewCost(targetId, transferData.getTransferRequestTime(), extraYears))
         .setEventTime(now)
-        .setBillingTime(now.plus(Registry.get(tld).getTransferGracePeriodLength()))
+        .setBillingTime(now.plus(lookupCache.getRegistry(tld).getTransferGracePeriodLength()))
         .setParent(historyEntry)
         .build();
     // If we are within an autorenew grace period, cancel the autorenew billing event and reduce
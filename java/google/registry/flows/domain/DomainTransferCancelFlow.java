@@ -30,6 +30,7 @@ import com.google.common.base.Optional;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.TargetId;
 import google.registry.flows.TransactionalFlow;
@@ -67,6 +68,7 @@ public final class DomainTransferCancelFlow implements TransactionalFlow {
   @Inject ExtensionManager extensionManager;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject HistoryEntry.Builder historyBuilder;
   @Inject EppResponse.Builder responseBuilder;
@@ -84,7 +86,7 @@ public final class DomainTransferCancelFlow implements TransactionalFlow {
     if (!clientId.equals(existingDomain.getTransferData().getGainingClientId())) {
       throw new NotTransferInitiatorException();
     }
-    checkAllowedAccessToTld(clientId, existingDomain.getTld());
+    checkAllowedAccessToTld(clientId, existingDomain.getTld(), lookupCache);
     HistoryEntry historyEntry = historyBuilder
         .setType(HistoryEntry.Type.DOMAIN_TRANSFER_CANCEL)
         .setOtherClientId(existingDomain.getTransferData().getLosingClientId())
@@ -40,6 +40,7 @@ import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -116,6 +117,7 @@ public final class DomainTransferRequestFlow implements TransactionalFlow {
   @Inject EppInput eppInput;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String gainingClientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -137,7 +139,7 @@ public final class DomainTransferRequestFlow implements TransactionalFlow {
     DomainResource existingDomain = loadAndVerifyExistence(DomainResource.class, targetId, now);
     verifyTransferAllowed(existingDomain, period, now);
     String tld = existingDomain.getTld();
-    Registry registry = Registry.get(tld);
+    Registry registry = lookupCache.getRegistry(tld);
     // An optional extension from the client specifying what they think the transfer should cost.
     FeeTransferCommandExtension feeTransfer =
         eppInput.getSingleExtension(FeeTransferCommandExtension.class);
@@ -201,10 +203,10 @@ public final class DomainTransferRequestFlow implements TransactionalFlow {
     if (gainingClientId.equals(existingDomain.getCurrentSponsorClientId())) {
       throw new ObjectAlreadySponsoredException();
     }
-    checkAllowedAccessToTld(gainingClientId, existingDomain.getTld());
+    checkAllowedAccessToTld(gainingClientId, existingDomain.getTld(), lookupCache);
     verifyUnitIsYears(period);
     if (!isSuperuser) {
-      verifyPremiumNameIsNotBlocked(targetId, now, gainingClientId);
+      verifyPremiumNameIsNotBlocked(targetId, now, gainingClientId, lookupCache);
     }
   }
 
@@ -245,7 +247,7 @@ public final class DomainTransferRequestFlow implements TransactionalFlow {
         createTransferDataBuilder(existingDomain, automaticTransferTime, years, now)
             .setTransferStatus(TransferStatus.SERVER_APPROVED)
             .build();
-    Registry registry = Registry.get(existingDomain.getTld());
+    Registry registry = lookupCache.getRegistry(existingDomain.getTld());
     return new ImmutableSet.Builder<TransferServerApproveEntity>()
         .add(createTransferBillingEvent(
             automaticTransferTime, historyEntry, registry, transferCost, years))
@@ -295,7 +297,7 @@ public final class DomainTransferRequestFlow implements TransactionalFlow {
       DateTime automaticTransferTime,
       HistoryEntry historyEntry,
       DomainResource existingDomain) {
-    Registry registry = Registry.get(existingDomain.getTld());
+    Registry registry = lookupCache.getRegistry(existingDomain.getTld());
     DateTime oldExpirationTime = existingDomain.getRegistrationExpirationTime();
     Duration autoRenewGracePeriodLength = registry.getAutoRenewGracePeriodLength();
     if (automaticTransferTime.isAfter(oldExpirationTime)
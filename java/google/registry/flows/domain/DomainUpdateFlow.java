@@ -47,6 +47,7 @@ import com.googlecode.objectify.Key;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.EppException;
 import google.registry.flows.ExtensionManager;
+import google.registry.flows.FlowLookupCache;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.Superuser;
 import google.registry.flows.FlowModule.TargetId;
@@ -74,7 +75,6 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
-import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -137,6 +137,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
   @Inject EppInput eppInput;
   @Inject Optional<AuthInfo> authInfo;
   @Inject @ClientId String clientId;
+  @Inject FlowLookupCache lookupCache;
   @Inject @TargetId String targetId;
   @Inject @Superuser boolean isSuperuser;
   @Inject HistoryEntry.Builder historyBuilder;
@@ -156,7 +157,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     extensionManager.validate();
     validateClientIsLoggedIn(clientId);
     DateTime now = ofy().getTransactionTime();
-    Update command = cloneAndLinkReferences((Update) resourceCommand, now);
+    Update command = cloneAndLinkReferences((Update) resourceCommand, now, lookupCache);
     DomainResource existingDomain = loadAndVerifyExistence(DomainResource.class, targetId, now);
     verifyUpdateAllowed(command, existingDomain, now);
     customLogic.afterValidation(
@@ -208,13 +209,14 @@ public final class DomainUpdateFlow implements TransactionalFlow {
       verifyAllStatusesAreClientSettable(union(add.getStatusValues(), remove.getStatusValues()));
     }
     String tld = existingDomain.getTld();
-    checkAllowedAccessToTld(clientId, tld);
+    checkAllowedAccessToTld(clientId, tld, lookupCache);
     FeeTransformCommandExtension feeUpdate =
         eppInput.getSingleExtension(FeeUpdateCommandExtension.class);
     // If the fee extension is present, validate it (even if the cost is zero, to check for price
     // mismatches). Don't rely on the the validateFeeChallenge check for feeUpdate nullness, because
     // it throws an error if the name is premium, and we don't want to do that here.
-    FeesAndCredits feesAndCredits = pricingLogic.getUpdatePrice(Registry.get(tld), targetId, now);
+    FeesAndCredits feesAndCredits =
+        pricingLogic.getUpdatePrice(lookupCache.getRegistry(tld), targetId, now);
     if (feeUpdate != null) {
       validateFeeChallenge(targetId, existingDomain.getTld(), now, feeUpdate, feesAndCredits);
     } else if (!feesAndCredits.getTotalCost().isZero()) {
@@ -227,9 +229,10 @@ public final class DomainUpdateFlow implements TransactionalFlow {
         add.getNameservers());
     validateContactsHaveTypes(add.getContacts());
     validateContactsHaveTypes(remove.getContacts());
-    validateRegistrantAllowedOnTld(tld, command.getInnerChange().getRegistrantContactId());
+    validateRegistrantAllowedOnTld(
+        lookupCache.getRegistry(tld), command.getInnerChange().getRegistrantContactId());
     validateNameserversAllowedOnTld(
-        tld, add.getNameserverFullyQualifiedHostNames());
+        lookupCache.getRegistry(tld), add.getNameserverFullyQualifiedHostNames());
   }
 
   private HistoryEntry buildHistoryEntry(DomainResource existingDomain, DateTime now) {
@@ -291,7 +294,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     // sunrush add grace period expiration time (i.e. you can't get extra add grace period by
     // setting a nameserver).
     DateTime addGracePeriodExpirationTime = earliestOf(
-        now.plus(Registry.get(existingDomain.getTld()).getAddGracePeriodLength()),
+        now.plus(lookupCache.getRegistry(existingDomain.getTld()).getAddGracePeriodLength()),
         sunrushAddGracePeriod.getExpirationTime());
     // Create a new billing event for the add grace period. Note that we do this even if it would
     // occur at the same time as the sunrush add grace period, as the event time will differ
@@ -315,7 +318,8 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     validateNoDuplicateContacts(newDomain.getContacts());
     validateRequiredContactsPresent(newDomain.getRegistrant(), newDomain.getContacts());
     validateDsData(newDomain.getDsData());
-    validateNameserversCountForTld(newDomain.getTld(), newDomain.getNameservers().size());
+    validateNameserversCountForTld(
+        lookupCache.getRegistry(newDomain.getTld()), newDomain.getNameservers().size());
   }
 
   /** Some status updates cost money. Bill only once no matter how many of them are changed. */
@@ -334,7 +338,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
               .setReason(Reason.SERVER_STATUS)
               .setTargetId(targetId)
               .setClientId(clientId)
-              .setCost(Registry.get(existingDomain.getTld()).getServerStatusChangeCost())
+              .setCost(lookupCache.getRegistry(existingDomain.getTld()).getServerStatusChangeCost())
               .setEventTime(now)
               .setBillingTime(now)
               .setParent(historyEntry)
@@ -0,0 +1,195 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.gcs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.Closer;
+import google.registry.util.FormattingLogger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External merge sort for lines of text, using GCS for the sorted runs that don't fit in memory.
+ *
+ * <p>Lines are buffered in memory until {@code maxLinesInMemory} is reached, at which point the
+ * buffer is sorted and written to a temporary GCS file. {@link #writeSorted} then merges those
+ * runs with whatever is still buffered, so the memory used is bounded by the buffer size plus one
+ * read buffer per run, no matter how many lines are sorted. Lines must not contain newlines.
+ *
+ * <p>Lines may be added from multiple threads. Closing the sorter deletes its temporary files.
+ */
+public class GcsExternalSorter implements Closeable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  private final GcsUtils gcsUtils;
+  private final String bucket;
+  private final String runPrefix;
+  private final int maxLinesInMemory;
+  private final List<String> buffer = new ArrayList<>();
+  private final List<GcsFilename> runs = new ArrayList<>();
+  private boolean merged;
+
+  /**
+   * Creates a sorter that writes its runs to {@code gs://bucket/runPrefix-N}.
+   *
+   * @param maxLinesInMemory the number of lines to buffer before spilling a sorted run to GCS
+   */
+  public GcsExternalSorter(
+      GcsUtils gcsUtils, String bucket, String runPrefix, int maxLinesInMemory) {
+    checkArgument(maxLinesInMemory > 0, "maxLinesInMemory must be positive");
+    this.gcsUtils = gcsUtils;
+    this.bucket = bucket;
+    this.runPrefix = runPrefix;
+    this.maxLinesInMemory = maxLinesInMemory;
+  }
+
+  /** Adds lines to be sorted. */
+  public synchronized void addAll(Iterable<String> lines) throws IOException {
+    checkState(!merged, "Lines cannot be added after the output was written");
+    for (String line : lines) {
+      buffer.add(line);
+      if (buffer.size() >= maxLinesInMemory) {
+        spill();
+      }
+    }
+  }
+
+  /** Returns the number of sorted runs that have been written to GCS so far. */
+  public synchronized int getRunCount() {
+    return runs.size();
+  }
+
+  /** Receives sorted lines from {@link #forEachSorted}. */
+  public interface LineConsumer {
+    void accept(String line) throws IOException;
+  }
+
+  /**
+   * Writes all lines added so far to {@code writer} in lexicographic order, each followed by a
+   * newline, and returns how many lines were written. This may only be called once.
+   */
+  public synchronized long writeSorted(final Writer writer) throws IOException {
+    return forEachSorted(new LineConsumer() {
+      @Override
+      public void accept(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+      }});
+  }
+
+  /**
+   * Passes all lines added so far to {@code consumer} in lexicographic order, and returns how many
+   * lines there were. This may only be called once, and not as well as {@link #writeSorted}.
+   */
+  public synchronized long forEachSorted(LineConsumer consumer) throws IOException {
+    checkState(!merged, "The output was already written");
+    merged = true;
+    Collections.sort(buffer);
+    PriorityQueue<PeekingIterator<String>> queue =
+        new PriorityQueue<>(
+            runs.size() + 1,
+            new Comparator<PeekingIterator<String>>() {
+              @Override
+              public int compare(PeekingIterator<String> left, PeekingIterator<String> right) {
+                return left.peek().compareTo(right.peek());
+              }});
+    long count = 0;
+    try (Closer closer = Closer.create()) {
+      for (GcsFilename run : runs) {
+        BufferedReader reader =
+            closer.register(
+                new BufferedReader(
+                    new InputStreamReader(gcsUtils.openInputStream(run), UTF_8)));
+        addIfNotEmpty(queue, Iterators.peekingIterator(readLines(reader)));
+      }
+      addIfNotEmpty(queue, Iterators.peekingIterator(buffer.iterator()));
+      while (!queue.isEmpty()) {
+        PeekingIterator<String> lines = queue.poll();
+        consumer.accept(lines.next());
+        count++;
+        addIfNotEmpty(queue, lines);
+      }
+    }
+    buffer.clear();
+    return count;
+  }
+
+  /** Deletes the temporary files holding the sorted runs. */
+  @Override
+  public synchronized void close() {
+    for (GcsFilename run : runs) {
+      try {
+        gcsUtils.delete(run);
+      } catch (IOException e) {
+        logger.warningfmt(e, "Failed to delete sorted run %s", run);
+      }
+    }
+    runs.clear();
+    buffer.clear();
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(buffer);
+    GcsFilename run = new GcsFilename(bucket, String.format("%s-%d", runPrefix, runs.size()));
+    try (Writer writer =
+        new BufferedWriter(new OutputStreamWriter(gcsUtils.openOutputStream(run), UTF_8))) {
+      for (String line : buffer) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    }
+    runs.add(run);
+    buffer.clear();
+    logger.infofmt("Wrote sorted run %s", run);
+  }
+
+  private static void addIfNotEmpty(
+      PriorityQueue<PeekingIterator<String>> queue, PeekingIterator<String> lines) {
+    if (lines.hasNext()) {
+      queue.add(lines);
+    }
+  }
+
+  private static AbstractIterator<String> readLines(final BufferedReader reader) {
+    return new AbstractIterator<String>() {
+      @Override
+      protected String computeNext() {
+        try {
+          String line = reader.readLine();
+          return (line == null) ? endOfData() : line;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }};
+  }
+}
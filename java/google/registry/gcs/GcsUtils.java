@@ -72,6 +72,11 @@ public class GcsUtils {
     gcsService.createOrReplace(filename, getOptions(filename), ByteBuffer.wrap(bytes));
   }
 
+  /** Deletes a GCS file, returning {@code true} if it existed. */
+  public boolean delete(GcsFilename filename) throws IOException {
+    return gcsService.delete(filename);
+  }
+
   /** Returns {@code true} if a file exists and is non-empty on Google Cloud Storage. */
   public boolean existsAndNotEmpty(GcsFilename file) {
     GcsFileMetadata metadata;
@@ -29,6 +29,7 @@ import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.util.FormattingLogger;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
 /** Base class for {@link InputReader} classes that map over {@link EppResourceIndex}. */
 abstract class EppResourceBaseReader<T> extends InputReader<T> {
@@ -104,7 +105,18 @@ abstract class EppResourceBaseReader<T> extends InputReader<T> {
   /** Called before we are serialized. Save a serializable cursor for this query. */
   @Override
   public void endSlice() {
-    cursor = queryIterator.getCursor();
+    cursor = getConsumedCursor();
+  }
+
+  /**
+   * Returns a cursor positioned just after the last {@link EppResourceIndex} that this reader has
+   * finished with, from which the next slice will resume.
+   *
+   * <p>Readers that fetch ahead of what they return must override this, since the query iterator's
+   * own cursor would otherwise skip over entries that were fetched but never returned.
+   */
+  Cursor getConsumedCursor() {
+    return queryIterator.getCursor();
   }
 
   /** Query for children of this bucket. */
@@ -125,7 +137,7 @@ abstract class EppResourceBaseReader<T> extends InputReader<T> {
    * @throws NoSuchElementException if there are no more elements.
    */
   EppResourceIndex nextEri() {
-    loaded++;
+    countLoaded();
     try {
       return queryIterator.next();
     } finally {
@@ -133,6 +145,36 @@ abstract class EppResourceBaseReader<T> extends InputReader<T> {
     }
   }
 
+  /**
+   * Get the next {@link EppResourceIndex} from the query without counting it towards progress,
+   * along with a cursor positioned just after it, or null if there are no more elements.
+   *
+   * <p>This is for readers that fetch ahead of what they return. They must call
+   * {@link #countLoaded} as each fetched entry is actually consumed.
+   */
+  @Nullable
+  ReadAheadEri readAheadEri() {
+    return queryIterator.hasNext()
+        ? new ReadAheadEri(queryIterator.next(), queryIterator.getCursor())
+        : null;
+  }
+
+  /** Counts one more {@link EppResourceIndex} as consumed, for the purposes of progress. */
+  void countLoaded() {
+    loaded++;
+  }
+
+  /** An {@link EppResourceIndex} that was fetched ahead, and the cursor from just after it. */
+  static final class ReadAheadEri {
+    final EppResourceIndex eri;
+    final Cursor cursor;
+
+    ReadAheadEri(EppResourceIndex eri, Cursor cursor) {
+      this.eri = eri;
+      this.cursor = cursor;
+    }
+  }
+
   static <R extends EppResource> ImmutableSet<String> varargsToKinds(
       ImmutableSet<Class<? extends R>> resourceClasses) {
     // Ignore EppResource when finding kinds, since it doesn't have one and doesn't imply filtering.
@@ -16,19 +16,45 @@ package google.registry.mapreduce.inputs;
 
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
-/** Reader that maps over {@link EppResourceIndex} and returns resources. */
+/**
+ * Reader that maps over {@link EppResourceIndex} and returns resources.
+ *
+ * <p>Rather than loading one resource per index entry, this reads index entries ahead in windows
+ * and loads each window's resources with a single asynchronous batch get. The next window is
+ * always in flight while the current one is being consumed, so that mapping over a bucket is
+ * bound by datastore throughput rather than by the latency of a round trip per resource.
+ */
 class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseReader<R> {
 
   private static final long serialVersionUID = -8042933349899971801L;
 
+  /**
+   * Estimate 2MB of memory for this reader, shared between two windows of resources of
+   * {@link #TYPICAL_RESOURCE_SIZE}. A window full of entities near the 1MB maximum would exceed
+   * this, but resources that large are vanishingly rare.
+   */
+  private static final long MEMORY_ESTIMATE = ONE_MB * 2;
+
+  /** Generous size of a typical resource, for sizing the read-ahead windows. */
+  private static final long TYPICAL_RESOURCE_SIZE = 16 * 1024;
+
+  /** Number of resources to load in each batch, with two batches in memory at once. */
+  static final int BATCH_SIZE = (int) (MEMORY_ESTIMATE / (2 * TYPICAL_RESOURCE_SIZE));
+
   /**
    * The resource classes to postfilter for.
    *
@@ -38,16 +64,43 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   private final ImmutableSet<Class<? extends R>> resourceClasses;
 
+  /** Cursor just after the last index entry whose resource was returned (or skipped). */
+  private Cursor consumedCursor;
+
+  /** The window of resources currently being returned. */
+  private transient Window currentWindow;
+
+  /** The window of resources being loaded in the background. */
+  private transient Window nextWindow;
+
   public EppResourceEntityReader(
       Key<EppResourceIndexBucket> bucketKey,
       ImmutableSet<Class<? extends R>> resourceClasses) {
-    super(
-        bucketKey,
-        ONE_MB * 2,  // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
-        varargsToKinds(resourceClasses));
+    super(bucketKey, MEMORY_ESTIMATE, varargsToKinds(resourceClasses));
     this.resourceClasses = resourceClasses;
   }
 
+  /** Called every time we are deserialized. Discard any windows from before the last slice. */
+  @Override
+  public void beginSlice() {
+    super.beginSlice();
+    currentWindow = null;
+    nextWindow = null;
+  }
+
+  /** Called before we are serialized. Resume after what was consumed, not what was fetched. */
+  @Override
+  public void endSlice() {
+    super.endSlice();
+    currentWindow = null;
+    nextWindow = null;
+  }
+
+  @Override
+  Cursor getConsumedCursor() {
+    return consumedCursor;
+  }
+
   /**
    * Called for each map invocation.
    *
@@ -56,10 +109,23 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   @Override
   public R next() throws NoSuchElementException {
-    // Loop until we find a value, or nextEri() throws a NoSuchElementException.
+    // Loop until we find a value, or run out of windows.
     while (true) {
-      Key<? extends EppResource> key = nextEri().getKey();
-      EppResource resource = ofy().load().key(key).now();
+      if (currentWindow == null || !currentWindow.hasNext()) {
+        currentWindow = (nextWindow == null) ? fetchWindow() : nextWindow;
+        nextWindow = null;
+        if (currentWindow == null) {
+          throw new NoSuchElementException();
+        }
+        // Start loading the following window while this one is consumed.
+        nextWindow = fetchWindow();
+      }
+      ReadAheadEri readAheadEri = currentWindow.eris.get(currentWindow.position++);
+      countLoaded();
+      consumedCursor = readAheadEri.cursor;
+      Key<EppResource> key = getKey(readAheadEri);
+      EppResource resource = currentWindow.resources.get(key);
+      ofy().clearSessionCache();  // Try not to leak memory.
       if (resource == null) {
         logger.severefmt("EppResourceIndex key %s points at a missing resource", key);
         continue;
@@ -74,4 +140,45 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
       }
     }
   }
+
+  /**
+   * Reads the next {@link #BATCH_SIZE} index entries and starts an asynchronous load of their
+   * resources, returning null if there are no more index entries.
+   */
+  @Nullable
+  private Window fetchWindow() {
+    ImmutableList.Builder<ReadAheadEri> eris = new ImmutableList.Builder<>();
+    List<Key<EppResource>> keys = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      ReadAheadEri readAheadEri = readAheadEri();
+      if (readAheadEri == null) {
+        break;
+      }
+      eris.add(readAheadEri);
+      keys.add(getKey(readAheadEri));
+    }
+    // Objectify's batch load is asynchronous until the returned map is first read.
+    return keys.isEmpty() ? null : new Window(eris.build(), ofy().load().keys(keys));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Key<EppResource> getKey(ReadAheadEri readAheadEri) {
+    return (Key<EppResource>) readAheadEri.eri.getKey();
+  }
+
+  /** Index entries read ahead from the query, and the (maybe pending) load of their resources. */
+  private static final class Window {
+    final ImmutableList<ReadAheadEri> eris;
+    final Map<Key<EppResource>, EppResource> resources;
+    int position;
+
+    Window(ImmutableList<ReadAheadEri> eris, Map<Key<EppResource>, EppResource> resources) {
+      this.eris = eris;
+      this.resources = resources;
+    }
+
+    boolean hasNext() {
+      return position < eris.size();
+    }
+  }
 }
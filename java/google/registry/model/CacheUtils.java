@@ -14,12 +14,20 @@
 
 package google.registry.model;
 
+import static com.google.appengine.api.ThreadManager.backgroundThreadFactory;
 import static com.google.common.base.Suppliers.memoizeWithExpiration;
 import static google.registry.config.RegistryConfig.getSingletonCacheRefreshDuration;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.joda.time.Duration.ZERO;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.concurrent.Executor;
 import org.joda.time.Duration;
 
 /** Utility methods related to caching Datastore entities. */
@@ -37,4 +45,45 @@ public class CacheUtils {
         ? original
         : memoizeWithExpiration(original, expiration.getMillis(), MILLISECONDS);
   }
+
+  /**
+   * Memoize a supplier like {@link #memoizeWithShortExpiration}, except that once the value
+   * expires it is recomputed on a background thread, and the old value keeps being returned until
+   * the new one is ready.
+   *
+   * <p>Use this for values that are too expensive to compute on the request path. Only the first
+   * call computes the value on the calling thread, since there is nothing to return before then.
+   * If a recomputation fails, the old value is kept and the next call after that tries again.
+   * Background threads are only available to modules with basic or manual scaling.
+   */
+  public static <T> Supplier<T> memoizeWithBackgroundRefresh(Supplier<T> original) {
+    Duration expiration = getSingletonCacheRefreshDuration();
+    return expiration.isEqual(ZERO)
+        ? original
+        : memoizeWithBackgroundRefresh(
+            original,
+            expiration,
+            newSingleThreadExecutor(backgroundThreadFactory()),
+            Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  static <T> Supplier<T> memoizeWithBackgroundRefresh(
+      final Supplier<T> original, Duration expiration, Executor executor, Ticker ticker) {
+    final LoadingCache<Boolean, T> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(expiration.getMillis(), MILLISECONDS)
+        .ticker(ticker)
+        .build(CacheLoader.asyncReload(
+            new CacheLoader<Boolean, T>() {
+              @Override
+              public T load(Boolean unused) {
+                return original.get();
+              }},
+            executor));
+    return new Supplier<T>() {
+      @Override
+      public T get() {
+        return cache.getUnchecked(true);
+      }};
+  }
 }
@@ -39,6 +39,7 @@ import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMarker;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.rde.RdeRevision;
@@ -47,6 +48,7 @@ import google.registry.model.registrar.RegistrarContact;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
 import google.registry.model.registry.label.ReservedList;
+import google.registry.model.registry.label.StagedLabelListChunk;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.server.Lock;
 import google.registry.model.server.ServerSecret;
@@ -74,6 +76,7 @@ public final class EntityClasses {
           CommitLogCheckpoint.class,
           CommitLogCheckpointRoot.class,
           CommitLogManifest.class,
+          CommitLogMarker.class,
           CommitLogMutation.class,
           ContactResource.class,
           Cursor.class,
@@ -109,6 +112,8 @@ public final class EntityClasses {
           ReservedList.class,
           ServerSecret.class,
           SignedMarkRevocationList.class,
+          StagedLabelListChunk.class,
+          StagedLabelListChunk.StagedLabelListUpload.class,
           TmchCrl.class);
 
   /**
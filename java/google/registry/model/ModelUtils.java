@@ -34,6 +34,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Id;
@@ -45,6 +46,7 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.LinkedHashMap;
@@ -82,6 +84,18 @@ public class ModelUtils {
             return ImmutableMap.copyOf(fields);
           }});
 
+  /**
+   * Caches the same fields as {@link #ALL_FIELDS_CACHE}, as an array that can be iterated without
+   * allocating. This is what {@link ImmutableObject#equals} and {@link ImmutableObject#hashCode},
+   * which are called constantly, use to walk the fields.
+   */
+  private static final LoadingCache<Class<?>, Field[]> FIELD_ARRAY_CACHE =
+      CacheBuilder.newBuilder().build(new CacheLoader<Class<?>, Field[]>() {
+          @Override
+          public Field[] load(Class<?> clazz) {
+            return getAllFields(clazz).values().toArray(new Field[0]);
+          }});
+
   /** Lists all instance fields on an object, including non-public and inherited fields. */
   static Map<String, Field> getAllFields(Class<?> clazz) {
     return ALL_FIELDS_CACHE.getUnchecked(clazz);
@@ -189,9 +203,10 @@ public class ModelUtils {
    * ImmutableObject#equals}, which work by comparing and printing these maps.
    */
   static Map<Field, Object> getFieldValues(Object instance) {
+    Field[] fields = FIELD_ARRAY_CACHE.getUnchecked(instance.getClass());
     // Don't make this ImmutableMap because field values can be null.
-    Map<Field, Object> values = new LinkedHashMap<>();
-    for (Field field : getAllFields(instance.getClass()).values()) {
+    Map<Field, Object> values = Maps.newLinkedHashMapWithExpectedSize(fields.length);
+    for (Field field : fields) {
       Object value = getFieldValue(instance, field);
       if (value != null && value.getClass().isArray()) {
         // It's surprisingly difficult to convert arrays into lists if the array might be primitive.
@@ -212,6 +227,89 @@ public class ModelUtils {
     return values;
   }
 
+  /**
+   * Returns whether two instances of the same class have equal values in all of their fields.
+   *
+   * <p>This is equivalent to comparing the two instances' {@link #getFieldValues} maps, including
+   * comparing arrays element by element, but doesn't build the maps.
+   */
+  static boolean fieldValuesEqual(Object left, Object right) {
+    for (Field field : FIELD_ARRAY_CACHE.getUnchecked(left.getClass())) {
+      if (!valuesEqual(getFieldValue(left, field), getFieldValue(right, field))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code for all of an instance's field values.
+   *
+   * <p>This is equal to {@link Arrays#hashCode(Object[])} of the values of the instance's
+   * {@link #getFieldValues} map, but doesn't build the map.
+   */
+  static int hashFieldValues(Object instance) {
+    int result = 1;
+    for (Field field : FIELD_ARRAY_CACHE.getUnchecked(instance.getClass())) {
+      result = 31 * result + valueHashCode(getFieldValue(instance, field));
+    }
+    return result;
+  }
+
+  /** Compares two field values, treating arrays like {@link #getFieldValues} does. */
+  private static boolean valuesEqual(Object left, Object right) {
+    if (left == right) {
+      return true;
+    }
+    if (left == null || right == null) {
+      return false;
+    }
+    if (!left.getClass().isArray() || !right.getClass().isArray()) {
+      return left.equals(right);
+    }
+    if (left instanceof byte[] && right instanceof byte[]) {
+      return Arrays.equals((byte[]) left, (byte[]) right);
+    }
+    if (left instanceof Object[] && right instanceof Object[]) {
+      return Arrays.equals((Object[]) left, (Object[]) right);
+    }
+    int length = Array.getLength(left);
+    if (length != Array.getLength(right)) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (!Objects.equals(Array.get(left, i), Array.get(right, i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Hashes a field value, treating arrays like {@link #getFieldValues} does. */
+  private static int valueHashCode(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (!value.getClass().isArray()) {
+      return value.hashCode();
+    }
+    if (value instanceof byte[]) {
+      return Arrays.hashCode((byte[]) value);
+    }
+    if (value instanceof Object[]) {
+      return Arrays.hashCode((Object[]) value);
+    }
+    int result = 1;
+    for (int i = 0; i < Array.getLength(value); i++) {
+      result = 31 * result + Objects.hashCode(Array.get(value, i));
+    }
+    return result;
+  }
+
+  /** Matches the values that {@link #cloneEmptyToNull} recurses on. */
+  private static final Predicate<Object> IMMUTABLE_OBJECT_OR_NULL =
+      or(isNull(), instanceOf(ImmutableObject.class));
+
   /** Functional helper for {@link #cloneEmptyToNull}. */
   private static final Function<Object, ?> CLONE_EMPTY_TO_NULL = new Function<Object, Object>() {
     @Override
@@ -227,21 +325,20 @@ public class ModelUtils {
             || (obj != null && obj.getClass().isArray() && Array.getLength(obj) == 0)) {
           return null;
         }
-        Predicate<Object> immutableObjectOrNull = or(isNull(), instanceOf(ImmutableObject.class));
         if ((obj instanceof Set || obj instanceof List)
-            && all((Iterable<?>) obj, immutableObjectOrNull)) {
+            && all((Iterable<?>) obj, IMMUTABLE_OBJECT_OR_NULL)) {
           // Recurse into sets and lists, but only if they contain ImmutableObjects.
           FluentIterable<?> fluent = FluentIterable.from((Iterable<?>) obj).transform(this);
           return (obj instanceof List) ? newArrayList(fluent) : newLinkedHashSet(fluent);
         }
-        if (obj instanceof Map && all(((Map<?, ?>) obj).values(), immutableObjectOrNull)) {
+        if (obj instanceof Map && all(((Map<?, ?>) obj).values(), IMMUTABLE_OBJECT_OR_NULL)) {
           // Recurse into maps with ImmutableObject values.
           return transformValues((Map<?, ?>) obj, this);
         }
         if (obj instanceof ImmutableObject) {
           // Recurse on the fields of an ImmutableObject.
           ImmutableObject copy = ImmutableObject.clone((ImmutableObject) obj);
-          for (Field field : getAllFields(obj.getClass()).values()) {
+          for (Field field : FIELD_ARRAY_CACHE.getUnchecked(obj.getClass())) {
             Object oldValue = getFieldValue(obj, field);
             Object newValue = apply(oldValue);
             if (!Objects.equals(oldValue, newValue)) {
@@ -262,5 +359,6 @@ public class ModelUtils {
   @VisibleForTesting
   static void resetCaches() {
     ALL_FIELDS_CACHE.invalidateAll();
+    FIELD_ARRAY_CACHE.invalidateAll();
   }
 }
@@ -17,9 +17,6 @@ package google.registry.model.domain;
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.getOnlyElement;
-import static com.google.common.collect.Maps.transformValues;
-import static com.google.common.collect.Sets.difference;
-import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.difference;
 import static google.registry.util.CollectionUtils.forceEmptyToNull;
 import static google.registry.util.CollectionUtils.nullSafeImmutableCopy;
@@ -27,12 +24,11 @@ import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static google.registry.util.CollectionUtils.union;
 
-import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Work;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
 import google.registry.model.contact.ContactResource;
@@ -43,8 +39,10 @@ import google.registry.model.eppinput.ResourceCommand.ResourceUpdate;
 import google.registry.model.eppinput.ResourceCommand.SingleResourceCommand;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
@@ -70,6 +68,13 @@ public class DomainCommand {
   public interface CreateOrUpdate<T extends CreateOrUpdate<T>> extends SingleResourceCommand {
     /** Creates a copy of this command with hard links to hosts and contacts. */
     public T cloneAndLinkReferences(DateTime now) throws InvalidReferencesException;
+
+    /**
+     * Creates a copy of this command with hard links to hosts and contacts, resolving all of their
+     * foreign keys with a single call to {@code loader}.
+     */
+    public T cloneAndLinkReferences(DateTime now, ForeignKeyIndex.BatchLoader loader)
+        throws InvalidReferencesException;
   }
 
   /** The fields on "chgType" from {@link "http://tools.ietf.org/html/rfc5731"}. */
@@ -174,10 +179,23 @@ public class DomainCommand {
     /** Creates a copy of this {@link Create} with hard links to hosts and contacts. */
     @Override
     public Create cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      return cloneAndLinkReferences(now, ForeignKeyIndex.TRANSACTIONLESS_BATCH_LOADER);
+    }
+
+    @Override
+    public Create cloneAndLinkReferences(DateTime now, ForeignKeyIndex.BatchLoader loader)
+        throws InvalidReferencesException {
       Create clone = clone(this);
-      clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, now);
+      ResolvedReferences references = new ResolvedReferences(now);
+      references.addHosts(clone.nameserverFullyQualifiedHostNames);
+      references.addContacts(clone.foreignKeyedDesignatedContacts);
+      if (clone.registrantContactId != null) {
+        references.addContactId(clone.registrantContactId);
+      }
+      references.load(loader);
+      clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, references);
       if (registrantContactId == null) {
-        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, now);
+        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, references);
       } else {
         // Load the registrant and contacts in one shot.
         ForeignKeyedDesignatedContact registrantPlaceholder = new ForeignKeyedDesignatedContact();
@@ -185,7 +203,7 @@ public class DomainCommand {
         registrantPlaceholder.type = DesignatedContact.Type.REGISTRANT;
         Set<DesignatedContact> contacts = linkContacts(
             union(nullToEmpty(clone.foreignKeyedDesignatedContacts), registrantPlaceholder),
-            now);
+            references);
         for (DesignatedContact contact : contacts) {
           if (DesignatedContact.Type.REGISTRANT.equals(contact.getType())) {
             clone.registrant = contact.getContactKey();
@@ -376,10 +394,11 @@ public class DomainCommand {
       }
 
       /** Creates a copy of this {@link AddRemove} with hard links to hosts and contacts. */
-      private AddRemove cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      private AddRemove cloneAndLinkReferences(ResolvedReferences references)
+          throws InvalidReferencesException {
         AddRemove clone = clone(this);
-        clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, now);
-        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, now);
+        clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, references);
+        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, references);
         return clone;
       }
     }
@@ -388,14 +407,15 @@ public class DomainCommand {
     @XmlType(propOrder = {"registrantContactId", "authInfo"})
     public static class Change extends DomainCreateOrChange<DomainBase.Builder<?, ?>> {
       /** Creates a copy of this {@link Change} with hard links to hosts and contacts. */
-      Change cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      Change cloneAndLinkReferences(ResolvedReferences references)
+          throws InvalidReferencesException {
         Change clone = clone(this);
         clone.registrant = clone.registrantContactId == null
             ? null
             : getOnlyElement(
-                loadByForeignKey(
-                    ImmutableSet.of(clone.registrantContactId), ContactResource.class, now)
-                        .values());
+                references
+                    .getKeys(ContactResource.class, ImmutableSet.of(clone.registrantContactId))
+                    .values());
         return clone;
       }
     }
@@ -408,25 +428,42 @@ public class DomainCommand {
      */
     @Override
     public Update cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      return cloneAndLinkReferences(now, ForeignKeyIndex.TRANSACTIONLESS_BATCH_LOADER);
+    }
+
+    @Override
+    public Update cloneAndLinkReferences(DateTime now, ForeignKeyIndex.BatchLoader loader)
+        throws InvalidReferencesException {
       Update clone = clone(this);
-      clone.innerAdd = clone.getInnerAdd().cloneAndLinkReferences(now);
-      clone.innerRemove = clone.getInnerRemove().cloneAndLinkReferences(now);
-      clone.innerChange = clone.getInnerChange().cloneAndLinkReferences(now);
+      ResolvedReferences references = new ResolvedReferences(now);
+      for (AddRemove addRemove : ImmutableList.of(clone.getInnerAdd(), clone.getInnerRemove())) {
+        references.addHosts(addRemove.nameserverFullyQualifiedHostNames);
+        references.addContacts(addRemove.foreignKeyedDesignatedContacts);
+      }
+      if (clone.getInnerChange().registrantContactId != null) {
+        references.addContactId(clone.getInnerChange().registrantContactId);
+      }
+      references.load(loader);
+      clone.innerAdd = clone.getInnerAdd().cloneAndLinkReferences(references);
+      clone.innerRemove = clone.getInnerRemove().cloneAndLinkReferences(references);
+      clone.innerChange = clone.getInnerChange().cloneAndLinkReferences(references);
       return clone;
     }
   }
 
   private static Set<Key<HostResource>> linkHosts(
-      Set<String> fullyQualifiedHostNames, DateTime now) throws InvalidReferencesException {
+      Set<String> fullyQualifiedHostNames, ResolvedReferences references)
+      throws InvalidReferencesException {
     if (fullyQualifiedHostNames == null) {
       return null;
     }
     return ImmutableSet.copyOf(
-        loadByForeignKey(fullyQualifiedHostNames, HostResource.class, now).values());
+        references.getKeys(HostResource.class, fullyQualifiedHostNames).values());
   }
 
   private static Set<DesignatedContact> linkContacts(
-      Set<ForeignKeyedDesignatedContact> contacts, DateTime now) throws InvalidReferencesException {
+      Set<ForeignKeyedDesignatedContact> contacts, ResolvedReferences references)
+      throws InvalidReferencesException {
     if (contacts == null) {
       return null;
     }
@@ -435,7 +472,7 @@ public class DomainCommand {
       foreignKeys.add(contact.contactId);
     }
     ImmutableMap<String, Key<ContactResource>> loadedContacts =
-        loadByForeignKey(foreignKeys.build(), ContactResource.class, now);
+        references.getKeys(ContactResource.class, foreignKeys.build());
     ImmutableSet.Builder<DesignatedContact> linkedContacts = new ImmutableSet.Builder<>();
     for (ForeignKeyedDesignatedContact contact : contacts) {
       linkedContacts.add(DesignatedContact.create(
@@ -444,27 +481,61 @@ public class DomainCommand {
     return linkedContacts.build();
   }
 
-  /** Load keys to resources by their foreign keys. */
-  private static <T extends EppResource> ImmutableMap<String, Key<T>> loadByForeignKey(
-      final Set<String> foreignKeys, final Class<T> clazz, final DateTime now)
-      throws InvalidReferencesException {
-    Map<String, ForeignKeyIndex<T>> fkis = ofy().doTransactionless(
-        new Work<Map<String, ForeignKeyIndex<T>>>() {
-          @Override
-          public Map<String, ForeignKeyIndex<T>> run() {
-            return ForeignKeyIndex.load(clazz, foreignKeys, now);
-          }});
-    if (!fkis.keySet().equals(foreignKeys)) {
-      throw new InvalidReferencesException(
-          clazz, ImmutableSet.copyOf(difference(foreignKeys, fkis.keySet())));
-    }
-    return ImmutableMap.copyOf(transformValues(
-        fkis,
-        new Function<ForeignKeyIndex<T>, Key<T>>() {
-          @Override
-          public Key<T> apply(ForeignKeyIndex<T> fki) {
-            return fki.getResourceKey();
-          }}));
+  /**
+   * The {@link ForeignKeyIndex} instances for all of the hosts and contacts referenced by a
+   * command, which are loaded in one batch before any of them are linked.
+   */
+  private static class ResolvedReferences {
+    private final DateTime now;
+    private final Set<Key<ForeignKeyIndex<?>>> keys = new LinkedHashSet<>();
+    private Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> loaded;
+
+    ResolvedReferences(DateTime now) {
+      this.now = now;
+    }
+
+    void addHosts(@Nullable Set<String> fullyQualifiedHostNames) {
+      for (String fullyQualifiedHostName : nullToEmpty(fullyQualifiedHostNames)) {
+        keys.add(ForeignKeyIndex.createKey(HostResource.class, fullyQualifiedHostName));
+      }
+    }
+
+    void addContacts(@Nullable Set<ForeignKeyedDesignatedContact> contacts) {
+      for (ForeignKeyedDesignatedContact contact : nullToEmpty(contacts)) {
+        addContactId(contact.contactId);
+      }
+    }
+
+    void addContactId(String contactId) {
+      keys.add(ForeignKeyIndex.createKey(ContactResource.class, contactId));
+    }
+
+    void load(ForeignKeyIndex.BatchLoader loader) {
+      loaded = keys.isEmpty()
+          ? ImmutableMap.<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>>of()
+          : loader.load(ImmutableSet.copyOf(keys));
+    }
+
+    /** Returns keys to the resources with these foreign keys that are active at {@code now}. */
+    <T extends EppResource> ImmutableMap<String, Key<T>> getKeys(
+        Class<T> clazz, Set<String> foreignKeys) throws InvalidReferencesException {
+      ImmutableMap.Builder<String, Key<T>> resourceKeys = new ImmutableMap.Builder<>();
+      ImmutableSet.Builder<String> missingForeignKeys = new ImmutableSet.Builder<>();
+      for (String foreignKey : foreignKeys) {
+        ForeignKeyIndex<?> fki = loaded.get(ForeignKeyIndex.createKey(clazz, foreignKey));
+        if (fki == null || !now.isBefore(fki.getDeletionTime())) {
+          missingForeignKeys.add(foreignKey);
+        } else {
+          @SuppressWarnings("unchecked")
+          Key<T> resourceKey = (Key<T>) fki.getResourceKey();
+          resourceKeys.put(foreignKey, resourceKey);
+        }
+      }
+      if (!missingForeignKeys.build().isEmpty()) {
+        throw new InvalidReferencesException(clazz, missingForeignKeys.build());
+      }
+      return resourceKeys.build();
+    }
   }
 
   /** Exception to throw when referenced objects don't exist. */
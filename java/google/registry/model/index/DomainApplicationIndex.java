@@ -22,6 +22,7 @@ import static google.registry.util.CollectionUtils.isNullOrEmpty;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
@@ -30,6 +31,7 @@ import google.registry.model.BackupGroupRoot;
 import google.registry.model.annotations.ReportedOn;
 import google.registry.model.domain.DomainApplication;
 import google.registry.util.CollectionUtils;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
@@ -89,15 +91,36 @@ public class DomainApplicationIndex extends BackupGroupRoot {
    */
   public static ImmutableSet<DomainApplication> loadActiveApplicationsByDomainName(
       String fullyQualifiedDomainName, DateTime now) {
-    DomainApplicationIndex index = load(fullyQualifiedDomainName);
-    if (index == null) {
-      return ImmutableSet.of();
+    return loadActiveApplicationsByDomainNames(ImmutableSet.of(fullyQualifiedDomainName), now)
+        .get(fullyQualifiedDomainName);
+  }
+
+  /**
+   * Returns all DomainApplications for the given fully qualified domain names that do not have a
+   * deletion time before the supplied DateTime, keyed by domain name.
+   *
+   * <p>This makes at most two batch loads however many names are given, one for their indexes and
+   * one for all of the applications those reference.
+   */
+  public static ImmutableSetMultimap<String, DomainApplication> loadActiveApplicationsByDomainNames(
+      Iterable<String> fullyQualifiedDomainNames, DateTime now) {
+    ImmutableSet.Builder<Key<DomainApplicationIndex>> indexKeys = new ImmutableSet.Builder<>();
+    for (String fullyQualifiedDomainName : fullyQualifiedDomainNames) {
+      indexKeys.add(Key.create(DomainApplicationIndex.class, fullyQualifiedDomainName));
+    }
+    Set<Key<DomainApplication>> applicationKeys = new LinkedHashSet<>();
+    for (DomainApplicationIndex index : ofy().load().keys(indexKeys.build()).values()) {
+      applicationKeys.addAll(index.getKeys());
+    }
+    ImmutableSetMultimap.Builder<String, DomainApplication> apps =
+        new ImmutableSetMultimap.Builder<>();
+    if (applicationKeys.isEmpty()) {
+      return apps.build();
     }
-    ImmutableSet.Builder<DomainApplication> apps = new ImmutableSet.Builder<>();
-    for (DomainApplication app : ofy().load().keys(index.getKeys()).values()) {
+    for (DomainApplication app : ofy().load().keys(applicationKeys).values()) {
       DateTime forwardedNow = latestOf(now, app.getUpdateAutoTimestamp().getTimestamp());
       if (app.getDeletionTime().isAfter(forwardedNow)) {
-        apps.add(app.cloneProjectedAtTime(forwardedNow));
+        apps.put(app.getFullyQualifiedDomainName(), app.cloneProjectedAtTime(forwardedNow));
       }
     }
     return apps.build();
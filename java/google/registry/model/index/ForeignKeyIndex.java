@@ -23,6 +23,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -34,6 +35,7 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
@@ -119,10 +121,39 @@ public abstract class ForeignKeyIndex<E extends EppResource> extends BackupGroup
 
   /** Create a {@link ForeignKeyIndex} key for a resource. */
   public static Key<ForeignKeyIndex<?>> createKey(EppResource resource) {
-    return Key.<ForeignKeyIndex<?>>create(
-        RESOURCE_CLASS_TO_FKI_CLASS.get(resource.getClass()), resource.getForeignKey());
+    return createKey(resource.getClass(), resource.getForeignKey());
   }
 
+  /** Create a {@link ForeignKeyIndex} key for a resource class and foreign key. */
+  public static Key<ForeignKeyIndex<?>> createKey(
+      Class<? extends EppResource> clazz, String foreignKey) {
+    return Key.<ForeignKeyIndex<?>>create(RESOURCE_CLASS_TO_FKI_CLASS.get(clazz), foreignKey);
+  }
+
+  /**
+   * Loads {@link ForeignKeyIndex} instances of any resource type by key, in a single batch.
+   *
+   * <p>This is used to resolve all of the foreign keys referenced by a command at once. Unlike
+   * {@link #load}, it does not filter out soft deleted indexes, so that implementations can cache
+   * what they load regardless of the time at which it is used.
+   */
+  public interface BatchLoader {
+    /** Returns the indexes that exist for the given keys, omitting those that don't. */
+    Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> load(Set<Key<ForeignKeyIndex<?>>> keys);
+  }
+
+  /** A {@link BatchLoader} that loads each batch from datastore, outside of any transaction. */
+  public static final BatchLoader TRANSACTIONLESS_BATCH_LOADER = new BatchLoader() {
+    @Override
+    public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> load(
+        final Set<Key<ForeignKeyIndex<?>>> keys) {
+      return ofy().doTransactionless(new Work<Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>>>() {
+        @Override
+        public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> run() {
+          return ImmutableMap.copyOf(ofy().load().keys(keys));
+        }});
+    }};
+
   /**
    * Loads a {@link Key} to an {@link EppResource} from the datastore by foreign key.
    *
@@ -0,0 +1,64 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+
+/**
+ * Marker saved alongside a {@link CommitLogManifest} to show that its transaction committed.
+ *
+ * <p>Each transaction attempt generates a random id, and the marker's key is derived from it. When
+ * an attempt fails with an error that doesn't say whether it committed, looking up that one key
+ * tells us, whatever the size of the transaction. The id can't collide with that of another
+ * attempt, even one that happens to get a manifest with the same key.
+ */
+@Entity
+@NotBackedUp(reason = Reason.COMMIT_LOGS)
+public class CommitLogMarker extends ImmutableObject {
+
+  /** The manifest this belongs to. */
+  @Parent
+  Key<CommitLogManifest> parent;
+
+  /** The random id generated for the transaction attempt that saved this marker. */
+  @Id
+  String transactionId;
+
+  public String getTransactionId() {
+    return transactionId;
+  }
+
+  public static CommitLogMarker create(Key<CommitLogManifest> parent, String transactionId) {
+    checkArgument(!isNullOrEmpty(transactionId), "Transaction id must be specified");
+    CommitLogMarker instance = new CommitLogMarker();
+    instance.parent = parent;
+    instance.transactionId = transactionId;
+    return instance;
+  }
+
+  public static Key<CommitLogMarker> createKey(
+      Key<CommitLogManifest> parent, String transactionId) {
+    return Key.create(create(parent, transactionId));
+  }
+}
@@ -16,24 +16,40 @@ package google.registry.model.ofy;
 
 import static com.google.appengine.api.datastore.EntityTranslator.convertToPb;
 import static com.google.appengine.api.datastore.EntityTranslator.createFromPbBytes;
+import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNull;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.util.NonFinalForTesting;
+import javax.annotation.Nullable;
 
 /** Representation of a saved entity in a {@link CommitLogManifest} (not deletes). */
 @Entity
 @NotBackedUp(reason = Reason.COMMIT_LOGS)
 public class CommitLogMutation extends ImmutableObject {
 
+  /**
+   * Codecs to store mutations with, by the kind of entity saved. Other kinds are stored as is.
+   *
+   * <p>These are the kinds whose entities are both large and saved in most transactions.
+   */
+  @NonFinalForTesting
+  private static ImmutableMap<String, CommitLogMutationCodec> codecsByKind = ImmutableMap.of(
+      "DomainBase", CommitLogMutationCodec.DEFLATE_V1,
+      "HistoryEntry", CommitLogMutationCodec.DEFLATE_V1);
+
   /** The manifest this belongs to. */
   @Parent
   Key<CommitLogManifest> parent;
@@ -43,19 +59,35 @@ public class CommitLogMutation extends ImmutableObject {
   String entityKey;
 
   /**
-   * Raw entity that was saved during the transaction, serialized as a protocol buffer.
+   * Raw entity that was saved during the transaction, serialized as a protocol buffer and then
+   * encoded with {@link #codec}.
    *
    * <p>This value will be written to a GCS file by an export task.
    */
   byte[] entityProtoBytes;
 
+  /**
+   * The codec that {@link #entityProtoBytes} were encoded with, or null if they are stored as is.
+   *
+   * <p>This is left unset rather than set to {@link CommitLogMutationCodec#NONE}, so that
+   * mutations stored as is look the same as those saved before there were codecs.
+   */
+  @Nullable
+  @IgnoreSave(IfNull.class)
+  CommitLogMutationCodec codec;
+
+  /** Returns the saved entity serialized as a protocol buffer, whatever it was stored with. */
   public byte[] getEntityProtoBytes() {
-    return entityProtoBytes.clone();
+    return getCodec().decode(entityProtoBytes);
+  }
+
+  public CommitLogMutationCodec getCodec() {
+    return firstNonNull(codec, CommitLogMutationCodec.NONE);
   }
 
   /** Deserializes embedded entity bytes and returns it. */
   public com.google.appengine.api.datastore.Entity getEntity() {
-    return createFromPbBytes(entityProtoBytes);
+    return createFromPbBytes(getEntityProtoBytes());
   }
 
   /**
@@ -72,17 +104,34 @@ public class CommitLogMutation extends ImmutableObject {
    * Returns a new mutation entity created from a raw datastore Entity instance.
    *
    * <p>The mutation key is generated deterministically from the {@code entity} key. The Entity
-   * itself is serialized to bytes and stored within the returned mutation.
+   * itself is serialized to bytes and stored within the returned mutation, encoded with the codec
+   * for its kind.
    */
   @VisibleForTesting
   public static CommitLogMutation createFromRaw(
       Key<CommitLogManifest> parent,
       com.google.appengine.api.datastore.Entity rawEntity) {
+    return createFromRaw(
+        parent,
+        rawEntity,
+        firstNonNull(codecsByKind.get(rawEntity.getKind()), CommitLogMutationCodec.NONE));
+  }
+
+  /**
+   * Returns a new mutation entity created from a raw datastore Entity instance, with its bytes
+   * encoded with the given codec.
+   */
+  @VisibleForTesting
+  public static CommitLogMutation createFromRaw(
+      Key<CommitLogManifest> parent,
+      com.google.appengine.api.datastore.Entity rawEntity,
+      CommitLogMutationCodec codec) {
     CommitLogMutation instance = new CommitLogMutation();
     instance.parent = checkNotNull(parent);
     // Creates a web-safe key string.
     instance.entityKey = KeyFactory.keyToString(rawEntity.getKey());
-    instance.entityProtoBytes = convertToPb(rawEntity).toByteArray();
+    instance.entityProtoBytes = codec.encode(convertToPb(rawEntity).toByteArray());
+    instance.codec = (codec == CommitLogMutationCodec.NONE) ? null : codec;
     return instance;
   }
 
@@ -0,0 +1,292 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodings of the entity bytes stored in a {@link CommitLogMutation}.
+ *
+ * <p>The codec a mutation was stored with is saved alongside its bytes, so that mutations stored
+ * with any codec can always be read back. A codec must therefore never change how it encodes once
+ * it has been used; to encode differently, add a new codec instead.
+ */
+public enum CommitLogMutationCodec {
+
+  /** The entity proto bytes as is, which is how all mutations were stored before codecs. */
+  NONE {
+    @Override
+    byte[] encode(byte[] entityProtoBytes) {
+      return entityProtoBytes.clone();
+    }
+
+    @Override
+    byte[] decode(byte[] storedBytes) {
+      return storedBytes.clone();
+    }
+  },
+
+  /** Deflate in the zlib format, with {@link #DICTIONARY_V1} as the preset dictionary. */
+  DEFLATE_V1 {
+    @Override
+    byte[] encode(byte[] entityProtoBytes) {
+      return deflate(entityProtoBytes, DICTIONARY_V1);
+    }
+
+    @Override
+    byte[] decode(byte[] storedBytes) {
+      return inflate(storedBytes, DICTIONARY_V1);
+    }
+  };
+
+  /** Returns the bytes to store for a mutation with the given entity proto bytes. */
+  abstract byte[] encode(byte[] entityProtoBytes);
+
+  /** Returns the entity proto bytes of a mutation stored with the given bytes. */
+  abstract byte[] decode(byte[] storedBytes);
+
+  private static final int BUFFER_SIZE = 4096;
+
+  /**
+   * Preset dictionary for {@link #DEFLATE_V1}, which must never be changed.
+   *
+   * <p>This holds the strings that recur across the entities that make up most commit logs, which
+   * are kind and property names, enum values, and the EPP XML saved in history entries. Entities
+   * are only a few kilobytes, so without a dictionary most of them would be written out in full
+   * before deflate found anything to refer back to. Deflate encodes nearer matches more cheaply,
+   * so the most common strings come last.
+   */
+  private static final byte[] DICTIONARY_V1 = Joiner.on('\0').join(
+      // EPP XML, as saved in history entries.
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>",
+      "<epp xmlns=\"urn:ietf:params:xml:ns:epp-1.0\">",
+      "xmlns:contact=\"urn:ietf:params:xml:ns:contact-1.0\"",
+      "xmlns:host=\"urn:ietf:params:xml:ns:host-1.0\"",
+      "xmlns:secDNS=\"urn:ietf:params:xml:ns:secDNS-1.1\"",
+      "xmlns:launch=\"urn:ietf:params:xml:ns:launch-1.0\"",
+      "xmlns:fee=\"urn:ietf:params:xml:ns:fee-0.6\"",
+      "xmlns:rgp=\"urn:ietf:params:xml:ns:rgp-1.0\"",
+      "<extension>",
+      "</extension>",
+      "<contact:create",
+      "<contact:update",
+      "<contact:id>",
+      "</contact:id>",
+      "<contact:postalInfo type=\"int\">",
+      "<host:create",
+      "<host:update",
+      "<host:name>",
+      "</host:name>",
+      "<host:addr ip=\"v4\">",
+      "<domain:transfer",
+      "<domain:renew",
+      "<domain:delete",
+      "<domain:update",
+      "<domain:chg>",
+      "<domain:add>",
+      "<domain:rem>",
+      "<domain:status s=\"",
+      "<domain:curExpDate>",
+      "<domain:create",
+      " xmlns:domain=\"urn:ietf:params:xml:ns:domain-1.0\">",
+      "<domain:name>",
+      "</domain:name>",
+      "<domain:period unit=\"y\">",
+      "</domain:period>",
+      "<domain:ns>",
+      "</domain:ns>",
+      "<domain:hostObj>",
+      "</domain:hostObj>",
+      "<domain:registrant>",
+      "</domain:registrant>",
+      "<domain:contact type=\"admin\">",
+      "<domain:contact type=\"tech\">",
+      "</domain:contact>",
+      "<domain:authInfo>",
+      "<domain:pw>",
+      "</domain:pw>",
+      "</domain:authInfo>",
+      "</domain:create>",
+      "<command>",
+      "<clTRID>",
+      "</clTRID>",
+      "</command>",
+      "</epp>",
+      // Enum values.
+      "SERVER_DELETE_PROHIBITED",
+      "SERVER_TRANSFER_PROHIBITED",
+      "SERVER_UPDATE_PROHIBITED",
+      "SERVER_HOLD",
+      "CLIENT_DELETE_PROHIBITED",
+      "CLIENT_TRANSFER_PROHIBITED",
+      "CLIENT_UPDATE_PROHIBITED",
+      "CLIENT_RENEW_PROHIBITED",
+      "CLIENT_HOLD",
+      "PENDING_DELETE",
+      "PENDING_TRANSFER",
+      "INACTIVE",
+      "LINKED",
+      "ADD",
+      "AUTO_RENEW",
+      "REDEMPTION",
+      "TRANSFER",
+      "RENEW",
+      "PENDING",
+      "SERVER_APPROVED",
+      "CLIENT_APPROVED",
+      "DOMAIN_TRANSFER_REQUEST",
+      "DOMAIN_TRANSFER_APPROVE",
+      "DOMAIN_AUTORENEW",
+      "DOMAIN_DELETE",
+      "DOMAIN_RENEW",
+      "DOMAIN_UPDATE",
+      "DOMAIN_CREATE",
+      "CONTACT_CREATE",
+      "CONTACT_UPDATE",
+      "HOST_CREATE",
+      "HOST_UPDATE",
+      "ADMIN",
+      "TECH",
+      "BILLING",
+      "YEARS",
+      "OK",
+      // Kind and property names.
+      "BillingEvent",
+      "PollMessage",
+      "EppResourceIndex",
+      "ForeignKeyDomainIndex",
+      "ContactResource",
+      "HostResource",
+      "contactId",
+      "internationalizedPostalInfo",
+      "localizedPostalInfo",
+      "email",
+      "voice",
+      "inetAddresses",
+      "superordinateDomain",
+      "subordinateHosts",
+      "dsData",
+      "gracePeriods.billingEventOneTime",
+      "gracePeriods.billingEventRecurring",
+      "gracePeriods.clientId",
+      "gracePeriods.expirationTime",
+      "gracePeriods.type",
+      "transferData.gainingClientId",
+      "transferData.losingClientId",
+      "transferData.pendingTransferExpirationTime",
+      "transferData.serverApproveEntities",
+      "transferData.transferRequestTime",
+      "transferData.transferRequestTrid",
+      "transferData.transferStatus",
+      "transferData.transferPeriod.unit",
+      "transferData.transferPeriod.value",
+      "lastTransferTime",
+      "deletePollMessage",
+      "autorenewPollMessage",
+      "autorenewBillingEvent",
+      "registrationExpirationTime",
+      "idnTableName",
+      "smdId",
+      "launchNotice",
+      "authInfo.pw.repoId",
+      "authInfo.pw.value",
+      "allContacts.contact",
+      "allContacts.type",
+      "registrant",
+      "nsHosts",
+      "status",
+      "deletionTime",
+      "lastEppUpdateClientId",
+      "lastEppUpdateTime",
+      "creationClientId",
+      "creationTime.timestamp",
+      "currentSponsorClientId",
+      "fullyQualifiedDomainName",
+      "tld",
+      "revisions.key",
+      "revisions.value",
+      "updateTimestamp.timestamp",
+      "repoId",
+      "DomainResource",
+      "DomainBase",
+      "^d",
+      "^i",
+      "bySuperuser",
+      "requestedByRegistrar",
+      "reason",
+      "otherClientId",
+      "period.unit",
+      "period.value",
+      "trid.clientTransactionId",
+      "trid.serverTransactionId",
+      "modificationTime",
+      "clientId",
+      "type",
+      "xmlBytes",
+      "HistoryEntry",
+      "CommitLogManifest",
+      "CommitLogBucket",
+      "EntityGroupRoot",
+      "cross-tld")
+      .getBytes(UTF_8);
+
+  private static byte[] deflate(byte[] input, byte[] dictionary) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setDictionary(dictionary);
+      deflater.setInput(input);
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] input, byte[] dictionary) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        output.write(buffer, 0, length);
+        if (length == 0 && !inflater.finished()) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(dictionary);
+          } else if (inflater.needsInput()) {
+            throw new IllegalArgumentException("Commit log mutation bytes are truncated");
+          }
+        }
+      }
+      return output.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Commit log mutation bytes are corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -15,6 +15,7 @@
 package google.registry.model.ofy;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Predicates.and;
 import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Maps.filterKeys;
@@ -25,7 +26,9 @@ import static google.registry.model.ofy.CommitLogBucket.loadBucket;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -34,15 +37,21 @@ import com.googlecode.objectify.Work;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
 import google.registry.util.Clock;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 /** Wrapper for {@link Work} that associates a time with each attempt. */
 class CommitLoggedWork<R> extends VoidWork {
 
+  /** Whether each kind seen so far is a {@link BackupGroupRoot}, since that never changes. */
+  private static final Map<String, Boolean> BACKUP_GROUP_ROOT_KINDS = new ConcurrentHashMap<>();
+
   private final Work<R> work;
   private final Clock clock;
 
@@ -58,22 +67,19 @@ class CommitLoggedWork<R> extends VoidWork {
   private R result;
 
   /**
-   * Temporary place to store the key of the commit log manifest.
+   * Temporary place to store the key of the commit log marker.
    *
    * <p>We can use this to determine whether a transaction that failed with a
-   * {@link com.google.appengine.api.datastore.DatastoreTimeoutException} actually succeeded. If
-   * the manifest exists, and if the contents of the commit log are what we expected to have saved,
-   * then the transaction committed. If the manifest does not exist, then the transaction failed and
-   * is retryable.
+   * {@link com.google.appengine.api.datastore.DatastoreTimeoutException} actually succeeded. The
+   * marker is saved in the same transaction as everything else, under a key derived from an id
+   * that is unique to this attempt, so if it exists then the transaction committed, and if it
+   * doesn't then the transaction failed and is retryable.
    */
-  protected CommitLogManifest manifest;
+  @Nullable
+  private Key<CommitLogMarker> commitMarkerKey;
 
-  /**
-   * Temporary place to store the mutations belonging to the commit log manifest.
-   *
-   * <p>These are used along with the manifest to determine whether a transaction succeeded.
-   */
-  protected ImmutableSet<ImmutableObject> mutations = ImmutableSet.of();
+  /** The actions registered by the last attempt to run once the transaction has committed. */
+  private ImmutableList<Runnable> afterCommitActions = ImmutableList.of();
 
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
@@ -96,14 +102,17 @@ class CommitLoggedWork<R> extends VoidWork {
     return result;
   }
 
-  CommitLogManifest getManifest() {
-    checkState(vrunCalled, "Cannot call getManifest() before vrun()");
-    return manifest;
+  /** Returns the key of the commit log marker, or null if no commit log was saved. */
+  @Nullable
+  Key<CommitLogMarker> getCommitMarkerKey() {
+    checkState(vrunCalled, "Cannot call getCommitMarkerKey() before vrun()");
+    return commitMarkerKey;
   }
 
-  ImmutableSet<ImmutableObject> getMutations() {
-    checkState(vrunCalled, "Cannot call getMutations() before vrun()");
-    return mutations;
+  /** Returns the actions to run now that the transaction has committed. */
+  ImmutableList<Runnable> getAfterCommitActions() {
+    checkState(vrunCalled, "Cannot call getAfterCommitActions() before vrun()");
+    return afterCommitActions;
   }
 
   @Override
@@ -112,9 +121,13 @@ class CommitLoggedWork<R> extends VoidWork {
     TransactionInfo previous = Ofy.TRANSACTION_INFO.get();
     // Set the time to be used for "now" within the transaction.
     try {
-      Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
+      TransactionInfo info = createNewTransactionInfo();
+      Ofy.TRANSACTION_INFO.set(info);
+      commitMarkerKey = null;
+      afterCommitActions = ImmutableList.of();
       result = work.run();
-      saveCommitLog(Ofy.TRANSACTION_INFO.get());
+      saveCommitLog(info);
+      afterCommitActions = info.getAfterCommitActions();
     } finally {
       Ofy.TRANSACTION_INFO.set(previous);
     }
@@ -132,20 +145,25 @@ class CommitLoggedWork<R> extends VoidWork {
     if (isBeforeOrAt(info.transactionTime, bucket.getLastWrittenTime())) {
       throw new TimestampInversionException(info.transactionTime, bucket.getLastWrittenTime());
     }
-    Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForTouchedKeys =
-        getBackupGroupRoots(touchedKeys);
-    Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForUntouchedKeys =
-        getBackupGroupRoots(difference(getObjectifySessionCacheKeys(), touchedKeys));
+    // Find the roots of the touched keys and of every other key read in the transaction, except for
+    // reads that the caller excluded, and load all of them together.
+    Set<Key<BackupGroupRoot>> rootKeysForTouchedKeys = getBackupGroupRootKeys(touchedKeys);
+    Set<Key<BackupGroupRoot>> rootKeysForUntouchedKeys = getBackupGroupRootKeys(
+        difference(
+            getObjectifySessionCacheKeys(),
+            union(touchedKeys, info.getReadsExcludedFromTimestampCheck())));
+    Map<Key<BackupGroupRoot>, BackupGroupRoot> roots =
+        loadBackupGroupRoots(union(rootKeysForTouchedKeys, rootKeysForUntouchedKeys));
     // Check the update timestamps of all keys in the transaction, whether touched or merely read.
-    checkBackupGroupRootTimestamps(
-        info.transactionTime,
-        union(rootsForUntouchedKeys.entrySet(), rootsForTouchedKeys.entrySet()));
+    checkBackupGroupRootTimestamps(info.transactionTime, roots.entrySet());
     // Find any BGRs that have children which were touched but were not themselves touched.
-    Set<BackupGroupRoot> untouchedRootsWithTouchedChildren =
-        ImmutableSet.copyOf(filterKeys(rootsForTouchedKeys, not(in(touchedKeys))).values());
-    manifest = CommitLogManifest.create(info.bucketKey, info.transactionTime, info.getDeletes());
+    Set<BackupGroupRoot> untouchedRootsWithTouchedChildren = ImmutableSet.copyOf(
+        filterKeys(roots, and(in(rootKeysForTouchedKeys), not(in(touchedKeys)))).values());
+    CommitLogManifest manifest =
+        CommitLogManifest.create(info.bucketKey, info.transactionTime, info.getDeletes());
     final Key<CommitLogManifest> manifestKey = Key.create(manifest);
-    mutations = FluentIterable
+    CommitLogMarker marker = CommitLogMarker.create(manifestKey, info.transactionId);
+    ImmutableSet<ImmutableObject> mutations = FluentIterable
         .from(union(info.getSaves(), untouchedRootsWithTouchedChildren))
         .transform(new Function<Object, ImmutableObject>() {
             @Override
@@ -156,11 +174,13 @@ class CommitLoggedWork<R> extends VoidWork {
     ofy().save()
       .entities(new ImmutableSet.Builder<>()
           .add(manifest)
+          .add(marker)
           .add(bucket.asBuilder().setLastWrittenTime(info.transactionTime).build())
           .addAll(mutations)
           .addAll(untouchedRootsWithTouchedChildren)
           .build())
       .now();
+    commitMarkerKey = Key.create(marker);
   }
 
   /**
@@ -191,12 +211,10 @@ class CommitLoggedWork<R> extends VoidWork {
   }
 
   /** Find the set of {@link BackupGroupRoot} ancestors of the given keys. */
-  private Map<Key<BackupGroupRoot>, BackupGroupRoot> getBackupGroupRoots(Iterable<Key<?>> keys) {
+  private static Set<Key<BackupGroupRoot>> getBackupGroupRootKeys(Iterable<Key<?>> keys) {
     Set<Key<BackupGroupRoot>> rootKeys = new HashSet<>();
     for (Key<?> key : keys) {
-      while (key != null
-          && !BackupGroupRoot.class
-              .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass())) {
+      while (key != null && !isBackupGroupRoot(key)) {
         key = key.getParent();
       }
       if (key != null) {
@@ -205,6 +223,43 @@ class CommitLoggedWork<R> extends VoidWork {
         rootKeys.add(rootKey);
       }
     }
-    return ImmutableMap.copyOf(ofy().load().keys(rootKeys));
+    return rootKeys;
+  }
+
+  /** Returns whether the entity class registered for a key's kind is a {@link BackupGroupRoot}. */
+  private static boolean isBackupGroupRoot(Key<?> key) {
+    Boolean isBackupGroupRoot = BACKUP_GROUP_ROOT_KINDS.get(key.getKind());
+    if (isBackupGroupRoot == null) {
+      isBackupGroupRoot = BackupGroupRoot.class
+          .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass());
+      BACKUP_GROUP_ROOT_KINDS.put(key.getKind(), isBackupGroupRoot);
+    }
+    return isBackupGroupRoot;
+  }
+
+  /**
+   * Loads the {@link BackupGroupRoot} entities with the given keys that exist.
+   *
+   * <p>Roots that are already in the session cache, which is usually most of them since the
+   * transaction read or wrote them or their children, are taken from there, and the rest are
+   * loaded from datastore in a single batch.
+   */
+  private static Map<Key<BackupGroupRoot>, BackupGroupRoot> loadBackupGroupRoots(
+      Set<Key<BackupGroupRoot>> rootKeys) {
+    SessionKeyExposingObjectify objectify = (SessionKeyExposingObjectify) ofy();
+    Map<Key<BackupGroupRoot>, BackupGroupRoot> roots = new HashMap<>();
+    Set<Key<BackupGroupRoot>> missingRootKeys = new HashSet<>();
+    for (Key<BackupGroupRoot> rootKey : rootKeys) {
+      Optional<BackupGroupRoot> root = objectify.getFromSession(rootKey);
+      if (root == null) {
+        missingRootKeys.add(rootKey);
+      } else if (root.isPresent()) {
+        roots.put(rootKey, root.get());
+      }
+    }
+    if (!missingRootKeys.isEmpty()) {
+      roots.putAll(objectify.load().keys(missingRootKeys));
+    }
+    return roots;
   }
 }
@@ -20,16 +20,18 @@ import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Maps.uniqueIndex;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 import static google.registry.config.RegistryConfig.getBaseOfyRetryDuration;
-import static google.registry.util.CollectionUtils.union;
+import static google.registry.config.RegistryConfig.getOfyRetryBudget;
+import static google.registry.util.DateTimeUtils.earliestOf;
 import static google.registry.util.ObjectifyUtils.OBJECTS_TO_KEYS;
 
 import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.ReadPolicy.Consistency;
 import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
@@ -41,6 +43,7 @@ import com.googlecode.objectify.cmd.Saver;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.ofy.ReadOnlyWork.KillTransactionException;
+import google.registry.model.ofy.TransactionMetrics.FailureOutcome;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.NonFinalForTesting;
@@ -48,7 +51,7 @@ import google.registry.util.Sleeper;
 import google.registry.util.SystemClock;
 import google.registry.util.SystemSleeper;
 import java.lang.annotation.Annotation;
-import java.util.Objects;
+import java.util.Random;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -92,6 +95,10 @@ public class Ofy {
   /** Retry for 8^2 * 100ms = ~25 seconds. */
   private static final int NUM_RETRIES = 8;
 
+  /** Source of the jitter in the backoff between transaction retries. */
+  @NonFinalForTesting
+  static Random random = new Random();
+
   @Inject
   public Ofy(Clock injectedClock) {
     this.injectedClock = injectedClock;
@@ -192,6 +199,14 @@ public class Ofy {
     return injectedClock == null ? clock : injectedClock;
   }
 
+  /**
+   * Returns the current time of the clock that transaction times come from, for checking times
+   * saved by earlier transactions without starting a new one.
+   */
+  public DateTime getCurrentTime() {
+    return getClock().nowUtc();
+  }
+
   /** Execute a transaction. */
   public <R> R transact(Work<R> work) {
     // If we are already in a transaction, don't wrap in a CommitLoggedWork.
@@ -206,19 +221,23 @@ public class Ofy {
   }
 
   /**
-   * Transact with commit logs and retry with exponential backoff.
+   * Transact with commit logs and retry with jittered exponential backoff.
    *
-   * <p>This method is broken out from {@link #transactNew(Work)} for testing purposes.
+   * <p>Retries stop after {@link #NUM_RETRIES} of them, or once the next one couldn't start within
+   * the time budget, whichever comes first. This method is broken out from
+   * {@link #transactNew(Work)} for testing purposes.
    */
   @VisibleForTesting
   <R> R transactCommitLoggedWork(CommitLoggedWork<R> work) {
-    long baseRetryMillis = getBaseOfyRetryDuration().getMillis();
-    for (long attempt = 0, sleepMillis = baseRetryMillis;
-        true;
-        attempt++, sleepMillis *= 2) {
+    Duration baseRetryDuration = getBaseOfyRetryDuration();
+    DateTime retryDeadline = getRetryDeadline(getClock().nowUtc());
+    for (int attempt = 0; true; attempt++) {
       try {
         ofy().transactNew(work);
-        return work.getResult();
+        R result = work.getResult();
+        TransactionMetrics.recordAttempts(attempt + 1, true);
+        runAfterCommitActions(work);
+        return result;
       } catch (TransientFailureException
           | TimestampInversionException
           | DatastoreTimeoutException
@@ -228,42 +247,106 @@ public class Ofy {
         // However, datastore exceptions might get thrown even if the transaction succeeded.
         if ((e instanceof DatastoreTimeoutException || e instanceof DatastoreFailureException)
             && checkIfAlreadySucceeded(work)) {
+          TransactionMetrics.recordFailedAttempt(e, FailureOutcome.DETECTED_SUCCESS);
+          TransactionMetrics.recordAttempts(attempt + 1, true);
+          runAfterCommitActions(work);
           return work.getResult();
         }
-        if (attempt == NUM_RETRIES) {
+        Duration backoff = getRetryBackoff(baseRetryDuration, attempt, random.nextDouble());
+        if (attempt == NUM_RETRIES || getClock().nowUtc().plus(backoff).isAfter(retryDeadline)) {
+          TransactionMetrics.recordFailedAttempt(e, FailureOutcome.GAVE_UP);
+          TransactionMetrics.recordAttempts(attempt + 1, false);
           throw e;  // Give up.
         }
-        sleeper.sleepUninterruptibly(Duration.millis(sleepMillis));
+        TransactionMetrics.recordFailedAttempt(e, FailureOutcome.RETRIED);
+        sleeper.sleepUninterruptibly(backoff);
         logger.infofmt(e, "Retrying %s, attempt %s", e.getClass().getSimpleName(), attempt);
       }
     }
   }
 
   /**
-   * We can determine whether a transaction has succeded by trying to read the commit log back in
-   * its own retryable read-only transaction.
+   * Runs the actions that the committed attempt of a transaction registered with
+   * {@link #runAfterCommit}.
+   *
+   * <p>The transaction is already durable by now, so a failing action is logged rather than allowed
+   * to make the caller think that the transaction failed.
+   */
+  private static void runAfterCommitActions(CommitLoggedWork<?> work) {
+    for (Runnable action : work.getAfterCommitActions()) {
+      try {
+        action.run();
+      } catch (RuntimeException e) {
+        logger.severe(e, "Action failed after its transaction committed");
+      }
+    }
+  }
+
+  /**
+   * Returns how long to wait before retrying a transaction after a failed attempt.
+   *
+   * <p>The wait doubles with each attempt, starting from the base duration, and a random part of up
+   * to half of it is taken off so that transactions that failed together don't retry together.
+   *
+   * @param attempt the zero-based number of the attempt that failed
+   * @param jitter a random number between zero (inclusive) and one (exclusive)
    */
-  private <R> Boolean checkIfAlreadySucceeded(final CommitLoggedWork<R> work) {
-      return work.hasRun() && transactNewReadOnly(new Work<Boolean>() {
-        @Override
-        public Boolean run() {
-          CommitLogManifest manifest = work.getManifest();
-          if (manifest == null) {
-            // Work ran but no commit log was created. This might mean that the transaction did not
-            // write anything to datastore. We can safely retry because it only reads. (Although the
-            // transaction might have written a task to a queue, we consider that safe to retry too
-            // since we generally assume that tasks might be doubly executed.) Alternatively it
-            // might mean that the transaction wrote to datastore but turned off commit logs by
-            // exclusively using save/deleteWithoutBackups() rather than save/delete(). Although we
-            // have no hard proof that retrying is safe, we use these methods judiciously and it is
-            // reasonable to assume that if the transaction really did succeed that the retry will
-            // either be idempotent or will fail with a non-transient error.
-            return false;
-          }
-          return Objects.equals(
-              union(work.getMutations(), manifest),
-              ImmutableSet.copyOf(ofy().load().ancestor(manifest)));
-        }});
+  @VisibleForTesting
+  static Duration getRetryBackoff(Duration baseRetryDuration, int attempt, double jitter) {
+    long backoffMillis = baseRetryDuration.getMillis() << attempt;
+    return Duration.millis(backoffMillis - (long) (backoffMillis * jitter / 2));
+  }
+
+  /**
+   * Returns the time after which no retry of a transaction started at {@code startTime} may begin,
+   * which is the end of the retry budget or the request deadline, whichever is earlier.
+   */
+  private static DateTime getRetryDeadline(DateTime startTime) {
+    DateTime retryDeadline = startTime.plus(getOfyRetryBudget());
+    Environment environment = ApiProxy.getCurrentEnvironment();
+    if (environment == null) {
+      return retryDeadline;
+    }
+    long remainingMillis;
+    try {
+      remainingMillis = environment.getRemainingMillis();
+    } catch (UnsupportedOperationException e) {
+      // Some environments, such as the remote API, don't have a request deadline.
+      return retryDeadline;
+    }
+    return remainingMillis == Long.MAX_VALUE
+        ? retryDeadline
+        : earliestOf(retryDeadline, startTime.plus(remainingMillis));
+  }
+
+  /**
+   * We can determine whether a transaction has succeeded by looking up the commit log marker that
+   * it would have saved, which is a single key lookup however much the transaction wrote.
+   */
+  private <R> boolean checkIfAlreadySucceeded(final CommitLoggedWork<R> work) {
+    if (!work.hasRun()) {
+      return false;
+    }
+    final Key<CommitLogMarker> markerKey = work.getCommitMarkerKey();
+    if (markerKey == null) {
+      // Work ran but no commit log was created. This might mean that the transaction did not
+      // write anything to datastore. We can safely retry because it only reads. (Although the
+      // transaction might have written a task to a queue, we consider that safe to retry too
+      // since we generally assume that tasks might be doubly executed.) Alternatively it
+      // might mean that the transaction wrote to datastore but turned off commit logs by
+      // exclusively using save/deleteWithoutBackups() rather than save/delete(). Although we
+      // have no hard proof that retrying is safe, we use these methods judiciously and it is
+      // reasonable to assume that if the transaction really did succeed that the retry will
+      // either be idempotent or will fail with a non-transient error.
+      return false;
+    }
+    // Key lookups are strongly consistent, so this doesn't need a transaction, but it does need to
+    // skip the session cache, which may have the marker from the failed attempt in it.
+    return doWithFreshSessionCache(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        return ofy().load().key(markerKey).now() != null;
+      }});
   }
 
   /** A read-only transaction is useful to get strongly consistent reads at a shared timestamp. */
@@ -316,6 +399,31 @@ public class Ofy {
     return TRANSACTION_INFO.get().transactionTime;
   }
 
+  /**
+   * Excludes entities read in the current transaction from the check that the transaction time is
+   * after the last update of every backup group it read from.
+   *
+   * <p>That check is what keeps commit logs replayable in order, so only exclude reads that none of
+   * the transaction's writes depend on, such as entities that are only read to be displayed or
+   * logged. Entities that are saved or deleted in the transaction are always checked.
+   */
+  public void excludeReadsFromTimestampCheck(Iterable<? extends Key<?>> keys) {
+    assertInTransaction();
+    TRANSACTION_INFO.get().excludeReadsFromTimestampCheck(keys);
+  }
+
+  /**
+   * Runs an action on this thread once the current transaction has committed.
+   *
+   * <p>The action belongs to the current attempt, so it is dropped if that attempt fails, and is
+   * registered again by the retry. Nested {@link #transact} calls share the outermost transaction,
+   * so their actions run once it commits.
+   */
+  public void runAfterCommit(Runnable action) {
+    assertInTransaction();
+    TRANSACTION_INFO.get().addAfterCommitAction(action);
+  }
+
   /** Returns key of {@link CommitLogManifest} that will be saved when the transaction ends. */
   public Key<CommitLogManifest> getCommitLogManifestKey() {
     assertInTransaction();
@@ -14,10 +14,13 @@
 
 package google.registry.model.ofy;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.impl.ObjectifyImpl;
+import com.googlecode.objectify.impl.SessionValue;
+import javax.annotation.Nullable;
 
 /** Registry-specific Objectify subclass that exposes the keys used in the current session. */
 public class SessionKeyExposingObjectify extends ObjectifyImpl<SessionKeyExposingObjectify> {
@@ -30,4 +33,16 @@ public class SessionKeyExposingObjectify extends ObjectifyImpl<SessionKeyExposin
   ImmutableSet<Key<?>> getSessionKeys() {
     return ImmutableSet.copyOf(getSession().keys());
   }
+
+  /**
+   * Returns the entity with the given key from the session cache, absent if the session knows that
+   * it doesn't exist, or null if it isn't in the session at all.
+   */
+  @Nullable
+  <T> Optional<T> getFromSession(Key<T> key) {
+    SessionValue<T> sessionValue = getSession().get(key);
+    return sessionValue == null
+        ? null
+        : Optional.fromNullable(sessionValue.getResult().now());
+  }
 }
@@ -24,10 +24,17 @@ import static google.registry.model.ofy.CommitLogBucket.getArbitraryBucketId;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import org.joda.time.DateTime;
 
 /** Metadata for an {@link Ofy} transaction that saves commit logs. */
@@ -46,6 +53,12 @@ class TransactionInfo {
   /** Bucket shard to under which commit log will be stored, chosen at random (in production). */
   final Key<CommitLogBucket> bucketKey = CommitLogBucket.getBucketKey(getArbitraryBucketId());
 
+  /**
+   * Random id of this transaction attempt, from which the key of its {@link CommitLogMarker} is
+   * derived.
+   */
+  final String transactionId = UUID.randomUUID().toString();
+
   /**
    * Accumulator of save/delete operations performed in transaction.
    *
@@ -55,6 +68,12 @@ class TransactionInfo {
    */
   private final ImmutableMap.Builder<Key<?>, Object> changesBuilder = new ImmutableMap.Builder<>();
 
+  /** Keys read in the transaction whose backup group roots don't need their timestamps checked. */
+  private final Set<Key<?>> readsExcludedFromTimestampCheck = new HashSet<>();
+
+  /** Actions to run once the transaction has committed, in the order they were added. */
+  private final List<Runnable> afterCommitActions = new ArrayList<>();
+
   TransactionInfo(DateTime now) {
     this.transactionTime = now;
     ofy().load().key(bucketKey);  // Asynchronously load value into session cache.
@@ -79,6 +98,23 @@ class TransactionInfo {
     changesBuilder.putAll(toMap(keys, constant(TransactionInfo.Delete.SENTINEL)));
   }
 
+  void excludeReadsFromTimestampCheck(Iterable<? extends Key<?>> keys) {
+    Iterables.addAll(readsExcludedFromTimestampCheck, keys);
+  }
+
+  void addAfterCommitAction(Runnable action) {
+    assertNotReadOnly();
+    afterCommitActions.add(action);
+  }
+
+  ImmutableList<Runnable> getAfterCommitActions() {
+    return ImmutableList.copyOf(afterCommitActions);
+  }
+
+  ImmutableSet<Key<?>> getReadsExcludedFromTimestampCheck() {
+    return ImmutableSet.copyOf(readsExcludedFromTimestampCheck);
+  }
+
   ImmutableSet<Key<?>> getTouchedKeys() {
     return ImmutableSet.copyOf(changesBuilder.build().keySet());
   }
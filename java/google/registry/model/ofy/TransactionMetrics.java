@@ -0,0 +1,69 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+
+/** Instrumentation of how {@link Ofy} retries commit logged transactions. */
+final class TransactionMetrics {
+
+  /** What happened after a transaction attempt failed with a retryable error. */
+  enum FailureOutcome {
+    /** The attempt was retried. */
+    RETRIED,
+
+    /** The error was ambiguous, but the attempt's commit log marker showed that it committed. */
+    DETECTED_SUCCESS,
+
+    /** The retry limit or time budget was used up, so the error was rethrown. */
+    GAVE_UP
+  }
+
+  private static final IncrementableMetric failedAttempts =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/datastore/transaction/failed_attempts",
+              "Count of transaction attempts that failed with a retryable error",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("error", "The simple class name of the error."),
+                  LabelDescriptor.create("outcome", "What was done about the failure.")));
+
+  private static final EventMetric attempts =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/transaction/attempts",
+              "Number of attempts each transaction took",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("committed", "Whether the transaction committed.")),
+              EventMetric.DEFAULT_FITTER);
+
+  private TransactionMetrics() {}
+
+  /** Records what happened after an attempt failed with a retryable error. */
+  static void recordFailedAttempt(RuntimeException error, FailureOutcome outcome) {
+    failedAttempts.increment(error.getClass().getSimpleName(), outcome.name());
+  }
+
+  /** Records how many attempts a transaction took, once it has committed or been given up on. */
+  static void recordAttempts(int attemptCount, boolean committed) {
+    attempts.record(attemptCount, String.valueOf(committed));
+  }
+}
@@ -39,6 +39,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -63,6 +66,7 @@ import google.registry.model.UpdateAutoTimestamp;
 import google.registry.model.annotations.ReportedOn;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.util.CidrAddressBlock;
+import google.registry.util.CidrAddressBlockSet;
 import google.registry.util.NonFinalForTesting;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -344,6 +348,22 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
    */
   BillingMethod billingMethod;
 
+  /**
+   * Compiled forms of {@link #ipAddressWhitelist}, so that each is built only once for each loaded
+   * (and usually cached) registrar.
+   *
+   * <p>The keys are weak, which makes them compared by identity, so a lookup doesn't hash the
+   * whole registrar.
+   */
+  private static final LoadingCache<Registrar, CidrAddressBlockSet> IP_ADDRESS_WHITELISTS =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(new CacheLoader<Registrar, CidrAddressBlockSet>() {
+            @Override
+            public CidrAddressBlockSet load(Registrar registrar) {
+              return CidrAddressBlock.compile(registrar.getIpAddressWhitelist());
+            }});
+
   @NonFinalForTesting
   private static Supplier<byte[]> saltSupplier = new Supplier<byte[]>() {
     @Override
@@ -424,6 +444,14 @@ public class Registrar extends ImmutableObject implements Buildable, Jsonifiable
     return nullToEmptyImmutableCopy(ipAddressWhitelist);
   }
 
+  /**
+   * Returns the IP address whitelist compiled for quick lookups. This is what should be used to
+   * check whether an address is whitelisted.
+   */
+  public CidrAddressBlockSet getCompiledIpAddressWhitelist() {
+    return IP_ADDRESS_WHITELISTS.getUnchecked(this);
+  }
+
   public RegistrarAddress getLocalizedAddress() {
     return localizedAddress;
   }
@@ -101,6 +101,7 @@ public class Registry extends ImmutableObject implements Buildable {
   public static final TldState DEFAULT_TLD_STATE = TldState.PREDELEGATION;
   public static final boolean DEFAULT_ESCROW_ENABLED = false;
   public static final boolean DEFAULT_DNS_PAUSED = false;
+  public static final int DEFAULT_NUM_DNS_PUBLISH_LOCKS = 1;
   public static final Duration DEFAULT_ADD_GRACE_PERIOD = Duration.standardDays(5);
   public static final Duration DEFAULT_SUNRUSH_ADD_GRACE_PERIOD = Duration.standardDays(30);
   public static final Duration DEFAULT_AUTO_RENEW_GRACE_PERIOD = Duration.standardDays(45);
@@ -309,6 +310,15 @@ public class Registry extends ImmutableObject implements Buildable {
   /** Whether the pull queue that writes to authoritative DNS is paused for this TLD. */
   boolean dnsPaused = DEFAULT_DNS_PAUSED;
 
+  /**
+   * The number of locks among which DNS updates for this TLD are sharded.
+   *
+   * <p>Updates for names sharing a lock are published one batch at a time, but batches for
+   * different locks are published in parallel. This should only be raised above one for TLDs whose
+   * {@link #dnsWriter} can safely apply concurrent batches to the same zone.
+   */
+  int numDnsPublishLocks = DEFAULT_NUM_DNS_PUBLISH_LOCKS;
+
   /** Whether the price must be acknowledged to register premiun names on this TLD. */
   boolean premiumPriceAckRequired = true;
 
@@ -440,6 +450,10 @@ public class Registry extends ImmutableObject implements Buildable {
     return dnsPaused;
   }
 
+  public int getNumDnsPublishLocks() {
+    return numDnsPublishLocks;
+  }
+
   public String getDriveFolderId() {
     return driveFolderId;
   }
@@ -630,6 +644,12 @@ public class Registry extends ImmutableObject implements Buildable {
       return this;
     }
 
+    public Builder setNumDnsPublishLocks(int numDnsPublishLocks) {
+      checkArgument(numDnsPublishLocks > 0, "numDnsPublishLocks must be positive");
+      getInstance().numDnsPublishLocks = numDnsPublishLocks;
+      return this;
+    }
+
     public Builder setDriveFolderId(String driveFolderId) {
       getInstance().driveFolderId = driveFolderId;
       return this;
@@ -29,6 +29,7 @@ import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
@@ -36,6 +37,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.UncheckedExecutionException;
@@ -46,14 +48,18 @@ import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
 import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.condition.IfFalse;
 import google.registry.model.Buildable;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.ReportedOn;
 import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.registry.Registry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -73,9 +79,26 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
   /** The number of premium list entry entities that are created and deleted per batch. */
   private static final int TRANSACTION_BATCH_SIZE = 200;
 
+  /**
+   * The most revisions that the entries of a list may be spread across. An incremental save that
+   * would go past this writes all of the entries to a single new revision instead.
+   *
+   * <p>This bounds the cost of loading a list, which runs one ancestor query per revision (see
+   * {@link #loadPremiumListMap}), so it is kept small: loading a list never takes more than this
+   * many queries, and since they are issued together the latency is that of the slowest one.
+   */
+  @VisibleForTesting
+  static final int MAX_REVISION_LAYERS = 4;
+
   /** Stores the revision key for the set of currently used premium list entry entities. */
   Key<PremiumListRevision> revisionKey;
 
+  /**
+   * Keys of earlier revisions, oldest first, whose entries are overlaid by the entries of the
+   * revision in {@link #revisionKey}. These are only set by {@link #saveIncrementally}.
+   */
+  List<Key<PremiumListRevision>> baseRevisionKeys;
+
   @Ignore
   Map<String, PremiumListEntry> premiumListMap;
 
@@ -134,13 +157,23 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
   @OnLoad
   private void loadPremiumListMap() {
     try {
-      ImmutableMap.Builder<String, PremiumListEntry> entriesMap = new ImmutableMap.Builder<>();
-      if (revisionKey != null) {
-        for (PremiumListEntry entry : loadEntriesForCurrentRevision()) {
-          entriesMap.put(entry.getLabel(), entry);
+      // Start the queries for all of the revisions first so that they run in parallel, then apply
+      // them in order, so that later entries replace or remove earlier ones.
+      List<Iterable<PremiumListEntry>> revisions = new ArrayList<>();
+      for (Key<PremiumListRevision> revision : getAllRevisionKeys()) {
+        revisions.add(loadEntriesForRevision(revision).iterable());
+      }
+      Map<String, PremiumListEntry> entriesMap = new LinkedHashMap<>();
+      for (Iterable<PremiumListEntry> revision : revisions) {
+        for (PremiumListEntry entry : revision) {
+          if (entry.removed) {
+            entriesMap.remove(entry.getLabel());
+          } else {
+            entriesMap.put(entry.getLabel(), entry);
+          }
         }
       }
-      premiumListMap = entriesMap.build();
+      premiumListMap = ImmutableMap.copyOf(entriesMap);
     } catch (Exception e) {
       throw new RuntimeException("Could not retrieve entries for premium list " + name, e);
     }
@@ -203,6 +236,13 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
 
     Money price;
 
+    /**
+     * Whether this entry removes its label from the list, rather than pricing it. These are only
+     * written to revisions saved by {@link PremiumList#saveIncrementally}.
+     */
+    @IgnoreSave(IfFalse.class)
+    boolean removed;
+
     @Override
     public Money getValue() {
       return price;
@@ -232,6 +272,11 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
         getInstance().price = price;
         return this;
       }
+
+      Builder setRemoved(boolean removed) {
+        getInstance().removed = removed;
+        return this;
+      }
     }
   }
 
@@ -269,16 +314,79 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
             || !Objects.equals(oldPremiumList.get().revisionKey, this.revisionKey);
     // If needed, save the new child entities in a series of transactions.
     if (entriesToUpdate) {
-      for (final List<PremiumListEntry> batch
-          : partition(premiumListMap.values(), TRANSACTION_BATCH_SIZE)) {
-        ofy().transactNew(new VoidWork() {
-          @Override
-          public void vrun() {
-            ofy().save().entities(batch);
-          }});
-      }
+      saveEntries(premiumListMap.values());
     }
     // Save the new PremiumList itself.
+    PremiumList updated = saveList(oldPremiumList);
+    // If needed and there are any, delete the entities under the old PremiumList.
+    if (entriesToUpdate && oldPremiumList.isPresent()) {
+      oldPremiumList.get().deleteEntries();
+    }
+    return updated;
+  }
+
+  /**
+   * Persists a new version of this PremiumList with the entries parsed from {@code lines}, writing
+   * only the entries that differ from this version's.
+   *
+   * <p>This must be called on the currently saved version of the list. Added and changed entries,
+   * and markers for removed ones, are saved to a new revision that is layered on top of this
+   * version's revisions, so the number of entities written is proportional to the number of
+   * changes rather than to the size of the list. As with {@link #saveAndUpdateEntries}, nothing
+   * changes for readers until the list itself is saved pointing at the new revision. Once the list
+   * would be spread across more than {@link #MAX_REVISION_LAYERS} revisions, it is instead saved in
+   * full to a single new revision, and the old ones are deleted.
+   */
+  public PremiumList saveIncrementally(Iterable<String> lines) {
+    ImmutableMap<String, PremiumListEntry> newEntries = parse(lines);
+    ImmutableList<Key<PremiumListRevision>> revisions = getAllRevisionKeys();
+    if (revisions.size() >= MAX_REVISION_LAYERS) {
+      return asBuilder().setPremiumListMap(newEntries).build().saveAndUpdateEntries();
+    }
+    Key<PremiumListRevision> newRevisionKey = PremiumListRevision.createKey(this);
+    ImmutableList.Builder<PremiumListEntry> changes = new ImmutableList.Builder<>();
+    ImmutableMap.Builder<String, PremiumListEntry> mergedEntries = new ImmutableMap.Builder<>();
+    for (PremiumListEntry entry : newEntries.values()) {
+      PremiumListEntry oldEntry = premiumListMap.get(entry.getLabel());
+      if (oldEntry != null
+          && Objects.equals(oldEntry.price, entry.price)
+          && Objects.equals(oldEntry.comment, entry.comment)) {
+        mergedEntries.put(entry.getLabel(), oldEntry);
+      } else {
+        PremiumListEntry newEntry = entry.asBuilder().setParent(newRevisionKey).build();
+        changes.add(newEntry);
+        mergedEntries.put(entry.getLabel(), newEntry);
+      }
+    }
+    for (PremiumListEntry oldEntry : premiumListMap.values()) {
+      if (!newEntries.containsKey(oldEntry.getLabel())) {
+        changes.add(oldEntry.asBuilder().setParent(newRevisionKey).setRemoved(true).build());
+      }
+    }
+    ImmutableList<PremiumListEntry> entriesToSave = changes.build();
+    PremiumList newList = entriesToSave.isEmpty()
+        ? this
+        : asBuilder().setRevisions(newRevisionKey, revisions, mergedEntries.build()).build();
+    saveEntries(entriesToSave);
+    return newList.saveList(Optional.of(this));
+  }
+
+  /** Saves premium list entry entities in a series of transactions. */
+  private static void saveEntries(Iterable<PremiumListEntry> entries) {
+    for (final List<PremiumListEntry> batch : partition(entries, TRANSACTION_BATCH_SIZE)) {
+      ofy().transactNew(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().save().entities(batch);
+        }});
+    }
+  }
+
+  /**
+   * Saves this PremiumList itself, after checking that {@code oldPremiumList} is still the saved
+   * version of it, and puts it in the cache.
+   */
+  private PremiumList saveList(final Optional<PremiumList> oldPremiumList) {
     PremiumList updated = ofy().transactNew(new Work<PremiumList>() {
         @Override
         public PremiumList run() {
@@ -299,10 +407,6 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
         }});
     // Update the cache.
     PremiumList.cache.put(name, updated);
-    // If needed and there are any, delete the entities under the old PremiumList.
-    if (entriesToUpdate && oldPremiumList.isPresent()) {
-      oldPremiumList.get().deleteEntries();
-    }
     return updated;
   }
 
@@ -323,22 +427,33 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
   }
 
   private void deleteEntries() {
-    if (revisionKey == null) {
-      return;
+    for (Key<PremiumListRevision> revision : getAllRevisionKeys()) {
+      for (final List<Key<PremiumListEntry>> batch : partition(
+          loadEntriesForRevision(revision).keys(),
+          TRANSACTION_BATCH_SIZE)) {
+        ofy().transactNew(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().delete().keys(batch);
+          }});
+      }
     }
-    for (final List<Key<PremiumListEntry>> batch : partition(
-        loadEntriesForCurrentRevision().keys(),
-        TRANSACTION_BATCH_SIZE)) {
-      ofy().transactNew(new VoidWork() {
-        @Override
-        public void vrun() {
-          ofy().delete().keys(batch);
-        }});
+  }
+
+  /** Returns the keys of all of the revisions holding this list's entries, oldest first. */
+  ImmutableList<Key<PremiumListRevision>> getAllRevisionKeys() {
+    if (revisionKey == null) {
+      return ImmutableList.of();
     }
+    return new ImmutableList.Builder<Key<PremiumListRevision>>()
+        .addAll(nullToEmpty(baseRevisionKeys))
+        .add(revisionKey)
+        .build();
   }
 
-  private Query<PremiumListEntry> loadEntriesForCurrentRevision() {
-    return ofy().load().type(PremiumListEntry.class).ancestor(revisionKey);
+  private static Query<PremiumListEntry> loadEntriesForRevision(
+      Key<PremiumListRevision> revision) {
+    return ofy().load().type(PremiumListEntry.class).ancestor(revision);
   }
 
   @Override
@@ -368,20 +483,35 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
       return setPremiumListMap(getInstance().parse(lines));
     }
 
+    /**
+     * Sets the revisions and entries of an incrementally saved list, whose entries are already
+     * parented on {@code revisionKey} or one of {@code baseRevisionKeys}.
+     */
+    private Builder setRevisions(
+        Key<PremiumListRevision> revisionKey,
+        ImmutableList<Key<PremiumListRevision>> baseRevisionKeys,
+        ImmutableMap<String, PremiumListEntry> premiumListMap) {
+      getInstance().revisionKey = revisionKey;
+      getInstance().baseRevisionKeys = baseRevisionKeys;
+      getInstance().premiumListMap = premiumListMap;
+      return this;
+    }
+
     @Override
     public PremiumList build() {
       final PremiumList instance = getInstance();
       if (getInstance().revisionKey == null || entriesWereUpdated) {
         getInstance().revisionKey = PremiumListRevision.createKey(instance);
+        getInstance().baseRevisionKeys = null;
+        // When the entries are replaced, make sure they are all parented on the new revisionKey.
+        instance.premiumListMap = Maps.transformValues(
+            nullToEmpty(instance.premiumListMap),
+            new Function<PremiumListEntry, PremiumListEntry>() {
+              @Override
+              public PremiumListEntry apply(PremiumListEntry entry) {
+                return entry.asBuilder().setParent(instance.revisionKey).build();
+              }});
       }
-      // When we build an instance, make sure all entries are parented on its revisionKey.
-      instance.premiumListMap = Maps.transformValues(
-          nullToEmpty(instance.premiumListMap),
-          new Function<PremiumListEntry, PremiumListEntry>() {
-            @Override
-            public PremiumListEntry apply(PremiumListEntry entry) {
-              return entry.asBuilder().setParent(instance.revisionKey).build();
-            }});
       return super.build();
     }
   }
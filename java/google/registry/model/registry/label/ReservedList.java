@@ -42,6 +42,7 @@ import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Mapify;
 import com.googlecode.objectify.mapper.Mapper;
 import google.registry.model.registry.Registry;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -169,6 +170,27 @@ public final class ReservedList
     return (entry != null) ? entry.reservationType : UNRESERVED;
   }
 
+  /**
+   * Returns the reservation type of each of the given labels on the specified tld, as
+   * {@link #getReservation} would, looking up the TLD's reserved lists only once for all of them.
+   */
+  public static ImmutableMap<String, ReservationType> getReservations(
+      Iterable<String> labels, String tld) {
+    ImmutableSet<ReservedList> lists =
+        loadReservedLists(Registry.get(checkNotNull(tld, "tld")).getReservedLists());
+    Map<String, ReservationType> reservations = new LinkedHashMap<>();
+    for (String label : labels) {
+      checkNotNull(label, "label");
+      if (label.length() == 0) {
+        reservations.put(label, FULLY_BLOCKED);
+      } else {
+        ReservedListEntry entry = getMostSevereEntry(label, lists);
+        reservations.put(label, (entry != null) ? entry.reservationType : UNRESERVED);
+      }
+    }
+    return ImmutableMap.copyOf(reservations);
+  }
+
   /**
    * Returns true if the given label and TLD is reserved for an anchor tenant, and the given
    * auth code matches the one set on the reservation.
@@ -190,7 +212,16 @@ public final class ReservedList
   private static ReservedListEntry getReservedListEntry(String label, String tld) {
     Registry registry = Registry.get(checkNotNull(tld, "tld"));
     ImmutableSet<Key<ReservedList>> reservedLists = registry.getReservedLists();
-    ImmutableSet<ReservedList> lists = loadReservedLists(reservedLists);
+    return getMostSevereEntry(label, loadReservedLists(reservedLists));
+  }
+
+  /**
+   * Returns the most severe entry for this label in any of the given lists, or null if it isn't in
+   * any of them.
+   */
+  @Nullable
+  private static ReservedListEntry getMostSevereEntry(
+      String label, ImmutableSet<ReservedList> lists) {
     ReservedListEntry entry = null;
 
     // Loop through all reservation lists and check each one for the inputted label, and return
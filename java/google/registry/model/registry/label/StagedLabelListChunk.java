@@ -0,0 +1,149 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.model.annotations.VirtualEntity;
+import org.joda.time.DateTime;
+
+/**
+ * A chunk of the text of a premium or reserved list that is being uploaded in pieces.
+ *
+ * <p>Lists that are too large to send in a single request are uploaded a chunk at a time. Each
+ * chunk is staged as one of these entities under the {@link StagedLabelListUpload} for its upload,
+ * and once all of them have arrived they are reassembled in order and committed to the list. The
+ * chunks of an upload are only ever read together when it is committed, after which they are
+ * deleted. Chunks of uploads that are never committed are deleted by a cron job once they are a
+ * day old.
+ */
+@Entity
+@NotBackedUp(reason = Reason.TRANSIENT)
+public class StagedLabelListChunk extends ImmutableObject {
+
+  @Parent
+  Key<StagedLabelListUpload> parent;
+
+  /** The sequence number of this chunk within its upload plus one, since ids can't be zero. */
+  @Id
+  long id;
+
+  /** The checksum of {@link #data}, as computed by {@link #computeChecksum}. */
+  String checksum;
+
+  /** The lines of the list in this chunk, each followed by a newline. */
+  String data;
+
+  /** When this chunk was staged. */
+  @Index
+  DateTime creationTime;
+
+  /** Virtual parent entity for the chunks of a single upload. */
+  @Entity
+  @VirtualEntity
+  public static class StagedLabelListUpload extends ImmutableObject {
+    @Id
+    String uploadId;
+
+    static Key<StagedLabelListUpload> createKey(String uploadId) {
+      checkArgument(!isNullOrEmpty(uploadId), "Upload id must be specified");
+      StagedLabelListUpload upload = new StagedLabelListUpload();
+      upload.uploadId = uploadId;
+      return Key.create(upload);
+    }
+  }
+
+  /** Returns the zero-based position of this chunk within its upload. */
+  public int getSequence() {
+    return (int) (id - 1);
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public String getData() {
+    return data;
+  }
+
+  public DateTime getCreationTime() {
+    return creationTime;
+  }
+
+  /** Returns the key of the chunk of an upload with the given sequence number. */
+  public static Key<StagedLabelListChunk> createKey(String uploadId, int sequence) {
+    checkArgument(sequence >= 0, "Chunk sequence number must not be negative");
+    return Key.create(
+        StagedLabelListUpload.createKey(uploadId), StagedLabelListChunk.class, sequence + 1L);
+  }
+
+  /** Creates a chunk, without checking that {@code checksum} matches {@code data}. */
+  public static StagedLabelListChunk create(
+      String uploadId, int sequence, String checksum, String data, DateTime creationTime) {
+    checkArgument(sequence >= 0, "Chunk sequence number must not be negative");
+    StagedLabelListChunk instance = new StagedLabelListChunk();
+    instance.parent = StagedLabelListUpload.createKey(uploadId);
+    instance.id = sequence + 1L;
+    instance.checksum = checksum;
+    instance.data = data;
+    instance.creationTime = checkNotNull(creationTime, "creationTime");
+    return instance;
+  }
+
+  /** Returns the hex-encoded SHA-256 hash of the UTF-8 encoding of some list text. */
+  public static String computeChecksum(String data) {
+    return Hashing.sha256().hashString(data, UTF_8).toString();
+  }
+
+  /** Loads all of the staged chunks of an upload, in order of their sequence numbers. */
+  public static ImmutableList<StagedLabelListChunk> loadAll(String uploadId) {
+    return ImmutableList.copyOf(ofy().load()
+        .type(StagedLabelListChunk.class)
+        .ancestor(StagedLabelListUpload.createKey(uploadId))
+        .list());
+  }
+
+  /** Returns the keys of the staged chunks of all uploads that were staged before a given time. */
+  public static Iterable<Key<StagedLabelListChunk>> loadKeysCreatedBefore(DateTime time) {
+    return ofy().load()
+        .type(StagedLabelListChunk.class)
+        .filter("creationTime <", time)
+        .keys()
+        .iterable();
+  }
+
+  /** Returns the keys of all of the staged chunks of an upload. */
+  public static ImmutableList<Key<StagedLabelListChunk>> loadAllKeys(String uploadId) {
+    return ImmutableList.copyOf(ofy().load()
+        .type(StagedLabelListChunk.class)
+        .ancestor(StagedLabelListUpload.createKey(uploadId))
+        .keys()
+        .list());
+  }
+}
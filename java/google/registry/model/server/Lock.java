@@ -23,9 +23,12 @@ import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
@@ -34,12 +37,16 @@ import com.googlecode.objectify.annotation.Id;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.model.server.LockMetrics.Outcome;
 import google.registry.util.AppEngineTimeLimiter;
 import google.registry.util.FormattingLogger;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
@@ -48,6 +55,17 @@ import org.joda.time.Duration;
 /**
  * A lock on some shared resource. Locks are either specific to a tld or global to the entire
  * system, in which case a tld of null is used.
+ *
+ * <p>Every acquisition of a lock is issued a monotonically increasing {@link #getFencingToken
+ * fencing token}, so that a holder whose lease has since expired can't renew or release the lock
+ * once someone else has acquired it.
+ *
+ * <p>Leases obtained through {@link #executeWithLocks} are also tracked in memory, so that callers
+ * in the same process don't have to go to datastore to discover that a lock is taken. Callers that
+ * expect to nest can use {@link #executeWithReentrantLocks}, in which case inner calls reuse (and
+ * if necessary renew) the lease of the enclosing call instead of competing with it. These leases
+ * are checked against the same clock that transaction times come from, so that they expire in
+ * memory when they do in datastore.
  */
 @Entity
 @NotBackedUp(reason = Reason.TRANSIENT)
@@ -58,6 +76,28 @@ public class Lock extends ImmutableObject {
   /** Fudge factor to make sure we kill threads before a lock actually expires. */
   private static final Duration LOCK_TIMEOUT_FUDGE = Duration.standardSeconds(5);
 
+  /**
+   * The most recent lease on each lock currently held by anyone in this process, keyed by lock id.
+   *
+   * <p>Entries are only ever an optimization: a lock missing from this map is looked up in
+   * datastore, and an entry whose lease has run out is ignored.
+   */
+  private static final ConcurrentHashMap<String, Lock> localLeases = new ConcurrentHashMap<>();
+
+  /**
+   * The fencing tokens of the locks held by the enclosing {@link #executeWithLocks} calls, keyed by
+   * lock id.
+   *
+   * <p>This is inheritable because {@link #executeWithLocks} runs its callable on a new thread, and
+   * a nested call has to be able to tell that it is running on behalf of the lock holder.
+   */
+  private static final InheritableThreadLocal<ImmutableMap<String, Long>> heldLocks =
+      new InheritableThreadLocal<ImmutableMap<String, Long>>() {
+        @Override
+        protected ImmutableMap<String, Long> initialValue() {
+          return ImmutableMap.of();
+        }};
+
   /** The name of the locked resource. */
   @Id
   String lockId;
@@ -73,6 +113,20 @@ public class Lock extends ImmutableObject {
    */
   LinkedHashSet<String> queue = new LinkedHashSet<>();
 
+  /**
+   * Token issued when the lock was acquired, which is one greater than the token of the previous
+   * acquisition of the same lock.
+   *
+   * <p>Released locks are kept around (with an expiration time in the past) rather than deleted so
+   * that the sequence of tokens never restarts.
+   */
+  long fencingToken;
+
+  /** Returns the token issued when this lock was acquired. */
+  public long getFencingToken() {
+    return fencingToken;
+  }
+
   /**
    * Create a new {@link Lock} for the given resource name in the specified tld (which can be
    * null for cross-tld locks).
@@ -81,7 +135,8 @@ public class Lock extends ImmutableObject {
       String resourceName,
       @Nullable String tld,
       DateTime expirationTime,
-      LinkedHashSet<String> queue) {
+      LinkedHashSet<String> queue,
+      long fencingToken) {
     checkArgument(!Strings.isNullOrEmpty(resourceName), "resourceName cannot be null or empty");
     Lock instance = new Lock();
     // Add the tld to the Lock's id so that it is unique for locks acquiring the same resource
@@ -89,6 +144,17 @@ public class Lock extends ImmutableObject {
     instance.lockId = makeLockId(resourceName, tld);
     instance.expirationTime = expirationTime;
     instance.queue = queue;
+    instance.fencingToken = fencingToken;
+    return instance;
+  }
+
+  /** Returns a copy of this lock with a different expiration time. */
+  private Lock withExpirationTime(DateTime newExpirationTime) {
+    Lock instance = new Lock();
+    instance.lockId = lockId;
+    instance.expirationTime = newExpirationTime;
+    instance.queue = queue;
+    instance.fencingToken = fencingToken;
     return instance;
   }
 
@@ -110,7 +176,9 @@ public class Lock extends ImmutableObject {
             ? new LinkedHashSet<String>() : newLinkedHashSet(lock.queue);
         queue.add(requester.getCanonicalName());
         DateTime expirationTime = (lock == null) ? START_OF_TIME : lock.expirationTime;
-        ofy().saveWithoutBackup().entity(create(resourceName, tld, expirationTime, queue));
+        long fencingToken = (lock == null) ? 0 : lock.fencingToken;
+        ofy().saveWithoutBackup()
+            .entity(create(resourceName, tld, expirationTime, queue, fencingToken));
       }});
   }
 
@@ -139,7 +207,8 @@ public class Lock extends ImmutableObject {
               tld,
               ofy().getTransactionTime().plus(leaseLength),
               newLinkedHashSet((lock == null)
-                  ? ImmutableList.<String>of() : skip(lock.queue, 1)));
+                  ? ImmutableList.<String>of() : skip(lock.queue, 1)),
+              ((lock == null) ? 0 : lock.fencingToken) + 1);
           // Locks are not parented under an EntityGroupRoot (so as to avoid write contention) and
           // don't need to be backed up.
           ofy().saveWithoutBackup().entity(newLock);
@@ -149,23 +218,57 @@ public class Lock extends ImmutableObject {
       }});
   }
 
+  /**
+   * Extend the lease on this lock so that it expires no sooner than {@code leaseLength} from now.
+   *
+   * <p>Returns null if the lock has been released, has expired or has been acquired by someone else
+   * in the meantime.
+   */
+  @Nullable
+  Lock renew(final Duration leaseLength) {
+    return ofy().transactNew(new Work<Lock>() {
+      @Override
+      public Lock run() {
+        Lock loadedLock = ofy().load().type(Lock.class).id(lockId).now();
+        if (loadedLock == null
+            || loadedLock.fencingToken != fencingToken
+            || isAtOrAfter(ofy().getTransactionTime(), loadedLock.expirationTime)) {
+          return null;
+        }
+        Lock renewedLock =
+            loadedLock.withExpirationTime(ofy().getTransactionTime().plus(leaseLength));
+        ofy().saveWithoutBackup().entity(renewedLock);
+        return renewedLock;
+      }});
+  }
+
   /** Release the lock. */
   void release() {
     // Just use the default clock because we aren't actually doing anything that will use the clock.
     ofy().transact(new VoidWork() {
       @Override
       public void vrun() {
-        // To release a lock, check that no one else has already obtained it and if not delete it.
-        // If the lock in datastore was different then this lock is gone already; this can happen
-        // if release() is called around the expiration time and the lock expires underneath us.
+        // To release a lock, check that no one else has already obtained it and if not expire it.
+        // If the fencing token in datastore is different then this lock is gone already; this can
+        // happen if release() is called around the expiration time and the lock expires underneath
+        // us and is then acquired by someone else.
         Lock loadedLock = ofy().load().type(Lock.class).id(lockId).now();
-        if (Lock.this.equals(loadedLock)) {
-          // Use noBackupOfy() so that we don't create a commit log entry for deleting the lock.
-          ofy().deleteWithoutBackup().entity(Lock.this);
+        if (loadedLock != null && loadedLock.fencingToken == fencingToken) {
+          // Keep the entity (and its queue and fencing token) but make it available immediately.
+          // Use saveWithoutBackup() so that we don't create a commit log entry for the release.
+          ofy().saveWithoutBackup()
+              .entity(loadedLock.withExpirationTime(ofy().getTransactionTime()));
         }
       }});
   }
 
+  /** Returns the fencing token of the named lock if it is held by an enclosing call. */
+  @VisibleForTesting
+  static Optional<Long> getHeldFencingToken(String resourceName, @Nullable String tld) {
+    return Optional.fromNullable(
+        heldLocks.get().get(makeLockId(resourceName, Strings.emptyToNull(tld))));
+  }
+
   /**
    * Acquire one or more locks and execute a Void {@link Callable} on a thread that will be
    * killed if it doesn't complete before the lease expires.
@@ -174,6 +277,9 @@ public class Lock extends ImmutableObject {
    * that lock. Clients that are concerned with starvation should specify a requester and those that
    * aren't shouldn't.
    *
+   * <p>If a lock is known to be held by another caller in this process (including an enclosing
+   * call), this returns false without any datastore access.
+   *
    * <p>Note that locks are specific either to a given tld or to the entire system (in which case
    * tld should be passed as null).
    *
@@ -185,10 +291,38 @@ public class Lock extends ImmutableObject {
       @Nullable String tld,
       Duration leaseLength,
       String... lockNames) {
+    return executeWithLocks(callable, requester, tld, leaseLength, false, lockNames);
+  }
+
+  /**
+   * Like {@link #executeWithLocks}, except that locks already held by an enclosing call to this
+   * method are reused rather than contended for.
+   *
+   * <p>A reused lock is not acquired again: if the enclosing lease lasts at least {@code
+   * leaseLength} no datastore access happens at all, and otherwise the lease is extended in place
+   * (keeping its fencing token). Either way the lock remains held when this call returns, and is
+   * released by the call that originally acquired it.
+   */
+  public static boolean executeWithReentrantLocks(
+      final Callable<Void> callable,
+      @Nullable Class<?> requester,
+      @Nullable String tld,
+      Duration leaseLength,
+      String... lockNames) {
+    return executeWithLocks(callable, requester, tld, leaseLength, true, lockNames);
+  }
+
+  private static boolean executeWithLocks(
+      final Callable<Void> callable,
+      @Nullable Class<?> requester,
+      @Nullable String tld,
+      Duration leaseLength,
+      boolean reentrant,
+      String... lockNames) {
     try {
       return AppEngineTimeLimiter.create().callWithTimeout(
           new LockingCallable(
-              callable, requester, Strings.emptyToNull(tld), leaseLength, lockNames),
+              callable, requester, Strings.emptyToNull(tld), leaseLength, reentrant, lockNames),
           leaseLength.minus(LOCK_TIMEOUT_FUDGE).getMillis(),
           TimeUnit.MILLISECONDS,
           true);
@@ -203,6 +337,7 @@ public class Lock extends ImmutableObject {
     final Class<?> requester;
     @Nullable final String tld;
     final Duration leaseLength;
+    final boolean reentrant;
     final Set<String> lockNames;
 
     LockingCallable(
@@ -210,40 +345,84 @@ public class Lock extends ImmutableObject {
         Class<?> requester,
         String tld,
         Duration leaseLength,
+        boolean reentrant,
         String... lockNames) {
       checkArgument(leaseLength.isLongerThan(LOCK_TIMEOUT_FUDGE));
       this.delegate = delegate;
       this.requester = requester;
       this.tld = tld;
       this.leaseLength = leaseLength;
+      this.reentrant = reentrant;
       // Make sure we join locks in a fixed (lexicographical) order to avoid deadlock.
       this.lockNames = ImmutableSortedSet.copyOf(lockNames);
     }
 
     @Override
     public Boolean call() throws Exception {
+      ImmutableMap<String, Long> enclosingLocks = heldLocks.get();
+      Map<String, Long> lockTokens = new LinkedHashMap<>(enclosingLocks);
       Set<Lock> acquiredLocks = new HashSet<>();
       try {
         for (String lockName : lockNames) {
-          if (requester != null) {
-            joinQueue(requester, lockName, tld);
+          DateTime startTime = ofy().getCurrentTime();
+          String lockId = makeLockId(lockName, tld);
+          Lock lock;
+          Outcome outcome;
+          if (reentrant && enclosingLocks.containsKey(lockId)) {
+            lock = localLeases.get(lockId);
+            if (lock == null || lock.fencingToken != enclosingLocks.get(lockId)) {
+              // The enclosing call's lease ran out and someone else has taken over the lock.
+              lock = null;
+              outcome = Outcome.LOST;
+            } else if (!startTime.plus(leaseLength).isAfter(lock.expirationTime)) {
+              outcome = Outcome.REENTERED;
+            } else {
+              lock = lock.renew(leaseLength);
+              outcome = (lock == null) ? Outcome.LOST : Outcome.RENEWED;
+            }
+          } else if (isHeldLocally(lockId, startTime)) {
+            lock = null;
+            outcome = Outcome.CONTENDED_LOCALLY;
+          } else {
+            if (requester != null) {
+              joinQueue(requester, lockName, tld);
+            }
+            lock = acquire(requester, lockName, tld, leaseLength);
+            outcome = (lock == null) ? Outcome.CONTENDED : Outcome.ACQUIRED;
           }
-          Lock lock = acquire(requester, lockName, tld, leaseLength);
+          LockMetrics.recordAttempt(
+              lockName, tld, outcome, new Duration(startTime, ofy().getCurrentTime()));
           if (lock == null) {
-            logger.infofmt("Couldn't acquire lock: %s", lockName);
+            logger.infofmt("Couldn't acquire lock: %s (%s)", lockName, outcome);
             return false;
           }
-          logger.infofmt("Acquired lock: %s", lockName);
-          acquiredLocks.add(lock);
+          logger.infofmt("Acquired lock: %s (%s, token %d)", lockName, outcome, lock.fencingToken);
+          localLeases.put(lockId, lock);
+          if (outcome == Outcome.ACQUIRED) {
+            acquiredLocks.add(lock);
+          }
+          lockTokens.put(lockId, lock.fencingToken);
         }
+        heldLocks.set(ImmutableMap.copyOf(lockTokens));
         delegate.call();
         return true;
       } finally {
+        heldLocks.set(enclosingLocks);
         for (Lock lock : acquiredLocks) {
+          Lock localLease = localLeases.get(lock.lockId);
+          if (localLease != null && localLease.fencingToken == lock.fencingToken) {
+            localLeases.remove(lock.lockId, localLease);
+          }
           lock.release();
           logger.infofmt("Released lock: %s", lock.lockId);
         }
       }
     }
+
+    /** Returns whether some other caller in this process holds an unexpired lease on a lock. */
+    private static boolean isHeldLocally(String lockId, DateTime now) {
+      Lock lock = localLeases.get(lockId);
+      return lock != null && now.isBefore(lock.expirationTime);
+    }
   }
 }
@@ -0,0 +1,79 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.server;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import javax.annotation.Nullable;
+import org.joda.time.Duration;
+
+/** {@link Lock} instrumentation. */
+final class LockMetrics {
+
+  /** Outcome of an attempt to obtain a lock. */
+  enum Outcome {
+    /** The lock was acquired in a datastore transaction. */
+    ACQUIRED,
+
+    /** The lock was already held by an enclosing caller and its lease was long enough. */
+    REENTERED,
+
+    /** The lock was already held by an enclosing caller and its lease had to be extended. */
+    RENEWED,
+
+    /** The lock is held by another caller in this process, so datastore was never consulted. */
+    CONTENDED_LOCALLY,
+
+    /** The lock is held by someone else according to datastore. */
+    CONTENDED,
+
+    /** An enclosing caller held the lock, but lost it before the lease could be extended. */
+    LOST
+  }
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("resource", "The name of the locked resource."),
+          LabelDescriptor.create("tld", "TLD, or empty for cross-TLD locks."),
+          LabelDescriptor.create("outcome", "The outcome of the attempt to obtain the lock."));
+
+  private static final IncrementableMetric lockRequests =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/lock/requests", "Count of attempts to obtain a lock", "count", LABEL_DESCRIPTORS);
+
+  private static final EventMetric lockWaitTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/lock/wait_time",
+              "Time spent obtaining (or failing to obtain) a lock",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  private LockMetrics() {}
+
+  /** Records the outcome of one attempt to obtain a lock and how long the attempt took. */
+  static void recordAttempt(
+      String resourceName, @Nullable String tld, Outcome outcome, Duration waitTime) {
+    lockRequests.increment(resourceName, nullToEmpty(tld), outcome.name());
+    lockWaitTime.record(waitTime.getMillis(), resourceName, nullToEmpty(tld), outcome.name());
+  }
+}
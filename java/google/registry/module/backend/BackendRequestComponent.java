@@ -24,6 +24,7 @@ import google.registry.backup.RestoreCommitLogsAction;
 import google.registry.batch.BatchModule;
 import google.registry.batch.DeleteContactsAndHostsAction;
 import google.registry.batch.DeleteProberDataAction;
+import google.registry.batch.DeleteStaleStagedLabelListChunksAction;
 import google.registry.batch.ExpandRecurringBillingEventsAction;
 import google.registry.batch.RefreshDnsOnHostRenameAction;
 import google.registry.batch.VerifyEntityIntegrityAction;
@@ -99,6 +100,7 @@ interface BackendRequestComponent {
   DeleteContactsAndHostsAction deleteContactsAndHostsAction();
   DeleteOldCommitLogsAction deleteOldCommitLogsAction();
   DeleteProberDataAction deleteProberDataAction();
+  DeleteStaleStagedLabelListChunksAction deleteStaleStagedLabelListChunksAction();
   ExpandRecurringBillingEventsAction expandRecurringBillingEventsAction();
   ExportCommitLogDiffAction exportCommitLogDiffAction();
   ExportDomainListsAction exportDomainListsAction();
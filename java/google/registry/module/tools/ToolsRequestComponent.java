@@ -28,6 +28,7 @@ import google.registry.monitoring.whitebox.WhiteboxModule;
 import google.registry.request.RequestComponentBuilder;
 import google.registry.request.RequestModule;
 import google.registry.request.RequestScope;
+import google.registry.tools.server.CommitLabelListUploadAction;
 import google.registry.tools.server.CreateGroupsAction;
 import google.registry.tools.server.CreatePremiumListAction;
 import google.registry.tools.server.DeleteEntityAction;
@@ -41,6 +42,7 @@ import google.registry.tools.server.ListRegistrarsAction;
 import google.registry.tools.server.ListReservedListsAction;
 import google.registry.tools.server.ListTldsAction;
 import google.registry.tools.server.ResaveAllEppResourcesAction;
+import google.registry.tools.server.StageLabelListChunkAction;
 import google.registry.tools.server.ToolsServerModule;
 import google.registry.tools.server.UpdatePremiumListAction;
 import google.registry.tools.server.VerifyOteAction;
@@ -60,6 +62,7 @@ import google.registry.tools.server.javascrap.RefreshAllDomainsAction;
         WhiteboxModule.class,
     })
 interface ToolsRequestComponent {
+  CommitLabelListUploadAction commitLabelListUploadAction();
   CreateGroupsAction createGroupsAction();
   CreatePremiumListAction createPremiumListAction();
   DeleteEntityAction deleteEntityAction();
@@ -79,6 +82,7 @@ interface ToolsRequestComponent {
   PurgeSyntheticBillingEventsAction purgeSyntheticBillingEventsAction();
   RefreshAllDomainsAction refreshAllDomainsAction();
   ResaveAllEppResourcesAction resaveAllEppResourcesAction();
+  StageLabelListChunkAction stageLabelListChunkAction();
   UpdatePremiumListAction updatePremiumListAction();
   VerifyOteAction verifyOteAction();
 
@@ -45,7 +45,8 @@ public abstract class EppMetric implements BigQueryMetric {
           new TableFieldSchema().setName("privilegeLevel").setType(FieldType.STRING.name()),
           new TableFieldSchema().setName("eppTarget").setType(FieldType.STRING.name()),
           new TableFieldSchema().setName("eppStatus").setType(FieldType.INTEGER.name()),
-          new TableFieldSchema().setName("attempts").setType(FieldType.INTEGER.name()));
+          new TableFieldSchema().setName("attempts").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema().setName("datastoreLoads").setType(FieldType.INTEGER.name()));
 
   public abstract String getRequestId();
 
@@ -65,6 +66,9 @@ public abstract class EppMetric implements BigQueryMetric {
 
   public abstract Integer getAttempts();
 
+  /** The number of loads from datastore made through the flow's lookup cache. */
+  public abstract Optional<Integer> getDatastoreLoads();
+
   @Override
   public String getTableId() {
     return TABLE_ID;
@@ -89,6 +93,7 @@ public abstract class EppMetric implements BigQueryMetric {
     addOptional("clientId", getClientId(), map);
     addOptional("privilegeLevel", getPrivilegeLevel(), map);
     addOptional("eppTarget", getEppTarget(), map);
+    addOptional("datastoreLoads", getDatastoreLoads(), map);
     if (getStatus().isPresent()) {
       map.put("eppStatus", Integer.toString(getStatus().get().code));
     }
@@ -155,6 +160,8 @@ public abstract class EppMetric implements BigQueryMetric {
 
     abstract Builder setAttempts(Integer attempts);
 
+    public abstract Builder setDatastoreLoads(Integer datastoreLoads);
+
     public Builder incrementAttempts() {
       attempts++;
       return this;
@@ -26,13 +26,19 @@ import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.net.InternetDomainName;
 import com.google.common.net.MediaType;
 import com.google.re2j.Pattern;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.EppResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.request.Action;
 import google.registry.request.HttpException;
 import google.registry.request.HttpException.BadRequestException;
@@ -43,8 +49,10 @@ import google.registry.request.Response;
 import google.registry.util.FormattingLogger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
 
 /**
@@ -161,6 +169,36 @@ public abstract class RdapActionBase implements Runnable {
     return name;
   }
 
+  /**
+   * Returns the keys of the hosts subordinate to a domain whose names match a search with a
+   * wildcard and a suffix, in name order.
+   *
+   * <p>The keys come from the hosts' foreign key indexes, loaded in a single batch, so that hosts
+   * created or deleted since the in-memory host name index was last built are seen correctly.
+   */
+  static ImmutableList<Key<HostResource>> loadMatchingSubordinateHostKeys(
+      RdapSearchPattern partialStringQuery, DomainResource domain, DateTime now) {
+    ImmutableList.Builder<String> namesBuilder = new ImmutableList.Builder<>();
+    for (String fqhn : ImmutableSortedSet.copyOf(domain.getSubordinateHosts())) {
+      // We can't just check that the host name starts with the initial query string, because then
+      // the query ns.exam*.example.com would match against nameserver ns.example.com.
+      if (partialStringQuery.matches(fqhn)) {
+        namesBuilder.add(fqhn);
+      }
+    }
+    ImmutableList<String> names = namesBuilder.build();
+    Map<String, ForeignKeyIndex<HostResource>> indexes =
+        ForeignKeyIndex.load(HostResource.class, names, now);
+    ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
+    for (String name : names) {
+      ForeignKeyIndex<HostResource> index = indexes.get(name);
+      if (index != null) {
+        builder.add(index.getResourceKey());
+      }
+    }
+    return builder.build();
+  }
+
   /**
    * Handles prefix searches in cases where there are no pending deletes. In such cases, it is
    * sufficient to check whether {@code deletionTime} is equal to {@code END_OF_TIME}, because any
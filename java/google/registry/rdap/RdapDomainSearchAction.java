@@ -25,7 +25,6 @@ import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Booleans;
 import com.googlecode.objectify.Key;
@@ -181,14 +180,45 @@ public class RdapDomainSearchAction extends RdapActionBase {
   /** Searches for domains by nameserver name, returning a JSON array of domain info maps. */
   private RdapSearchResults searchByNameserverLdhName(
       final RdapSearchPattern partialStringQuery, final DateTime now) {
+    // Handle queries with a wildcard, but no suffix. Look up the matching hosts in the in-memory
+    // host name index. Rather than an arbitrary cap, we use up to RESULT_SET_SIZE_SCALING_FACTOR
+    // times the result set size limit of them, and since the index knows exactly how many hosts
+    // match, we can tell whether that left any out, in which case the results are truncated. If
+    // there are too many hosts for the index, query the host resources themselves for one more
+    // than that many, which also tells us whether any were left out.
+    if (partialStringQuery.getHasWildcard() && (partialStringQuery.getSuffix() == null)) {
+      int maxHosts = RESULT_SET_SIZE_SCALING_FACTOR * rdapResultSetMaxSize;
+      Optional<RdapHostNameIndex> hostNameIndex = RdapHostNameIndex.get();
+      ImmutableList<Key<HostResource>> hostKeys;
+      boolean isTruncated;
+      if (hostNameIndex.isPresent()) {
+        hostKeys =
+            hostNameIndex.get().getKeysWithPrefix(partialStringQuery.getInitialString(), maxHosts);
+        isTruncated = hostNameIndex.get().countWithPrefix(partialStringQuery.getInitialString())
+            > hostKeys.size();
+      } else {
+        hostKeys = ImmutableList.copyOf(
+            queryUndeleted(
+                    HostResource.class, "fullyQualifiedHostName", partialStringQuery, maxHosts + 1)
+                .keys());
+        isTruncated = hostKeys.size() > maxHosts;
+        if (isTruncated) {
+          hostKeys = hostKeys.subList(0, maxHosts);
+        }
+      }
+      if (hostKeys.isEmpty()) {
+        throw new NotFoundException("No matching nameservers found");
+      }
+      return searchByNameserverRefs(hostKeys, isTruncated, now);
+    }
     Iterable<Key<HostResource>> hostKeys = getNameserverRefsByLdhName(partialStringQuery, now);
     if (Iterables.isEmpty(hostKeys)) {
       throw new NotFoundException("No matching nameservers found");
     }
-    return searchByNameserverRefs(hostKeys, now);
+    return searchByNameserverRefs(hostKeys, false, now);
   }
 
-  /** Assembles a list of {@link HostResource} keys by name. */
+  /** Assembles a list of {@link HostResource} keys by name, for searches without a wildcard. */
   private Iterable<Key<HostResource>> getNameserverRefsByLdhName(
       final RdapSearchPattern partialStringQuery, final DateTime now) {
     // Handle queries without a wildcard; just load the host by foreign key in the usual way.
@@ -200,17 +230,9 @@ public class RdapDomainSearchAction extends RdapActionBase {
       } else {
         return ImmutableList.of(hostKey);
       }
-    // Handle queries with a wildcard, but no suffix. Query the host resources themselves, rather
-    // than the foreign key index, because then we have an index on fully qualified host name and
-    // deletion time, so we can check the deletion status in the query itself. There are no pending
-    // deletes for hosts, so we can call queryUndeleted.
-    } else if (partialStringQuery.getSuffix() == null) {
-      // TODO (b/24463238): figure out how to limit the size of these queries effectively
-      return queryUndeleted(HostResource.class, "fullyQualifiedHostName", partialStringQuery, 1000)
-          .keys();
     // Handle queries with a wildcard and a suffix. In this case, it is more efficient to do things
     // differently. We use the suffix to look up the domain, then loop through the subordinate hosts
-    // looking for matches.
+    // looking for matches, whose keys we get from their foreign key indexes in a single batch.
     // TODO(mountford): This might not be ok; it will only find nameservers on domains we control
     } else {
       DomainResource domainResource = loadByForeignKey(
@@ -218,18 +240,7 @@ public class RdapDomainSearchAction extends RdapActionBase {
       if (domainResource == null) {
         throw new NotFoundException("No domain found for specified nameserver suffix");
       }
-      ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
-      for (String fqhn : ImmutableSortedSet.copyOf(domainResource.getSubordinateHosts())) {
-        // We can't just check that the host name starts with the initial query string, because then
-        // the query ns.exam*.example.com would match against nameserver ns.example.com.
-        if (partialStringQuery.matches(fqhn)) {
-          Key<HostResource> hostKey = loadAndGetKey(HostResource.class, fqhn, now);
-          if (hostKey != null) {
-            builder.add(hostKey);
-          }
-        }
-      }
-      return builder.build();
+      return loadMatchingSubordinateHostKeys(partialStringQuery, domainResource, now);
     }
   }
 
@@ -249,6 +260,7 @@ public class RdapDomainSearchAction extends RdapActionBase {
             .filter("deletionTime", END_OF_TIME)
             .limit(1000)
             .keys(),
+        false,
         now);
   }
 
@@ -257,9 +269,14 @@ public class RdapDomainSearchAction extends RdapActionBase {
    *
    * <p>This method is called by {@link #searchByNameserverLdhName} and
    * {@link #searchByNameserverIp} after they assemble the relevant host keys.
+   *
+   * @param hostKeysTruncated true if there were more matching hosts than are in {@code hostKeys},
+   *     in which case the results are always marked as truncated
    */
   private RdapSearchResults searchByNameserverRefs(
-      final Iterable<Key<HostResource>> hostKeys, final DateTime now) {
+      final Iterable<Key<HostResource>> hostKeys,
+      final boolean hostKeysTruncated,
+      final DateTime now) {
     // We must break the query up into chunks, because the in operator is limited to 30 subqueries.
     // Since it is possible for the same domain to show up more than once in our result list (if
     // we do a wildcard nameserver search that returns multiple nameservers used by the same
@@ -280,7 +297,7 @@ public class RdapDomainSearchAction extends RdapActionBase {
         }
       }
     }
-    return makeSearchResults(ImmutableList.copyOf(domains), false, now);
+    return makeSearchResults(ImmutableList.copyOf(domains), hostKeysTruncated, now);
   }
 
   /**
@@ -0,0 +1,302 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static google.registry.model.CacheUtils.memoizeWithBackgroundRefresh;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
+import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
+import google.registry.util.FormattingLogger;
+import google.registry.util.NonFinalForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory index of the names of all active hosts, used to answer wildcard nameserver searches.
+ *
+ * <p>The names are held in a compressed (radix) trie in which every node knows how many names are
+ * below it, so a prefix search finds the exact number of matching hosts by walking at most the
+ * length of the prefix, and returns the matching host keys in name order without touching
+ * datastore. This replaces range queries on {@link HostResource} that had to be capped at an
+ * arbitrary size and couldn't report how many hosts they had missed.
+ *
+ * <p>The index is built from the {@link ForeignKeyHostIndex} entities of undeleted hosts. Building
+ * it scans all of them, so only the first lookup on an instance waits for a build; after the
+ * singleton cache refresh duration the index is rebuilt on a background thread, and lookups keep
+ * using the old index until the new one is ready. Hosts created or deleted since the last build
+ * may therefore be missing or still present. Callers that return host data should check the
+ * loaded hosts for deletion, and callers that need an exact answer for a known name should load
+ * its foreign key index instead.
+ *
+ * <p>The index holds at most {@link #maxHosts} names, which bounds both the memory it takes (twice
+ * over while it is being rebuilt) and the time a build takes. A registry with more hosts than that
+ * gets no index at all, and callers fall back to indexed datastore queries.
+ */
+final class RdapHostNameIndex {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** The most host names the index will hold. */
+  @NonFinalForTesting
+  private static int maxHosts = 200000;
+
+  /**
+   * The cached index, or absent if there are too many hosts, rebuilt from datastore in the
+   * background when it expires.
+   */
+  private static final Supplier<Optional<RdapHostNameIndex>> CACHE =
+      memoizeWithBackgroundRefresh(new Supplier<Optional<RdapHostNameIndex>>() {
+        @Override
+        public Optional<RdapHostNameIndex> get() {
+          return ofy().doTransactionless(new Work<Optional<RdapHostNameIndex>>() {
+            @Override
+            public Optional<RdapHostNameIndex> run() {
+              return load();
+            }});
+        }});
+
+  /** A node of the trie, holding the part of the name between its parent and itself. */
+  private static final class Node {
+
+    final String label;
+
+    /** The key of the host whose name ends at this node, or null if there isn't one. */
+    @Nullable final Key<HostResource> key;
+
+    /** The children of this node, in order of the first character of their labels. */
+    final Node[] children;
+
+    /** The number of names ending at this node or below it. */
+    final int count;
+
+    Node(String label, @Nullable Key<HostResource> key, Node[] children, int count) {
+      this.label = label;
+      this.key = key;
+      this.children = children;
+      this.count = count;
+    }
+
+    @Nullable
+    Node getChild(char c) {
+      int low = 0;
+      int high = children.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char midChar = children[mid].label.charAt(0);
+        if (midChar < c) {
+          low = mid + 1;
+        } else if (midChar > c) {
+          high = mid - 1;
+        } else {
+          return children[mid];
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  @Nullable private final Node root;
+
+  private RdapHostNameIndex(@Nullable Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the current index, which is only built on the calling thread the first time, or absent
+   * if there are more than {@link #maxHosts} hosts.
+   */
+  static Optional<RdapHostNameIndex> get() {
+    return CACHE.get();
+  }
+
+  /**
+   * Builds an index from the foreign key indexes of all undeleted hosts, or returns absent as soon
+   * as there turn out to be too many of them.
+   */
+  private static Optional<RdapHostNameIndex> load() {
+    ImmutableSortedMap.Builder<String, Key<HostResource>> builder =
+        ImmutableSortedMap.naturalOrder();
+    int count = 0;
+    // Hosts have no pending deletes, so active hosts have a deletion time of END_OF_TIME. Renamed
+    // hosts leave behind an index with the time of the rename, which this skips.
+    for (ForeignKeyIndex<?> index : ofy().load()
+        .type(ForeignKeyHostIndex.class)
+        .filter("deletionTime", END_OF_TIME)
+        .limit(maxHosts + 1)
+        .iterable()) {
+      if (++count > maxHosts) {
+        logger.warningfmt(
+            "More than %d active hosts; not building an RDAP host name index", maxHosts);
+        return Optional.absent();
+      }
+      @SuppressWarnings("unchecked")
+      Key<HostResource> hostKey = (Key<HostResource>) index.getResourceKey();
+      builder.put(index.getForeignKey(), hostKey);
+    }
+    return Optional.of(create(builder.build()));
+  }
+
+  /** Creates an index of the given host names and keys. */
+  @VisibleForTesting
+  static RdapHostNameIndex create(Map<String, Key<HostResource>> hostKeysByName) {
+    ImmutableSortedMap<String, Key<HostResource>> sorted =
+        ImmutableSortedMap.copyOf(hostKeysByName);
+    List<String> names = sorted.keySet().asList();
+    List<Key<HostResource>> keys = sorted.values().asList();
+    return new RdapHostNameIndex(
+        names.isEmpty() ? null : buildNode(names, keys, 0, names.size(), 0));
+  }
+
+  /**
+   * Builds the node holding the sorted names in {@code [low, high)}, all of which share their
+   * first {@code start} characters with the node's parent.
+   */
+  private static Node buildNode(
+      List<String> names, List<Key<HostResource>> keys, int low, int high, int start) {
+    // The names are sorted, so the prefix shared by the first and last is shared by all of them.
+    String first = names.get(low);
+    String last = names.get(high - 1);
+    int end = start;
+    while (end < first.length() && end < last.length() && first.charAt(end) == last.charAt(end)) {
+      end++;
+    }
+    Key<HostResource> key = null;
+    int next = low;
+    if (first.length() == end) {
+      key = keys.get(low);
+      next++;
+    }
+    List<Node> children = new ArrayList<>();
+    while (next < high) {
+      char c = names.get(next).charAt(end);
+      int groupEnd = next + 1;
+      while (groupEnd < high && names.get(groupEnd).charAt(end) == c) {
+        groupEnd++;
+      }
+      children.add(buildNode(names, keys, next, groupEnd, end));
+      next = groupEnd;
+    }
+    return new Node(
+        first.substring(start, end),
+        key,
+        children.isEmpty() ? NO_CHILDREN : children.toArray(new Node[children.size()]),
+        high - low);
+  }
+
+  /** Returns the number of host names in the index. */
+  int size() {
+    return (root == null) ? 0 : root.count;
+  }
+
+  /** Returns the exact number of host names starting with {@code prefix}. */
+  int countWithPrefix(String prefix) {
+    Node node = findPrefix(prefix);
+    return (node == null) ? 0 : node.count;
+  }
+
+  /** Returns the keys of at most {@code limit} hosts whose names start with {@code prefix}. */
+  ImmutableList<Key<HostResource>> getKeysWithPrefix(String prefix, int limit) {
+    return getKeysWithPrefix(prefix, 0, limit);
+  }
+
+  /**
+   * Returns the keys of at most {@code limit} hosts whose names start with {@code prefix}, after
+   * skipping the first {@code offset} of them in name order.
+   */
+  ImmutableList<Key<HostResource>> getKeysWithPrefix(String prefix, int offset, int limit) {
+    ImmutableList.Builder<Key<HostResource>> builder = new ImmutableList.Builder<>();
+    Node node = findPrefix(prefix);
+    if (node != null && offset < node.count && limit > 0) {
+      addKeys(node, builder, offset, limit);
+    }
+    return builder.build();
+  }
+
+  /** Returns the key of the host with exactly this name, or null if there isn't one. */
+  @Nullable
+  Key<HostResource> getKey(String name) {
+    Node node = root;
+    int position = 0;
+    while (node != null && name.startsWith(node.label, position)) {
+      position += node.label.length();
+      if (position == name.length()) {
+        return node.key;
+      }
+      node = node.getChild(name.charAt(position));
+    }
+    return null;
+  }
+
+  /** Returns the highest node all of whose names start with {@code prefix}, or null if none do. */
+  @Nullable
+  private Node findPrefix(String prefix) {
+    Node node = root;
+    int position = 0;
+    while (node != null) {
+      int length = Math.min(node.label.length(), prefix.length() - position);
+      if (!prefix.regionMatches(position, node.label, 0, length)) {
+        return null;
+      }
+      position += length;
+      if (position == prefix.length()) {
+        return node;
+      }
+      node = node.getChild(prefix.charAt(position));
+    }
+    return null;
+  }
+
+  /**
+   * Adds the keys at and below {@code node} to {@code builder} in name order, skipping the first
+   * {@code offset} of them and stopping once {@code remaining} have been added, and returns how
+   * many more may still be added. Subtrees that lie entirely within the skipped keys are passed
+   * over using their counts, without being walked.
+   */
+  private static int addKeys(
+      Node node, ImmutableList.Builder<Key<HostResource>> builder, int offset, int remaining) {
+    if (node.key != null) {
+      if (offset > 0) {
+        offset--;
+      } else {
+        builder.add(node.key);
+        remaining--;
+      }
+    }
+    for (int i = 0; i < node.children.length && remaining > 0; i++) {
+      Node child = node.children[i];
+      if (offset >= child.count) {
+        offset -= child.count;
+        continue;
+      }
+      remaining = addKeys(child, builder, offset, remaining);
+      offset = 0;
+    }
+    return remaining;
+  }
+}
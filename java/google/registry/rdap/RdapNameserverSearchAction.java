@@ -14,6 +14,7 @@
 
 package google.registry.rdap;
 
+import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.rdap.RdapIcannStandardInformation.TRUNCATION_NOTICES;
@@ -24,9 +25,9 @@ import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Booleans;
+import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
@@ -40,6 +41,7 @@ import google.registry.util.Clock;
 import google.registry.util.Idn;
 import java.net.InetAddress;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -129,40 +131,84 @@ public class RdapNameserverSearchAction extends RdapActionBase {
           ImmutableList.of(
               rdapJsonFormatter.makeRdapJsonForHost(
                   hostResource, false, rdapLinkBase, rdapWhoisServer, now, OutputDataType.FULL)));
-    // Handle queries with a wildcard, but no suffix. There are no pending deletes for hosts, so we
+    // Handle queries with a wildcard, but no suffix. Look up the matching hosts in the in-memory
+    // host name index, and load only as many as we need. If there are too many hosts for the
+    // index, query the host resources themselves; there are no pending deletes for hosts, so we
     // can call queryUndeleted.
     } else if (partialStringQuery.getSuffix() == null) {
+      Optional<RdapHostNameIndex> hostNameIndex = RdapHostNameIndex.get();
+      // Add 1 so we can detect truncation.
       return makeSearchResults(
-          // Add 1 so we can detect truncation.
-          queryUndeleted(
-                  HostResource.class,
-                  "fullyQualifiedHostName",
-                  partialStringQuery,
-                  rdapResultSetMaxSize + 1)
-              .list(),
+          hostNameIndex.isPresent()
+              ? loadActiveHostsWithPrefix(
+                  hostNameIndex.get(),
+                  partialStringQuery.getInitialString(),
+                  rdapResultSetMaxSize + 1,
+                  now)
+              : queryUndeleted(
+                      HostResource.class,
+                      "fullyQualifiedHostName",
+                      partialStringQuery,
+                      rdapResultSetMaxSize + 1)
+                  .list(),
           now);
     // Handle queries with a wildcard and a suffix. In this case, it is more efficient to do things
     // differently. We use the suffix to look up the domain, then loop through the subordinate hosts
-    // looking for matches.
+    // looking for matches, and load all of their foreign key indexes and then hosts at once.
     } else {
       DomainResource domainResource =
           loadByForeignKey(DomainResource.class, partialStringQuery.getSuffix(), now);
       if (domainResource == null) {
         throw new NotFoundException("No domain found for specified nameserver suffix");
       }
-      ImmutableList.Builder<HostResource> hostListBuilder = new ImmutableList.Builder<>();
-      for (String fqhn : ImmutableSortedSet.copyOf(domainResource.getSubordinateHosts())) {
-        // We can't just check that the host name starts with the initial query string, because then
-        // the query ns.exam*.example.com would match against nameserver ns.example.com.
-        if (partialStringQuery.matches(fqhn)) {
-          HostResource hostResource = loadByForeignKey(HostResource.class, fqhn, now);
-          if (hostResource != null) {
-            hostListBuilder.add(hostResource);
-          }
-        }
+      return makeSearchResults(
+          loadActiveHosts(
+              loadMatchingSubordinateHostKeys(partialStringQuery, domainResource, now), now),
+          now);
+    }
+  }
+
+  /**
+   * Loads up to {@code limit} active hosts whose names start with {@code prefix}, in name order.
+   *
+   * <p>Hosts deleted since the index was built are skipped, and more keys are taken from the index
+   * in their place, so that a full result set is only short when there really aren't enough
+   * matching hosts.
+   */
+  private static ImmutableList<HostResource> loadActiveHostsWithPrefix(
+      RdapHostNameIndex hostNameIndex, String prefix, int limit, DateTime now) {
+    ImmutableList.Builder<HostResource> builder = new ImmutableList.Builder<>();
+    int found = 0;
+    int offset = 0;
+    while (found < limit) {
+      ImmutableList<Key<HostResource>> hostKeys =
+          hostNameIndex.getKeysWithPrefix(prefix, offset, limit - found);
+      if (hostKeys.isEmpty()) {
+        break;
+      }
+      offset += hostKeys.size();
+      ImmutableList<HostResource> hosts = loadActiveHosts(hostKeys, now);
+      builder.addAll(hosts);
+      found += hosts.size();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Loads hosts in a single batch, in the order of their keys, skipping any that were deleted
+   * since the host name index was built.
+   */
+  private static ImmutableList<HostResource> loadActiveHosts(
+      List<Key<HostResource>> hostKeys, DateTime now) {
+    Map<Key<HostResource>, HostResource> hosts = ofy().load().keys(hostKeys);
+    ImmutableList.Builder<HostResource> builder = new ImmutableList.Builder<>();
+    for (Key<HostResource> hostKey : hostKeys) {
+      HostResource host = hosts.get(hostKey);
+      if (host != null && isActive(host, now)) {
+        builder.add(host);
       }
-      return makeSearchResults(hostListBuilder.build(), now);
     }
+    return builder.build();
   }
 
   /** Searches for nameservers by IP address, returning a JSON array of nameserver info maps. */
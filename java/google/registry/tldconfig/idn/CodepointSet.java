@@ -0,0 +1,70 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tldconfig.idn;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.primitives.Ints;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of Unicode codepoints whose membership checks don't box.
+ *
+ * <p>Codepoints in the Basic Multilingual Plane, where nearly all IDN table entries are, are held
+ * in a bitmap of 8 KB. Any others are held in a sorted array, which is binary searched.
+ */
+final class CodepointSet {
+
+  private static final int BMP_SIZE = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+
+  private final long[] bmpBitmap;
+  private final int[] supplementaryCodepoints;
+
+  private CodepointSet(long[] bmpBitmap, int[] supplementaryCodepoints) {
+    this.bmpBitmap = bmpBitmap;
+    this.supplementaryCodepoints = supplementaryCodepoints;
+  }
+
+  boolean contains(int codepoint) {
+    if (codepoint < BMP_SIZE) {
+      // Shifting a long only uses the low six bits of the shift distance.
+      return codepoint >= 0 && (bmpBitmap[codepoint >>> 6] & (1L << codepoint)) != 0;
+    }
+    return Arrays.binarySearch(supplementaryCodepoints, codepoint) >= 0;
+  }
+
+  /** A builder for {@link CodepointSet}. */
+  static final class Builder {
+
+    private final long[] bmpBitmap = new long[BMP_SIZE / 64];
+    private final SortedSet<Integer> supplementaryCodepoints = new TreeSet<>();
+
+    Builder add(int codepoint) {
+      checkArgument(codepoint >= 0, "Invalid codepoint: %s", codepoint);
+      if (codepoint < BMP_SIZE) {
+        bmpBitmap[codepoint >>> 6] |= 1L << codepoint;
+      } else {
+        supplementaryCodepoints.add(codepoint);
+      }
+      return this;
+    }
+
+    CodepointSet build() {
+      return new CodepointSet(bmpBitmap.clone(), Ints.toArray(supplementaryCodepoints));
+    }
+  }
+}
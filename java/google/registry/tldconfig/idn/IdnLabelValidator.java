@@ -14,6 +14,7 @@
 
 package google.registry.tldconfig.idn;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.tldconfig.idn.IdnTableEnum.EXTENDED_LATIN;
 import static google.registry.tldconfig.idn.IdnTableEnum.JA;
 
@@ -22,6 +23,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.util.Idn;
 import google.registry.util.NonFinalForTesting;
+import java.util.List;
 
 /** Validates whether a given IDN label can be provisioned for a particular TLD. */
 public final class IdnLabelValidator {
@@ -43,14 +45,45 @@ public final class IdnLabelValidator {
    */
   public static Optional<String> findValidIdnTableForTld(String label, String tld) {
     String unicodeString = Idn.toUnicode(label);
-    for (IdnTableEnum idnTable
-        : Optional.fromNullable(idnTableListsPerTld.get(tld)).or(DEFAULT_IDN_TABLES)) {
-      if (idnTable.getTable().isValidLabel(unicodeString)) {
-        return Optional.of(idnTable.getTable().getName());
+    ImmutableList<IdnTableEnum> idnTables =
+        Optional.fromNullable(idnTableListsPerTld.get(tld)).or(DEFAULT_IDN_TABLES);
+    // Only the tables that contain every codepoint need their language rules checked.
+    for (long candidates = findTablesContainingLabel(unicodeString, idnTables);
+        candidates != 0;
+        candidates &= candidates - 1) {
+      IdnTable idnTable = idnTables.get(Long.numberOfTrailingZeros(candidates)).getTable();
+      if (idnTable.isValidLabelForLanguage(unicodeString)) {
+        return Optional.of(idnTable.getName());
       }
     }
     return Optional.absent();
   }
 
+  /**
+   * Returns a bitmask of which of the given tables contain every codepoint of the label, where bit
+   * {@code i} stands for the table at index {@code i}.
+   *
+   * <p>The label is scanned once, checking each codepoint against the tables that still contain
+   * every codepoint before it, and the scan stops as soon as there are none left.
+   */
+  private static long findTablesContainingLabel(String label, List<IdnTableEnum> idnTables) {
+    checkArgument(idnTables.size() <= 64, "At most 64 IDN tables can be configured for a TLD");
+    long remaining = (idnTables.size() == 64) ? -1L : (1L << idnTables.size()) - 1;
+    final int length = label.length();
+    for (int i = 0; i < length && remaining != 0; ) {
+      int codepoint = label.codePointAt(i);
+      for (long tables = remaining; tables != 0; tables &= tables - 1) {
+        int index = Long.numberOfTrailingZeros(tables);
+        if (!idnTables.get(index).getTable().containsCodepoint(codepoint)) {
+          remaining &= ~(1L << index);
+        }
+      }
+      // Some codepoints take up more than one character in Java strings (e.g. high and low
+      // surrogates).
+      i += Character.charCount(codepoint);
+    }
+    return remaining;
+  }
+
   private IdnLabelValidator() {}
 }
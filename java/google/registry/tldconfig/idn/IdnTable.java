@@ -18,9 +18,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableRangeSet;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.net.URI;
@@ -48,8 +45,8 @@ public final class IdnTable {
   /** Public URL of policy for this IDN table, which is needed by RDE. */
   private final URI policy;
 
-  /** {@link RangeSet} containing the valid codepoints in this table. */
-  private final RangeSet<Integer> validCodepoints;
+  /** The valid codepoints in this table. */
+  private final CodepointSet validCodepoints;
 
   /** Validates the language rules associated with this IDN table. */
   private final Optional<LanguageValidator> languageValidator;
@@ -58,7 +55,7 @@ public final class IdnTable {
       String name,
       URI url,
       URI policy,
-      RangeSet<Integer> validCodepoints,
+      CodepointSet validCodepoints,
       Optional<LanguageValidator> languageValidator) {
     this.name = name;
     this.url = checkNotNull(url, "%s missing '# URL: http://foo.example/page' line", name);
@@ -95,6 +92,19 @@ public final class IdnTable {
       // surrogates).
       i += Character.charCount(codepoint);
     }
+    return isValidLabelForLanguage(label);
+  }
+
+  /** Returns true if the given codepoint is in this IDN table. */
+  boolean containsCodepoint(int codepoint) {
+    return validCodepoints.contains(codepoint);
+  }
+
+  /**
+   * Returns true if the given label meets the language rules of this IDN table, if it has any. This
+   * doesn't check whether its codepoints are in the table.
+   */
+  boolean isValidLabelForLanguage(String label) {
     return !(languageValidator.isPresent()
         && !languageValidator.get().isValidLabelForLanguage(label));
   }
@@ -102,7 +112,7 @@ public final class IdnTable {
   /** Creates an IDN table given the lines from text file. */
   static IdnTable createFrom(
       String language, Iterable<String> data, Optional<LanguageValidator> languageValidator) {
-    ImmutableRangeSet.Builder<Integer> rangeSet = new ImmutableRangeSet.Builder<>();
+    CodepointSet.Builder codepoints = new CodepointSet.Builder();
     URI url = null;
     URI policy = null;
     for (String line : data) {
@@ -122,9 +132,9 @@ public final class IdnTable {
       }
 
       int codepoint = readCodepoint(line);
-      rangeSet.add(Range.<Integer>singleton(codepoint));
+      codepoints.add(codepoint);
     }
-    return new IdnTable(language, url, policy, rangeSet.build(), languageValidator);
+    return new IdnTable(language, url, policy, codepoints.build(), languageValidator);
   }
 
   /**
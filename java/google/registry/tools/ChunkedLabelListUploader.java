@@ -0,0 +1,145 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.tools.CreateOrUpdatePremiumListCommand.stripJsonPrefix;
+import static google.registry.tools.CreateOrUpdatePremiumListCommand.toMap;
+import static google.registry.tools.server.CreateOrUpdatePremiumListAction.INPUT_PARAM;
+import static google.registry.tools.server.CreateOrUpdatePremiumListAction.NAME_PARAM;
+import static google.registry.tools.server.StageLabelListChunkAction.CHECKSUM_PARAM;
+import static google.registry.tools.server.StageLabelListChunkAction.SEQUENCE_PARAM;
+import static google.registry.tools.server.StageLabelListChunkAction.UPLOAD_ID_PARAM;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.tools.ServerSideCommand.Connection;
+import google.registry.tools.server.CommitLabelListUploadAction;
+import google.registry.tools.server.CommitLabelListUploadAction.ListType;
+import google.registry.tools.server.StageLabelListChunkAction;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.json.simple.JSONValue;
+
+/**
+ * Uploads a premium or reserved list to the server in chunks, for lists that are too large to send
+ * in a single request.
+ *
+ * <p>The input file is read a line at a time, and its lines are grouped into chunks of at most the
+ * chunk size, which are staged on the server by {@link StageLabelListChunkAction} and then made
+ * live together by {@link CommitLabelListUploadAction}. The upload id is derived from the list and
+ * the contents of the file, so uploading the same file again after an interrupted upload resumes
+ * it, with the server skipping the chunks it already has.
+ */
+final class ChunkedLabelListUploader {
+
+  private final Connection connection;
+  private final int chunkSize;
+
+  ChunkedLabelListUploader(Connection connection, int chunkSize) {
+    checkArgument(
+        chunkSize > 0 && chunkSize <= StageLabelListChunkAction.MAX_CHUNK_BYTES,
+        "Chunk size must be between 1 and %s bytes",
+        StageLabelListChunkAction.MAX_CHUNK_BYTES);
+    this.connection = connection;
+    this.chunkSize = chunkSize;
+  }
+
+  /** Uploads the list in {@code inputFile} and returns the message from the server. */
+  String upload(ListType listType, String name, Path inputFile) throws IOException {
+    String uploadId = computeUploadId(listType, name, inputFile);
+    Hasher contentHasher = Hashing.sha256().newHasher();
+    int chunkCount = 0;
+    try (BufferedReader reader = Files.newBufferedReader(inputFile, UTF_8)) {
+      StringBuilder chunk = new StringBuilder();
+      int chunkBytes = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String entry = line + "\n";
+        int entryBytes = entry.getBytes(UTF_8).length;
+        checkArgument(entryBytes <= chunkSize, "Line is longer than the chunk size: %s", line);
+        if (chunkBytes + entryBytes > chunkSize) {
+          stageChunk(uploadId, chunkCount++, chunk.toString());
+          chunk.setLength(0);
+          chunkBytes = 0;
+        }
+        chunk.append(entry);
+        chunkBytes += entryBytes;
+        contentHasher.putString(entry, UTF_8);
+      }
+      if (chunkBytes > 0) {
+        stageChunk(uploadId, chunkCount++, chunk.toString());
+      }
+    }
+    checkArgument(chunkCount > 0, "Input file is empty: %s", inputFile);
+    Map<String, Object> response = send(
+        CommitLabelListUploadAction.PATH,
+        new ImmutableMap.Builder<String, Object>()
+            .put(UPLOAD_ID_PARAM, uploadId)
+            .put(NAME_PARAM, name)
+            .put(CommitLabelListUploadAction.LIST_TYPE_PARAM, listType.name())
+            .put(CommitLabelListUploadAction.CHUNK_COUNT_PARAM, chunkCount)
+            .put(CHECKSUM_PARAM, contentHasher.hash().toString())
+            .build(),
+        "");
+    return (String) response.get("message");
+  }
+
+  private void stageChunk(String uploadId, int sequence, String data) throws IOException {
+    send(
+        StageLabelListChunkAction.PATH,
+        ImmutableMap.<String, Object>of(
+            UPLOAD_ID_PARAM, uploadId,
+            SEQUENCE_PARAM, sequence,
+            CHECKSUM_PARAM, StagedLabelListChunk.computeChecksum(data)),
+        INPUT_PARAM + "=" + URLEncoder.encode(data, UTF_8.toString()));
+  }
+
+  /** Calls the server, checks that it succeeded, and returns the response. */
+  private Map<String, Object> send(String path, ImmutableMap<String, Object> params, String body)
+      throws IOException {
+    Map<String, Object> response = toMap(JSONValue.parse(stripJsonPrefix(
+        connection.send(path, params, MediaType.FORM_DATA, body.getBytes(UTF_8)))));
+    Verify.verify(
+        !"error".equals(response.get("status")), "Server error: %s", response.get("error"));
+    return response;
+  }
+
+  /** Returns an id that is the same for every upload of the same file to the same list. */
+  private static String computeUploadId(ListType listType, String name, Path inputFile)
+      throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(listType.name(), UTF_8)
+        .putByte((byte) 0)
+        .putString(name, UTF_8)
+        .putByte((byte) 0);
+    try (InputStream input = Files.newInputStream(inputFile)) {
+      ByteStreams.copy(input, Funnels.asOutputStream(hasher));
+    }
+    return hasher.hash().toString();
+  }
+}
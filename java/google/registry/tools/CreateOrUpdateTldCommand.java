@@ -69,6 +69,13 @@ abstract class CreateOrUpdateTldCommand extends MutatingCommand {
       arity = 1)
   private Boolean dns;
 
+  @Nullable
+  @Parameter(
+      names = "--num_dns_publish_locks",
+      description = "Number of locks among which DNS updates are sharded, so that they can be "
+          + "published in parallel. Only raise this if the DNS writer supports concurrent updates.")
+  private Integer numDnsPublishLocks;
+
   @Nullable
   @Parameter(
       names = "--add_grace_period",
@@ -286,6 +293,10 @@ abstract class CreateOrUpdateTldCommand extends MutatingCommand {
         builder.setDnsPaused(!dns);
       }
 
+      if (numDnsPublishLocks != null) {
+        builder.setNumDnsPublishLocks(numDnsPublishLocks);
+      }
+
       Optional<Map.Entry<DateTime, TldState>> tldStateTransitionToAdd =
           getTldStateTransitionToAdd();
       if (!tldStateTransitions.isEmpty()) {
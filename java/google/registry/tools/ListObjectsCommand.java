@@ -14,16 +14,21 @@
 
 package google.registry.tools;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.security.JsonHttp.JSON_SAFETY_PREFIX;
+import static google.registry.tools.server.ListObjectsAction.CURSOR_PARAM;
 import static google.registry.tools.server.ListObjectsAction.FIELDS_PARAM;
 import static google.registry.tools.server.ListObjectsAction.FULL_FIELD_NAMES_PARAM;
+import static google.registry.tools.server.ListObjectsAction.LIMIT_PARAM;
 import static google.registry.tools.server.ListObjectsAction.PRINT_HEADER_ROW_PARAM;
 
 import com.beust.jcommander.Parameter;
+import com.google.common.base.Optional;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.MediaType;
 import google.registry.tools.Command.RemoteApiCommand;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -55,6 +60,13 @@ abstract class ListObjectsCommand implements RemoteApiCommand, ServerSideCommand
       description = "Whether to print full field names in header row (as opposed to aliases)")
   private boolean fullFieldNames = false;
 
+  @Nullable
+  @Parameter(
+      names = {"--page_size"},
+      description = "If set, fetch and print the objects this many at a time, instead of all at "
+          + "once, for listings that are too large to return in a single request")
+  private Integer pageSize;
+
   private Connection connection;
 
   @Override
@@ -88,12 +100,37 @@ abstract class ListObjectsCommand implements RemoteApiCommand, ServerSideCommand
     if (extraParams != null) {
       params.putAll(extraParams);
     }
-    // Call the server and get the response data.
-    String response = connection.send(
+    if (pageSize == null) {
+      printResponse(send(params.build()));
+      return;
+    }
+    checkArgument(pageSize > 0, "--page_size must be positive");
+    params.put(LIMIT_PARAM, pageSize);
+    ImmutableMap<String, Object> firstPageParams = params.build();
+    // Print each page as it arrives, so that the listing never has to be held in memory.
+    Optional<String> cursor = printResponse(send(firstPageParams));
+    while (cursor.isPresent()) {
+      cursor = printResponse(send(new ImmutableMap.Builder<String, Object>()
+          .putAll(firstPageParams)
+          .put(CURSOR_PARAM, cursor.get())
+          .build()));
+    }
+  }
+
+  /** Calls the server with the given parameters and returns the response. */
+  private String send(ImmutableMap<String, Object> params) throws IOException {
+    return connection.send(
         getCommandPath(),
-        params.build(),
+        params,
         MediaType.PLAIN_TEXT_UTF_8,
         new byte[0]);
+  }
+
+  /**
+   * Prints the lines in a response from the server, or the error message if it failed, and returns
+   * the cursor for the next page if there is one.
+   */
+  private static Optional<String> printResponse(String response) {
     // Parse the returned JSON and make sure it's a map.
     Object obj = JSONValue.parse(response.substring(JSON_SAFETY_PREFIX.length()));
     if (!(obj instanceof Map<?, ?>)) {
@@ -117,6 +154,7 @@ abstract class ListObjectsCommand implements RemoteApiCommand, ServerSideCommand
         throw new VerifyException("Server returned no error message");
       }
       System.out.println(obj);
+      return Optional.absent();
     // Handle success.
     } else if (status.equals("success")) {
       obj = responseMap.get("lines");
@@ -129,6 +167,11 @@ abstract class ListObjectsCommand implements RemoteApiCommand, ServerSideCommand
       for (Object lineObj : (List<?>) obj) {
         System.out.println(lineObj);
       }
+      obj = responseMap.get("cursor");
+      if ((obj != null) && !(obj instanceof String)) {
+        throw new VerifyException("Server returned non-string cursor");
+      }
+      return Optional.fromNullable((String) obj);
     // Handle unexpected status values.
     } else {
       throw new VerifyException("Server returned unexpected status");
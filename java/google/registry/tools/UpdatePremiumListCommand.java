@@ -14,18 +14,37 @@
 
 package google.registry.tools;
 
+import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import google.registry.model.registry.label.PremiumList;
+import google.registry.tools.server.CommitLabelListUploadAction.ListType;
 import google.registry.tools.server.UpdatePremiumListAction;
+import javax.annotation.Nullable;
 
 /** Command to safely update {@link PremiumList} in Datastore for a given TLD. */
 @Parameters(separators = " =", commandDescription = "Update a PremiumList in Datastore.")
 class UpdatePremiumListCommand extends CreateOrUpdatePremiumListCommand {
 
+  @Nullable
+  @Parameter(
+      names = {"--chunk_size"},
+      description = "If set, upload the list in chunks of at most this many bytes, which are "
+          + "committed together once all of them have been sent. Use this for lists that are too "
+          + "large to send in one request. Running the same upload again resumes it.")
+  Integer chunkSize;
+
   /** Returns the path to the servlet task. */
   @Override
   public String getCommandPath() {
     return UpdatePremiumListAction.PATH;
   }
-}
 
+  @Override
+  public String execute() throws Exception {
+    if (chunkSize == null) {
+      return super.execute();
+    }
+    return new ChunkedLabelListUploader(connection, chunkSize)
+        .upload(ListType.PREMIUM, name, inputFile);
+  }
+}
@@ -18,17 +18,38 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.util.ListNamingUtils.convertFilePathToName;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import google.registry.model.registry.label.ReservedList;
 import google.registry.model.registry.label.ReservedList.Builder;
+import google.registry.tools.server.CommitLabelListUploadAction.ListType;
 import google.registry.util.SystemClock;
 import java.nio.file.Files;
+import javax.annotation.Nullable;
 
 /** Command to safely update {@link ReservedList} on Datastore. */
 @Parameters(separators = " =", commandDescription = "Update a ReservedList in datastore.")
-final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand {
+final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand
+    implements ServerSideCommand {
+
+  @Nullable
+  @Parameter(
+      names = {"--chunk_size"},
+      description = "If set, upload the list to the server in chunks of at most this many bytes, "
+          + "which are committed together once all of them have been sent. Use this for lists "
+          + "that are too large to update in one request. Running the same upload again resumes "
+          + "it.")
+  Integer chunkSize;
+
+  private Connection connection;
+  private int entryCount;
+
+  @Override
+  public void setConnection(Connection connection) {
+    this.connection = connection;
+  }
 
   @Override
   protected void init() throws Exception {
@@ -36,6 +57,9 @@ final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand
     Optional<ReservedList> existing = ReservedList.get(name);
     checkArgument(
         existing.isPresent(), "Could not update reserved list %s because it doesn't exist.", name);
+    checkArgument(
+        chunkSize == null || shouldPublish == null,
+        "--should_publish can't be changed in a chunked upload");
     Builder updated = existing.get()
         .asBuilder()
         .setReservedListMapFromLines(Files.readAllLines(input, UTF_8))
@@ -43,6 +67,32 @@ final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand
     if (shouldPublish != null) {
       updated.setShouldPublish(shouldPublish);
     }
-    stageEntityChange(existing.get(), updated.build());
+    // Chunked uploads are checked and saved by the server, so building the list here only checks
+    // up front that it is valid.
+    ReservedList updatedList = updated.build();
+    if (chunkSize == null) {
+      stageEntityChange(existing.get(), updatedList);
+    } else {
+      entryCount = updatedList.getReservedListEntries().size();
+    }
+  }
+
+  @Override
+  protected String prompt() {
+    if (chunkSize == null) {
+      return super.prompt();
+    }
+    return String.format(
+        "You are about to save the reserved list %s with %d entries in chunks of %d bytes.",
+        name, entryCount, chunkSize);
+  }
+
+  @Override
+  protected String execute() throws Exception {
+    if (chunkSize == null) {
+      return super.execute();
+    }
+    return new ChunkedLabelListUploader(connection, chunkSize)
+        .upload(ListType.RESERVED, name, input);
   }
 }
@@ -15,9 +15,14 @@
 package google.registry.tools;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.copyOf;
 import static com.google.common.collect.Sets.difference;
+import static google.registry.xml.ValidationMode.LENIENT;
+import static google.registry.xml.ValidationMode.STRICT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -34,11 +39,17 @@ import google.registry.xjc.rdecontact.XjcRdeContact;
 import google.registry.xjc.rdedomain.XjcRdeDomain;
 import google.registry.xjc.rdehost.XjcRdeHost;
 import google.registry.xjc.rderegistrar.XjcRdeRegistrar;
+import google.registry.xml.UtcDateTimeAdapter;
+import google.registry.xml.ValidationMode;
 import google.registry.xml.XmlException;
+import google.registry.xml.XmlFragmentUnmarshaller;
+import google.registry.xml.XmlTransformer;
+import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -49,22 +60,48 @@ import java.util.TreeMap;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.xml.bind.JAXBElement;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.joda.time.DateTime;
 
-/** Command to view and schema validate an XML RDE escrow deposit. */
+/**
+ * Command to view and schema validate an XML RDE escrow deposit.
+ *
+ * <p>By default the whole deposit is unmarshalled at once, which needs a heap several times the
+ * size of the deposit. With {@code --streaming} the deposit is instead read with StAX and each
+ * object is unmarshalled (and optionally schema validated) on its own, so that memory use depends
+ * only on the number of distinct contact, host and registrar ids that need to be cross-checked.
+ * Both modes produce the same report.
+ */
 @Parameters(separators = " =", commandDescription = "View/validate an XML escrow deposit.")
 final class ValidateEscrowDepositCommand implements Command {
 
+  private static final String RDE_URI = "urn:ietf:params:xml:ns:rde-1.0";
+
   @Parameter(
       names = {"-i", "--input"},
       description = "XML escrow deposit file. May be plain XML or an XML GhostRyDE file.",
       validateWith = PathParameter.InputFile.class)
   private Path input = Paths.get("/dev/stdin");
 
+  @Parameter(
+      names = "--streaming",
+      description = "Read the deposit one object at a time, using memory proportional to the "
+          + "number of distinct ids instead of the size of the deposit.")
+  private boolean streaming;
+
+  @Parameter(
+      names = "--skip_schema_validation",
+      description = "In streaming mode, don't validate each object against the XML schema.")
+  private boolean skipSchemaValidation;
+
   @Inject
   Keyring keyring;
 
   @Override
   public void run() throws Exception {
+    checkArgument(streaming || !skipSchemaValidation,
+        "--skip_schema_validation can only be used with --streaming");
     if (input.toString().endsWith(".ghostryde")) {
       Ghostryde ghostryde = new Ghostryde(64 * 1024);
       try (InputStream in = Files.newInputStream(input);
@@ -81,42 +118,181 @@ final class ValidateEscrowDepositCommand implements Command {
     }
   }
 
-  private static void validateXmlStream(InputStream inputStream) throws XmlException {
+  private void validateXmlStream(InputStream inputStream) throws XmlException {
+    if (streaming) {
+      validateXmlStreamIncrementally(
+          new BufferedInputStream(inputStream), skipSchemaValidation ? LENIENT : STRICT);
+    } else {
+      validateXmlStreamAtOnce(inputStream);
+    }
+  }
+
+  /** Unmarshals and validates the whole deposit, then checks its contents. */
+  private static void validateXmlStreamAtOnce(InputStream inputStream) throws XmlException {
     XjcRdeDeposit deposit = XjcXmlTransformer.unmarshal(XjcRdeDeposit.class, inputStream);
-    System.out.printf("ID: %s\n", deposit.getId());
-    System.out.printf("Previous ID: %s\n", deposit.getPrevId());
-    System.out.printf("Type: %s\n", deposit.getType());
-    System.out.printf("Watermark: %s\n", deposit.getWatermark());
-    System.out.printf("RDE Version: %s\n", deposit.getRdeMenu().getVersion());
+    printDepositInfo(
+        deposit.getId(),
+        deposit.getPrevId(),
+        deposit.getType(),
+        deposit.getWatermark(),
+        deposit.getRdeMenu().getVersion(),
+        deposit.getRdeMenu().getObjURIs());
+    DepositChecker checker = new DepositChecker();
+    for (JAXBElement<?> item : deposit.getContents().getContents()) {
+      checker.check(item);
+    }
+    checker.printReport(true);
+  }
+
+  /**
+   * Reads the deposit with StAX, unmarshalling its objects one at a time, and checks them as they
+   * go by.
+   *
+   * <p>The deposit's own elements (the watermark and menu) are read directly and aren't schema
+   * validated. The objects in its contents are validated against the schema only in
+   * {@link ValidationMode#STRICT} mode.
+   */
+  private static void validateXmlStreamIncrementally(
+      InputStream inputStream, ValidationMode validation) throws XmlException {
+    XmlFragmentUnmarshaller unmarshaller =
+        XjcXmlTransformer.get().createFragmentUnmarshaller(validation);
+    XMLStreamReader reader = XmlTransformer.createXmlStreamReader(inputStream);
+    try {
+      reader.nextTag();
+      reader.require(START_ELEMENT, RDE_URI, "deposit");
+      String id = reader.getAttributeValue(null, "id");
+      String prevId = reader.getAttributeValue(null, "prevId");
+      String type = reader.getAttributeValue(null, "type");
+      DateTime watermark = null;
+      String version = null;
+      List<String> objUris = new ArrayList<>();
+      DepositChecker checker = null;
+      while (reader.nextTag() == START_ELEMENT) {
+        if (isAt(reader, "watermark")) {
+          watermark = new UtcDateTimeAdapter().unmarshal(reader.getElementText().trim());
+        } else if (isAt(reader, "rdeMenu")) {
+          while (reader.nextTag() == START_ELEMENT) {
+            if (isAt(reader, "version")) {
+              version = reader.getElementText().trim();
+            } else if (isAt(reader, "objURI")) {
+              objUris.add(reader.getElementText().trim());
+            } else {
+              skipElement(reader);
+            }
+          }
+        } else if (isAt(reader, "contents")) {
+          // The watermark and menu come before the contents, so this is printed in the same order
+          // as in the non-streaming mode.
+          printDepositInfo(id, prevId, type, watermark, version, objUris);
+          checker = new DepositChecker();
+          int event = reader.nextTag();
+          while (event == START_ELEMENT) {
+            checker.check(unmarshaller.unmarshal(reader));
+            // The unmarshaller leaves the reader after the element's end tag, which may already be
+            // the start of the next element.
+            event = reader.isStartElement() || reader.isEndElement()
+                ? reader.getEventType()
+                : reader.nextTag();
+          }
+        } else {
+          skipElement(reader);
+        }
+      }
+      if (checker == null) {
+        printDepositInfo(id, prevId, type, watermark, version, objUris);
+        checker = new DepositChecker();
+      }
+      checker.printReport(validation == STRICT);
+    } catch (XMLStreamException e) {
+      throw XmlTransformer.toXmlException(e);
+    } finally {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        // The underlying stream is closed by the caller.
+      }
+    }
+  }
+
+  private static boolean isAt(XMLStreamReader reader, String localName) {
+    return RDE_URI.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+  }
+
+  /** Moves the reader from the start of an element to its end, skipping everything in it. */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == START_ELEMENT) {
+        depth++;
+      } else if (event == END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static void printDepositInfo(
+      String id,
+      @Nullable String prevId,
+      Object type,
+      DateTime watermark,
+      String version,
+      Collection<String> objUris) {
+    System.out.printf("ID: %s\n", id);
+    System.out.printf("Previous ID: %s\n", prevId);
+    System.out.printf("Type: %s\n", type);
+    System.out.printf("Watermark: %s\n", watermark);
+    System.out.printf("RDE Version: %s\n", version);
     System.out.println();
     System.out.printf("RDE Object URIs:\n  - %s\n",
-        Joiner.on("\n  - ").join(Ordering.natural().sortedCopy(deposit.getRdeMenu().getObjURIs())));
-    Set<String> hostnames = new HashSet<>();
-    Set<String> hostnameRefs = new HashSet<>();
-    Set<String> contacts = new HashSet<>();
-    Set<String> contactRefs = new HashSet<>();
-    Set<String> registrars = new HashSet<>();
-    Set<String> registrarRefs = new HashSet<>();
-    SortedMap<String, Long> counts = new TreeMap<>();
-    for (JAXBElement<?> item : deposit.getContents().getContents()) {
-      String name = item.getDeclaredType().getSimpleName();
+        Joiner.on("\n  - ").join(Ordering.natural().sortedCopy(objUris)));
+  }
+
+  /**
+   * Counts the objects in a deposit and checks that every contact, host and registrar they refer
+   * to is also in the deposit.
+   *
+   * <p>Only the ids are kept, not the objects, so objects can be passed in one at a time as they
+   * are read.
+   */
+  private static class DepositChecker {
+    final Set<String> hostnames = new HashSet<>();
+    final Set<String> hostnameRefs = new HashSet<>();
+    final Set<String> contacts = new HashSet<>();
+    final Set<String> contactRefs = new HashSet<>();
+    final Set<String> registrars = new HashSet<>();
+    final Set<String> registrarRefs = new HashSet<>();
+    final SortedMap<String, Long> counts = new TreeMap<>();
+
+    /** Counts an object from the deposit's contents and records its ids and references. */
+    void check(Object item) {
+      Class<?> type;
+      Object value;
+      if (item instanceof JAXBElement) {
+        type = ((JAXBElement<?>) item).getDeclaredType();
+        value = ((JAXBElement<?>) item).getValue();
+      } else {
+        type = item.getClass();
+        value = item;
+      }
+      String name = type.getSimpleName();
       counts.put(name, firstNonNull(counts.get(name), 0L) + 1L);
-      if (XjcRdeHost.class.isAssignableFrom(item.getDeclaredType())) {
-        XjcRdeHost host = (XjcRdeHost) item.getValue();
+      if (XjcRdeHost.class.isAssignableFrom(type)) {
+        XjcRdeHost host = (XjcRdeHost) value;
         hostnames.add(checkNotNull(host.getName()));
         addIfNotNull(registrarRefs, host.getClID());
         if (host.getUpRr() != null) {
           addIfNotNull(registrarRefs, host.getUpRr().getValue());
         }
-      } else if (XjcRdeContact.class.isAssignableFrom(item.getDeclaredType())) {
-        XjcRdeContact contact = (XjcRdeContact) item.getValue();
+      } else if (XjcRdeContact.class.isAssignableFrom(type)) {
+        XjcRdeContact contact = (XjcRdeContact) value;
         contacts.add(checkNotNull(contact.getId()));
         addIfNotNull(registrarRefs, contact.getClID());
         if (contact.getUpRr() != null) {
           addIfNotNull(registrarRefs, contact.getUpRr().getValue());
         }
-      } else if (XjcRdeDomain.class.isAssignableFrom(item.getDeclaredType())) {
-        XjcRdeDomain domain = (XjcRdeDomain) item.getValue();
+      } else if (XjcRdeDomain.class.isAssignableFrom(type)) {
+        XjcRdeDomain domain = (XjcRdeDomain) value;
         addIfNotNull(registrarRefs, domain.getClID());
         if (domain.getUpRr() != null) {
           addIfNotNull(registrarRefs, domain.getUpRr().getValue());
@@ -130,40 +306,48 @@ final class ValidateEscrowDepositCommand implements Command {
         for (XjcDomainContactType contact : domain.getContacts()) {
           contactRefs.add(contact.getValue());
         }
-      } else if (XjcRdeRegistrar.class.isAssignableFrom(item.getDeclaredType())) {
-        XjcRdeRegistrar registrar = (XjcRdeRegistrar) item.getValue();
+      } else if (XjcRdeRegistrar.class.isAssignableFrom(type)) {
+        XjcRdeRegistrar registrar = (XjcRdeRegistrar) value;
         registrars.add(checkNotNull(registrar.getId()));
       }
     }
-    System.out.println();
-    System.out.printf("Contents:\n");
-    for (Map.Entry<String, Long> count : counts.entrySet()) {
-      System.out.printf("  - %s: %,d %s\n",
-          count.getKey(),
-          count.getValue(),
-          count.getValue() == 1L ? "entry" : "entries");
-    }
-    System.out.println();
-    boolean good = true;
-    List<String> badHostnameRefs = copyOf(difference(hostnameRefs, hostnames));
-    if (!badHostnameRefs.isEmpty()) {
-      System.out.printf("Bad host refs: %s\n", Joiner.on(", ").join(badHostnameRefs));
-      good = false;
-    }
-    List<String> badContactRefs = copyOf(difference(contactRefs, contacts));
-    if (!badContactRefs.isEmpty()) {
-      System.out.printf("Bad contact refs: %s\n", Joiner.on(", ").join(badContactRefs));
-      good = false;
-    }
-    List<String> badRegistrarRefs = copyOf(difference(registrarRefs, registrars));
-    if (!badRegistrarRefs.isEmpty()) {
-      System.out.printf("Bad registrar refs: %s\n", Joiner.on(", ").join(badRegistrarRefs));
-      good = false;
-    }
-    if (good) {
-      System.out.printf("RDE deposit is XML schema valid\n");
-    } else {
-      System.out.printf("RDE deposit is XML schema valid but has bad references\n");
+
+    /** Prints the counts of each type of object and any references that weren't found. */
+    void printReport(boolean schemaValidated) {
+      System.out.println();
+      System.out.printf("Contents:\n");
+      for (Map.Entry<String, Long> count : counts.entrySet()) {
+        System.out.printf("  - %s: %,d %s\n",
+            count.getKey(),
+            count.getValue(),
+            count.getValue() == 1L ? "entry" : "entries");
+      }
+      System.out.println();
+      boolean good = true;
+      List<String> badHostnameRefs = copyOf(difference(hostnameRefs, hostnames));
+      if (!badHostnameRefs.isEmpty()) {
+        System.out.printf("Bad host refs: %s\n", Joiner.on(", ").join(badHostnameRefs));
+        good = false;
+      }
+      List<String> badContactRefs = copyOf(difference(contactRefs, contacts));
+      if (!badContactRefs.isEmpty()) {
+        System.out.printf("Bad contact refs: %s\n", Joiner.on(", ").join(badContactRefs));
+        good = false;
+      }
+      List<String> badRegistrarRefs = copyOf(difference(registrarRefs, registrars));
+      if (!badRegistrarRefs.isEmpty()) {
+        System.out.printf("Bad registrar refs: %s\n", Joiner.on(", ").join(badRegistrarRefs));
+        good = false;
+      }
+      if (!schemaValidated) {
+        System.out.printf(good
+            ? "RDE deposit has no bad references (XML schema validation was skipped)\n"
+            : "RDE deposit has bad references (XML schema validation was skipped)\n");
+      } else if (good) {
+        System.out.printf("RDE deposit is XML schema valid\n");
+      } else {
+        System.out.printf("RDE deposit is XML schema valid but has bad references\n");
+      }
     }
   }
 
@@ -0,0 +1,167 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.request.Action.Method.POST;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.registry.label.PremiumList;
+import google.registry.model.registry.label.ReservedList;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.request.Action;
+import google.registry.request.JsonResponse;
+import google.registry.request.Parameter;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+
+/**
+ * An action that commits a premium or reserved list uploaded in chunks by
+ * {@link StageLabelListChunkAction}, for use by the {@code nomulus update_premium_list} and
+ * {@code update_reserved_list} commands.
+ *
+ * <p>All of the chunks of the upload must have been staged, and their contents taken together
+ * must match the checksum of the whole list, or nothing is changed and the staged chunks are left
+ * in place so that the upload can be resumed. Otherwise the reassembled list is validated in full
+ * and replaces the contents of the existing list, after which the staged chunks are deleted.
+ * Premium lists are saved incrementally, so only the entries that were added, changed or removed
+ * are written.
+ */
+@Action(path = CommitLabelListUploadAction.PATH, method = POST)
+public class CommitLabelListUploadAction implements Runnable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  public static final String PATH = "/_dr/admin/commitLabelListUpload";
+  public static final String LIST_TYPE_PARAM = "listType";
+  public static final String CHUNK_COUNT_PARAM = "chunkCount";
+
+  /** The kinds of lists that can be uploaded in chunks. */
+  public enum ListType {
+    PREMIUM,
+    RESERVED
+  }
+
+  @Inject JsonResponse response;
+  @Inject Clock clock;
+  @Inject @Parameter(StageLabelListChunkAction.UPLOAD_ID_PARAM) String uploadId;
+  @Inject @Parameter("premiumListName") String name;
+  @Inject @Parameter(LIST_TYPE_PARAM) ListType listType;
+  @Inject @Parameter(CHUNK_COUNT_PARAM) int chunkCount;
+  @Inject @Parameter(StageLabelListChunkAction.CHECKSUM_PARAM) String checksum;
+  @Inject CommitLabelListUploadAction() {}
+
+  @Override
+  public void run() {
+    try {
+      List<String> lines =
+          Splitter.on('\n').omitEmptyStrings().splitToList(loadStagedContents());
+      int entryCount;
+      switch (listType) {
+        case PREMIUM:
+          entryCount = commitPremiumList(lines);
+          break;
+        case RESERVED:
+          entryCount = commitReservedList(lines);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown list type: " + listType);
+      }
+      ofy().deleteWithoutBackup().keys(StagedLabelListChunk.loadAllKeys(uploadId)).now();
+      String message = String.format(
+          "Saved %s list %s with %d entries.\n",
+          Ascii.toLowerCase(listType.name()),
+          name,
+          entryCount);
+      logger.info(message);
+      response.setPayload(ImmutableMap.of(
+          "status", "success",
+          "message", message));
+    } catch (RuntimeException e) {
+      logger.severe(e, e.getMessage());
+      response.setPayload(ImmutableMap.of(
+          "error", e.toString(),
+          "status", "error"));
+    }
+  }
+
+  /** Reassembles the staged chunks, checking that all of them are there and match the checksum. */
+  private String loadStagedContents() {
+    checkArgument(chunkCount > 0, "Chunk count must be positive");
+    ImmutableList<StagedLabelListChunk> chunks = StagedLabelListChunk.loadAll(uploadId);
+    StringBuilder contents = new StringBuilder();
+    List<Integer> missing = new ArrayList<>();
+    int next = 0;
+    for (StagedLabelListChunk chunk : chunks) {
+      checkArgument(
+          chunk.getSequence() < chunkCount,
+          "Upload %s has more than %s chunks",
+          uploadId,
+          chunkCount);
+      for (; next < chunk.getSequence(); next++) {
+        missing.add(next);
+      }
+      contents.append(chunk.getData());
+      next++;
+    }
+    for (; next < chunkCount; next++) {
+      missing.add(next);
+    }
+    checkArgument(missing.isEmpty(), "Upload %s is missing chunks %s", uploadId, missing);
+    String result = contents.toString();
+    checkArgument(
+        StagedLabelListChunk.computeChecksum(result).equals(checksum),
+        "Upload %s does not match its checksum",
+        uploadId);
+    return result;
+  }
+
+  private int commitPremiumList(List<String> lines) {
+    Optional<PremiumList> existing = PremiumList.get(name);
+    checkArgument(
+        existing.isPresent(), "Could not update premium list %s because it doesn't exist.", name);
+    return existing.get().saveIncrementally(lines).getPremiumListEntries().size();
+  }
+
+  private int commitReservedList(List<String> lines) {
+    final Optional<ReservedList> existing = ReservedList.get(name);
+    checkArgument(
+        existing.isPresent(), "Could not update reserved list %s because it doesn't exist.", name);
+    final ReservedList updated = existing.get().asBuilder()
+        .setReservedListMapFromLines(lines)
+        .setLastUpdateTime(clock.nowUtc())
+        .build();
+    // Reserved lists are stored as a single entity, so replacing it switches over atomically.
+    ofy().transactNew(new VoidWork() {
+      @Override
+      public void vrun() {
+        checkState(
+            existing.get().equals(ofy().load().entity(existing.get()).now()),
+            "ReservedList was concurrently edited");
+        ofy().save().entity(updated);
+      }});
+    return updated.getReservedListEntries().size();
+  }
+}
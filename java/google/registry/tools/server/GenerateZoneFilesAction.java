@@ -17,7 +17,6 @@ package google.registry.tools.server;
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Iterators.filter;
-import static com.google.common.io.BaseEncoding.base16;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -31,12 +30,17 @@ import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsExternalSorter;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
@@ -44,20 +48,26 @@ import google.registry.model.EppResource;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.request.Action;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.JsonActionRunner;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
+import google.registry.util.FormattingLogger;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -68,6 +78,10 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than
  * 29 days in the past, and must be at midnight UTC.
+ *
+ * <p>If the request sets {@code streaming}, the zone files are instead generated synchronously
+ * without a mapreduce, reading only the domains on each TLD, and their records are sorted so that
+ * consecutive zone files can be diffed. See {@link #generateSortedZoneFile}.
  */
 @Action(
     path = GenerateZoneFilesAction.PATH,
@@ -78,6 +92,8 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
 
   public static final String PATH = "/_dr/task/generateZoneFiles";
 
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
   /** Format for the zone file name. */
   private static final String FILENAME_FORMAT = "%s-%s.zone";
 
@@ -87,14 +103,11 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for the zone file header. */
   private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
 
-  /** Format for NS records. */
-  private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
+  /** Number of domains loaded by each thread at a time when streaming. */
+  private static final int STREAMING_BATCH_SIZE = 100;
 
-  /** Format for DS records. */
-  private static final String DS_FORMAT = "%s\t%d\tIN\tDS\t%d %d %d %s\n";
-
-  /** Format for A and AAAA records. */
-  private static final String A_FORMAT = "%s\t%d\tIN\t%s\t%s\n";
+  /** Number of batches of domains that are loaded in parallel when streaming. */
+  private static final int STREAMING_PARALLEL_BATCHES = 10;
 
   // TODO(b/20454352): Overhaul TTL configuration mechanism.
   /** The time to live for exported NS record, in seconds. */
@@ -111,9 +124,13 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   @Inject @Config("zoneFilesBucket") String bucket;
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
   @Inject @Config("commitLogDatastoreRetention") Duration datastoreRetention;
+  @Inject GcsUtils gcsUtils;
   @Inject Clock clock;
   @Inject GenerateZoneFilesAction() {}
 
+  /** Number of records buffered in memory before a sorted run is written to GCS when streaming. */
+  @VisibleForTesting int maxRecordsInMemory = 200000;
+
   @Override
   public void run() {
     jsonActionRunner.run(this);
@@ -139,16 +156,6 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     if (!exportTime.equals(exportTime.toDateTime(UTC).withTimeAtStartOfDay())) {
       throw new BadRequestException("Invalid export time: must be midnight UTC");
     }
-    String jobId = mrRunner
-        .setJobName("Generate bind file stanzas")
-        .setModuleName("tools")
-        .setDefaultReduceShards(tlds.size())
-        .runMapreduce(
-            new GenerateBindFileMapper(tlds, exportTime),
-            new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize),
-            ImmutableList.of(
-                new NullInput<EppResource>(),
-                createEntityInput(DomainResource.class, HostResource.class)));
     ImmutableList<String> filenames = FluentIterable.from(tlds)
         .transform(
             new Function<String, String>() {
@@ -160,11 +167,99 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
                     String.format(FILENAME_FORMAT, tld, exportTime));
               }})
         .toList();
+    if (Boolean.parseBoolean(String.valueOf(json.get("streaming")))) {
+      for (String tld : tlds) {
+        generateSortedZoneFile(tld, exportTime);
+      }
+      return ImmutableMap.<String, Object>of("filenames", filenames);
+    }
+    String jobId = mrRunner
+        .setJobName("Generate bind file stanzas")
+        .setModuleName("tools")
+        .setDefaultReduceShards(tlds.size())
+        .runMapreduce(
+            new GenerateBindFileMapper(tlds, exportTime),
+            new GenerateBindFileReducer(bucket, exportTime, gcsBufferSize),
+            ImmutableList.of(
+                new NullInput<EppResource>(),
+                createEntityInput(DomainResource.class, HostResource.class)));
     return ImmutableMap.<String, Object>of(
         "jobPath", createJobPath(jobId),
         "filenames", filenames);
   }
 
+  /**
+   * Writes the zone file for a single TLD without using a mapreduce.
+   *
+   * <p>Only the domains on the TLD are read, via the index on their {@code tld} field, so the time
+   * this takes scales with the size of the TLD rather than with the whole registry. Glue records
+   * come from the subordinate hosts of those domains. Batches of domains are loaded in parallel,
+   * and their records are ordered by an external merge sort that spills to GCS, so the output is
+   * canonically sorted no matter how large the TLD is.
+   */
+  private void generateSortedZoneFile(String tld, final DateTime exportTime) {
+    GcsFilename filename =
+        new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime));
+    try (GcsExternalSorter sorter =
+        new GcsExternalSorter(
+            gcsUtils, bucket, "tmp/" + filename.getObjectName(), maxRecordsInMemory)) {
+      Iterable<Key<DomainResource>> domainKeys =
+          ofy().load().type(DomainResource.class).filter("tld", tld).keys();
+      for (List<Key<DomainResource>> keys :
+          Iterables.partition(domainKeys, STREAMING_BATCH_SIZE * STREAMING_PARALLEL_BATCHES)) {
+        List<ImmutableList<String>> recordBatches = Concurrent.transform(
+            Lists.partition(keys, STREAMING_BATCH_SIZE),
+            new Function<List<Key<DomainResource>>, ImmutableList<String>>() {
+              @Override
+              public ImmutableList<String> apply(List<Key<DomainResource>> batch) {
+                return loadRecords(batch, exportTime);
+              }});
+        for (ImmutableList<String> records : recordBatches) {
+          sorter.addAll(records);
+        }
+      }
+      try (OutputStream gcsOutput = gcsUtils.openOutputStream(filename);
+          Writer writer = new BufferedWriter(new OutputStreamWriter(gcsOutput, UTF_8))) {
+        writer.write(String.format(HEADER_FORMAT, tld));
+        long count = sorter.writeSorted(writer);
+        logger.infofmt(
+            "Wrote %d records to %s using %d sorted runs", count, filename, sorter.getRunCount());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the records for a batch of domains and their subordinate hosts, as they were at
+   * {@code exportTime}.
+   */
+  private static ImmutableList<String> loadRecords(
+      List<Key<DomainResource>> domainKeys, DateTime exportTime) {
+    ZoneFileRecordBuilder builder = new ZoneFileRecordBuilder();
+    List<String> records = new ArrayList<>();
+    Set<String> subordinateHosts = new HashSet<>();
+    for (DomainResource domain : ofy().load().keys(domainKeys).values()) {
+      domain = loadAtPointInTime(domain, exportTime).now();
+      if (domain != null) {  // A null means the domain was deleted (or not created) at this time.
+        appendDomainRecords(builder, domain, exportTime).drainTo(records);
+        subordinateHosts.addAll(domain.getSubordinateHosts());
+      }
+    }
+    List<Key<HostResource>> hostKeys = new ArrayList<>();
+    for (ForeignKeyIndex<HostResource> index :
+        ForeignKeyIndex.load(HostResource.class, subordinateHosts, exportTime).values()) {
+      hostKeys.add(index.getResourceKey());
+    }
+    for (HostResource host : ofy().load().keys(hostKeys).values()) {
+      host = loadAtPointInTime(host, exportTime).now();
+      if (host != null) {
+        appendHostRecords(builder, host).drainTo(records);
+      }
+    }
+    return ImmutableList.copyOf(records);
+  }
+
   /** Mapper to find domains and hosts that were active at a given time. */
   static class GenerateBindFileMapper extends Mapper<EppResource, String, String> {
 
@@ -271,26 +366,22 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    * }
    */
   private static String domainStanza(DomainResource domain, DateTime exportTime) {
-    StringBuilder result = new StringBuilder();
+    return appendDomainRecords(new ZoneFileRecordBuilder(), domain, exportTime).toString();
+  }
+
+  private static ZoneFileRecordBuilder appendDomainRecords(
+      ZoneFileRecordBuilder builder, DomainResource domain, DateTime exportTime) {
     for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
-      result.append(String.format(
-          NS_FORMAT,
+      builder.appendNs(
           domain.getFullyQualifiedDomainName(),
           TTL_NS,
           // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName());
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
-      result.append(String.format(
-          DS_FORMAT,
-          domain.getFullyQualifiedDomainName(),
-          TTL_DS,
-          dsData.getKeyTag(),
-          dsData.getAlgorithm(),
-          dsData.getDigestType(),
-          base16().encode((dsData.getDigest()))));
+      builder.appendDs(domain.getFullyQualifiedDomainName(), TTL_DS, dsData);
     }
-    return result.toString();
+    return builder;
   }
 
   /**
@@ -303,17 +394,14 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    * }
    */
   private static String hostStanza(HostResource host) {
-    StringBuilder result = new StringBuilder();
+    return appendHostRecords(new ZoneFileRecordBuilder(), host).toString();
+  }
+
+  private static ZoneFileRecordBuilder appendHostRecords(
+      ZoneFileRecordBuilder builder, HostResource host) {
     for (InetAddress addr : host.getInetAddresses()) {
-      // must be either IPv4 or IPv6
-      String rrSetClass = (addr instanceof Inet4Address) ? "A" : "AAAA";
-      result.append(String.format(
-          A_FORMAT,
-          host.getFullyQualifiedHostName(),
-          TTL_A,
-          rrSetClass,
-          addr.getHostAddress()));
+      builder.appendAddress(host.getFullyQualifiedHostName(), TTL_A, addr);
     }
-    return result.toString();
+    return builder;
   }
 }
@@ -78,6 +78,7 @@ public class KillAllCommitLogsAction implements Runnable {
    *   <li>{@link CommitLogCheckpointRoot}
    *   <li>{@code CommitLogManifest}
    *   <li>{@code CommitLogMutation}
+   *   <li>{@code CommitLogMarker}
    * </ul>
    */
   static class KillAllCommitLogsMapper extends Mapper<Key<?>, Key<?>, Key<?>> {
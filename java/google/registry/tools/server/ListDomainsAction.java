@@ -15,13 +15,19 @@
 package google.registry.tools.server;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.io.BaseEncoding.base64Url;
 import static google.registry.model.EppResourceUtils.queryNotDeleted;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.assertTldExists;
 import static google.registry.request.Action.Method.GET;
 import static google.registry.request.Action.Method.POST;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import google.registry.model.domain.DomainResource;
 import google.registry.request.Action;
@@ -29,7 +35,9 @@ import google.registry.request.Parameter;
 import google.registry.util.Clock;
 import java.util.Comparator;
 import java.util.List;
+import java.util.TreeSet;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 
 /** An action that lists domains, for use by the {@code nomulus list_domains} command. */
 @Action(path = ListDomainsAction.PATH, method = {GET, POST})
@@ -56,10 +64,7 @@ public final class ListDomainsAction extends ListObjectsAction<DomainResource> {
 
   @Override
   public ImmutableSet<DomainResource> loadObjects() {
-    checkArgument(!tlds.isEmpty(), "Must specify TLDs to query");
-    for (String tld : tlds) {
-      assertTldExists(tld);
-    }
+    checkTlds();
     ImmutableSortedSet.Builder<DomainResource> builder =
         new ImmutableSortedSet.Builder<DomainResource>(COMPARATOR);
     for (List<String> batch : Lists.partition(tlds.asList(), MAX_NUM_SUBQUERIES)) {
@@ -67,4 +72,65 @@ public final class ListDomainsAction extends ListObjectsAction<DomainResource> {
     }
     return builder.build();
   }
+
+  /**
+   * Returns a page of domains in order of their names, starting after the name in the cursor.
+   *
+   * <p>Because the cursor is just the last name listed, domains created or deleted between pages
+   * don't cause any other domain to be skipped or repeated. Deleted domains are filtered out as
+   * they are read, since the query can't also have an inequality filter on deletion time, so a
+   * page may read past more domains than it returns, but never holds more than one page per batch
+   * of TLDs in memory.
+   */
+  @Override
+  ObjectsPage<DomainResource> loadObjectsPage(Optional<String> cursor, int limit) {
+    checkTlds();
+    DateTime now = clock.nowUtc();
+    String startAfter = cursor.isPresent() ? decodeCursor(cursor.get()) : "";
+    // Take up to one more than a page from each batch of TLDs, to know whether there is another
+    // page, then merge the batches and keep the first page's worth.
+    TreeSet<DomainResource> domains = new TreeSet<>(COMPARATOR);
+    for (List<String> batch : Lists.partition(tlds.asList(), MAX_NUM_SUBQUERIES)) {
+      int found = 0;
+      for (DomainResource domain : ofy().load()
+          .type(DomainResource.class)
+          .filter("tld in", batch)
+          .filter("fullyQualifiedDomainName >", startAfter)
+          .order("fullyQualifiedDomainName")
+          .chunk(limit + 1)
+          .iterable()) {
+        if (domain.getDeletionTime().isAfter(now)) {
+          domains.add(domain.cloneProjectedAtTime(now));
+          if (++found > limit) {
+            break;
+          }
+        }
+      }
+    }
+    ImmutableSet<DomainResource> page = FluentIterable.from(domains).limit(limit).toSet();
+    return new ObjectsPage<>(
+        page,
+        (domains.size() > limit)
+            ? Optional.of(encodeCursor(Iterables.getLast(page).getFullyQualifiedDomainName()))
+            : Optional.<String>absent());
+  }
+
+  private void checkTlds() {
+    checkArgument(!tlds.isEmpty(), "Must specify TLDs to query");
+    for (String tld : tlds) {
+      assertTldExists(tld);
+    }
+  }
+
+  private static String encodeCursor(String domainName) {
+    return base64Url().encode(domainName.getBytes(UTF_8));
+  }
+
+  private static String decodeCursor(String cursor) {
+    try {
+      return new String(base64Url().decode(cursor), UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+    }
+  }
 }
@@ -49,6 +49,11 @@ import javax.inject.Inject;
  *
  * <p>Returns formatted text to be displayed on the screen.
  *
+ * <p>If a {@code limit} is given, at most that many objects are returned, along with a
+ * {@code cursor} to pass back to get the next page if there may be more. Column widths are then
+ * computed for each page separately, and the header rows are only included in the first page.
+ * Without a limit, all objects are returned at once.
+ *
  * @param <T> type of object
  */
 public abstract class ListObjectsAction<T extends ImmutableObject> implements Runnable {
@@ -56,15 +61,42 @@ public abstract class ListObjectsAction<T extends ImmutableObject> implements Ru
   public static final String FIELDS_PARAM = "fields";
   public static final String PRINT_HEADER_ROW_PARAM = "printHeaderRow";
   public static final String FULL_FIELD_NAMES_PARAM = "fullFieldNames";
+  public static final String LIMIT_PARAM = "limit";
+  public static final String CURSOR_PARAM = "cursor";
 
   @Inject JsonResponse response;
   @Inject @Parameter("fields") Optional<String> fields;
   @Inject @Parameter("printHeaderRow") Optional<Boolean> printHeaderRow;
   @Inject @Parameter("fullFieldNames") Optional<Boolean> fullFieldNames;
+  @Inject @Parameter("limit") Optional<Integer> limit;
+  @Inject @Parameter("cursor") Optional<String> cursor;
+
+  /** A page of objects to list, and the cursor to load the next page from if there may be more. */
+  static final class ObjectsPage<T> {
+    final ImmutableSet<T> objects;
+    final Optional<String> nextCursor;
+
+    ObjectsPage(ImmutableSet<T> objects, Optional<String> nextCursor) {
+      this.objects = objects;
+      this.nextCursor = nextCursor;
+    }
+  }
 
   /** Returns the set of objects to list, in the desired listing order. */
   abstract ImmutableSet<T> loadObjects();
 
+  /**
+   * Returns at most {@code limit} objects in listing order, starting just after the position
+   * encoded in {@code cursor} (or at the start, if it is absent).
+   *
+   * <p>Subclasses whose listings can be large override this to page through a stable sort key, so
+   * that objects created or deleted between pages don't cause other objects to be skipped or
+   * listed twice. By default all of the objects are returned as a single page.
+   */
+  ObjectsPage<T> loadObjectsPage(Optional<String> cursor, int limit) {
+    return new ObjectsPage<>(loadObjects(), Optional.<String>absent());
+  }
+
   /**
    * Returns a set of fields to always include in the output as the leftmost columns.  Subclasses
    * can use this to specify the equivalent of a "primary key" for each object listed.
@@ -103,7 +135,19 @@ public abstract class ListObjectsAction<T extends ImmutableObject> implements Ru
     try {
       // Get the object data first, so we can figure out the list of all available fields using the
       // data if necessary.
-      ImmutableSet<T> objects = loadObjects();
+      ImmutableSet<T> objects;
+      Optional<String> nextCursor = Optional.absent();
+      boolean isFirstPage = true;
+      if ((limit != null) && limit.isPresent()) {
+        checkArgument(limit.get() > 0, "Limit must be positive");
+        Optional<String> startCursor = (cursor == null) ? Optional.<String>absent() : cursor;
+        ObjectsPage<T> page = loadObjectsPage(startCursor, limit.get());
+        objects = page.objects;
+        nextCursor = page.nextCursor;
+        isFirstPage = !startCursor.isPresent();
+      } else {
+        objects = loadObjects();
+      }
       // Get the list of fields we should return.
       ImmutableSet<String> fieldsToUse = getFieldsToUse(objects);
       // Convert the data into a table.
@@ -111,12 +155,16 @@ public abstract class ListObjectsAction<T extends ImmutableObject> implements Ru
       // Now that we have the data table, compute the column widths.
       ImmutableMap<String, Integer> columnWidths =
           computeColumnWidths(data, isHeaderRowInUse(data));
-      // Finally, convert the table to an array of lines of text.
-      List<String> lines = generateFormattedData(data, columnWidths);
+      // Finally, convert the table to an array of lines of text. Only the first page has headers.
+      List<String> lines =
+          generateFormattedData(data, columnWidths, isFirstPage && isHeaderRowInUse(data));
       // Return the results.
-      response.setPayload(ImmutableMap.of(
-          "lines", lines,
-          "status", "success"));
+      ImmutableMap.Builder<String, Object> payload = new ImmutableMap.Builder<>();
+      payload.put("lines", lines);
+      if (nextCursor.isPresent()) {
+        payload.put("cursor", nextCursor.get());
+      }
+      response.setPayload(payload.put("status", "success").build());
     } catch (Exception e) {
       String message = e.getMessage();
       if (message == null) {
@@ -239,11 +287,12 @@ public abstract class ListObjectsAction<T extends ImmutableObject> implements Ru
   /** Converts the provided table of data to text, formatted using the provided column widths. */
   private List<String> generateFormattedData(
       ImmutableTable<T, String, String> data,
-      ImmutableMap<String, Integer> columnWidths) {
+      ImmutableMap<String, Integer> columnWidths,
+      boolean includeHeader) {
     Function<Map<String, String>, String> rowFormatter = makeRowFormatter(columnWidths);
     List<String> lines = new ArrayList<>();
 
-    if (isHeaderRowInUse(data)) {
+    if (includeHeader) {
       // Add a row of headers (column names mapping to themselves).
       Map<String, String> headerRow =
           Maps.asMap(data.columnKeySet(), Functions.<String>identity());
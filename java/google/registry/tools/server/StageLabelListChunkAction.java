@@ -0,0 +1,106 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.request.Action.Method.POST;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Work;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.request.Action;
+import google.registry.request.JsonResponse;
+import google.registry.request.Parameter;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import javax.inject.Inject;
+
+/**
+ * An action that stages one chunk of a premium or reserved list being uploaded in pieces, for use
+ * by the {@code nomulus update_premium_list} command.
+ *
+ * <p>Each chunk carries its sequence number within the upload and the checksum of its contents,
+ * and is rejected if the contents don't match the checksum. Staging a chunk that is already staged
+ * with the same checksum does nothing, so an interrupted upload can be resumed by sending its
+ * chunks again. Nothing changes for the list itself until {@link CommitLabelListUploadAction} is
+ * called for the upload.
+ */
+@Action(path = StageLabelListChunkAction.PATH, method = POST)
+public class StageLabelListChunkAction implements Runnable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  public static final String PATH = "/_dr/admin/stageLabelListChunk";
+  public static final String UPLOAD_ID_PARAM = "uploadId";
+  public static final String SEQUENCE_PARAM = "sequence";
+  public static final String CHECKSUM_PARAM = "checksum";
+
+  /** The largest chunk that may be staged, which keeps each chunk well within an entity. */
+  public static final int MAX_CHUNK_BYTES = 512 * 1024;
+
+  @Inject JsonResponse response;
+  @Inject Clock clock;
+  @Inject @Parameter(UPLOAD_ID_PARAM) String uploadId;
+  @Inject @Parameter(SEQUENCE_PARAM) int sequence;
+  @Inject @Parameter(CHECKSUM_PARAM) String checksum;
+  @Inject @Parameter(CreateOrUpdatePremiumListAction.INPUT_PARAM) String inputData;
+  @Inject StageLabelListChunkAction() {}
+
+  @Override
+  public void run() {
+    try {
+      checkArgument(
+          inputData.getBytes(UTF_8).length <= MAX_CHUNK_BYTES,
+          "Chunk %s of upload %s is larger than %s bytes",
+          sequence,
+          uploadId,
+          MAX_CHUNK_BYTES);
+      checkArgument(
+          StagedLabelListChunk.computeChecksum(inputData).equals(checksum),
+          "Chunk %s of upload %s does not match its checksum",
+          sequence,
+          uploadId);
+      final StagedLabelListChunk chunk =
+          StagedLabelListChunk.create(uploadId, sequence, checksum, inputData, clock.nowUtc());
+      boolean staged = ofy().transactNew(new Work<Boolean>() {
+        @Override
+        public Boolean run() {
+          StagedLabelListChunk existing = ofy().load().entity(chunk).now();
+          if (existing != null) {
+            checkArgument(
+                existing.getChecksum().equals(checksum),
+                "Chunk %s of upload %s was already staged with different contents",
+                sequence,
+                uploadId);
+            return false;
+          }
+          ofy().saveWithoutBackup().entity(chunk);
+          return true;
+        }});
+      logger.infofmt(
+          "%s chunk %d of upload %s", staged ? "Staged" : "Already had", sequence, uploadId);
+      response.setPayload(ImmutableMap.of(
+          "staged", staged,
+          "status", "success"));
+    } catch (RuntimeException e) {
+      logger.severe(e, e.getMessage());
+      response.setPayload(ImmutableMap.of(
+          "error", e.toString(),
+          "status", "error"));
+    }
+  }
+}
@@ -16,6 +16,9 @@ package google.registry.tools.server;
 
 import static com.google.common.base.Strings.emptyToNull;
 import static google.registry.request.RequestParameters.extractBooleanParameter;
+import static google.registry.request.RequestParameters.extractEnumParameter;
+import static google.registry.request.RequestParameters.extractIntParameter;
+import static google.registry.request.RequestParameters.extractOptionalIntParameter;
 import static google.registry.request.RequestParameters.extractOptionalParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 
@@ -70,6 +73,51 @@ public class ToolsServerModule {
    return extractBooleanParameter(req, CreatePremiumListAction.OVERRIDE_PARAM);
   }
 
+  @Provides
+  @Parameter("limit")
+  static Optional<Integer> provideLimit(HttpServletRequest req) {
+    return extractOptionalIntParameter(req, ListObjectsAction.LIMIT_PARAM);
+  }
+
+  @Provides
+  @Parameter("cursor")
+  static Optional<String> provideCursor(HttpServletRequest req) {
+    return extractOptionalParameter(req, ListObjectsAction.CURSOR_PARAM);
+  }
+
+  @Provides
+  @Parameter(StageLabelListChunkAction.UPLOAD_ID_PARAM)
+  static String provideUploadId(HttpServletRequest req) {
+    return extractRequiredParameter(req, StageLabelListChunkAction.UPLOAD_ID_PARAM);
+  }
+
+  @Provides
+  @Parameter(StageLabelListChunkAction.SEQUENCE_PARAM)
+  static int provideSequence(HttpServletRequest req) {
+    return extractIntParameter(req, StageLabelListChunkAction.SEQUENCE_PARAM);
+  }
+
+  @Provides
+  @Parameter(StageLabelListChunkAction.CHECKSUM_PARAM)
+  static String provideChecksum(HttpServletRequest req) {
+    return extractRequiredParameter(req, StageLabelListChunkAction.CHECKSUM_PARAM);
+  }
+
+  @Provides
+  @Parameter(CommitLabelListUploadAction.LIST_TYPE_PARAM)
+  static CommitLabelListUploadAction.ListType provideListType(HttpServletRequest req) {
+    return extractEnumParameter(
+        req,
+        CommitLabelListUploadAction.ListType.class,
+        CommitLabelListUploadAction.LIST_TYPE_PARAM);
+  }
+
+  @Provides
+  @Parameter(CommitLabelListUploadAction.CHUNK_COUNT_PARAM)
+  static int provideChunkCount(HttpServletRequest req) {
+    return extractIntParameter(req, CommitLabelListUploadAction.CHUNK_COUNT_PARAM);
+  }
+
   @Provides
   @Parameter("printHeaderRow")
   static Optional<Boolean> providePrintHeaderRow(HttpServletRequest req) {
@@ -48,10 +48,8 @@ public class UpdatePremiumListAction extends CreateOrUpdatePremiumListAction {
     logger.infofmt("Got the following input data: %s", inputData);
     List<String> inputDataPreProcessed =
         Splitter.on('\n').omitEmptyStrings().splitToList(inputData);
-    PremiumList premiumList = existingName.get().asBuilder()
-        .setPremiumListMapFromLines(inputDataPreProcessed)
-        .build();
-    premiumList.saveAndUpdateEntries();
+    // Only the entries that were added, changed or removed need to be written.
+    PremiumList premiumList = existingName.get().saveIncrementally(inputDataPreProcessed);
 
     logger.infofmt("Updated premium list %s with entries %s",
         premiumList.getName(),
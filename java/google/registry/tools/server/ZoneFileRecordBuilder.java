@@ -0,0 +1,108 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import google.registry.model.domain.secdns.DelegationSignerData;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Collection;
+
+/**
+ * Reusable formatter for the lines of a BIND zone file.
+ *
+ * <p>Records are appended directly into a single buffer that is reused from one stanza to the
+ * next, so that formatting millions of records doesn't create a {@link java.util.Formatter}, boxed
+ * arguments and intermediate strings for each of them, as {@link String#format} would. Each record
+ * in the buffer is terminated by a newline, just as it is in the zone file. Instances are not
+ * thread-safe.
+ */
+final class ZoneFileRecordBuilder {
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final StringBuilder buffer = new StringBuilder(128);
+
+  /** Clears the buffer, so that the next record starts a new stanza. */
+  ZoneFileRecordBuilder reset() {
+    buffer.setLength(0);
+    return this;
+  }
+
+  /** Appends an NS record, e.g. {@code foo.tld 180 IN NS ns.example.com.} */
+  ZoneFileRecordBuilder appendNs(String domainName, int ttl, String nameserverHostName) {
+    appendPrefix(domainName, ttl, "NS").append(nameserverHostName).append(".\n");
+    return this;
+  }
+
+  /** Appends a DS record, e.g. {@code foo.tld 86400 IN DS 1 2 3 000102} */
+  ZoneFileRecordBuilder appendDs(String domainName, int ttl, DelegationSignerData dsData) {
+    appendPrefix(domainName, ttl, "DS")
+        .append(dsData.getKeyTag())
+        .append(' ')
+        .append(dsData.getAlgorithm())
+        .append(' ')
+        .append(dsData.getDigestType())
+        .append(' ');
+    for (byte b : dsData.getDigest()) {
+      buffer.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+    }
+    buffer.append('\n');
+    return this;
+  }
+
+  /** Appends an A or AAAA record, e.g. {@code ns.foo.tld 3600 IN A 127.0.0.1} */
+  ZoneFileRecordBuilder appendAddress(String hostName, int ttl, InetAddress address) {
+    appendPrefix(hostName, ttl, (address instanceof Inet4Address) ? "A" : "AAAA")
+        .append(address.getHostAddress())
+        .append('\n');
+    return this;
+  }
+
+  /**
+   * Adds each record appended since the last {@link #reset} to {@code records} as a separate line,
+   * then resets the builder.
+   */
+  ZoneFileRecordBuilder drainTo(Collection<String> records) {
+    int start = 0;
+    for (int i = 0; i < buffer.length(); i++) {
+      if (buffer.charAt(i) == '\n') {
+        records.add(buffer.substring(start, i));
+        start = i + 1;
+      }
+    }
+    return reset();
+  }
+
+  /** Returns whether no records have been appended since the last {@link #reset}. */
+  boolean isEmpty() {
+    return buffer.length() == 0;
+  }
+
+  /** Returns the records appended since the last {@link #reset}, each terminated by a newline. */
+  @Override
+  public String toString() {
+    return buffer.toString();
+  }
+
+  private StringBuilder appendPrefix(String name, int ttl, String type) {
+    return buffer
+        .append(name)
+        .append('\t')
+        .append(ttl)
+        .append("\tIN\t")
+        .append(type)
+        .append('\t');
+  }
+}
@@ -165,6 +165,22 @@ public class CidrAddressBlock implements Iterable<InetAddress>, Serializable {
     return new CidrAddressBlock(parseInetAddress(s), parseNetmask(s), true);
   }
 
+  /**
+   * Compiles the given CIDR blocks into a set that can quickly check whether
+   * an address is in any of them.
+   *
+   * <p>This is meant for lists of blocks that are checked against many times,
+   * such as IP whitelists, where calling {@link #contains(InetAddress)} on
+   * each block in turn would be too slow.
+   *
+   * @param blocks the blocks to compile, which may overlap.
+   *
+   * @throws NullPointerException if {@code blocks} or any block is null.
+   */
+  public static CidrAddressBlockSet compile(Iterable<CidrAddressBlock> blocks) {
+    return new CidrAddressBlockSet(blocks);
+  }
+
   private static final int AUTO_NETMASK = -1;
 
   /**
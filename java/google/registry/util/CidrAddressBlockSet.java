@@ -0,0 +1,202 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.UnsignedLongs;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable set of {@link CidrAddressBlock}s, compiled so that checking whether an address is
+ * in any of them is a binary search rather than a comparison against each block in turn.
+ *
+ * <p>The blocks of each address family are merged into sorted, disjoint ranges of addresses, held
+ * as 128-bit numbers in parallel arrays of longs. Checking an address therefore takes a number of
+ * comparisons logarithmic in the number of blocks, and allocates nothing beyond the copy of the
+ * address bytes that {@link InetAddress#getAddress} makes.
+ *
+ * <p>An address is in the set exactly when {@link CidrAddressBlock#contains(InetAddress)} is true
+ * for one of its blocks. In particular, IPv4 blocks never contain IPv6 addresses and vice versa.
+ * IPv4-mapped IPv6 addresses such as {@code ::ffff:192.0.2.1} are parsed by {@link InetAddress}
+ * into IPv4 addresses, so they are matched against the IPv4 blocks.
+ *
+ * <p>Instances are created with {@link CidrAddressBlock#compile}.
+ */
+public final class CidrAddressBlockSet {
+
+  private final ImmutableList<CidrAddressBlock> blocks;
+  private final Ranges ipv4Ranges;
+  private final Ranges ipv6Ranges;
+
+  CidrAddressBlockSet(Iterable<CidrAddressBlock> blocks) {
+    this.blocks = ImmutableList.copyOf(blocks);
+    List<Range> ipv4 = new ArrayList<>();
+    List<Range> ipv6 = new ArrayList<>();
+    for (CidrAddressBlock block : this.blocks) {
+      InetAddress ip = block.getInetAddress();
+      (ip instanceof Inet4Address ? ipv4 : ipv6).add(Range.create(ip, block.getNetmask()));
+    }
+    this.ipv4Ranges = new Ranges(ipv4);
+    this.ipv6Ranges = new Ranges(ipv6);
+  }
+
+  /** Returns the blocks this set was compiled from, in their original order. */
+  public ImmutableList<CidrAddressBlock> getBlocks() {
+    return blocks;
+  }
+
+  public boolean isEmpty() {
+    return blocks.isEmpty();
+  }
+
+  /** Returns {@code true} if any block in this set contains the supplied {@link InetAddress}. */
+  public boolean contains(@Nullable InetAddress ipAddr) {
+    if (ipAddr == null) {
+      return false;
+    }
+    byte[] bytes = ipAddr.getAddress();
+    return (ipAddr instanceof Inet4Address ? ipv4Ranges : ipv6Ranges)
+        .contains(highBits(bytes), lowBits(bytes));
+  }
+
+  @Override
+  public String toString() {
+    return blocks.toString();
+  }
+
+  /** Returns the upper 64 bits of an address, as a 128-bit number. */
+  private static long highBits(byte[] bytes) {
+    return bytes.length > 8 ? toLong(bytes, 0, bytes.length - 8) : 0;
+  }
+
+  /** Returns the lower 64 bits of an address, as a 128-bit number. */
+  private static long lowBits(byte[] bytes) {
+    int start = Math.max(0, bytes.length - 8);
+    return toLong(bytes, start, bytes.length);
+  }
+
+  private static long toLong(byte[] bytes, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  /** Returns a mask of the given number of low bits, which must be between 0 and 64. */
+  private static long lowMask(int bits) {
+    return bits >= 64 ? -1L : (1L << bits) - 1;
+  }
+
+  /** Compares two 128-bit numbers, each given as its upper and lower 64 bits. */
+  private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+    int result = UnsignedLongs.compare(aHigh, bHigh);
+    return result != 0 ? result : UnsignedLongs.compare(aLow, bLow);
+  }
+
+  /** The range of addresses in one block, used while compiling. */
+  private static final class Range {
+    final long startHigh;
+    final long startLow;
+    final long endHigh;
+    final long endLow;
+
+    private Range(long startHigh, long startLow, long endHigh, long endLow) {
+      this.startHigh = startHigh;
+      this.startLow = startLow;
+      this.endHigh = endHigh;
+      this.endLow = endLow;
+    }
+
+    static Range create(InetAddress ip, int netmask) {
+      byte[] bytes = ip.getAddress();
+      int hostBits = bytes.length * 8 - netmask;
+      long startHigh = highBits(bytes);
+      long startLow = lowBits(bytes);
+      return new Range(
+          startHigh,
+          startLow,
+          startHigh | (hostBits > 64 ? lowMask(hostBits - 64) : 0),
+          startLow | lowMask(Math.min(hostBits, 64)));
+    }
+
+    static final Comparator<Range> BY_START = new Comparator<Range>() {
+      @Override
+      public int compare(Range a, Range b) {
+        return CidrAddressBlockSet.compare(a.startHigh, a.startLow, b.startHigh, b.startLow);
+      }};
+  }
+
+  /** Sorted, disjoint ranges of addresses of one family. */
+  private static final class Ranges {
+    private final long[] startHighs;
+    private final long[] startLows;
+    private final long[] endHighs;
+    private final long[] endLows;
+    private final int size;
+
+    Ranges(List<Range> ranges) {
+      Collections.sort(ranges, Range.BY_START);
+      startHighs = new long[ranges.size()];
+      startLows = new long[ranges.size()];
+      endHighs = new long[ranges.size()];
+      endLows = new long[ranges.size()];
+      int count = 0;
+      for (Range range : ranges) {
+        if (count > 0
+            && compare(
+                    range.startHigh, range.startLow, endHighs[count - 1], endLows[count - 1])
+                <= 0) {
+          // CIDR blocks are either nested or disjoint, so this one is inside the previous range,
+          // but the previous range may itself have been nested in this one.
+          if (compare(range.endHigh, range.endLow, endHighs[count - 1], endLows[count - 1]) > 0) {
+            endHighs[count - 1] = range.endHigh;
+            endLows[count - 1] = range.endLow;
+          }
+          continue;
+        }
+        startHighs[count] = range.startHigh;
+        startLows[count] = range.startLow;
+        endHighs[count] = range.endHigh;
+        endLows[count] = range.endLow;
+        count++;
+      }
+      size = count;
+    }
+
+    boolean contains(long high, long low) {
+      // Find the last range that starts at or before the address.
+      int lo = 0;
+      int hi = size - 1;
+      int found = -1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (compare(startHighs[mid], startLows[mid], high, low) <= 0) {
+          found = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return found >= 0 && compare(high, low, endHighs[found], endLows[found]) <= 0;
+    }
+  }
+}
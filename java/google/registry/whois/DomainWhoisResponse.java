@@ -16,15 +16,24 @@ package google.registry.whois;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.tryFind;
+import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.earliestOf;
 import static google.registry.xml.UtcDateTimeAdapter.getFormattedString;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.googlecode.objectify.Key;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
 import google.registry.model.contact.ContactPhoneNumber;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.contact.PostalInfo;
@@ -33,7 +42,10 @@ import google.registry.model.domain.DesignatedContact.Type;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.GracePeriod;
 import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.host.HostResource;
 import google.registry.model.registrar.Registrar;
+import google.registry.model.transfer.TransferData;
+import google.registry.model.transfer.TransferStatus;
 import google.registry.model.translators.EnumToAttributeAdapter.EppEnum;
 import google.registry.util.FormattingLogger;
 import java.util.Set;
@@ -63,8 +75,131 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
 
   @Override
   public String getPlainTextOutput(final boolean preferUnicode, String disclaimer) {
-    Registrar registrar = getRegistrar(domain.getCurrentSponsorClientId());
-    return new DomainEmitter()
+    final ImmutableMap<Key<ImmutableObject>, ImmutableObject> referencedEntities =
+        loadReferencedEntities();
+    // The last update time varies from response to response, so it is never cached; everything
+    // before it depends only on the entities and the Unicode preference.
+    String body = DomainWhoisResponseCache.get(
+        getCacheKey(preferUnicode, disclaimer, referencedEntities),
+        new Supplier<String>() {
+          @Override
+          public String get() {
+            return renderBody(preferUnicode, referencedEntities);
+          }});
+    return body
+        + new DomainEmitter()
+            .emitLastUpdated(getTimestamp())
+            .emitAwipMessage()
+            .emitFooter(disclaimer)
+            .toString();
+  }
+
+  /**
+   * Loads the sponsoring registrar, contacts and nameservers of the domain in a single batch.
+   * Entities that don't exist are absent from the returned map.
+   */
+  private ImmutableMap<Key<ImmutableObject>, ImmutableObject> loadReferencedEntities() {
+    return ImmutableMap.copyOf(ofy().load().keys(getReferencedKeys()));
+  }
+
+  /** Returns the keys of the sponsoring registrar, contacts and nameservers of the domain. */
+  private ImmutableSet<Key<ImmutableObject>> getReferencedKeys() {
+    ImmutableSet.Builder<Key<ImmutableObject>> keys = new ImmutableSet.Builder<>();
+    Key<ImmutableObject> registrarKey = getRegistrarKey();
+    if (registrarKey != null) {
+      keys.add(registrarKey);
+    }
+    for (Key<ContactResource> contactKey : domain.getReferencedContacts()) {
+      keys.add(asImmutableObjectKey(contactKey));
+    }
+    for (Key<HostResource> hostKey : domain.getNameservers()) {
+      keys.add(asImmutableObjectKey(hostKey));
+    }
+    return keys.build();
+  }
+
+  /**
+   * Returns the key under which the rendered body is cached.
+   *
+   * <p>The key identifies the domain and each entity it references by its datastore key and update
+   * timestamp, rather than by value, so that computing it costs next to nothing. Commit-logged
+   * transactions give each save of an entity a later update timestamp than the last, so a changed
+   * entity always changes the key. The domain is also projected to the query time, which can
+   * change it without saving it, so the key includes the next time at which that would happen.
+   */
+  private ImmutableList<Object> getCacheKey(
+      boolean preferUnicode,
+      String disclaimer,
+      ImmutableMap<Key<ImmutableObject>, ImmutableObject> referencedEntities) {
+    ImmutableList.Builder<Object> cacheKey = new ImmutableList.Builder<>();
+    cacheKey
+        .add(Key.create(domain))
+        .add(domain.getUpdateAutoTimestamp().getTimestamp())
+        .add(getNextProjectionTime())
+        .add(preferUnicode)
+        .add(disclaimer);
+    for (Key<ImmutableObject> key : getReferencedKeys()) {
+      ImmutableObject entity = referencedEntities.get(key);
+      cacheKey.add(key);
+      if (entity instanceof EppResource) {
+        cacheKey.add(((EppResource) entity).getUpdateAutoTimestamp().getTimestamp());
+      } else if (entity instanceof Registrar) {
+        cacheKey.add(((Registrar) entity).getLastUpdateTime());
+      } else {
+        // The entity doesn't exist.
+        cacheKey.add(Optional.absent());
+      }
+    }
+    return cacheKey.build();
+  }
+
+  /**
+   * Returns the next time at which projecting the domain would change it: when a grace period
+   * ends, a pending transfer is automatically approved, or the domain is autorenewed.
+   */
+  private DateTime getNextProjectionTime() {
+    DateTime next = Optional.fromNullable(domain.getRegistrationExpirationTime()).or(END_OF_TIME);
+    for (GracePeriod gracePeriod : domain.getGracePeriods()) {
+      next = earliestOf(next, gracePeriod.getExpirationTime());
+    }
+    TransferData transferData = domain.getTransferData();
+    if (TransferStatus.PENDING.equals(transferData.getTransferStatus())) {
+      next = earliestOf(next, transferData.getPendingTransferExpirationTime());
+    }
+    return next;
+  }
+
+  /** Returns the key of the sponsoring registrar, or null if there is no sponsor. */
+  @Nullable
+  private Key<ImmutableObject> getRegistrarKey() {
+    String clientId = domain.getCurrentSponsorClientId();
+    return (clientId == null)
+        ? null
+        : asImmutableObjectKey(Key.create(getCrossTldKey(), Registrar.class, clientId));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Key<ImmutableObject> asImmutableObjectKey(Key<? extends ImmutableObject> key) {
+    return (Key<ImmutableObject>) key;
+  }
+
+  /** Renders everything up to (but excluding) the last update time. */
+  private String renderBody(
+      final boolean preferUnicode,
+      final ImmutableMap<Key<ImmutableObject>, ImmutableObject> referencedEntities) {
+    Key<ImmutableObject> registrarKey = getRegistrarKey();
+    Registrar registrar = Optional
+        .fromNullable(
+            (registrarKey == null) ? null : (Registrar) referencedEntities.get(registrarKey))
+        .or(EMPTY_REGISTRAR);
+    ImmutableSortedSet.Builder<String> nameserverNames = ImmutableSortedSet.naturalOrder();
+    for (Key<HostResource> hostKey : domain.getNameservers()) {
+      HostResource host = (HostResource) referencedEntities.get(asImmutableObjectKey(hostKey));
+      if (host != null) {
+        nameserverNames.add(host.getFullyQualifiedHostName());
+      }
+    }
+    return new DomainEmitter(referencedEntities)
         .emitField(
             "Domain Name", maybeFormatHostname(domain.getFullyQualifiedDomainName(), preferUnicode))
         .emitField("Domain ID", domain.getRepoId())
@@ -85,7 +220,7 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
         .emitContact("Billing", getContactReference(Type.BILLING), preferUnicode)
         .emitSet(
             "Name Server",
-            domain.loadNameserverFullyQualifiedHostNames(),
+            nameserverNames.build(),
             new Function<String, String>() {
               @Override
               public String apply(String hostName) {
@@ -93,9 +228,6 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
               }
             })
         .emitField("DNSSEC", isNullOrEmpty(domain.getDsData()) ? "unsigned" : "signedDelegation")
-        .emitLastUpdated(getTimestamp())
-        .emitAwipMessage()
-        .emitFooter(disclaimer)
         .toString();
   }
 
@@ -113,6 +245,18 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
 
   /** Output emitter with logic for domains. */
   class DomainEmitter extends Emitter<DomainEmitter> {
+
+    /** Entities referenced by the domain, as loaded by {@link #loadReferencedEntities}. */
+    private final ImmutableMap<Key<ImmutableObject>, ImmutableObject> referencedEntities;
+
+    DomainEmitter() {
+      this(ImmutableMap.<Key<ImmutableObject>, ImmutableObject>of());
+    }
+
+    DomainEmitter(ImmutableMap<Key<ImmutableObject>, ImmutableObject> referencedEntities) {
+      this.referencedEntities = referencedEntities;
+    }
+
     DomainEmitter emitPhone(
         String contactType, String title, @Nullable ContactPhoneNumber phoneNumber) {
       return emitField(
@@ -132,7 +276,8 @@ final class DomainWhoisResponse extends WhoisResponseImpl {
       // If we refer to a contact that doesn't exist, that's a bug. It means referential integrity
       // has somehow been broken. We skip the rest of this contact, but log it to hopefully bring it
       // someone's attention.
-      ContactResource contactResource = ofy().load().key(contact).now();
+      ContactResource contactResource =
+          (ContactResource) referencedEntities.get(asImmutableObjectKey(contact));
       if (contactResource == null) {
         logger.severefmt("(BUG) Broken reference found from domain %s to contact %s",
             domain.getFullyQualifiedDomainName(), contact);
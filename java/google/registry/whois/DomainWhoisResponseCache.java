@@ -0,0 +1,103 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static google.registry.config.RegistryConfig.getWhoisDomainResponseCacheMaxSize;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.Metric;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+
+/**
+ * Bounded in-memory cache of the rendered bodies of WHOIS domain responses.
+ *
+ * <p>WHOIS traffic is dominated by repeated queries for a few popular names, so most responses
+ * can skip rendering (escaping and cleansing every field). Entries are keyed by the datastore keys
+ * and update timestamps of the domain and the entities it references, as computed by
+ * {@link DomainWhoisResponse}, so a lookup costs no more than the batched load of those entities.
+ *
+ * <p>Lookups are counted by outcome, and the hit rate since the instance started is exported as a
+ * gauge, to size the cache against real traffic.
+ */
+final class DomainWhoisResponseCache {
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("outcome", "Whether the cache had the response."));
+
+  private static final IncrementableMetric lookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/whois/domain_response_cache/lookups",
+              "Count of lookups in the rendered WHOIS domain response cache",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  private static final Cache<Object, String> cache =
+      CacheBuilder.newBuilder()
+          .maximumSize(getWhoisDomainResponseCacheMaxSize())
+          .recordStats()
+          .build();
+
+  @VisibleForTesting
+  static final Metric<Double> hitRate =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/whois/domain_response_cache/hit_rate",
+              "Fraction of lookups in the rendered WHOIS domain response cache that hit",
+              "ratio",
+              ImmutableSet.<LabelDescriptor>of(),
+              new Supplier<ImmutableMap<ImmutableList<String>, Double>>() {
+                @Override
+                public ImmutableMap<ImmutableList<String>, Double> get() {
+                  return ImmutableMap.of(ImmutableList.<String>of(), cache.stats().hitRate());
+                }
+              },
+              Double.class);
+
+  private DomainWhoisResponseCache() {}
+
+  /** Returns the cached rendering for {@code key}, rendering and caching it if not present. */
+  static String get(Object key, Supplier<String> renderer) {
+    String rendered = cache.getIfPresent(key);
+    if (rendered != null) {
+      lookups.increment("HIT");
+      return rendered;
+    }
+    lookups.increment("MISS");
+    rendered = renderer.get();
+    cache.put(key, rendered);
+    return rendered;
+  }
+
+  @VisibleForTesting
+  static CacheStats getStats() {
+    return cache.stats();
+  }
+
+  @VisibleForTesting
+  static void clear() {
+    cache.invalidateAll();
+    cache.cleanUp();
+  }
+}
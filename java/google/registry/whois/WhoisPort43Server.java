@@ -0,0 +1,387 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import google.registry.util.Clock;
+import google.registry.util.FormattingLogger;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Embeddable, non-blocking server that speaks the WHOIS protocol directly on a TCP port.
+ *
+ * <p>This removes the HTTP hop between a port-43 front end and {@link WhoisServer}. As specified
+ * by RFC 3912, a client connects, sends a single query terminated by CRLF, and receives the
+ * response, after which the server closes the connection.
+ *
+ * <p>A single selector thread accepts connections, reads queries and writes responses as the
+ * sockets allow, so slow clients never tie up a thread. Queries are executed by {@link WhoisReader}
+ * and {@link WhoisCommand} on the supplied {@link Executor}, whose threads must be able to talk to
+ * datastore. The server also enforces:
+ *
+ * <ul>
+ * <li>a limit on the number of connections accepted from each IP address per time window, beyond
+ *     which connections get a short refusal instead of a response;
+ * <li>a maximum query length; and
+ * <li>a timeout on the total lifetime of each connection, which covers slow reads and writes.
+ * </ul>
+ *
+ * @see WhoisServer
+ * @see <a href="http://www.ietf.org/rfc/rfc3912.txt">RFC 3912: WHOIS Protocol Specification</a>
+ */
+public final class WhoisPort43Server implements Closeable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** Maximum length of a query, including the terminating CRLF. */
+  @VisibleForTesting
+  static final int MAX_QUERY_BYTES = 1024;
+
+  /** Response sent to clients that exceed the per-IP rate limit. */
+  @VisibleForTesting
+  static final String RATE_LIMITED_RESPONSE = "Query rate limit exceeded. Try again later.\r\n";
+
+  /** Response sent to clients whose query is longer than {@link #MAX_QUERY_BYTES}. */
+  @VisibleForTesting
+  static final String QUERY_TOO_LONG_RESPONSE = "Query too long.\r\n";
+
+  /** How often the selector wakes up to expire connections, if nothing else happens. */
+  private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+  /** Executes WHOIS queries, returning the text of the response. */
+  public interface QueryHandler {
+    String handle(String query);
+  }
+
+  /** Called on the selector thread as it handles connections, so tests can wait for it. */
+  @VisibleForTesting
+  interface SelectorListener {
+    void connectionAccepted();
+    void queryBytesRead();
+  }
+
+  private static final SelectorListener NO_OP_LISTENER = new SelectorListener() {
+    @Override
+    public void connectionAccepted() {}
+
+    @Override
+    public void queryBytesRead() {}
+  };
+
+  @VisibleForTesting
+  volatile SelectorListener listener = NO_OP_LISTENER;
+
+  private final QueryHandler handler;
+  private final Executor executor;
+  private final Clock clock;
+  private final InetSocketAddress bindAddress;
+  private final int maxConnectionsPerIpPerWindow;
+  private final Duration rateLimitWindow;
+  private final Duration connectionTimeout;
+
+  /** Connections whose responses are ready, to be handed back to the selector thread. */
+  private final Queue<Connection> completedConnections = new ConcurrentLinkedQueue<>();
+
+  /** Connections accepted from each IP address in the current rate limit window. */
+  private final Map<InetAddress, Integer> connectionsPerIp = new HashMap<>();
+  private DateTime rateLimitWindowStart;
+
+  private ServerSocketChannel serverChannel;
+  private Selector selector;
+  private Thread selectorThread;
+  private volatile boolean running;
+
+  /**
+   * Creates a new server, which won't listen until {@link #start} is called.
+   *
+   * @param handler executes each query; see {@link #createWhoisQueryHandler}
+   * @param executor runs the handler, off the selector thread
+   * @param bindAddress the address to listen on; use port 0 to pick any free port
+   * @param maxConnectionsPerIpPerWindow connections accepted from one IP in each window
+   * @param rateLimitWindow length of the rate limit window
+   * @param connectionTimeout maximum lifetime of a connection, after which it is closed
+   */
+  public WhoisPort43Server(
+      QueryHandler handler,
+      Executor executor,
+      Clock clock,
+      InetSocketAddress bindAddress,
+      int maxConnectionsPerIpPerWindow,
+      Duration rateLimitWindow,
+      Duration connectionTimeout) {
+    checkArgument(
+        maxConnectionsPerIpPerWindow > 0, "maxConnectionsPerIpPerWindow must be positive");
+    this.handler = checkNotNull(handler, "handler");
+    this.executor = checkNotNull(executor, "executor");
+    this.clock = checkNotNull(clock, "clock");
+    this.bindAddress = checkNotNull(bindAddress, "bindAddress");
+    this.maxConnectionsPerIpPerWindow = maxConnectionsPerIpPerWindow;
+    this.rateLimitWindow = checkNotNull(rateLimitWindow, "rateLimitWindow");
+    this.connectionTimeout = checkNotNull(connectionTimeout, "connectionTimeout");
+  }
+
+  /**
+   * Returns a handler that executes queries the same way as {@link WhoisServer}, using the time on
+   * {@code clock} and appending {@code disclaimer} to every response.
+   */
+  public static QueryHandler createWhoisQueryHandler(final Clock clock, final String disclaimer) {
+    return new QueryHandler() {
+      @Override
+      public String handle(String query) {
+        return WhoisServer.getResponseText(new StringReader(query), clock.nowUtc(), disclaimer);
+      }};
+  }
+
+  /** Starts listening, and serving queries on a new selector thread. */
+  public synchronized void start() throws IOException {
+    checkState(selectorThread == null, "Server was already started");
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.socket().bind(bindAddress);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    rateLimitWindowStart = clock.nowUtc();
+    running = true;
+    selectorThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            selectLoop();
+          }},
+        "whois-port43-selector");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+    logger.infofmt("WHOIS server listening on %s", serverChannel.socket().getLocalSocketAddress());
+  }
+
+  /** Returns the port the server is listening on, which is useful if it was bound to port 0. */
+  public int getLocalPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /** Stops the server, closing all open connections. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (selectorThread == null) {
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+    serverChannel.close();
+  }
+
+  private void selectLoop() {
+    while (running) {
+      try {
+        selector.select(SELECT_TIMEOUT_MILLIS);
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+          SelectionKey key = selectedKeys.next();
+          selectedKeys.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              read(key);
+            } else if (key.isWritable()) {
+              write(key);
+            }
+          } catch (IOException e) {
+            logger.info(e, "Closing WHOIS connection after I/O error");
+            closeConnection(key);
+          }
+        }
+        registerCompletedConnections();
+        closeExpiredConnections();
+      } catch (ClosedSelectorException e) {
+        return;
+      } catch (Throwable t) {
+        // Never let one bad connection take the whole server down.
+        logger.severe(t, "Unexpected error in WHOIS selector loop");
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    Connection connection = new Connection(channel, clock.nowUtc().plus(connectionTimeout));
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+    connection.key = key;
+    if (!tryAcquire(channel.socket().getInetAddress())) {
+      respond(connection, RATE_LIMITED_RESPONSE);
+    }
+    listener.connectionAccepted();
+  }
+
+  /** Counts a connection from {@code address}, returning false if it is over the rate limit. */
+  private boolean tryAcquire(InetAddress address) {
+    DateTime now = clock.nowUtc();
+    if (!now.isBefore(rateLimitWindowStart.plus(rateLimitWindow))) {
+      connectionsPerIp.clear();
+      rateLimitWindowStart = now;
+    }
+    Integer count = connectionsPerIp.get(address);
+    int newCount = (count == null) ? 1 : count + 1;
+    connectionsPerIp.put(address, newCount);
+    return newCount <= maxConnectionsPerIpPerWindow;
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    final Connection connection = (Connection) key.attachment();
+    if (connection.channel.read(connection.queryBuffer) < 0) {
+      closeConnection(key);
+      return;
+    }
+    listener.queryBytesRead();
+    final String query = connection.getQuery();
+    if (query != null) {
+      // Stop reading while the query runs, and hand it off so as not to block the selector.
+      key.interestOps(0);
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            String response;
+            try {
+              response = handler.handle(query);
+            } catch (Throwable t) {
+              logger.severe(t, "WHOIS request crashed");
+              response = "Internal Server Error";
+            }
+            connection.setResponse(response);
+            completedConnections.add(connection);
+            selector.wakeup();
+          }});
+      } catch (RejectedExecutionException e) {
+        logger.warning(e, "WHOIS query rejected by executor");
+        closeConnection(key);
+      }
+    } else if (!connection.queryBuffer.hasRemaining()) {
+      respond(connection, QUERY_TOO_LONG_RESPONSE);
+    }
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    connection.channel.write(connection.responseBuffer);
+    if (!connection.responseBuffer.hasRemaining()) {
+      closeConnection(key);
+    }
+  }
+
+  /** Starts streaming {@code response} to the client, from the selector thread. */
+  private static void respond(Connection connection, String response) {
+    connection.setResponse(response);
+    connection.key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  private void registerCompletedConnections() {
+    Connection connection;
+    while ((connection = completedConnections.poll()) != null) {
+      if (connection.key.isValid()) {
+        connection.key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+  private void closeExpiredConnections() {
+    DateTime now = clock.nowUtc();
+    for (SelectionKey key : selector.keys()) {
+      Connection connection = (Connection) key.attachment();
+      if (connection != null && !now.isBefore(connection.deadline)) {
+        logger.infofmt("Closing WHOIS connection from %s after timeout",
+            connection.channel.socket().getRemoteSocketAddress());
+        closeConnection(key);
+      }
+    }
+  }
+
+  private static void closeConnection(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      logger.info(e, "Error closing WHOIS connection");
+    }
+  }
+
+  /** State of a single client connection, which is only touched by one thread at a time. */
+  private static final class Connection {
+    final SocketChannel channel;
+    final DateTime deadline;
+    final ByteBuffer queryBuffer = ByteBuffer.allocate(MAX_QUERY_BYTES);
+    SelectionKey key;
+    volatile ByteBuffer responseBuffer;
+
+    Connection(SocketChannel channel, DateTime deadline) {
+      this.channel = channel;
+      this.deadline = deadline;
+    }
+
+    /** Returns the query, or null if the terminating newline hasn't been received yet. */
+    String getQuery() {
+      for (int i = 0; i < queryBuffer.position(); i++) {
+        if (queryBuffer.get(i) == '\n') {
+          return new String(queryBuffer.array(), 0, i, UTF_8).trim();
+        }
+      }
+      return null;
+    }
+
+    void setResponse(String response) {
+      responseBuffer = ByteBuffer.wrap(response.getBytes(UTF_8));
+    }
+  }
+}
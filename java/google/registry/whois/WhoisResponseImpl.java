@@ -45,7 +45,7 @@ abstract class WhoisResponseImpl implements WhoisResponse {
   /** ICANN problem reporting URL appended to all WHOIS responses. */
   private static final String ICANN_REPORTING_URL = "http://wdprs.internic.net/";
 
-  private static final Registrar EMPTY_REGISTRAR = new Supplier<Registrar>() {
+  static final Registrar EMPTY_REGISTRAR = new Supplier<Registrar>() {
       @Override
       public Registrar get() {
         // Use Type.TEST here to avoid requiring an IANA ID (the type does not appear in WHOIS).
@@ -0,0 +1,73 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.xml;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+
+/**
+ * JAXB unmarshaller for reading the elements of a large XML document one at a time in a single
+ * thread.
+ *
+ * <p>The caller walks the document with a {@link XMLStreamReader} (see
+ * {@link XmlTransformer#createXmlStreamReader}) and hands it to {@link #unmarshal} at each element
+ * it wants as an object, so only one element's object graph is in memory at a time. Namespace
+ * prefixes declared on enclosing elements are resolved as usual. Each element is validated on its
+ * own against the global element of the same name in the schema, if validation is enabled.
+ */
+@NotThreadSafe
+public final class XmlFragmentUnmarshaller {
+
+  private final Unmarshaller unmarshaller;
+
+  XmlFragmentUnmarshaller(JAXBContext jaxbContext, @Nullable Schema schema) {
+    try {
+      unmarshaller = jaxbContext.createUnmarshaller();
+    } catch (JAXBException e) {
+      throw new RuntimeException(e);
+    }
+    unmarshaller.setSchema(schema);
+    // Fail on any error, as XmlTransformer does for whole documents.
+    unmarshaller.setEventHandler(new DefaultValidationEventHandler());
+  }
+
+  /**
+   * Unmarshals the element that {@code reader} is at, leaving the reader at the event just after
+   * the element's end tag.
+   *
+   * @return the element, which is a {@link javax.xml.bind.JAXBElement} unless its class is
+   *     annotated with {@link javax.xml.bind.annotation.XmlRootElement}
+   * @throws XmlException if the element is malformed or fails validation
+   */
+  public Object unmarshal(XMLStreamReader reader) throws XmlException {
+    checkState(reader.isStartElement(), "Reader is not at the start of an element");
+    try {
+      return unmarshaller.unmarshal(reader);
+    } catch (UnmarshalException e) {
+      throw XmlTransformer.toXmlException(e);
+    } catch (JAXBException e) {
+      throw new XmlException(e);
+    }
+  }
+}
@@ -45,6 +45,7 @@ import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -147,33 +148,59 @@ public class XmlTransformer {
       return clazz.cast(getUnmarshaller().unmarshal(
           XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
     } catch (UnmarshalException e) {
-      // Plain old parsing exceptions have a SAXParseException with no further cause.
-      if (e.getLinkedException() instanceof SAXParseException
-          && e.getLinkedException().getCause() == null) {
-        SAXParseException sae = (SAXParseException) e.getLinkedException();
-        throw new XmlException(String.format(
-            "Syntax error at line %d, column %d: %s",
-            sae.getLineNumber(),
-            sae.getColumnNumber(),
-            nullToEmpty(sae.getMessage()).replaceAll("&quot;", "")));
-      }
-      // These get thrown for attempted XXE attacks.
-      if (e.getLinkedException() instanceof XMLStreamException) {
-        XMLStreamException xse = (XMLStreamException) e.getLinkedException();
-        throw new XmlException(String.format(
-            "Syntax error at line %d, column %d: %s",
-            xse.getLocation().getLineNumber(),
-            xse.getLocation().getColumnNumber(),
-            nullToEmpty(xse.getMessage())
-                .replaceAll("^.*\nMessage: ", "")  // Strip an ugly prefix from XMLStreamException.
-                .replaceAll("&quot;", "")));
-      }
-      throw new XmlException(e);
+      throw toXmlException(e);
     } catch (JAXBException | XMLStreamException | IOException e) {
       throw new XmlException(e);
     }
   }
 
+  /**
+   * Creates a StAX reader over XML text, with the same protection against XXE attacks as
+   * {@link #unmarshal}. The caller is responsible for closing {@code stream}.
+   *
+   * @see #createFragmentUnmarshaller
+   */
+  public static XMLStreamReader createXmlStreamReader(InputStream stream) throws XmlException {
+    try {
+      return XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(stream, SYSTEM_ID));
+    } catch (XMLStreamException e) {
+      throw toXmlException(e);
+    }
+  }
+
+  /** Converts a JAXB unmarshalling failure into an {@link XmlException} with a useful message. */
+  static XmlException toXmlException(UnmarshalException e) {
+    // Plain old parsing exceptions have a SAXParseException with no further cause.
+    if (e.getLinkedException() instanceof SAXParseException
+        && e.getLinkedException().getCause() == null) {
+      SAXParseException sae = (SAXParseException) e.getLinkedException();
+      return new XmlException(String.format(
+          "Syntax error at line %d, column %d: %s",
+          sae.getLineNumber(),
+          sae.getColumnNumber(),
+          nullToEmpty(sae.getMessage()).replaceAll("&quot;", "")));
+    }
+    // These get thrown for attempted XXE attacks.
+    if (e.getLinkedException() instanceof XMLStreamException) {
+      return toXmlException((XMLStreamException) e.getLinkedException());
+    }
+    return new XmlException(e);
+  }
+
+  /** Converts a StAX parsing failure into an {@link XmlException} with a useful message. */
+  static XmlException toXmlException(XMLStreamException e) {
+    if (e.getLocation() == null) {
+      return new XmlException(e);
+    }
+    return new XmlException(String.format(
+        "Syntax error at line %d, column %d: %s",
+        e.getLocation().getLineNumber(),
+        e.getLocation().getColumnNumber(),
+        nullToEmpty(e.getMessage())
+            .replaceAll("^.*\nMessage: ", "")  // Strip an ugly prefix from XMLStreamException.
+            .replaceAll("&quot;", "")));
+  }
+
   /**
    * Streams {@code root} without XML declaration, optionally validating against the schema.
    *
@@ -252,6 +279,14 @@ public class XmlTransformer {
     return new XmlFragmentMarshaller(jaxbContext, schema);
   }
 
+  /**
+   * Returns new instance of {@link XmlFragmentUnmarshaller}, which validates each fragment against
+   * the schema only if {@code validation} is {@link ValidationMode#STRICT}.
+   */
+  public XmlFragmentUnmarshaller createFragmentUnmarshaller(ValidationMode validation) {
+    return new XmlFragmentUnmarshaller(jaxbContext, STRICT.equals(validation) ? schema : null);
+  }
+
   /** Creates a single {@link Schema} from multiple {@code .xsd} files. */
   public static Schema loadXmlSchemas(List<String> schemaFilenames) {
     try (Closer closer = Closer.create()) {
@@ -21,6 +21,7 @@ import static org.joda.time.Duration.millis;
 
 import com.googlecode.objectify.VoidWork;
 import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMarker;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
@@ -153,6 +154,8 @@ public class DeleteOldCommitLogsActionTest {
   private void assertManifestAndMutationCounts(int manifestCount, int mutationCount) {
     assertThat(ofy.load().type(CommitLogManifest.class).count()).isEqualTo(manifestCount);
     assertThat(ofy.load().type(CommitLogMutation.class).count()).isEqualTo(mutationCount);
+    // Every manifest has one marker, which is deleted along with it.
+    assertThat(ofy.load().type(CommitLogMarker.class).count()).isEqualTo(manifestCount);
   }
 
   private void createCommitLog() {
@@ -46,6 +46,7 @@ import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
+import google.registry.model.ofy.CommitLogMutationCodec;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeSleeper;
@@ -230,6 +231,34 @@ public class RestoreCommitLogsActionTest {
     assertCommitLogBuckets(ImmutableMap.of(1, now));
   }
 
+  @Test
+  public void testRestore_mutationsStoredWithAndWithoutCodecs() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to keep")).now();
+    Key<CommitLogManifest> manifestKey = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now, null),
+        CommitLogMutation.createFromRaw(
+            manifestKey,
+            ofy().save().toEntity(TestObject.create("a", "stored as is")),
+            CommitLogMutationCodec.NONE),
+        CommitLogMutation.createFromRaw(
+            manifestKey,
+            ofy().save().toEntity(TestObject.create("b", "compressed")),
+            CommitLogMutationCodec.DEFLATE_V1));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "a", "b");
+    assertThat(ofy().load().entity(TestObject.create("a")).now().getField())
+        .isEqualTo("stored as is");
+    assertThat(ofy().load().entity(TestObject.create("b")).now().getField())
+        .isEqualTo("compressed");
+    assertInDatastore(commitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now));
+  }
+
   // This should be harmless; deletes are idempotent.
   @Test
   public void testRestore_deleteMissingEntity() throws Exception {
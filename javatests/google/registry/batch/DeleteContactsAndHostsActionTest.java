@@ -43,6 +43,7 @@ import static google.registry.testing.DatastoreHelper.persistDeletedContact;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.HostResourceSubject.assertAboutHosts;
+import static google.registry.testing.LogsSubject.assertAboutLogs;
 import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
@@ -59,6 +60,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.testing.TestLogHandler;
 import com.googlecode.objectify.Key;
 import google.registry.flows.async.AsyncFlowEnqueuer;
 import google.registry.model.EppResource;
@@ -78,6 +80,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferResponse;
+import google.registry.testing.DatastoreRpcCounter;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -88,6 +91,9 @@ import google.registry.testing.mapreduce.MapreduceTestCase;
 import google.registry.util.Retrier;
 import google.registry.util.Sleeper;
 import google.registry.util.SystemSleeper;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -137,6 +143,7 @@ public class DeleteContactsAndHostsActionTest
     action.response = new FakeResponse();
     action.retrier = new Retrier(new FakeSleeper(clock), 1);
     action.queue = getQueue(QUEUE_ASYNC_DELETE);
+    action.useMapreduce = false;
     inject.setStaticField(Ofy.class, "clock", clock);
 
     createTld("tld");
@@ -168,6 +175,173 @@ public class DeleteContactsAndHostsActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
   }
 
+  @Test
+  public void testSuccess_usingIndexes_doesntRunMapreduce() throws Exception {
+    ContactResource referencedContact = persistContactPendingDelete("blah8221");
+    persistResource(newDomainResource("example.tld", referencedContact));
+    ContactResource unreferencedContact = persistContactPendingDelete("jim919");
+    enqueuer.enqueueAsyncDelete(referencedContact, "TheRegistrar", false);
+    enqueuer.enqueueAsyncDelete(unreferencedContact, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(((FakeResponse) action.response).getPayload())
+        .isEqualTo("Processed 2 contact/host deletions: 1 deleted, 1 not deleted, 0 errored, "
+            + "0 requeued.");
+    assertThat(loadByForeignKey(ContactResource.class, "blah8221", clock.nowUtc())).isNotNull();
+    assertThat(loadByForeignKey(ContactResource.class, "jim919", clock.nowUtc())).isNull();
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
+  @Test
+  public void testSuccess_usingIndexes_failedRequest_isRequeuedOnItsOwn() throws Exception {
+    ContactResource contact = persistContactPendingDelete("jim919");
+    // Deleting a subordinate host updates its superordinate domain, which doesn't exist here.
+    HostResource host = persistResource(
+        persistHostPendingDelete("ns1.example.tld")
+            .asBuilder()
+            .setSuperordinateDomain(Key.create(newDomainResource("example.tld")))
+            .build());
+    enqueuer.enqueueAsyncDelete(contact, "TheRegistrar", false);
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(((FakeResponse) action.response).getPayload())
+        .isEqualTo("Processed 2 contact/host deletions: 1 deleted, 0 not deleted, 0 errored, "
+            + "1 requeued.");
+    assertThat(loadByForeignKey(ContactResource.class, "jim919", clock.nowUtc())).isNull();
+    assertAboutHosts()
+        .that(loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc()))
+        .hasStatusValue(PENDING_DELETE);
+    assertTasksEnqueued(
+        QUEUE_ASYNC_DELETE,
+        new TaskMatcher()
+            .payload(
+                String.format(
+                    "resourceKey=%s&requestingClientId=TheRegistrar&isSuperuser=false",
+                    Key.create(host).getString())));
+  }
+
+  @Test
+  public void testSuccess_usingMapreduce_noTasks_stillSweepsDomains() throws Exception {
+    action.useMapreduce = true;
+    TestLogHandler logHandler = new TestLogHandler();
+    Logger.getLogger(DeleteContactsAndHostsAction.class.getName()).addHandler(logHandler);
+    HostResource deletedHost = persistDeletedHost("ns1.example.tld", clock.nowUtc().minusDays(1));
+    persistUsedDomain("example.tld", persistActiveContact("abc456"), deletedHost);
+    persistUsedDomain("example2.tld", persistActiveContact("abc789"), persistActiveHost("ns2.a.b"));
+    runMapreduce();
+    assertThat(((FakeResponse) action.response).getPayload()).contains("/_ah/pipeline/");
+    assertAboutLogs()
+        .that(logHandler)
+        .hasLogAtLevelWithMessage(
+            Level.SEVERE,
+            "Active domain example.tld references deleted " + Key.create(deletedHost));
+    for (LogRecord record : logHandler.getStoredLogRecords()) {
+      if (record.getLevel().equals(Level.SEVERE)) {
+        assertThat(record.getMessage()).doesNotContain("example2.tld");
+      }
+    }
+  }
+
+  /**
+   * Compares the cost of checking a batch of deletion requests for references on the indexes with
+   * that of the mapreduce over all domains, which grows with the number of domains rather than the
+   * number of requests.
+   */
+  @Test
+  public void testUsingIndexes_costsLessThanMapreduce() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      persistUsedDomain(
+          String.format("example%d.tld", i),
+          persistActiveContact("domaincontact" + i),
+          persistActiveHost(String.format("ns%d.example.net", i)));
+    }
+    Cost indexCost = measureDeletions("indexed");
+    action.useMapreduce = true;
+    Cost mapreduceCost = measureDeletions("swept");
+    assertThat(indexCost.datastoreRpcs).isLessThan(mapreduceCost.datastoreRpcs);
+    assertThat(indexCost.nanos).isLessThan(mapreduceCost.nanos);
+  }
+
+  /** The datastore RPCs made, and time taken, by one run of the action. */
+  private static class Cost {
+    int datastoreRpcs;
+    long nanos;
+  }
+
+  /** Requests the deletion of a few contacts and hosts, and measures the cost of processing it. */
+  private Cost measureDeletions(String prefix) throws Exception {
+    ImmutableList.Builder<EppResource> resources = new ImmutableList.Builder<>();
+    for (int i = 0; i < 3; i++) {
+      resources.add(persistContactPendingDelete(prefix + i));
+      resources.add(persistHostPendingDelete(String.format("ns%d.%s.net", i, prefix)));
+    }
+    for (EppResource resource : resources.build()) {
+      enqueuer.enqueueAsyncDelete(resource, "TheRegistrar", false);
+    }
+    clock.advanceBy(standardSeconds(5));
+    Sleeper sleeper = new SystemSleeper();
+    sleeper.sleep(millis(50));
+    Cost cost = new Cost();
+    DatastoreRpcCounter counter = DatastoreRpcCounter.install();
+    try {
+      long start = System.nanoTime();
+      action.run();
+      cost.nanos = System.nanoTime() - start;
+      // Give the mapreduce tasks time to be enqueued, outside of the measured time.
+      sleeper.sleep(millis(50));
+      start = System.nanoTime();
+      executeTasksUntilEmpty("mapreduce", clock);
+      cost.nanos += System.nanoTime() - start;
+    } finally {
+      counter.uninstall();
+    }
+    cost.datastoreRpcs = counter.getTotalCount();
+    ofy().clearSessionCache();
+    for (EppResource resource : resources.build()) {
+      assertThat(ofy().load().entity(resource).now().getDeletionTime())
+          .isLessThan(END_OF_TIME);
+    }
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+    return cost;
+  }
+
+  @Test
+  public void testSuccess_usingMapreduce_contact_referencedByActiveDomain_doesNotGetDeleted()
+      throws Exception {
+    action.useMapreduce = true;
+    ContactResource contact = persistContactPendingDelete("blah8221");
+    persistResource(newDomainResource("example.tld", contact));
+    enqueuer.enqueueAsyncDelete(contact, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(((FakeResponse) action.response).getPayload()).contains("/_ah/pipeline/");
+    ContactResource contactUpdated =
+        loadByForeignKey(ContactResource.class, "blah8221", clock.nowUtc());
+    assertAboutContacts()
+        .that(contactUpdated)
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+    assertPollMessageFor(
+        getOnlyHistoryEntryOfType(contactUpdated, HistoryEntry.Type.CONTACT_DELETE_FAILURE),
+        "TheRegistrar",
+        "Can't delete contact blah8221 because it is referenced by a domain.");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
+  @Test
+  public void testSuccess_usingMapreduce_host_notReferenced_getsDeleted() throws Exception {
+    action.useMapreduce = true;
+    HostResource host = persistHostPendingDelete("ns2.example.tld");
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(loadByForeignKey(HostResource.class, "ns2.example.tld", clock.nowUtc())).isNull();
+    HostResource hostAfterDeletion = ofy().load().entity(host).now();
+    assertPollMessageFor(
+        getOnlyHistoryEntryOfType(hostAfterDeletion, HOST_DELETE),
+        "TheRegistrar",
+        "Deleted host ns2.example.tld.");
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
   @Test
   public void testSuccess_contact_notReferenced_getsDeleted_andPiiWipedOut() throws Exception {
     ContactResource contact = persistContactWithPii("jim919");
@@ -0,0 +1,80 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.label.StagedLabelListChunk.computeChecksum;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DeleteStaleStagedLabelListChunksAction}. */
+@RunWith(JUnit4.class)
+public class DeleteStaleStagedLabelListChunksActionTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2017-01-02T00:00:00Z"));
+  private final DeleteStaleStagedLabelListChunksAction action =
+      new DeleteStaleStagedLabelListChunksAction();
+
+  @Before
+  public void before() throws Exception {
+    action.clock = clock;
+  }
+
+  private static void stageChunk(String uploadId, int sequence, DateTime creationTime) {
+    String data = "rich,USD " + sequence + "\n";
+    persistResource(
+        StagedLabelListChunk.create(uploadId, sequence, computeChecksum(data), data, creationTime));
+  }
+
+  private static boolean chunkExists(String uploadId, int sequence) {
+    ofy().clearSessionCache();
+    return ofy().load().key(StagedLabelListChunk.createKey(uploadId, sequence)).now() != null;
+  }
+
+  @Test
+  public void testSuccess_deletesOnlyStaleChunks() throws Exception {
+    DateTime staleTime = clock.nowUtc().minus(DeleteStaleStagedLabelListChunksAction.MAX_AGE);
+    stageChunk("abandoned", 0, staleTime.minusMinutes(1));
+    stageChunk("abandoned", 1, staleTime.minusMinutes(1));
+    stageChunk("borderline", 0, staleTime);
+    stageChunk("fresh", 0, clock.nowUtc().minusMinutes(5));
+    action.run();
+    assertThat(chunkExists("abandoned", 0)).isFalse();
+    assertThat(chunkExists("abandoned", 1)).isFalse();
+    assertThat(chunkExists("borderline", 0)).isTrue();
+    assertThat(chunkExists("fresh", 0)).isTrue();
+  }
+
+  @Test
+  public void testSuccess_noChunks() throws Exception {
+    action.run();
+    assertThat(ofy().load().type(StagedLabelListChunk.class).count()).isEqualTo(0);
+  }
+}
@@ -15,6 +15,7 @@
 package google.registry.batch;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_HOST_RENAME;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
@@ -35,6 +36,7 @@ import static org.joda.time.Duration.standardSeconds;
 
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.dns.DnsQueue;
 import google.registry.flows.async.AsyncFlowEnqueuer;
 import google.registry.model.host.HostResource;
 import google.registry.testing.ExceptionRule;
@@ -78,6 +80,8 @@ public class RefreshDnsOnHostRenameActionTest
 
     action = new RefreshDnsOnHostRenameAction();
     action.clock = clock;
+    action.dnsQueue = DnsQueue.create();
+    action.maxDirectRefreshes = 10000;
     action.mrRunner = makeDefaultRunner();
     action.pullQueue = getQueue(QUEUE_ASYNC_HOST_RENAME);
     action.response = new FakeResponse();
@@ -115,6 +119,37 @@ public class RefreshDnsOnHostRenameActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
   }
 
+  @Test
+  public void testSuccess_directRefresh_doesntRunMapreduce() throws Exception {
+    HostResource host = persistActiveHost("ns1.example.tld");
+    persistResource(newDomainResource("example.tld", host));
+    persistResource(newDomainResource("otherexample.tld", host));
+
+    enqueuer.enqueueAsyncDnsRefresh(host);
+    runMapreduce();
+    assertDnsTasksEnqueued("example.tld", "otherexample.tld");
+    assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
+    assertThat(((FakeResponse) action.response).getPayload())
+        .isEqualTo("Enqueued DNS refreshes for 2 domains referencing renamed hosts.");
+  }
+
+  @Test
+  public void testSuccess_tooManyReferencingDomains_fallsBackToMapreduce() throws Exception {
+    action.maxDirectRefreshes = 2;
+    HostResource host1 = persistActiveHost("ns1.example.tld");
+    HostResource host2 = persistActiveHost("ns2.example.tld");
+    persistResource(newDomainResource("example1.tld", host1));
+    persistResource(newDomainResource("example2.tld", host1));
+    persistResource(newDomainResource("example3.tld", host2));
+
+    enqueuer.enqueueAsyncDnsRefresh(host1);
+    enqueuer.enqueueAsyncDnsRefresh(host2);
+    runMapreduce();
+    assertDnsTasksEnqueued("example1.tld", "example2.tld", "example3.tld");
+    assertNoTasksEnqueued(QUEUE_ASYNC_HOST_RENAME);
+    assertThat(((FakeResponse) action.response).getPayload()).contains("/_ah/pipeline/");
+  }
+
   @Test
   public void testSuccess_multipleHostsProcessedInBatch() throws Exception {
     HostResource host1 = persistActiveHost("ns1.example.tld");
@@ -15,13 +15,19 @@
 package google.registry.dns;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
 
+import com.googlecode.objectify.VoidWork;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -32,10 +38,13 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class DnsQueueTest {
 
+  private final FakeClock clock = new FakeClock(DateTime.parse("2010-01-01T10:00:00Z"));
+
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder()
       .withDatastore()
       .withTaskQueue()
+      .withClock(clock)
       .build();
 
   @Rule
@@ -47,7 +56,10 @@ public class DnsQueueTest {
   public void init() {
     dnsQueue = new DnsQueue();
     dnsQueue.queue = getQueue("dns-pull");
+    dnsQueue.clock = clock;
+    dnsQueue.coalescingWindow = Duration.ZERO;
     dnsQueue.writeBatchSize = 10;
+    DnsQueue.clearCommittedTasks();
   }
 
   @Test
@@ -55,7 +67,9 @@ public class DnsQueueTest {
     createTld("tld");
     dnsQueue.addHostRefreshTask("octopus.tld");
     assertTasksEnqueued("dns-pull",
-        new TaskMatcher().payload("Target-Type=HOST&Target-Name=octopus.tld&tld=tld"));
+        new TaskMatcher().payload(
+            "Target-Type=HOST&Target-Name=octopus.tld&tld=tld"
+                + "&Create-Time=2010-01-01T10%3A00%3A00.000Z"));
   }
 
   @Test
@@ -74,7 +88,9 @@ public class DnsQueueTest {
     createTld("tld");
     dnsQueue.addDomainRefreshTask("octopus.tld");
     assertTasksEnqueued("dns-pull",
-        new TaskMatcher().payload("Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"));
+        new TaskMatcher().payload(
+            "Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"
+                + "&Create-Time=2010-01-01T10%3A00%3A00.000Z"));
   }
 
   @Test
@@ -86,5 +102,137 @@ public class DnsQueueTest {
       assertNoTasksEnqueued("dns-pull");
     }
   }
-}
 
+  @Test
+  public void test_coalescing_duplicatesInSameBucketDropped() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNotNull();
+    clock.advanceBy(Duration.standardSeconds(10));
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNull();
+    clock.advanceBy(Duration.standardSeconds(19));
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNull();
+    // The one remaining task records the time of the first request, and can't be leased until the
+    // end of the bucket.
+    assertTasksEnqueued("dns-pull",
+        new TaskMatcher()
+            .payload(
+                "Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"
+                    + "&Create-Time=2010-01-01T10%3A00%3A00.000Z"));
+    assertThat(dnsQueue.leaseTasks(Duration.standardMinutes(1))).isEmpty();
+    clock.advanceBy(Duration.standardSeconds(1));
+    assertThat(dnsQueue.leaseTasks(Duration.standardMinutes(1))).hasSize(1);
+  }
+
+  @Test
+  public void test_coalescing_newBucketGetsNewTask() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNotNull();
+    clock.advanceBy(Duration.standardSeconds(30));
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNotNull();
+    assertTasksEnqueued("dns-pull", new TaskMatcher(), new TaskMatcher());
+  }
+
+  @Test
+  public void test_coalescing_differentTargetsNotCoalesced() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNotNull();
+    assertThat(dnsQueue.addDomainRefreshTask("squid.tld")).isNotNull();
+    assertThat(dnsQueue.addHostRefreshTask("octopus.tld")).isNotNull();
+    assertTasksEnqueued("dns-pull", new TaskMatcher(), new TaskMatcher(), new TaskMatcher());
+  }
+
+  /** Requests a refresh of the given domain in a transaction of its own, as a flow does. */
+  private void addDomainRefreshTaskInTransaction(final String domainName) {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        dnsQueue.addDomainRefreshTask(domainName);
+      }});
+  }
+
+  @Test
+  public void test_coalescing_transactionalBurstGetsOneTask() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    for (int i = 0; i < 10; i++) {
+      addDomainRefreshTaskInTransaction("octopus.tld");
+      clock.advanceBy(Duration.standardSeconds(2));
+    }
+    assertTasksEnqueued("dns-pull",
+        new TaskMatcher()
+            .payload(
+                "Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"
+                    + "&Create-Time=2010-01-01T10%3A00%3A00.000Z"));
+    // The task can't be leased until the end of the bucket, after all of the transactions.
+    clock.setTo(DateTime.parse("2010-01-01T10:00:29.999Z"));
+    assertThat(dnsQueue.leaseTasks(Duration.standardMinutes(1))).isEmpty();
+    clock.advanceOneMilli();
+    assertThat(dnsQueue.leaseTasks(Duration.standardMinutes(1))).hasSize(1);
+  }
+
+  @Test
+  public void test_coalescing_transactionalNewBucketGetsNewTask() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    addDomainRefreshTaskInTransaction("octopus.tld");
+    clock.advanceBy(Duration.standardSeconds(30));
+    addDomainRefreshTaskInTransaction("octopus.tld");
+    assertTasksEnqueued("dns-pull", new TaskMatcher(), new TaskMatcher());
+  }
+
+  @Test
+  public void test_coalescing_transactionalDifferentTargetsNotCoalesced() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    addDomainRefreshTaskInTransaction("octopus.tld");
+    addDomainRefreshTaskInTransaction("squid.tld");
+    assertTasksEnqueued("dns-pull", new TaskMatcher(), new TaskMatcher());
+  }
+
+  @Test
+  public void test_coalescing_transactionCommittingAfterEta_addsTaskAfterCommit()
+      throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    addDomainRefreshTaskInTransaction("octopus.tld");
+    clock.advanceBy(Duration.standardSeconds(29));
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        assertThat(dnsQueue.addDomainRefreshTask("octopus.tld")).isNull();
+        // The first task becomes available for leasing before this transaction commits.
+        clock.advanceBy(Duration.standardSeconds(2));
+      }});
+    assertTasksEnqueued("dns-pull",
+        new TaskMatcher()
+            .payload(
+                "Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"
+                    + "&Create-Time=2010-01-01T10%3A00%3A00.000Z"),
+        new TaskMatcher()
+            .payload(
+                "Target-Type=DOMAIN&Target-Name=octopus.tld&tld=tld"
+                    + "&Create-Time=2010-01-01T10%3A00%3A31.000Z"));
+  }
+
+  @Test
+  public void test_coalescing_rolledBackTransactionNotRemembered() throws Exception {
+    createTld("tld");
+    dnsQueue.coalescingWindow = Duration.standardSeconds(30);
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          dnsQueue.addDomainRefreshTask("octopus.tld");
+          throw new IllegalStateException();
+        }});
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assertNoTasksEnqueued("dns-pull");
+    addDomainRefreshTaskInTransaction("octopus.tld");
+    assertTasksEnqueued("dns-pull", new TaskMatcher());
+  }
+}
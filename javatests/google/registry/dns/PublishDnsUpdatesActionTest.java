@@ -18,10 +18,13 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveSubordinateHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.assertNoDnsTasksEnqueued;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -78,6 +81,9 @@ public class PublishDnsUpdatesActionTest {
     action.tld = tld;
     action.hosts = ImmutableSet.<String>of();
     action.domains = ImmutableSet.<String>of();
+    action.lockIndex = 1;
+    action.numPublishLocks = 1;
+    action.dnsQueue = DnsQueue.create();
     action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("mock", dnsWriter));
     action.dnsMetrics = dnsMetrics;
     return action;
@@ -146,4 +152,35 @@ public class PublishDnsUpdatesActionTest {
     verify(dnsMetrics, times(3)).incrementPublishHostRequests("xn--q9jyb4c", Status.REJECTED);
     verifyNoMoreInteractions(dnsMetrics);
   }
+
+  @Test
+  public void testShardedTld_published() throws Exception {
+    persistResource(
+        Registry.get("xn--q9jyb4c").asBuilder().setNumDnsPublishLocks(4).build());
+    action = createAction("xn--q9jyb4c");
+    action.lockIndex = 3;
+    action.numPublishLocks = 4;
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c");
+    action.run();
+
+    verify(dnsWriter).publishDomain("example.xn--q9jyb4c");
+    verify(dnsWriter).close();
+    verifyNoMoreInteractions(dnsWriter);
+    assertNoDnsTasksEnqueued();
+  }
+
+  @Test
+  public void testNumPublishLocksChanged_requeued() throws Exception {
+    persistResource(
+        Registry.get("xn--q9jyb4c").asBuilder().setNumDnsPublishLocks(4).build());
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("example.xn--q9jyb4c", "example2.xn--q9jyb4c");
+    action.hosts = ImmutableSet.of("ns1.example.xn--q9jyb4c");
+    action.run();
+
+    verifyZeroInteractions(dnsWriter);
+    verifyZeroInteractions(dnsMetrics);
+    assertDnsTasksEnqueued(
+        "example.xn--q9jyb4c", "example2.xn--q9jyb4c", "ns1.example.xn--q9jyb4c");
+  }
 }
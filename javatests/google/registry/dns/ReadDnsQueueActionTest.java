@@ -15,7 +15,9 @@
 package google.registry.dns;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Lists.transform;
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.dns.DnsConstants.DNS_PUBLISH_PUSH_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_TARGET_NAME_PARAM;
@@ -25,6 +27,8 @@ import static google.registry.testing.DatastoreHelper.createTlds;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.getQueueInfo;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 
 import com.google.appengine.api.taskqueue.QueueFactory;
@@ -36,6 +40,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.InternetDomainName;
 import google.registry.dns.DnsConstants.TargetType;
+import google.registry.dns.ReadDnsQueueAction.RefreshItem;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.request.RequestParameters;
@@ -44,6 +49,7 @@ import google.registry.testing.FakeClock;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.util.Retrier;
 import google.registry.util.TaskEnqueuer;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import org.joda.time.DateTime;
@@ -62,6 +68,7 @@ public class ReadDnsQueueActionTest {
   private static final int TEST_TLD_UPDATE_BATCH_SIZE = 100;
   private DnsQueue dnsQueue;
   private FakeClock clock = new FakeClock(DateTime.now(DateTimeZone.UTC));
+  private Duration requestedMaximumDuration = Duration.standardSeconds(10);
 
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder()
@@ -88,12 +95,17 @@ public class ReadDnsQueueActionTest {
     persistResource(Registry.get("example").asBuilder().setTldType(TldType.TEST).build());
     dnsQueue = new DnsQueue();
     dnsQueue.queue = getQueue(DNS_PULL_QUEUE_NAME);
+    dnsQueue.clock = clock;
+    dnsQueue.coalescingWindow = Duration.ZERO;
   }
 
   private void run(boolean keepTasks) throws Exception {
     ReadDnsQueueAction action = new ReadDnsQueueAction();
     action.tldUpdateBatchSize = TEST_TLD_UPDATE_BATCH_SIZE;
     action.writeLockTimeout = Duration.standardSeconds(10);
+    action.requestedMaximumDuration = requestedMaximumDuration;
+    action.dnsMetrics = new DnsMetrics();
+    action.clock = clock;
     action.dnsQueue = dnsQueue;
     action.dnsPublishPushQueue = QueueFactory.getQueue(DNS_PUBLISH_PUSH_QUEUE_NAME);
     action.taskEnqueuer = new TaskEnqueuer(new Retrier(null, 1));
@@ -152,15 +164,20 @@ public class ReadDnsQueueActionTest {
 
   @Test
   public void testSuccess_allTldsKeepTasks() throws Exception {
+    String createTime = URLEncoder.encode(clock.nowUtc().toString(), UTF_8.name());
     dnsQueue.addDomainRefreshTask("domain.com");
     dnsQueue.addDomainRefreshTask("domain.net");
     dnsQueue.addDomainRefreshTask("domain.example");
     run(true);
     assertTasksEnqueued(
         DnsConstants.DNS_PULL_QUEUE_NAME,
-        new TaskMatcher().payload("Target-Type=DOMAIN&Target-Name=domain.com&tld=com"),
-        new TaskMatcher().payload("Target-Type=DOMAIN&Target-Name=domain.net&tld=net"),
-        new TaskMatcher().payload("Target-Type=DOMAIN&Target-Name=domain.example&tld=example"));
+        new TaskMatcher().payload(
+            "Target-Type=DOMAIN&Target-Name=domain.com&tld=com&Create-Time=" + createTime),
+        new TaskMatcher().payload(
+            "Target-Type=DOMAIN&Target-Name=domain.net&tld=net&Create-Time=" + createTime),
+        new TaskMatcher().payload(
+            "Target-Type=DOMAIN&Target-Name=domain.example&tld=example&Create-Time="
+                + createTime));
     assertTldsEnqueuedInPushQueue("com", "net", "example");
   }
 
@@ -234,4 +251,96 @@ public class ReadDnsQueueActionTest {
     assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
     assertTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME, expectedTasks);
   }
+
+  @Test
+  public void testSuccess_leasesUntilQueueIsDrained() throws Exception {
+    dnsQueue.writeBatchSize = 2;
+    TaskMatcher task = new TaskMatcher().url(PublishDnsUpdatesAction.PATH).param("tld", "com");
+    for (int i = 0; i < 5; i++) {
+      dnsQueue.addDomainRefreshTask(String.format("domain%d.com", i));
+      task.param("domains", String.format("domain%d.com", i));
+    }
+    run(false);
+    assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME, task);
+  }
+
+  @Test
+  public void testSuccess_duplicatesAcrossLeasesAreCollapsed() throws Exception {
+    dnsQueue.writeBatchSize = 1;
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("domain.com");
+    run(false);
+    assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
+    assertThat(
+            getOnlyElement(getQueueInfo(DNS_PUBLISH_PUSH_QUEUE_NAME).getTaskInfo()).getBody())
+        .isEqualTo("tld=com&lockIndex=1&numPublishLocks=1&domains=domain.com");
+  }
+
+  @Test
+  public void testSuccess_noTimeLeft_leavesTasksInQueue() throws Exception {
+    requestedMaximumDuration = Duration.ZERO;
+    dnsQueue.addDomainRefreshTask("domain.com");
+    run(false);
+    assertTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME, new TaskMatcher());
+    assertNoTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME);
+  }
+
+  @Test
+  public void testSuccess_shardedTld() throws Exception {
+    persistResource(Registry.get("com").asBuilder().setNumDnsPublishLocks(3).build());
+    List<RefreshItem> refreshItems = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      String domainName = String.format("domain%d.com", i);
+      dnsQueue.addDomainRefreshTask(domainName);
+      dnsQueue.addHostRefreshTask("ns1." + domainName);
+      refreshItems.add(RefreshItem.create(TargetType.DOMAIN, domainName));
+      refreshItems.add(RefreshItem.create(TargetType.HOST, "ns1." + domainName));
+    }
+    run(false);
+    assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
+    TaskMatcher[] expectedTasks = new TaskMatcher[4];
+    for (RefreshItem refreshItem : refreshItems) {
+      int lockIndex = ReadDnsQueueAction.getLockIndex("com", 3, refreshItem);
+      if (expectedTasks[lockIndex] == null) {
+        expectedTasks[lockIndex] = new TaskMatcher()
+            .url(PublishDnsUpdatesAction.PATH)
+            .param("tld", "com")
+            .param("lockIndex", Integer.toString(lockIndex))
+            .param("numPublishLocks", "3");
+      }
+      expectedTasks[lockIndex].param(
+          refreshItem.type() == TargetType.HOST ? "hosts" : "domains", refreshItem.name());
+    }
+    List<TaskMatcher> nonEmptyTasks = new ArrayList<>();
+    for (TaskMatcher task : expectedTasks) {
+      if (task != null) {
+        nonEmptyTasks.add(task);
+      }
+    }
+    assertThat(nonEmptyTasks.size()).isGreaterThan(1);
+    assertTasksEnqueued(DNS_PUBLISH_PUSH_QUEUE_NAME, nonEmptyTasks);
+  }
+
+  @Test
+  public void testGetLockIndex_hostSharesLockWithDomain() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      String domainName = String.format("domain%d.co.uk", i);
+      int lockIndex = ReadDnsQueueAction.getLockIndex(
+          "co.uk", 7, RefreshItem.create(TargetType.DOMAIN, domainName));
+      assertThat(lockIndex).isAtLeast(1);
+      assertThat(lockIndex).isAtMost(7);
+      assertThat(ReadDnsQueueAction.getLockIndex(
+              "co.uk", 7, RefreshItem.create(TargetType.HOST, "ns1.sub." + domainName)))
+          .isEqualTo(lockIndex);
+    }
+  }
+
+  @Test
+  public void testGetLockIndex_singleLock() throws Exception {
+    assertThat(ReadDnsQueueAction.getLockIndex(
+            "com", 1, RefreshItem.create(TargetType.DOMAIN, "domain.com")))
+        .isEqualTo(1);
+  }
 }
@@ -20,6 +20,7 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.DatastoreHelper.persistResources;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -103,6 +104,8 @@ public class CloudDnsWriterTest {
             "zoneName",
             DEFAULT_TTL,
             RateLimiter.create(20),
+            10,  // numThreads
+            100,  // maxNamesPerChange
             new SystemClock(),
             new Retrier(new SystemSleeper(), 5));
 
@@ -413,6 +416,7 @@ public class CloudDnsWriterTest {
   @SuppressWarnings("unchecked")
   public void retryMutateZoneOnError() throws Exception {
     try (CloudDnsWriter spyWriter = spy(writer)) {
+      spyWriter.publishDomain("example.tld");
       when(mutateZoneCallable.call()).thenThrow(ZoneStateException.class).thenReturn(null);
       when(spyWriter.getMutateZoneCallback(
               Matchers.<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>>any()))
@@ -467,4 +471,102 @@ public class CloudDnsWriterTest {
 
     verifyZone(ImmutableSet.<ResourceRecordSet>of());
   }
+
+  /** Returns a writer that talks to {@code fakeCloudDns} instead of the Mockito-stubbed API. */
+  private static CloudDnsWriter createWriter(
+      FakeCloudDns fakeCloudDns, int numThreads, int maxNamesPerChange) {
+    return new CloudDnsWriter(
+        fakeCloudDns.createClient(),
+        "projectId",
+        "zoneName",
+        DEFAULT_TTL,
+        RateLimiter.create(1000000),
+        numThreads,
+        maxNamesPerChange,
+        new SystemClock(),
+        new Retrier(new SystemSleeper(), 5));
+  }
+
+  /** Persists {@code count} domains that each use the same external nameserver. */
+  private static ImmutableSet<ResourceRecordSet> persistDomains(int count) {
+    HostResource nameserver = persistResource(fakeHost("0.external"));
+    ImmutableList.Builder<DomainResource> domains = new ImmutableList.Builder<>();
+    ImmutableSet.Builder<ResourceRecordSet> expectedRecords = new ImmutableSet.Builder<>();
+    for (int i = 0; i < count; i++) {
+      domains.add(fakeDomain("example" + i + ".tld", ImmutableSet.of(nameserver), 0));
+      expectedRecords.addAll(fakeDomainRecords("example" + i + ".tld", 0, 0, 1, 0));
+    }
+    persistResources(domains.build());
+    return expectedRecords.build();
+  }
+
+  @Test
+  public void testPartitionIntoChangeSets_keepsSubordinateHostsWithTheirDomain() throws Exception {
+    ImmutableSet<ResourceRecordSet> noRecords = ImmutableSet.of();
+    ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords =
+        new ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>()
+            .put("a.tld.", noRecords)
+            .put("ns1.a.tld.", noRecords)
+            .put("b.tld.", noRecords)
+            .put("ns2.a.tld.", noRecords)
+            .put("c.tld.", noRecords)
+            .build();
+
+    assertThat(createWriter(new FakeCloudDns(), 1, 2).partitionIntoChangeSets(desiredRecords))
+        .containsExactly(
+            ImmutableMap.of("a.tld.", noRecords, "ns1.a.tld.", noRecords, "ns2.a.tld.", noRecords),
+            ImmutableMap.of("b.tld.", noRecords, "c.tld.", noRecords))
+        .inOrder();
+  }
+
+  @Test
+  public void testPartitionIntoChangeSets_spreadsSmallBatchesOverAllThreads() throws Exception {
+    ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>> desiredRecords =
+        new ImmutableMap.Builder<>();
+    for (int i = 0; i < 40; i++) {
+      desiredRecords.put("example" + i + ".tld.", ImmutableSet.<ResourceRecordSet>of());
+    }
+
+    assertThat(createWriter(new FakeCloudDns(), 10, 100)
+            .partitionIntoChangeSets(desiredRecords.build()))
+        .hasSize(10);
+  }
+
+  @Test
+  public void testClose_thousandNames_chunkedAndBoundedConcurrency() throws Exception {
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    for (int i = 0; i < 1000; i++) {
+      fakeCloudDns.addRecords(fakeDomainRecords("example" + i + ".tld", 0, 0, 2, 1));
+    }
+    ImmutableSet<ResourceRecordSet> expectedRecords = persistDomains(1000);
+    CloudDnsWriter fakeWriter = createWriter(fakeCloudDns, 10, 100);
+    for (int i = 0; i < 1000; i++) {
+      fakeWriter.publishDomain("example" + i + ".tld");
+    }
+
+    fakeWriter.close();
+
+    assertThat(fakeCloudDns.getRecords()).containsExactlyElementsIn(expectedRecords);
+    assertThat(fakeCloudDns.getListRequests()).isEqualTo(1000);
+    assertThat(fakeCloudDns.getChangeRequests()).isEqualTo(10);
+    assertThat(fakeCloudDns.getMaxActiveRequests()).isAtMost(10);
+  }
+
+  @Test
+  public void testClose_conflict_onlyRetriesConflictingChangeSet() throws Exception {
+    FakeCloudDns fakeCloudDns = new FakeCloudDns();
+    ImmutableSet<ResourceRecordSet> expectedRecords = persistDomains(1000);
+    fakeCloudDns.failNextChangeFor("example5.tld.");
+    CloudDnsWriter fakeWriter = createWriter(fakeCloudDns, 10, 100);
+    for (int i = 0; i < 1000; i++) {
+      fakeWriter.publishDomain("example" + i + ".tld");
+    }
+
+    fakeWriter.close();
+
+    assertThat(fakeCloudDns.getRecords()).containsExactlyElementsIn(expectedRecords);
+    // Only the 100 names in the change set containing the conflicting name are fetched again.
+    assertThat(fakeCloudDns.getListRequests()).isEqualTo(1100);
+    assertThat(fakeCloudDns.getChangeRequests()).isEqualTo(11);
+  }
 }
@@ -0,0 +1,192 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.clouddns;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.dns.Dns;
+import com.google.api.services.dns.model.Change;
+import com.google.api.services.dns.model.ResourceRecordSet;
+import com.google.api.services.dns.model.ResourceRecordSetsListResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory fake of the Cloud DNS API, served through a {@link MockHttpTransport}.
+ *
+ * <p>Unlike a Mockito-stubbed {@link Dns}, this is safe to call from multiple threads at once. It
+ * implements the subset of the API used by {@link CloudDnsWriter}: listing the record sets for a
+ * name and atomically applying a {@link Change}, including the documented precondition checks.
+ */
+final class FakeCloudDns extends MockHttpTransport {
+
+  private static final JsonFactory JSON_FACTORY = new JacksonFactory();
+
+  /** Record sets in the zone, keyed by name and type. */
+  private final Map<String, ResourceRecordSet> zone = new LinkedHashMap<>();
+
+  /** Names for which the next change will fail as if they had been modified concurrently. */
+  private final Set<String> namesToConflict = new HashSet<>();
+
+  private final AtomicInteger listRequests = new AtomicInteger();
+  private final AtomicInteger changeRequests = new AtomicInteger();
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicInteger maxActiveRequests = new AtomicInteger();
+
+  /** Returns a {@link Dns} client that talks to this fake. */
+  Dns createClient() {
+    return new Dns.Builder(this, JSON_FACTORY, null).setApplicationName("test").build();
+  }
+
+  synchronized void addRecords(Iterable<ResourceRecordSet> records) {
+    for (ResourceRecordSet record : records) {
+      zone.put(getKey(record), record);
+    }
+  }
+
+  synchronized ImmutableSet<ResourceRecordSet> getRecords() {
+    return ImmutableSet.copyOf(zone.values());
+  }
+
+  /** Makes the next change that touches {@code name} fail with {@code preconditionFailed}. */
+  synchronized void failNextChangeFor(String name) {
+    namesToConflict.add(name);
+  }
+
+  int getListRequests() {
+    return listRequests.get();
+  }
+
+  int getChangeRequests() {
+    return changeRequests.get();
+  }
+
+  /** Returns the largest number of requests that were ever being served at the same time. */
+  int getMaxActiveRequests() {
+    return maxActiveRequests.get();
+  }
+
+  @Override
+  public LowLevelHttpRequest buildRequest(final String method, final String url) {
+    return new MockLowLevelHttpRequest(url) {
+      @Override
+      public LowLevelHttpResponse execute() throws IOException {
+        int active = activeRequests.incrementAndGet();
+        try {
+          int max = maxActiveRequests.get();
+          while (active > max && !maxActiveRequests.compareAndSet(max, active)) {
+            max = maxActiveRequests.get();
+          }
+          // Give other threads a chance to overlap with this request, as a real server would.
+          Thread.yield();
+          GenericUrl genericUrl = new GenericUrl(url);
+          List<String> path = genericUrl.getPathParts();
+          String collection = path.get(path.size() - 1);
+          if (method.equals("GET") && collection.equals("rrsets")) {
+            listRequests.incrementAndGet();
+            return jsonResponse(200, list((String) genericUrl.getFirst("name")));
+          }
+          if (method.equals("POST") && collection.equals("changes")) {
+            changeRequests.incrementAndGet();
+            Change change = JSON_FACTORY.fromString(getContentAsString(), Change.class);
+            String errorReason = apply(change);
+            return errorReason == null
+                ? jsonResponse(200, JSON_FACTORY.toString(change))
+                : jsonResponse(
+                    412,
+                    String.format(
+                        "{\"error\":{\"code\":412,\"message\":\"%s\",\"errors\":[{"
+                            + "\"domain\":\"global\",\"reason\":\"%s\",\"message\":\"%s\"}]}}",
+                        errorReason,
+                        errorReason,
+                        errorReason));
+          }
+          throw new UnsupportedOperationException(method + " " + url);
+        } finally {
+          activeRequests.decrementAndGet();
+        }
+      }
+    };
+  }
+
+  private synchronized String list(String name) throws IOException {
+    List<ResourceRecordSet> records = new ArrayList<>();
+    for (ResourceRecordSet record : zone.values()) {
+      if (record.getName().equals(name)) {
+        records.add(record);
+      }
+    }
+    return JSON_FACTORY.toString(new ResourceRecordSetsListResponse().setRrsets(records));
+  }
+
+  /** Applies the change atomically, returning the error reason if it cannot be applied. */
+  private synchronized String apply(Change change) throws IOException {
+    List<ResourceRecordSet> deletions = nullToEmpty(change.getDeletions());
+    List<ResourceRecordSet> additions = nullToEmpty(change.getAdditions());
+    for (ResourceRecordSet record : Iterables.concat(deletions, additions)) {
+      if (namesToConflict.remove(record.getName())) {
+        return "preconditionFailed";
+      }
+    }
+    Set<String> deletedKeys = new HashSet<>();
+    for (ResourceRecordSet deletion : deletions) {
+      ResourceRecordSet existing = zone.get(getKey(deletion));
+      if (existing == null
+          || !JSON_FACTORY.toString(existing).equals(JSON_FACTORY.toString(deletion))) {
+        return "notFound";
+      }
+      deletedKeys.add(getKey(deletion));
+    }
+    for (ResourceRecordSet addition : additions) {
+      if (zone.containsKey(getKey(addition)) && !deletedKeys.contains(getKey(addition))) {
+        return "alreadyExists";
+      }
+    }
+    zone.keySet().removeAll(deletedKeys);
+    addRecords(additions);
+    return null;
+  }
+
+  private static List<ResourceRecordSet> nullToEmpty(List<ResourceRecordSet> records) {
+    return records == null ? ImmutableList.<ResourceRecordSet>of() : records;
+  }
+
+  private static String getKey(ResourceRecordSet record) {
+    return record.getName() + "/" + record.getType();
+  }
+
+  private static MockLowLevelHttpResponse jsonResponse(int statusCode, String content) {
+    return new MockLowLevelHttpResponse()
+        .setStatusCode(statusCode)
+        .setContentType(Json.MEDIA_TYPE)
+        .setContent(content);
+  }
+}
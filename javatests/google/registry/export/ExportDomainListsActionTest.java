@@ -30,11 +30,16 @@ import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.ListOptions;
 import com.google.appengine.tools.cloudstorage.ListResult;
 import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldType;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.mapreduce.MapreduceTestCase;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.util.zip.GZIPInputStream;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,7 +63,9 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     action.response = new FakeResponse();
     action.gcsBucket = "outputbucket";
     action.gcsBufferSize = 500;
+    action.streaming = false;
     gcsService = createGcsService();
+    action.gcsUtils = new GcsUtils(gcsService, 500);
   }
 
   private void runMapreduce() throws Exception {
@@ -130,4 +137,58 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     // Check that it didn't output nagajolokia.tld.
     assertThat(Splitter.on('\n').splitToList(tlds)).containsExactly("chilipepper.tld");
   }
+
+  private String readGzippedGcsFile(String filename) throws Exception {
+    byte[] bytes = readGcsFile(gcsService, new GcsFilename("outputbucket", filename));
+    try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return new String(ByteStreams.toByteArray(input), UTF_8);
+    }
+  }
+
+  @Test
+  public void test_streaming_outputsSortedGzippedListsOfActiveDomainsOnRealTlds()
+      throws Exception {
+    action.streaming = true;
+    persistActiveDomain("rudnitzky.tld");
+    persistActiveDomain("onetwo.tld");
+    persistDeletedDomain("mortuary.tld", DateTime.parse("2001-03-14T10:11:12Z"));
+    persistActiveDomainApplication("nagajolokia.tld");
+    persistActiveDomain("wontgo.testtld");
+    action.run();
+    assertThat(((FakeResponse) action.response).getPayload())
+        .isEqualTo("Exported domain lists for 1 TLDs.");
+    assertThat(readGzippedGcsFile("tld.txt.gz")).isEqualTo("onetwo.tld\nrudnitzky.tld\n");
+    assertThat(readGzippedGcsFile("tld.delta.txt.gz")).isEqualTo("+onetwo.tld\n+rudnitzky.tld\n");
+    // Nothing was written for the test TLD, and the temporary sorted runs were cleaned up.
+    ListResult ls = gcsService.list("outputbucket", ListOptions.DEFAULT);
+    assertThat(ls.next().getName()).isEqualTo("tld.delta.txt.gz");
+    assertThat(ls.next().getName()).isEqualTo("tld.txt.gz");
+    assertThat(ls.hasNext()).isFalse();
+  }
+
+  @Test
+  public void test_streaming_deltaContainsAddedAndRemovedDomains() throws Exception {
+    action.streaming = true;
+    // Force the names to be sorted across several runs.
+    action.maxNamesInMemory = 2;
+    persistActiveDomain("apple.tld");
+    DomainResource banana = persistActiveDomain("banana.tld");
+    persistActiveDomain("cherry.tld");
+    DomainResource zucchini = persistActiveDomain("zucchini.tld");
+    action.run();
+    assertThat(readGzippedGcsFile("tld.txt.gz"))
+        .isEqualTo("apple.tld\nbanana.tld\ncherry.tld\nzucchini.tld\n");
+
+    persistResource(
+        banana.asBuilder().setDeletionTime(DateTime.parse("2001-03-14T10:11:12Z")).build());
+    persistResource(
+        zucchini.asBuilder().setDeletionTime(DateTime.parse("2001-03-14T10:11:12Z")).build());
+    persistActiveDomain("aardvark.tld");
+    persistActiveDomain("date.tld");
+    action.run();
+    assertThat(readGzippedGcsFile("tld.txt.gz"))
+        .isEqualTo("aardvark.tld\napple.tld\ncherry.tld\ndate.tld\n");
+    assertThat(readGzippedGcsFile("tld.delta.txt.gz"))
+        .isEqualTo("+aardvark.tld\n-banana.tld\n+date.tld\n-zucchini.tld\n");
+  }
 }
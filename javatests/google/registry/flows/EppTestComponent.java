@@ -36,6 +36,7 @@ import google.registry.tmch.TmchXmlSignature;
 import google.registry.util.Clock;
 import google.registry.util.Sleeper;
 import javax.inject.Singleton;
+import org.joda.time.Duration;
 
 /** Dagger component for running EPP tests. */
 @Singleton
@@ -65,12 +66,17 @@ interface EppTestComponent {
     }
 
     FakesAndMocksModule(FakeClock clock, boolean tmchCaTestingMode) {
+      this(clock, tmchCaTestingMode, Duration.ZERO);
+    }
+
+    FakesAndMocksModule(
+        FakeClock clock, boolean tmchCaTestingMode, Duration dnsRefreshCoalescingWindow) {
       this.clock = clock;
       this.domainFlowTmchUtils =
           new DomainFlowTmchUtils(
               new TmchXmlSignature(new TmchCertificateAuthority(tmchCaTestingMode)));
       this.sleeper = new FakeSleeper(clock);
-      this.dnsQueue = DnsQueue.create();
+      this.dnsQueue = DnsQueue.createForTesting(clock, dnsRefreshCoalescingWindow);
       this.metricBuilder = EppMetric.builderForRequest("request-id-1", clock);
       this.modulesService = mock(ModulesService.class);
       this.metricsEnqueuer = mock(BigQueryMetricsEnqueuer.class);
@@ -0,0 +1,107 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
+import google.registry.testing.AppEngineRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FlowLookupCache}. */
+@RunWith(JUnit4.class)
+public class FlowLookupCacheTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  /** A loader that records the keys it was asked for before loading them from datastore. */
+  private static class RecordingLoader implements ForeignKeyIndex.BatchLoader {
+    final List<Set<Key<ForeignKeyIndex<?>>>> requests = new ArrayList<>();
+
+    @Override
+    public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> load(
+        Set<Key<ForeignKeyIndex<?>>> keys) {
+      requests.add(keys);
+      return ForeignKeyIndex.TRANSACTIONLESS_BATCH_LOADER.load(keys);
+    }
+  }
+
+  @Test
+  public void testGetRegistry_isMemoized() throws Exception {
+    createTld("tld");
+    FlowLookupCache cache = new FlowLookupCache();
+    assertThat(cache.getRegistry("tld").getTldStr()).isEqualTo("tld");
+    assertThat(cache.getRegistry("tld")).isSameAs(cache.getRegistry("tld"));
+    // The registry is already cached by the process, so these aren't counted as loads.
+    assertThat(cache.getDatastoreLoads()).isEqualTo(0);
+  }
+
+  @Test
+  public void testGetRegistrar_isMemoized() throws Exception {
+    FlowLookupCache cache = new FlowLookupCache();
+    assertThat(cache.getRegistrar("TheRegistrar").getClientId()).isEqualTo("TheRegistrar");
+    assertThat(cache.getRegistrar("TheRegistrar")).isSameAs(cache.getRegistrar("TheRegistrar"));
+    assertThat(cache.getDatastoreLoads()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGetRegistrar_missingRegistrarIsMemoized() throws Exception {
+    FlowLookupCache cache = new FlowLookupCache();
+    assertThat(cache.getRegistrar("NoSuchRegistrar")).isNull();
+    assertThat(cache.getRegistrar("NoSuchRegistrar")).isNull();
+    assertThat(cache.getDatastoreLoads()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLoad_onlyLoadsMissesInOneBatch() throws Exception {
+    createTld("tld");
+    persistActiveHost("ns1.example.tld");
+    persistActiveContact("jd1234");
+    Key<ForeignKeyIndex<?>> hostKey =
+        ForeignKeyIndex.createKey(HostResource.class, "ns1.example.tld");
+    Key<ForeignKeyIndex<?>> contactKey = ForeignKeyIndex.createKey(ContactResource.class, "jd1234");
+    Key<ForeignKeyIndex<?>> missingKey =
+        ForeignKeyIndex.createKey(HostResource.class, "ns2.example.tld");
+    RecordingLoader loader = new RecordingLoader();
+    FlowLookupCache cache = new FlowLookupCache(loader);
+    assertThat(cache.load(ImmutableSet.of(hostKey, missingKey)).keySet())
+        .containsExactly(hostKey);
+    assertThat(cache.load(ImmutableSet.of(hostKey, contactKey, missingKey)).keySet())
+        .containsExactly(hostKey, contactKey);
+    assertThat(cache.load(ImmutableSet.of(contactKey, missingKey)).keySet())
+        .containsExactly(contactKey);
+    assertThat(loader.requests)
+        .containsExactly(ImmutableSet.of(hostKey, missingKey), ImmutableSet.of(contactKey))
+        .inOrder();
+    assertThat(cache.getDatastoreLoads()).isEqualTo(2);
+  }
+}
@@ -29,8 +29,11 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.testing.TestLogHandler;
+import com.googlecode.objectify.Key;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
@@ -39,6 +42,7 @@ import google.registry.testing.Providers;
 import google.registry.testing.ShardableTestCase;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.json.simple.JSONValue;
@@ -79,6 +83,7 @@ public class FlowRunnerTest extends ShardableTestCase {
     flowRunner.isDryRun = false;
     flowRunner.isSuperuser = false;
     flowRunner.isTransactional = false;
+    flowRunner.lookupCache = new FlowLookupCache();
     flowRunner.metric = EppMetric.builderForRequest("request-id-1", new FakeClock());
     flowRunner.sessionMetadata =
         new StatelessRequestSessionMetadata("TheRegistrar", ImmutableSet.<String>of());
@@ -103,6 +108,29 @@ public class FlowRunnerTest extends ShardableTestCase {
     assertThat(flowRunner.metric.build().getAttempts()).isEqualTo(1);
   }
 
+  @Test
+  public void testRun_recordsDatastoreLoadsInMetric() throws Exception {
+    final Key<ForeignKeyIndex<?>> key = ForeignKeyIndex.createKey(HostResource.class, "ns1.tld");
+    final EppResponse eppResponse = mock(EppResponse.class);
+    flowRunner.lookupCache = new FlowLookupCache(new ForeignKeyIndex.BatchLoader() {
+      @Override
+      public Map<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> load(
+          Set<Key<ForeignKeyIndex<?>>> keys) {
+        return ImmutableMap.of();
+      }});
+    flowRunner.flowProvider =
+        Providers.<Flow>of(
+            new Flow() {
+              @Override
+              public EppResponse run() {
+                flowRunner.lookupCache.load(ImmutableSet.of(key));
+                flowRunner.lookupCache.load(ImmutableSet.of(key));
+                return eppResponse;
+              }});
+    flowRunner.run();
+    assertThat(flowRunner.metric.build().getDatastoreLoads()).hasValue(1);
+  }
+
   @Test
   public void testRun_isTransactional_incrementsMetricAttempts() throws Exception {
     flowRunner.isTransactional = true;
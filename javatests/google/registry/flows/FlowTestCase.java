@@ -33,6 +33,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import google.registry.dns.DnsQueue;
 import google.registry.flows.EppTestComponent.FakesAndMocksModule;
 import google.registry.flows.picker.FlowPicker;
 import google.registry.model.billing.BillingEvent;
@@ -58,6 +59,7 @@ import google.registry.xml.ValidationMode;
 import java.util.List;
 import java.util.Map;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.runner.RunWith;
@@ -277,7 +279,8 @@ public abstract class FlowTestCase<F extends Flow> extends ShardableTestCase {
         .isEqualTo(new TypeInstantiator<F>(getClass()){}.getExactType());
     // Run the flow.
     return DaggerEppTestComponent.builder()
-        .fakesAndMocksModule(new FakesAndMocksModule(clock, tmchCaTestingMode))
+        .fakesAndMocksModule(
+            new FakesAndMocksModule(clock, tmchCaTestingMode, dnsRefreshCoalescingWindow))
         .build()
         .startRequest()
         .flowComponentBuilder()
@@ -345,6 +348,14 @@ public abstract class FlowTestCase<F extends Flow> extends ShardableTestCase {
     tmchCaTestingMode = false;
   }
 
+  private Duration dnsRefreshCoalescingWindow = Duration.ZERO;
+
+  /** Makes the flows coalesce DNS refresh requests, which unit tests don't do by default. */
+  protected void setDnsRefreshCoalescingWindow(Duration window) {
+    dnsRefreshCoalescingWindow = window;
+    DnsQueue.clearCommittedTasks();
+  }
+
   public EppOutput dryRunFlowAssertResponse(String xml, String... ignoredPaths) throws Exception {
     List<Object> beforeEntities = ofy().load().list();
     EppOutput output =
@@ -52,6 +52,7 @@ import google.registry.flows.exceptions.TooManyResourceChecksException;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.launch.ApplicationStatus;
 import google.registry.model.domain.launch.LaunchPhase;
+import google.registry.model.eppoutput.CheckData;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
@@ -250,6 +251,37 @@ public class DomainCheckFlowTest
         create(true, "example3.tld", null));
   }
 
+  @Test
+  public void testSuccess_50Ids_mixedAvailability() throws Exception {
+    createTld("tld", TldState.GENERAL_AVAILABILITY);
+    persistResource(
+        Registry.get("tld")
+            .asBuilder()
+            .setReservedLists(persistReservedList("tld-reserved", "www5,FULLY_BLOCKED"))
+            .build());
+    persistResource(newDomainApplication("www2.tld"));
+    persistResource(newDomainApplication("www3.tld").asBuilder()
+        .setApplicationStatus(ApplicationStatus.REJECTED)
+        .build());
+    persistResource(newDomainApplication("www6.tld").asBuilder()
+        .setPhase(LaunchPhase.LANDRUSH)
+        .build());
+    persistActiveDomain("www4.tld");
+    ImmutableMap<String, String> unavailable = ImmutableMap.of(
+        "www2.tld", "Pending allocation",
+        "www4.tld", "In use",
+        "www5.tld", "Reserved",
+        "www6.tld", "Pending allocation");
+    CheckData.Check[] expected = new CheckData.Check[50];
+    for (int i = 0; i < 50; i++) {
+      String domainName = String.format("www%d.tld", i + 1);
+      String message = unavailable.get(domainName);
+      expected[i] = create(message == null, domainName, message);
+    }
+    setEppInput("domain_check_50.xml");
+    doCheckTest(expected);
+  }
+
   @Test
   public void testFailure_tooManyIds() throws Exception {
     setEppInput("domain_check_51.xml");
@@ -34,6 +34,7 @@ import static google.registry.testing.DomainResourceSubject.assertAboutDomains;
 import static google.registry.testing.HistoryEntrySubject.assertAboutHistoryEntries;
 import static google.registry.testing.TaskQueueHelper.assertDnsTasksEnqueued;
 import static org.joda.money.CurrencyUnit.USD;
+import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -83,6 +84,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -162,6 +164,21 @@ public class DomainUpdateFlowTest extends ResourceFlowTestCase<DomainUpdateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_burstOfUpdates_getsOneDnsTask() throws Exception {
+    createTld("com");
+    setEppInput("domain_update_authinfo.xml");
+    persistResource(newDomainResource(getUniqueIdFromCommand()));
+    setDnsRefreshCoalescingWindow(Duration.standardSeconds(30));
+    // Start at the beginning of a coalescing window, so that all of the updates fall within it.
+    clock.setTo(new DateTime((clock.nowUtc().getMillis() / 30000 + 1) * 30000, UTC));
+    for (int i = 0; i < 10; i++) {
+      runFlowAssertResponse(readFile("domain_update_response.xml"));
+      clock.advanceBy(Duration.standardSeconds(1));
+    }
+    assertDnsTasksEnqueued("example.com");
+  }
+
   private void doSunrushAddTest(
       BillingEvent.OneTime sunrushAddBillingEvent,
       UserPrivileges userPrivileges,
@@ -0,0 +1,61 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+/**
+ * The EPP commands the {@link EppLoadGenerator} runs, each of which is reported on separately.
+ *
+ * <p>The default weights give a mix like the one {@link LoadTestAction} is usually run with, which
+ * is mostly checks and infos, plus the writes that change the state of existing domains.
+ */
+enum EppLoadFlow {
+  CONTACT_CREATE(3),
+  CONTACT_INFO(5),
+  HOST_CREATE(3),
+  HOST_INFO(5),
+  DOMAIN_CHECK(20),
+  DOMAIN_CREATE(5),
+  DOMAIN_INFO(20),
+  DOMAIN_UPDATE(3),
+  DOMAIN_RENEW(2),
+
+  /** A transfer request by the other registrar, which is always followed by its approval. */
+  DOMAIN_TRANSFER_REQUEST(1),
+
+  /** Only run directly after {@link #DOMAIN_TRANSFER_REQUEST}. */
+  DOMAIN_TRANSFER_APPROVE(0),
+
+  /** A poll request, which is followed by an ack if there was a message to dequeue. */
+  POLL_REQUEST(3),
+
+  /** Only run directly after a {@link #POLL_REQUEST} that returned a message. */
+  POLL_ACK(0);
+
+  private final int defaultWeight;
+
+  EppLoadFlow(int defaultWeight) {
+    this.defaultWeight = defaultWeight;
+  }
+
+  /** Returns the relative frequency of this flow in the default workload. */
+  int getDefaultWeight() {
+    return defaultWeight;
+  }
+
+  /** Returns whether this flow is only ever run as a follow-up to another one. */
+  boolean isFollowUp() {
+    return this == DOMAIN_TRANSFER_APPROVE || this == POLL_ACK;
+  }
+}
@@ -0,0 +1,694 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static google.registry.flows.EppXmlTransformer.marshalWithLenientRetry;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.domain.DomainResource.MAX_REGISTRATION_YEARS;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.TestDataHelper.loadFileWithSubstitutions;
+import static google.registry.util.ResourceUtils.readResourceUtf8;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.TreeMultiset;
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import com.sun.management.ThreadMXBean;
+import google.registry.flows.EppRequestSource;
+import google.registry.flows.PasswordOnlyTransportCredentials;
+import google.registry.flows.StatelessRequestSessionMetadata;
+import google.registry.loadtest.EppLoadReport.FlowReport;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.eppcommon.ProtocolDefinition;
+import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.eppoutput.Result;
+import google.registry.testing.DatastoreRpcCounter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Runs a mixed workload of EPP commands in-process, and reports how each flow performed.
+ *
+ * <p>This is the local counterpart of {@link LoadTestAction}. Rather than enqueueing tasks that hit
+ * the tool endpoint of a deployed registry, it runs the commands directly through {@link
+ * google.registry.flows.EppController} against the local datastore of an {@link
+ * google.registry.testing.AppEngineRule}, which must be set up on the thread that calls {@link
+ * #run}. It can therefore compare builds without any network or external services.
+ *
+ * <p>The run starts with a warm-up phase, whose commands aren't measured, followed by a
+ * steady-state phase that is. In {@link Mode#CLOSED_LOOP} mode, each of the workers issues its next
+ * command as soon as its last one returns. In {@link Mode#OPEN_LOOP} mode, commands are issued at a
+ * fixed rate regardless of how long they take, and queue for a free worker, so their latency
+ * includes the time spent queued.
+ *
+ * <p>Creates make new resources. Updates, renews and transfers work through a pool of domains that
+ * each worker takes one from at a time, so that concurrent commands never contend for the same
+ * domain. Each transfer request is approved straight away, and each poll request that returns a
+ * message is followed by an ack, so that repeated runs don't build up pending state.
+ *
+ * <p>Datastore RPCs and allocations are counted on the thread that runs each command. Since the
+ * local datastore serves RPCs on the calling thread, the allocation figures include its work too,
+ * and so are only meaningful in comparison with other local runs.
+ */
+final class EppLoadGenerator {
+
+  /** How commands are issued. */
+  enum Mode {
+    /** Each worker issues its next command as soon as its last one returns. */
+    CLOSED_LOOP,
+
+    /** Commands are issued at a fixed rate, and queue for a free worker. */
+    OPEN_LOOP
+  }
+
+  static final String TLD = "example";
+
+  private static final String CLIENT_ID = "TheRegistrar";
+  private static final String OTHER_CLIENT_ID = "NewRegistrar";
+
+  private static final String EXISTING_CONTACT = "contact";
+  private static final String EXISTING_HOST = "ns1";
+  private static final String EXISTING_DOMAIN = "testdomain";
+
+  /** EPP result codes of 2000 and above are errors. */
+  private static final int FIRST_ERROR_CODE = 2000;
+
+  private static final Pattern MESSAGE_ID_PATTERN = Pattern.compile("<msgQ[^>]* id=\"([^\"]+)\"");
+
+  private static final ThreadMXBean threadMxBean = getThreadMxBean();
+
+  private final Mode mode;
+  private final int concurrency;
+  private final int targetRate;
+  private final Duration warmUp;
+  private final Duration steadyState;
+  private final long maxOperations;
+
+  /** The flows in the order they are run, which repeats, with each appearing by its weight. */
+  private final ImmutableList<EppLoadFlow> schedule;
+
+  private final EppLoadTestComponent component = DaggerEppLoadTestComponent.create();
+  private final ImmutableMap<EppLoadFlow, FlowRecorder> recorders;
+  private final AtomicLong nextOperation = new AtomicLong();
+  private final AtomicLong nextName = new AtomicLong();
+  private final AtomicLong measuredOperations = new AtomicLong();
+  private final BlockingQueue<String> domainPool = new LinkedBlockingQueue<>();
+
+  private final String xmlContactCreateTmpl;
+  private final String xmlContactInfo;
+  private final String xmlDomainCheck;
+  private final String xmlDomainCreateTmpl;
+  private final String xmlDomainInfo;
+  private final String xmlHostCreateTmpl;
+  private final String xmlHostInfo;
+
+  private DatastoreRpcCounter rpcCounter;
+
+  private EppLoadGenerator(Builder builder) {
+    this.mode = builder.mode;
+    this.concurrency = builder.concurrency;
+    this.targetRate = builder.targetRate;
+    this.warmUp = builder.warmUp;
+    this.steadyState = builder.steadyState;
+    this.maxOperations = builder.maxOperations;
+    List<EppLoadFlow> schedule = new ArrayList<>();
+    for (Map.Entry<EppLoadFlow, Integer> entry : builder.weights.entrySet()) {
+      schedule.addAll(Collections.nCopies(entry.getValue(), entry.getKey()));
+    }
+    // Interleave the flows, but in the same order on every run.
+    Collections.shuffle(schedule, new Random(builder.seed));
+    this.schedule = ImmutableList.copyOf(schedule);
+    Map<EppLoadFlow, FlowRecorder> recorders = new EnumMap<>(EppLoadFlow.class);
+    for (EppLoadFlow flow : EppLoadFlow.values()) {
+      recorders.put(flow, new FlowRecorder());
+    }
+    this.recorders = Maps.immutableEnumMap(recorders);
+    xmlContactCreateTmpl = loadXml("contact_create");
+    xmlContactInfo = loadXml("contact_info").replace("%contact%", EXISTING_CONTACT);
+    xmlDomainCheck =
+        loadXml("domain_check").replace("%tld%", TLD).replace("%domain%", EXISTING_DOMAIN);
+    xmlDomainCreateTmpl =
+        loadXml("domain_create")
+            .replace("%tld%", TLD)
+            .replace("%contact%", EXISTING_CONTACT)
+            .replace("%host%", EXISTING_HOST);
+    xmlDomainInfo =
+        loadXml("domain_info").replace("%tld%", TLD).replace("%domain%", EXISTING_DOMAIN);
+    xmlHostCreateTmpl = loadXml("host_create");
+    xmlHostInfo = loadXml("host_info").replace("%host%", EXISTING_HOST);
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** Creates the fixtures, runs the workload, and returns the report of the steady state. */
+  EppLoadReport run() throws Exception {
+    createFixtures();
+    rpcCounter = DatastoreRpcCounter.install();
+    try {
+      long steadyStateNanos = mode == Mode.CLOSED_LOOP ? runClosedLoop() : runOpenLoop();
+      return createReport(steadyStateNanos);
+    } finally {
+      rpcCounter.uninstall();
+    }
+  }
+
+  private void createFixtures() {
+    createTld(TLD);
+    runFixtureCommand(CLIENT_ID, xmlContactCreateTmpl.replace("%contact%", EXISTING_CONTACT));
+    runFixtureCommand(CLIENT_ID, xmlHostCreateTmpl.replace("%host%", EXISTING_HOST));
+    runFixtureCommand(CLIENT_ID, xmlDomainCreateTmpl.replace("%domain%", EXISTING_DOMAIN));
+    // Enough that a worker never waits for a domain, even if all the others are holding one.
+    for (int i = 0; i < concurrency * 2; i++) {
+      domainPool.add(createPoolDomain());
+    }
+  }
+
+  /** Runs the workload in closed-loop mode, and returns the length of the steady state. */
+  private long runClosedLoop() throws Exception {
+    long startNanos = System.nanoTime();
+    final long steadyStateStartNanos = startNanos + warmUp.getMillis() * 1000000;
+    final long steadyStateEndNanos = steadyStateStartNanos + steadyState.getMillis() * 1000000;
+    ExecutorService executor = newExecutor();
+    try {
+      List<Future<Void>> workers = new ArrayList<>();
+      for (int i = 0; i < concurrency; i++) {
+        workers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            while (true) {
+              long now = System.nanoTime();
+              if (now >= steadyStateEndNanos || hasReachedMaxOperations()) {
+                return null;
+              }
+              runOperation(now, now >= steadyStateStartNanos);
+            }
+          }}));
+      }
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+      return System.nanoTime() - steadyStateStartNanos;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Runs the workload in open-loop mode, and returns the length of the steady state. */
+  private long runOpenLoop() throws Exception {
+    long startNanos = System.nanoTime();
+    long steadyStateStartNanos = startNanos + warmUp.getMillis() * 1000000;
+    long steadyStateEndNanos = steadyStateStartNanos + steadyState.getMillis() * 1000000;
+    long periodNanos = SECONDS.toNanos(1) / targetRate;
+    long dispatched = 0;
+    ExecutorService executor = newExecutor();
+    try {
+      List<Future<Void>> operations = new ArrayList<>();
+      for (long i = 0; ; i++) {
+        final long intendedStartNanos = startNanos + i * periodNanos;
+        final boolean measured = intendedStartNanos >= steadyStateStartNanos;
+        if (intendedStartNanos >= steadyStateEndNanos
+            || (measured && maxOperations > 0 && dispatched >= maxOperations)) {
+          break;
+        }
+        NANOSECONDS.sleep(intendedStartNanos - System.nanoTime());
+        operations.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            runOperation(intendedStartNanos, measured);
+            return null;
+          }}));
+        if (measured) {
+          dispatched++;
+        }
+      }
+      for (Future<Void> operation : operations) {
+        operation.get();
+      }
+      return System.nanoTime() - steadyStateStartNanos;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private boolean hasReachedMaxOperations() {
+    return maxOperations > 0 && measuredOperations.get() >= maxOperations;
+  }
+
+  /** Returns a thread pool whose threads can use the App Engine services of the calling thread. */
+  private ExecutorService newExecutor() {
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            runnable.run();
+          }});
+      }});
+  }
+
+  /**
+   * Runs the next operation of the workload.
+   *
+   * @param intendedStartNanos when the operation should have started, so that any time it spent
+   *     waiting for a worker counts towards its latency
+   * @param measured whether the operation is part of the steady state
+   */
+  private void runOperation(long intendedStartNanos, boolean measured)
+      throws InterruptedException {
+    long operation = nextOperation.getAndIncrement();
+    EppLoadFlow flow = schedule.get((int) (operation % schedule.size()));
+    if (measured) {
+      measuredOperations.incrementAndGet();
+    }
+    long queuedNanos = System.nanoTime() - intendedStartNanos;
+    switch (flow) {
+      case CONTACT_CREATE:
+        runCommand(flow, CLIENT_ID,
+            xmlContactCreateTmpl.replace("%contact%", newName("c")), queuedNanos, measured);
+        break;
+      case CONTACT_INFO:
+        runCommand(flow, CLIENT_ID, xmlContactInfo, queuedNanos, measured);
+        break;
+      case HOST_CREATE:
+        runCommand(flow, CLIENT_ID,
+            xmlHostCreateTmpl.replace("%host%", newName("h")), queuedNanos, measured);
+        break;
+      case HOST_INFO:
+        runCommand(flow, CLIENT_ID, xmlHostInfo, queuedNanos, measured);
+        break;
+      case DOMAIN_CHECK:
+        runCommand(flow, CLIENT_ID, xmlDomainCheck, queuedNanos, measured);
+        break;
+      case DOMAIN_CREATE:
+        runCommand(flow, CLIENT_ID,
+            xmlDomainCreateTmpl.replace("%domain%", newName("d")), queuedNanos, measured);
+        break;
+      case DOMAIN_INFO:
+        runCommand(flow, CLIENT_ID, xmlDomainInfo, queuedNanos, measured);
+        break;
+      case DOMAIN_UPDATE:
+      case DOMAIN_RENEW:
+      case DOMAIN_TRANSFER_REQUEST:
+        runPoolDomainOperation(flow, queuedNanos, measured);
+        break;
+      case POLL_REQUEST:
+        runPollOperation(
+            operation % 2 == 0 ? CLIENT_ID : OTHER_CLIENT_ID, queuedNanos, measured);
+        break;
+      default:
+        throw new IllegalStateException("Flow is only run as a follow-up: " + flow);
+    }
+  }
+
+  private void runPoolDomainOperation(EppLoadFlow flow, long queuedNanos, boolean measured)
+      throws InterruptedException {
+    DomainResource domain = takePoolDomain();
+    String domainName = domain.getFullyQualifiedDomainName();
+    String sponsor = domain.getCurrentSponsorClientId();
+    try {
+      switch (flow) {
+        case DOMAIN_UPDATE:
+          runCommand(
+              flow, sponsor, loadTestXml("domain_update", domainName), queuedNanos, measured);
+          break;
+        case DOMAIN_RENEW:
+          runCommand(
+              flow,
+              sponsor,
+              loadTestXml("domain_renew", domainName)
+                  .replace(
+                      "%curExpDate%",
+                      domain.getRegistrationExpirationTime().toLocalDate().toString()),
+              queuedNanos,
+              measured);
+          break;
+        case DOMAIN_TRANSFER_REQUEST: {
+          String gainingClientId = sponsor.equals(CLIENT_ID) ? OTHER_CLIENT_ID : CLIENT_ID;
+          CommandResult request = runCommand(
+              flow,
+              gainingClientId,
+              loadTestXml("domain_transfer_request", domainName),
+              queuedNanos,
+              measured);
+          if (request.code < FIRST_ERROR_CODE) {
+            runCommand(
+                EppLoadFlow.DOMAIN_TRANSFER_APPROVE,
+                sponsor,
+                loadTestXml("domain_transfer_approve", domainName),
+                0,
+                measured);
+          }
+          break;
+        }
+        default:
+          throw new IllegalArgumentException("Not a pool domain flow: " + flow);
+      }
+    } finally {
+      domainPool.add(domainName);
+    }
+  }
+
+  private void runPollOperation(String clientId, long queuedNanos, boolean measured) {
+    CommandResult poll = runCommand(
+        EppLoadFlow.POLL_REQUEST,
+        clientId,
+        loadFileWithSubstitutions(getClass(), "poll.xml", null),
+        queuedNanos,
+        measured);
+    if (poll.code == Result.Code.SUCCESS_WITH_ACK_MESSAGE.code) {
+      Matcher matcher = MESSAGE_ID_PATTERN.matcher(poll.xml);
+      checkState(matcher.find(), "Poll response has no message id: %s", poll.xml);
+      runCommand(
+          EppLoadFlow.POLL_ACK,
+          clientId,
+          loadFileWithSubstitutions(
+              getClass(), "poll_ack.xml", ImmutableMap.of("msgId", matcher.group(1))),
+          0,
+          measured);
+    }
+  }
+
+  /**
+   * Takes a domain from the pool, replacing it with a new one first if it can't be renewed or
+   * transferred for another year without going past the maximum registration period.
+   */
+  private DomainResource takePoolDomain() throws InterruptedException {
+    String domainName = domainPool.take();
+    DateTime now = DateTime.now(UTC);
+    DomainResource domain = loadByForeignKey(DomainResource.class, domainName, now);
+    if (domain.getRegistrationExpirationTime()
+        .isAfter(now.plusYears(MAX_REGISTRATION_YEARS - 1))) {
+      domain = loadByForeignKey(DomainResource.class, createPoolDomain(), now);
+    }
+    ofy().clearSessionCache();
+    return domain;
+  }
+
+  /** Creates a new domain for the pool, and returns its name. */
+  private String createPoolDomain() {
+    String label = newName("p");
+    runFixtureCommand(CLIENT_ID, xmlDomainCreateTmpl.replace("%domain%", label));
+    return label + "." + TLD;
+  }
+
+  /** Runs a command that isn't measured, and that has to succeed. */
+  private void runFixtureCommand(String clientId, String xml) {
+    CommandResult result = runCommand(null, clientId, xml, 0, false);
+    checkState(result.code < FIRST_ERROR_CODE, "Fixture command failed: %s", result.xml);
+  }
+
+  /**
+   * Runs an EPP command the way the tool endpoint does, recording its measurements under the given
+   * flow if it is {@code measured}.
+   */
+  private CommandResult runCommand(
+      EppLoadFlow flow, String clientId, String xml, long queuedNanos, boolean measured) {
+    // Start with an empty session cache, like OfyFilter does for each request.
+    ofy().clearSessionCache();
+    if (measured) {
+      rpcCounter.startCountingThread();
+    }
+    long allocatedBytesBefore = getAllocatedBytes();
+    long startNanos = System.nanoTime();
+    EppOutput output = component.startRequest().eppController().handleEppCommand(
+        new StatelessRequestSessionMetadata(
+            clientId, ProtocolDefinition.getVisibleServiceExtensionUris()),
+        new PasswordOnlyTransportCredentials(),
+        EppRequestSource.TOOL,
+        false,  // Not dryRun.
+        false,  // Not superuser.
+        xml.getBytes(UTF_8));
+    String responseXml = new String(marshalWithLenientRetry(output), UTF_8);
+    long latencyNanos = System.nanoTime() - startNanos + queuedNanos;
+    long allocatedBytes = getAllocatedBytes() - allocatedBytesBefore;
+    ofy().clearSessionCache();
+    int code = output.isResponse()
+        ? output.getResponse().getResult().getCode().code
+        : Result.Code.SUCCESS.code;
+    if (measured) {
+      recorders.get(flow)
+          .record(latencyNanos, code, rpcCounter.stopCountingThread(), allocatedBytes);
+    }
+    return new CommandResult(code, responseXml);
+  }
+
+  private String newName(String prefix) {
+    return prefix + "load" + nextName.incrementAndGet();
+  }
+
+  private EppLoadReport createReport(long steadyStateNanos) {
+    double seconds = Math.max(steadyStateNanos, 1) / 1e9;
+    ImmutableMap.Builder<EppLoadFlow, FlowReport> flows = new ImmutableMap.Builder<>();
+    long operations = 0;
+    long allocatedBytes = 0;
+    for (Map.Entry<EppLoadFlow, FlowRecorder> entry : recorders.entrySet()) {
+      FlowRecorder recorder = entry.getValue();
+      synchronized (recorder) {
+        if (recorder.count == 0) {
+          continue;
+        }
+        operations += recorder.count;
+        allocatedBytes += recorder.allocatedBytes;
+        flows.put(entry.getKey(), recorder.createReport(seconds));
+      }
+    }
+    return EppLoadReport.create(
+        mode,
+        concurrency,
+        mode == Mode.OPEN_LOOP ? targetRate : 0,
+        NANOSECONDS.toMillis(steadyStateNanos),
+        operations,
+        operations / seconds,
+        threadMxBean == null ? -1 : allocatedBytes / seconds,
+        flows.build());
+  }
+
+  private static String loadXml(String name) {
+    return readResourceUtf8(LoadTestAction.class, String.format("templates/%s.xml", name));
+  }
+
+  private String loadTestXml(String name, String domainName) {
+    return loadFileWithSubstitutions(
+        getClass(), name + ".xml", ImmutableMap.of("domain", domainName));
+  }
+
+  private static ThreadMXBean getThreadMxBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    return bean instanceof ThreadMXBean
+            && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+            && ((ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()
+        ? (ThreadMXBean) bean
+        : null;
+  }
+
+  /** Returns the bytes allocated by the current thread so far, or zero if that's unsupported. */
+  private static long getAllocatedBytes() {
+    return threadMxBean == null
+        ? 0
+        : threadMxBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** The result code and response XML of a command. */
+  private static final class CommandResult {
+    final int code;
+    final String xml;
+
+    CommandResult(int code, String xml) {
+      this.code = code;
+      this.xml = xml;
+    }
+  }
+
+  /** The measurements of the commands of one flow. */
+  private static final class FlowRecorder {
+    long[] latencies = new long[1024];
+    int count;
+    long errors;
+    long allocatedBytes;
+    final Multiset<String> rpcs = TreeMultiset.create();
+    final Multiset<Integer> resultCodes = TreeMultiset.create();
+
+    synchronized void record(
+        long latencyNanos, int code, ImmutableMultiset<String> commandRpcs, long commandBytes) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = latencyNanos;
+      if (code >= FIRST_ERROR_CODE) {
+        errors++;
+      }
+      resultCodes.add(code);
+      rpcs.addAll(commandRpcs);
+      allocatedBytes += commandBytes;
+    }
+
+    /** Must be called while holding the lock of this recorder. */
+    FlowReport createReport(double seconds) {
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      long totalNanos = 0;
+      for (long latency : sorted) {
+        totalNanos += latency;
+      }
+      ImmutableSortedMap.Builder<String, Double> rpcsByMethod = ImmutableSortedMap.naturalOrder();
+      for (Multiset.Entry<String> entry : rpcs.entrySet()) {
+        rpcsByMethod.put(entry.getElement(), (double) entry.getCount() / count);
+      }
+      ImmutableSortedMap.Builder<Integer, Long> codes = ImmutableSortedMap.naturalOrder();
+      for (Multiset.Entry<Integer> entry : resultCodes.entrySet()) {
+        codes.put(entry.getElement(), (long) entry.getCount());
+      }
+      return FlowReport.create(
+          count,
+          errors,
+          count / seconds,
+          toMillis(totalNanos / count),
+          toMillis(percentile(sorted, 0.5)),
+          toMillis(percentile(sorted, 0.9)),
+          toMillis(percentile(sorted, 0.99)),
+          toMillis(percentile(sorted, 0.999)),
+          toMillis(sorted[count - 1]),
+          (double) rpcs.size() / count,
+          rpcsByMethod.build(),
+          threadMxBean == null ? -1 : (double) allocatedBytes / count,
+          codes.build());
+    }
+
+    /** Returns the nearest-rank percentile of a sorted, non-empty array. */
+    private static long percentile(long[] sorted, double fraction) {
+      return sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1, 0)];
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / 1e6;
+    }
+  }
+
+  /** A builder for {@link EppLoadGenerator}. */
+  static final class Builder {
+
+    private Mode mode = Mode.CLOSED_LOOP;
+    private int concurrency = 1;
+    private int targetRate;
+    private Duration warmUp = Duration.standardSeconds(30);
+    private Duration steadyState = Duration.standardSeconds(60);
+    private long maxOperations;
+    private long seed;
+    private final Map<EppLoadFlow, Integer> weights = new EnumMap<>(EppLoadFlow.class);
+
+    private Builder() {
+      for (EppLoadFlow flow : EppLoadFlow.values()) {
+        if (!flow.isFollowUp()) {
+          weights.put(flow, flow.getDefaultWeight());
+        }
+      }
+    }
+
+    Builder setMode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /** Sets the number of workers that run commands. */
+    Builder setConcurrency(int concurrency) {
+      checkArgument(concurrency > 0, "Concurrency must be positive: %s", concurrency);
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /** Sets the number of operations to start per second in open-loop mode. */
+    Builder setTargetRate(int targetRate) {
+      checkArgument(targetRate > 0, "Target rate must be positive: %s", targetRate);
+      this.targetRate = targetRate;
+      return this;
+    }
+
+    Builder setWarmUp(Duration warmUp) {
+      this.warmUp = warmUp;
+      return this;
+    }
+
+    Builder setSteadyState(Duration steadyState) {
+      checkArgument(steadyState.getMillis() > 0, "Steady state must not be empty");
+      this.steadyState = steadyState;
+      return this;
+    }
+
+    /** Ends the steady state after this many operations, if it hasn't already ended. */
+    Builder setMaxOperations(long maxOperations) {
+      this.maxOperations = maxOperations;
+      return this;
+    }
+
+    /** Sets the seed for the order in which the flows are interleaved. */
+    Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /** Sets how often a flow runs relative to the others, where zero means it doesn't run. */
+    Builder setWeight(EppLoadFlow flow, int weight) {
+      checkArgument(!flow.isFollowUp(), "Flow only runs as a follow-up: %s", flow);
+      checkArgument(weight >= 0, "Weight must not be negative: %s", weight);
+      weights.put(flow, weight);
+      return this;
+    }
+
+    EppLoadGenerator build() {
+      checkArgument(
+          mode == Mode.CLOSED_LOOP || targetRate > 0, "Open-loop mode needs a target rate");
+      int totalWeight = 0;
+      for (int weight : weights.values()) {
+        totalWeight += weight;
+      }
+      checkArgument(totalWeight > 0, "At least one flow must have a positive weight");
+      return new EppLoadGenerator(this);
+    }
+  }
+}
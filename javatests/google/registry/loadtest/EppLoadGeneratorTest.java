@@ -0,0 +1,164 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.loadtest.EppLoadGenerator.Mode;
+import google.registry.loadtest.EppLoadReport.FlowReport;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import java.util.Map;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link EppLoadGenerator}. */
+@RunWith(JUnit4.class)
+public class EppLoadGeneratorTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .withLocalModules()
+      .withTaskQueue()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  /** Returns a builder that runs every flow equally often, with no warm-up. */
+  private static EppLoadGenerator.Builder builderWithEveryFlow() {
+    EppLoadGenerator.Builder builder = EppLoadGenerator.builder()
+        .setWarmUp(Duration.ZERO)
+        .setSteadyState(Duration.standardMinutes(10));
+    for (EppLoadFlow flow : EppLoadFlow.values()) {
+      if (!flow.isFollowUp()) {
+        builder.setWeight(flow, 1);
+      }
+    }
+    return builder;
+  }
+
+  private static void assertNoErrors(EppLoadReport report) {
+    for (Map.Entry<EppLoadFlow, FlowReport> entry : report.flows().entrySet()) {
+      assertWithMessage(entry.getKey() + " result codes: " + entry.getValue().resultCodes())
+          .that(entry.getValue().errors())
+          .isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testRun_closedLoop_runsEveryFlow() throws Exception {
+    EppLoadReport report = builderWithEveryFlow().setMaxOperations(40).build().run();
+    assertThat(report.mode()).isEqualTo(Mode.CLOSED_LOOP);
+    assertThat(report.concurrency()).isEqualTo(1);
+    assertThat(report.targetRate()).isEqualTo(0);
+    assertThat(report.operations()).isAtLeast(40L);
+    assertThat(report.throughput()).isGreaterThan(0.0);
+    assertNoErrors(report);
+    for (EppLoadFlow flow : EppLoadFlow.values()) {
+      if (flow != EppLoadFlow.POLL_ACK) {
+        assertWithMessage(flow.name()).that(report.flows()).containsKey(flow);
+      }
+    }
+    // Every transfer request is approved straight away.
+    assertThat(report.flows().get(EppLoadFlow.DOMAIN_TRANSFER_APPROVE).count())
+        .isEqualTo(report.flows().get(EppLoadFlow.DOMAIN_TRANSFER_REQUEST).count());
+    FlowReport domainCreate = report.flows().get(EppLoadFlow.DOMAIN_CREATE);
+    assertThat(domainCreate.datastoreRpcsPerOp()).isGreaterThan(0.0);
+    assertThat(domainCreate.datastoreRpcsPerOpByMethod()).containsKey("Commit");
+    assertThat(domainCreate.resultCodes()).isEqualTo(ImmutableMap.of(1000, domainCreate.count()));
+    assertThat(domainCreate.p50Millis()).isAtMost(domainCreate.p99Millis());
+    assertThat(domainCreate.p99Millis()).isAtMost(domainCreate.maxMillis());
+  }
+
+  @Test
+  public void testRun_closedLoop_concurrent() throws Exception {
+    EppLoadReport report = builderWithEveryFlow()
+        .setConcurrency(4)
+        .setMaxOperations(60)
+        .build()
+        .run();
+    assertThat(report.concurrency()).isEqualTo(4);
+    assertThat(report.operations()).isAtLeast(60L);
+    assertNoErrors(report);
+  }
+
+  @Test
+  public void testRun_singleFlow() throws Exception {
+    EppLoadGenerator.Builder builder = EppLoadGenerator.builder()
+        .setWarmUp(Duration.ZERO)
+        .setSteadyState(Duration.standardMinutes(10))
+        .setMaxOperations(10);
+    for (EppLoadFlow flow : EppLoadFlow.values()) {
+      if (!flow.isFollowUp()) {
+        builder.setWeight(flow, flow == EppLoadFlow.DOMAIN_CHECK ? 1 : 0);
+      }
+    }
+    EppLoadReport report = builder.build().run();
+    assertThat(report.flows().keySet()).containsExactly(EppLoadFlow.DOMAIN_CHECK);
+    assertThat(report.flows().get(EppLoadFlow.DOMAIN_CHECK).count()).isEqualTo(10L);
+  }
+
+  @Test
+  public void testRun_openLoop() throws Exception {
+    EppLoadReport report = builderWithEveryFlow()
+        .setMode(Mode.OPEN_LOOP)
+        .setConcurrency(2)
+        .setTargetRate(20)
+        .setMaxOperations(20)
+        .build()
+        .run();
+    assertThat(report.mode()).isEqualTo(Mode.OPEN_LOOP);
+    assertThat(report.targetRate()).isEqualTo(20);
+    assertThat(report.operations()).isAtLeast(20L);
+    assertNoErrors(report);
+  }
+
+  @Test
+  public void testBuild_openLoopWithoutRate_fails() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Open-loop mode needs a target rate");
+    EppLoadGenerator.builder().setMode(Mode.OPEN_LOOP).build();
+  }
+
+  @Test
+  public void testBuild_noWeights_fails() throws Exception {
+    EppLoadGenerator.Builder builder = EppLoadGenerator.builder();
+    for (EppLoadFlow flow : EppLoadFlow.values()) {
+      if (!flow.isFollowUp()) {
+        builder.setWeight(flow, 0);
+      }
+    }
+    thrown.expect(IllegalArgumentException.class, "At least one flow must have a positive weight");
+    builder.build();
+  }
+
+  @Test
+  public void testSetWeight_followUpFlow_fails() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Flow only runs as a follow-up: POLL_ACK");
+    EppLoadGenerator.builder().setWeight(EppLoadFlow.POLL_ACK, 1);
+  }
+
+  @Test
+  public void testSetConcurrency_zero_fails() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Concurrency must be positive");
+    EppLoadGenerator.builder().setConcurrency(0);
+  }
+}
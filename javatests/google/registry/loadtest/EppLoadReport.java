@@ -0,0 +1,310 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import google.registry.loadtest.EppLoadGenerator.Mode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+/**
+ * The results of an {@link EppLoadGenerator} run, measured over its steady-state phase.
+ *
+ * <p>Reports are written and read as JSON, so that a run can be compared against the stored
+ * report of an earlier one with {@link #findRegressions}. Latencies are in milliseconds. Allocation
+ * figures are -1 when the JVM can't measure per-thread allocation.
+ */
+@AutoValue
+abstract class EppLoadReport {
+
+  abstract Mode mode();
+  abstract int concurrency();
+
+  /** The target rate in operations per second, or zero in closed-loop mode. */
+  abstract int targetRate();
+
+  abstract long steadyStateMillis();
+  abstract long operations();
+  abstract double throughput();
+  abstract double allocatedBytesPerSecond();
+  abstract ImmutableMap<EppLoadFlow, FlowReport> flows();
+
+  static EppLoadReport create(
+      Mode mode,
+      int concurrency,
+      int targetRate,
+      long steadyStateMillis,
+      long operations,
+      double throughput,
+      double allocatedBytesPerSecond,
+      ImmutableMap<EppLoadFlow, FlowReport> flows) {
+    return new AutoValue_EppLoadReport(
+        mode,
+        concurrency,
+        targetRate,
+        steadyStateMillis,
+        operations,
+        throughput,
+        allocatedBytesPerSecond,
+        flows);
+  }
+
+  /** The results for the commands of a single flow. */
+  @AutoValue
+  abstract static class FlowReport {
+    abstract long count();
+
+    /** The number of commands that failed with an EPP error, i.e. a result code of 2000 or more. */
+    abstract long errors();
+
+    abstract double throughput();
+    abstract double meanMillis();
+    abstract double p50Millis();
+    abstract double p90Millis();
+    abstract double p99Millis();
+    abstract double p999Millis();
+    abstract double maxMillis();
+    abstract double datastoreRpcsPerOp();
+
+    /** The mean number of datastore RPCs per command, by API method, e.g. "Get" or "Commit". */
+    abstract ImmutableSortedMap<String, Double> datastoreRpcsPerOpByMethod();
+
+    abstract double allocatedBytesPerOp();
+
+    /** The number of commands that returned each EPP result code. */
+    abstract ImmutableSortedMap<Integer, Long> resultCodes();
+
+    static FlowReport create(
+        long count,
+        long errors,
+        double throughput,
+        double meanMillis,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        double p999Millis,
+        double maxMillis,
+        double datastoreRpcsPerOp,
+        ImmutableSortedMap<String, Double> datastoreRpcsPerOpByMethod,
+        double allocatedBytesPerOp,
+        ImmutableSortedMap<Integer, Long> resultCodes) {
+      return new AutoValue_EppLoadReport_FlowReport(
+          count,
+          errors,
+          throughput,
+          meanMillis,
+          p50Millis,
+          p90Millis,
+          p99Millis,
+          p999Millis,
+          maxMillis,
+          datastoreRpcsPerOp,
+          datastoreRpcsPerOpByMethod,
+          allocatedBytesPerOp,
+          resultCodes);
+    }
+  }
+
+  /** How much worse than a baseline each measurement may get before it counts as a regression. */
+  @AutoValue
+  abstract static class Thresholds {
+
+    /** The allowed increase in the median and 99th percentile latencies of each flow. */
+    abstract double latencyPercent();
+
+    /** The allowed decrease in total throughput. */
+    abstract double throughputPercent();
+
+    /** The allowed increase in the datastore RPCs per command of each flow. */
+    abstract double datastoreRpcPercent();
+
+    /** The allowed increase in the bytes allocated per command of each flow. */
+    abstract double allocationPercent();
+
+    static Thresholds create(
+        double latencyPercent,
+        double throughputPercent,
+        double datastoreRpcPercent,
+        double allocationPercent) {
+      return new AutoValue_EppLoadReport_Thresholds(
+          latencyPercent, throughputPercent, datastoreRpcPercent, allocationPercent);
+    }
+  }
+
+  /**
+   * Returns a description of each way in which this report is worse than {@code baseline} by more
+   * than the given thresholds, or an empty list if there are none.
+   *
+   * <p>Only the flows that ran in both reports are compared, since the number of commands of each
+   * flow, and therefore the precision of its numbers, depends on the workload.
+   */
+  ImmutableList<String> findRegressions(EppLoadReport baseline, Thresholds thresholds) {
+    ImmutableList.Builder<String> regressions = new ImmutableList.Builder<>();
+    if (throughput() < baseline.throughput() * (1 - thresholds.throughputPercent() / 100)) {
+      regressions.add(String.format(
+          "Throughput fell from %.1f to %.1f operations per second",
+          baseline.throughput(), throughput()));
+    }
+    for (Map.Entry<EppLoadFlow, FlowReport> entry : flows().entrySet()) {
+      FlowReport baselineFlow = baseline.flows().get(entry.getKey());
+      if (baselineFlow == null || baselineFlow.count() == 0 || entry.getValue().count() == 0) {
+        continue;
+      }
+      FlowReport flow = entry.getValue();
+      String name = entry.getKey().name();
+      checkIncrease(regressions, name, "median latency (ms)",
+          baselineFlow.p50Millis(), flow.p50Millis(), thresholds.latencyPercent());
+      checkIncrease(regressions, name, "99th percentile latency (ms)",
+          baselineFlow.p99Millis(), flow.p99Millis(), thresholds.latencyPercent());
+      checkIncrease(regressions, name, "datastore RPCs per command",
+          baselineFlow.datastoreRpcsPerOp(), flow.datastoreRpcsPerOp(),
+          thresholds.datastoreRpcPercent());
+      if (baselineFlow.allocatedBytesPerOp() >= 0 && flow.allocatedBytesPerOp() >= 0) {
+        checkIncrease(regressions, name, "bytes allocated per command",
+            baselineFlow.allocatedBytesPerOp(), flow.allocatedBytesPerOp(),
+            thresholds.allocationPercent());
+      }
+      if (flow.errors() * baselineFlow.count() > baselineFlow.errors() * flow.count()) {
+        regressions.add(String.format(
+            "%s error rate rose from %d/%d to %d/%d",
+            name, baselineFlow.errors(), baselineFlow.count(), flow.errors(), flow.count()));
+      }
+    }
+    return regressions.build();
+  }
+
+  private static void checkIncrease(
+      ImmutableList.Builder<String> regressions,
+      String flow,
+      String measurement,
+      double baseline,
+      double current,
+      double thresholdPercent) {
+    if (current > baseline * (1 + thresholdPercent / 100)) {
+      regressions.add(String.format(
+          "%s %s rose from %.2f to %.2f, more than the allowed %.0f%%",
+          flow, measurement, baseline, current, thresholdPercent));
+    }
+  }
+
+  /** Returns this report as a JSON object. */
+  String toJson() {
+    Map<String, Object> flowsJson = new LinkedHashMap<>();
+    for (Map.Entry<EppLoadFlow, FlowReport> entry : flows().entrySet()) {
+      FlowReport flow = entry.getValue();
+      Map<String, Object> flowJson = new LinkedHashMap<>();
+      flowJson.put("count", flow.count());
+      flowJson.put("errors", flow.errors());
+      flowJson.put("throughput", flow.throughput());
+      flowJson.put("meanMillis", flow.meanMillis());
+      flowJson.put("p50Millis", flow.p50Millis());
+      flowJson.put("p90Millis", flow.p90Millis());
+      flowJson.put("p99Millis", flow.p99Millis());
+      flowJson.put("p999Millis", flow.p999Millis());
+      flowJson.put("maxMillis", flow.maxMillis());
+      flowJson.put("datastoreRpcsPerOp", flow.datastoreRpcsPerOp());
+      flowJson.put("datastoreRpcsPerOpByMethod", flow.datastoreRpcsPerOpByMethod());
+      flowJson.put("allocatedBytesPerOp", flow.allocatedBytesPerOp());
+      Map<String, Object> resultCodes = new LinkedHashMap<>();
+      for (Map.Entry<Integer, Long> resultCode : flow.resultCodes().entrySet()) {
+        resultCodes.put(resultCode.getKey().toString(), resultCode.getValue());
+      }
+      flowJson.put("resultCodes", resultCodes);
+      flowsJson.put(entry.getKey().name(), flowJson);
+    }
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("mode", mode().name());
+    json.put("concurrency", concurrency());
+    json.put("targetRate", targetRate());
+    json.put("steadyStateMillis", steadyStateMillis());
+    json.put("operations", operations());
+    json.put("throughput", throughput());
+    json.put("allocatedBytesPerSecond", allocatedBytesPerSecond());
+    json.put("flows", flowsJson);
+    return JSONValue.toJSONString(json);
+  }
+
+  /**
+   * Parses a report written by {@link #toJson}.
+   *
+   * @throws IllegalArgumentException if the JSON isn't a valid report
+   */
+  static EppLoadReport fromJson(String jsonString) {
+    Map<?, ?> json;
+    try {
+      json = (Map<?, ?>) JSONValue.parseWithException(jsonString);
+    } catch (ParseException | ClassCastException e) {
+      throw new IllegalArgumentException("Load test report isn't a JSON object", e);
+    }
+    ImmutableMap.Builder<EppLoadFlow, FlowReport> flows = new ImmutableMap.Builder<>();
+    for (Map.Entry<?, ?> entry : getMap(json, "flows").entrySet()) {
+      Map<?, ?> flowJson = (Map<?, ?>) entry.getValue();
+      ImmutableSortedMap.Builder<String, Double> rpcsByMethod = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<?, ?> rpcs : getMap(flowJson, "datastoreRpcsPerOpByMethod").entrySet()) {
+        rpcsByMethod.put((String) rpcs.getKey(), ((Number) rpcs.getValue()).doubleValue());
+      }
+      ImmutableSortedMap.Builder<Integer, Long> resultCodes = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<?, ?> resultCode : getMap(flowJson, "resultCodes").entrySet()) {
+        resultCodes.put(
+            Integer.valueOf((String) resultCode.getKey()),
+            ((Number) resultCode.getValue()).longValue());
+      }
+      flows.put(
+          EppLoadFlow.valueOf((String) entry.getKey()),
+          FlowReport.create(
+              getNumber(flowJson, "count").longValue(),
+              getNumber(flowJson, "errors").longValue(),
+              getNumber(flowJson, "throughput").doubleValue(),
+              getNumber(flowJson, "meanMillis").doubleValue(),
+              getNumber(flowJson, "p50Millis").doubleValue(),
+              getNumber(flowJson, "p90Millis").doubleValue(),
+              getNumber(flowJson, "p99Millis").doubleValue(),
+              getNumber(flowJson, "p999Millis").doubleValue(),
+              getNumber(flowJson, "maxMillis").doubleValue(),
+              getNumber(flowJson, "datastoreRpcsPerOp").doubleValue(),
+              rpcsByMethod.build(),
+              getNumber(flowJson, "allocatedBytesPerOp").doubleValue(),
+              resultCodes.build()));
+    }
+    return create(
+        Mode.valueOf((String) json.get("mode")),
+        getNumber(json, "concurrency").intValue(),
+        getNumber(json, "targetRate").intValue(),
+        getNumber(json, "steadyStateMillis").longValue(),
+        getNumber(json, "operations").longValue(),
+        getNumber(json, "throughput").doubleValue(),
+        getNumber(json, "allocatedBytesPerSecond").doubleValue(),
+        flows.build());
+  }
+
+  private static Number getNumber(Map<?, ?> json, String key) {
+    Object value = json.get(key);
+    checkArgument(value instanceof Number, "Load test report is missing number: %s", key);
+    return (Number) value;
+  }
+
+  private static Map<?, ?> getMap(Map<?, ?> json, String key) {
+    Object value = json.get(key);
+    checkArgument(value instanceof Map, "Load test report is missing object: %s", key);
+    return (Map<?, ?>) value;
+  }
+}
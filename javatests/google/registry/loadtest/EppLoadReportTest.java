@@ -0,0 +1,182 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import google.registry.loadtest.EppLoadGenerator.Mode;
+import google.registry.loadtest.EppLoadReport.FlowReport;
+import google.registry.loadtest.EppLoadReport.Thresholds;
+import google.registry.testing.ExceptionRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link EppLoadReport}. */
+@RunWith(JUnit4.class)
+public class EppLoadReportTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private static final Thresholds THRESHOLDS = Thresholds.create(20, 10, 5, 10);
+
+  private static FlowReport flowReport(
+      long errors, double p50Millis, double p99Millis, double rpcsPerOp, double bytesPerOp) {
+    return FlowReport.create(
+        100,
+        errors,
+        50.0,
+        p50Millis,
+        p50Millis,
+        p99Millis,
+        p99Millis,
+        p99Millis,
+        p99Millis,
+        rpcsPerOp,
+        ImmutableSortedMap.of("Get", rpcsPerOp),
+        bytesPerOp,
+        errors == 0
+            ? ImmutableSortedMap.of(1000, 100L)
+            : ImmutableSortedMap.of(1000, 100 - errors, 2302, errors));
+  }
+
+  private static EppLoadReport report(double throughput, FlowReport domainCreate) {
+    return EppLoadReport.create(
+        Mode.CLOSED_LOOP,
+        4,
+        0,
+        60000,
+        200,
+        throughput,
+        1e6,
+        ImmutableMap.of(
+            EppLoadFlow.DOMAIN_CREATE, domainCreate,
+            EppLoadFlow.DOMAIN_INFO, flowReport(0, 2.0, 5.0, 1.0, 1000)));
+  }
+
+  private static final EppLoadReport BASELINE = report(100, flowReport(0, 10.0, 30.0, 8.0, 5000));
+
+  @Test
+  public void testJson_roundTrip() throws Exception {
+    assertThat(EppLoadReport.fromJson(BASELINE.toJson())).isEqualTo(BASELINE);
+    EppLoadReport openLoop = EppLoadReport.create(
+        Mode.OPEN_LOOP,
+        2,
+        50,
+        1000,
+        1,
+        1.0,
+        -1,
+        ImmutableMap.of(EppLoadFlow.POLL_ACK, flowReport(1, 0.5, 0.5, 0, -1)));
+    assertThat(EppLoadReport.fromJson(openLoop.toJson())).isEqualTo(openLoop);
+  }
+
+  @Test
+  public void testFromJson_notAnObject() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "isn't a JSON object");
+    EppLoadReport.fromJson("[1, 2]");
+  }
+
+  @Test
+  public void testFromJson_missingField() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "missing object: flows");
+    EppLoadReport.fromJson("{\"mode\": \"CLOSED_LOOP\"}");
+  }
+
+  @Test
+  public void testFindRegressions_sameReport_none() throws Exception {
+    assertThat(BASELINE.findRegressions(BASELINE, THRESHOLDS)).isEmpty();
+  }
+
+  @Test
+  public void testFindRegressions_withinThresholds_none() throws Exception {
+    EppLoadReport report = report(91, flowReport(0, 11.9, 35.9, 8.3, 5400));
+    assertThat(report.findRegressions(BASELINE, THRESHOLDS)).isEmpty();
+  }
+
+  @Test
+  public void testFindRegressions_improvements_none() throws Exception {
+    EppLoadReport report = report(200, flowReport(0, 1.0, 3.0, 4.0, 100));
+    assertThat(report.findRegressions(BASELINE, THRESHOLDS)).isEmpty();
+  }
+
+  @Test
+  public void testFindRegressions_throughput() throws Exception {
+    assertThat(report(89, flowReport(0, 10.0, 30.0, 8.0, 5000))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .containsExactly("Throughput fell from 100.0 to 89.0 operations per second");
+  }
+
+  @Test
+  public void testFindRegressions_latency() throws Exception {
+    assertThat(report(100, flowReport(0, 12.5, 36.5, 8.0, 5000))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .containsExactly(
+            "DOMAIN_CREATE median latency (ms) rose from 10.00 to 12.50, "
+                + "more than the allowed 20%",
+            "DOMAIN_CREATE 99th percentile latency (ms) rose from 30.00 to 36.50, "
+                + "more than the allowed 20%");
+  }
+
+  @Test
+  public void testFindRegressions_datastoreRpcs() throws Exception {
+    assertThat(report(100, flowReport(0, 10.0, 30.0, 9.0, 5000))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .containsExactly(
+            "DOMAIN_CREATE datastore RPCs per command rose from 8.00 to 9.00, "
+                + "more than the allowed 5%");
+  }
+
+  @Test
+  public void testFindRegressions_allocation() throws Exception {
+    assertThat(report(100, flowReport(0, 10.0, 30.0, 8.0, 6000))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .containsExactly(
+            "DOMAIN_CREATE bytes allocated per command rose from 5000.00 to 6000.00, "
+                + "more than the allowed 10%");
+  }
+
+  @Test
+  public void testFindRegressions_allocationNotMeasured_ignored() throws Exception {
+    assertThat(report(100, flowReport(0, 10.0, 30.0, 8.0, -1))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .isEmpty();
+  }
+
+  @Test
+  public void testFindRegressions_errors() throws Exception {
+    assertThat(report(100, flowReport(3, 10.0, 30.0, 8.0, 5000))
+            .findRegressions(BASELINE, THRESHOLDS))
+        .containsExactly("DOMAIN_CREATE error rate rose from 0/100 to 3/100");
+  }
+
+  @Test
+  public void testFindRegressions_flowOnlyInOneReport_ignored() throws Exception {
+    EppLoadReport report = EppLoadReport.create(
+        Mode.CLOSED_LOOP,
+        4,
+        0,
+        60000,
+        200,
+        100,
+        1e6,
+        ImmutableMap.of(EppLoadFlow.DOMAIN_RENEW, flowReport(5, 100.0, 300.0, 80.0, 50000)));
+    assertThat(report.findRegressions(BASELINE, THRESHOLDS)).isEmpty();
+  }
+}
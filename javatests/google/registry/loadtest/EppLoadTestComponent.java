@@ -0,0 +1,104 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.QUEUE_BIGQUERY_STREAMING_METRICS;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.common.base.Supplier;
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+import dagger.Subcomponent;
+import google.registry.config.RegistryConfig.ConfigModule;
+import google.registry.dns.DnsQueue;
+import google.registry.flows.EppController;
+import google.registry.flows.FlowComponent;
+import google.registry.flows.custom.CustomLogicFactoryModule;
+import google.registry.monitoring.whitebox.EppMetric;
+import google.registry.request.Modules.ModulesServiceModule;
+import google.registry.request.RequestScope;
+import google.registry.util.Clock;
+import google.registry.util.SystemClock.SystemClockModule;
+import google.registry.util.SystemSleeper.SystemSleeperModule;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Dagger component for running EPP flows under load.
+ *
+ * <p>Unlike the component used by the EPP unit tests, this one is created once per load test and
+ * binds the production clock, sleeper, custom logic and metrics enqueuer, so that each command
+ * does the same work it would in a frontend request. Only the bindings that need an HTTP request
+ * are replaced.
+ */
+@Singleton
+@Component(
+    modules = {
+        ConfigModule.class,
+        CustomLogicFactoryModule.class,
+        EppLoadTestComponent.EppLoadTestModule.class,
+        ModulesServiceModule.class,
+        SystemClockModule.class,
+        SystemSleeperModule.class,
+    })
+interface EppLoadTestComponent {
+
+  RequestComponent startRequest();
+
+  /** Module for the bindings that would otherwise come from the request. */
+  @Module
+  static final class EppLoadTestModule {
+
+    private static final AtomicLong nextRequestId = new AtomicLong();
+
+    @Provides
+    static DnsQueue provideDnsQueue() {
+      return DnsQueue.create();
+    }
+
+    @Provides
+    static EppMetric.Builder provideEppMetricBuilder(Clock clock) {
+      return EppMetric.builderForRequest("loadtest-" + nextRequestId.incrementAndGet(), clock);
+    }
+
+    @Provides
+    @Named("insertIdGenerator")
+    static Supplier<String> provideInsertIdGenerator() {
+      return new Supplier<String>() {
+        @Override
+        public String get() {
+          return UUID.randomUUID().toString();
+        }};
+    }
+
+    @Provides
+    @Named(QUEUE_BIGQUERY_STREAMING_METRICS)
+    static Queue provideBigQueryStreamingMetricsQueue() {
+      return getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
+    }
+  }
+
+  /** Subcomponent for request scoped injections. */
+  @RequestScope
+  @Subcomponent
+  interface RequestComponent {
+    EppController eppController();
+    FlowComponent.Builder flowComponentBuilder();
+  }
+}
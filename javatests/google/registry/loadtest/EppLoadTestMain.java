@@ -0,0 +1,188 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import google.registry.loadtest.EppLoadGenerator.Mode;
+import google.registry.loadtest.EppLoadReport.Thresholds;
+import google.registry.testing.AppEngineRule;
+import java.io.File;
+import java.util.List;
+import org.joda.time.Duration;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Command-line interface for {@link EppLoadGenerator}.
+ *
+ * <p>The report is printed as JSON, and written to {@code --output} if it's given. If a
+ * {@code --baseline} report is given, any regressions against it are printed to stderr, and the
+ * exit status is 1 if there are any.
+ */
+@Parameters(separators = " =", commandDescription = "Runs a local EPP load test.")
+public final class EppLoadTestMain {
+
+  @Parameter(
+      names = "--mode",
+      description = "CLOSED_LOOP runs commands back to back; OPEN_LOOP runs them at --rate.")
+  private Mode mode = Mode.CLOSED_LOOP;
+
+  @Parameter(
+      names = "--concurrency",
+      description = "Number of workers running commands.")
+  private int concurrency = 4;
+
+  @Parameter(
+      names = "--rate",
+      description = "Operations to start per second in open-loop mode.")
+  private int rate = 100;
+
+  @Parameter(
+      names = "--warm_up_seconds",
+      description = "Length of the warm-up phase, which isn't measured.")
+  private int warmUpSeconds = 30;
+
+  @Parameter(
+      names = "--steady_state_seconds",
+      description = "Length of the measured steady-state phase.")
+  private int steadyStateSeconds = 60;
+
+  @Parameter(
+      names = "--max_operations",
+      description = "Ends the steady state after this many operations. Zero means no limit.")
+  private long maxOperations;
+
+  @Parameter(
+      names = "--weight",
+      description = "Relative frequency of a flow, as FLOW=WEIGHT, e.g. DOMAIN_CREATE=10. "
+          + "May be repeated. Flows that aren't given keep their default weights.")
+  private List<String> weights = ImmutableList.of();
+
+  @Parameter(
+      names = "--seed",
+      description = "Seed for the order in which flows are interleaved.")
+  private long seed;
+
+  @Parameter(
+      names = "--output",
+      description = "File to write the JSON report to.")
+  private File output;
+
+  @Parameter(
+      names = "--baseline",
+      description = "JSON report of an earlier run to check this one against.")
+  private File baseline;
+
+  @Parameter(
+      names = "--latency_threshold_percent",
+      description = "Allowed increase in the median and 99th percentile latency of each flow.")
+  private double latencyThresholdPercent = 20;
+
+  @Parameter(
+      names = "--throughput_threshold_percent",
+      description = "Allowed decrease in total throughput.")
+  private double throughputThresholdPercent = 10;
+
+  @Parameter(
+      names = "--datastore_rpc_threshold_percent",
+      description = "Allowed increase in the datastore RPCs per command of each flow.")
+  private double datastoreRpcThresholdPercent = 5;
+
+  @Parameter(
+      names = "--allocation_threshold_percent",
+      description = "Allowed increase in the bytes allocated per command of each flow.")
+  private double allocationThresholdPercent = 10;
+
+  @Parameter(
+      names = {"-h", "--help"},
+      description = "Display help and list flags for this command.",
+      help = true)
+  private boolean help;
+
+  public static void main(String[] args) throws Throwable {
+    EppLoadTestMain loadTestMain = new EppLoadTestMain();
+    JCommander jCommander = new JCommander(loadTestMain);
+    jCommander.setProgramName("eppload");
+    jCommander.parse(args);
+    if (loadTestMain.help) {
+      jCommander.usage();
+      return;
+    }
+    System.exit(loadTestMain.run() ? 0 : 1);
+  }
+
+  /** Runs the load test, and returns false if it regressed against the baseline. */
+  private boolean run() throws Throwable {
+    EppLoadGenerator.Builder builder = EppLoadGenerator.builder()
+        .setMode(mode)
+        .setConcurrency(concurrency)
+        .setWarmUp(Duration.standardSeconds(warmUpSeconds))
+        .setSteadyState(Duration.standardSeconds(steadyStateSeconds))
+        .setMaxOperations(maxOperations)
+        .setSeed(seed);
+    if (mode == Mode.OPEN_LOOP) {
+      builder.setTargetRate(rate);
+    }
+    for (String weight : weights) {
+      List<String> parts = Splitter.on('=').trimResults().splitToList(weight);
+      checkArgument(parts.size() == 2, "Weight must be FLOW=WEIGHT: %s", weight);
+      builder.setWeight(EppLoadFlow.valueOf(parts.get(0)), Integer.parseInt(parts.get(1)));
+    }
+    final EppLoadGenerator generator = builder.build();
+    final EppLoadReport[] report = new EppLoadReport[1];
+    AppEngineRule.builder()
+        .withDatastore()
+        .withLocalModules()
+        .withTaskQueue()
+        .build()
+        .apply(
+            new Statement() {
+              @Override
+              public void evaluate() throws Exception {
+                report[0] = generator.run();
+              }},
+            Description.EMPTY)
+        .evaluate();
+    String json = report[0].toJson();
+    System.out.println(json);
+    if (output != null) {
+      Files.write(json, output, UTF_8);
+    }
+    if (baseline == null) {
+      return true;
+    }
+    List<String> regressions = report[0].findRegressions(
+        EppLoadReport.fromJson(Files.toString(baseline, UTF_8)),
+        Thresholds.create(
+            latencyThresholdPercent,
+            throughputThresholdPercent,
+            datastoreRpcThresholdPercent,
+            allocationThresholdPercent));
+    for (String regression : regressions) {
+      System.err.println(regression);
+    }
+    return regressions.isEmpty();
+  }
+
+  private EppLoadTestMain() {}
+}
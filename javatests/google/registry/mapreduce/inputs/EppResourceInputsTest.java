@@ -44,7 +44,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import org.junit.Rule;
@@ -219,6 +221,57 @@ public class EppResourceInputsTest {
     reader.next();
   }
 
+  @Test
+  public void testSuccess_entityReader_readsAcrossManyBatches() throws Exception {
+    Set<ContactResource> expected = new HashSet<>();
+    for (int i = 0; i < EppResourceEntityReader.BATCH_SIZE * 5 / 2; i++) {
+      expected.add(persistEppResourceInFirstBucket(newContactResource("contact" + i)));
+    }
+    List<ContactResource> seen = new ArrayList<>();
+    InputReader<ContactResource> reader =
+        createEntityInput(ContactResource.class).createReaders().get(0);
+    reader.beginShard();
+    reader.beginSlice();
+    while (seen.size() < expected.size()) {
+      seen.add(reader.next());
+      assertThat(reader.getProgress())
+          .isWithin(EPSILON)
+          .of(((double) seen.size()) / expected.size());
+    }
+    assertThat(seen).containsExactlyElementsIn(expected);
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  @Test
+  public void testSuccess_entityReader_survivesSerializationInMiddleOfBatch() throws Exception {
+    Set<ContactResource> expected = new HashSet<>();
+    for (int i = 0; i < EppResourceEntityReader.BATCH_SIZE + 10; i++) {
+      expected.add(persistEppResourceInFirstBucket(newContactResource("contact" + i)));
+    }
+    List<ContactResource> seen = new ArrayList<>();
+    InputReader<ContactResource> reader =
+        createEntityInput(ContactResource.class).createReaders().get(0);
+    reader.beginShard();
+    reader.beginSlice();
+    for (int i = 0; i < 5; i++) {
+      seen.add(reader.next());
+    }
+    // The reader has fetched well past what it returned, but must resume right after the latter.
+    reader.endSlice();
+    reader = serializeAndDeserialize(reader);
+    reader.beginSlice();
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(5.0 / expected.size());
+    while (seen.size() < expected.size()) {
+      seen.add(reader.next());
+    }
+    reader.endSlice();
+    reader.endShard();
+    assertThat(seen).containsExactlyElementsIn(expected);
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
   @Test
   public void testSuccess_entityReader_allowsPolymorphicMatches() throws Exception {
     createTld("tld");
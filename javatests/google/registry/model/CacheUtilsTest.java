@@ -0,0 +1,106 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.CacheUtils.memoizeWithBackgroundRefresh;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.base.Supplier;
+import com.google.common.testing.FakeTicker;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CacheUtils}. */
+@RunWith(JUnit4.class)
+public class CacheUtilsTest {
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final Queue<Runnable> pendingTasks = new ArrayDeque<>();
+  private final Executor executor = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      pendingTasks.add(task);
+    }};
+
+  /** A supplier that counts its calls, and fails while {@link #failing} is set. */
+  private static class CountingSupplier implements Supplier<Integer> {
+    int calls;
+    boolean failing;
+
+    @Override
+    public Integer get() {
+      if (failing) {
+        throw new IllegalStateException("failed");
+      }
+      return ++calls;
+    }
+  }
+
+  private void runPendingTasks() {
+    while (!pendingTasks.isEmpty()) {
+      pendingTasks.remove().run();
+    }
+  }
+
+  @Test
+  public void testBackgroundRefresh_firstCallComputesOnCallingThread() throws Exception {
+    CountingSupplier original = new CountingSupplier();
+    Supplier<Integer> memoized =
+        memoizeWithBackgroundRefresh(original, Duration.standardMinutes(10), executor, ticker);
+    assertThat(memoized.get()).isEqualTo(1);
+    assertThat(memoized.get()).isEqualTo(1);
+    assertThat(original.calls).isEqualTo(1);
+    assertThat(pendingTasks).isEmpty();
+  }
+
+  @Test
+  public void testBackgroundRefresh_servesOldValueWhileRefreshing() throws Exception {
+    CountingSupplier original = new CountingSupplier();
+    Supplier<Integer> memoized =
+        memoizeWithBackgroundRefresh(original, Duration.standardMinutes(10), executor, ticker);
+    assertThat(memoized.get()).isEqualTo(1);
+    ticker.advance(MINUTES.toNanos(11));
+    // The refresh is only scheduled, so the old value is returned.
+    assertThat(memoized.get()).isEqualTo(1);
+    assertThat(memoized.get()).isEqualTo(1);
+    assertThat(original.calls).isEqualTo(1);
+    assertThat(pendingTasks).hasSize(1);
+    runPendingTasks();
+    assertThat(memoized.get()).isEqualTo(2);
+    assertThat(pendingTasks).isEmpty();
+  }
+
+  @Test
+  public void testBackgroundRefresh_failedRefresh_keepsOldValueAndRetries() throws Exception {
+    CountingSupplier original = new CountingSupplier();
+    Supplier<Integer> memoized =
+        memoizeWithBackgroundRefresh(original, Duration.standardMinutes(10), executor, ticker);
+    assertThat(memoized.get()).isEqualTo(1);
+    ticker.advance(MINUTES.toNanos(11));
+    original.failing = true;
+    assertThat(memoized.get()).isEqualTo(1);
+    runPendingTasks();
+    assertThat(memoized.get()).isEqualTo(1);
+    original.failing = false;
+    runPendingTasks();
+    assertThat(memoized.get()).isEqualTo(2);
+  }
+}
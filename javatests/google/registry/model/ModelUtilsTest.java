@@ -16,11 +16,13 @@ package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.annotation.Id;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
@@ -83,6 +85,21 @@ public class ModelUtilsTest {
     }
   }
 
+  /** Test class with array fields, which are compared and hashed element by element. */
+  static class ArrayTestClass extends ImmutableObject {
+    String string;
+    byte[] bytes;
+    int[] ints;
+    String[] strings;
+
+    ArrayTestClass(String string, byte[] bytes, int[] ints, String[] strings) {
+      this.string = string;
+      this.bytes = bytes;
+      this.ints = ints;
+      this.strings = strings;
+    }
+  }
+
   @Before
   public void resetCaches() {
     ModelUtils.resetCaches();
@@ -138,4 +155,38 @@ public class ModelUtilsTest {
     // The hashCode is now cached and is stale (but that's the expected behavior).
     assertThat(cloned.hashCode()).isNotEqualTo(original.hashCode());
   }
+
+  @Test
+  public void testFieldValuesEqual_matchesFieldValueMaps() {
+    ArrayTestClass instance =
+        new ArrayTestClass("a", new byte[] {1, 2}, new int[] {3}, new String[] {"x", null});
+    ArrayTestClass sameValues =
+        new ArrayTestClass("a", new byte[] {1, 2}, new int[] {3}, new String[] {"x", null});
+    assertThat(ModelUtils.fieldValuesEqual(instance, sameValues)).isTrue();
+    assertThat(ModelUtils.getFieldValues(instance))
+        .isEqualTo(ModelUtils.getFieldValues(sameValues));
+    for (ArrayTestClass differentValues : ImmutableList.of(
+        new ArrayTestClass("b", new byte[] {1, 2}, new int[] {3}, new String[] {"x", null}),
+        new ArrayTestClass("a", new byte[] {1}, new int[] {3}, new String[] {"x", null}),
+        new ArrayTestClass("a", new byte[] {1, 2}, new int[] {4}, new String[] {"x", null}),
+        new ArrayTestClass("a", new byte[] {1, 2}, new int[] {3}, new String[] {"x", "y"}),
+        new ArrayTestClass("a", new byte[] {1, 2}, null, new String[] {"x", null}))) {
+      assertThat(ModelUtils.fieldValuesEqual(instance, differentValues)).isFalse();
+      assertThat(ModelUtils.getFieldValues(instance))
+          .isNotEqualTo(ModelUtils.getFieldValues(differentValues));
+      assertThat(instance).isNotEqualTo(differentValues);
+    }
+    assertThat(instance).isEqualTo(sameValues);
+  }
+
+  @Test
+  public void testHashFieldValues_matchesFieldValueMaps() {
+    for (ArrayTestClass instance : ImmutableList.of(
+        new ArrayTestClass("a", new byte[] {1, 2}, new int[] {3}, new String[] {"x", null}),
+        new ArrayTestClass(null, null, new int[] {}, new String[] {}))) {
+      assertThat(ModelUtils.hashFieldValues(instance))
+          .isEqualTo(Arrays.hashCode(ModelUtils.getFieldValues(instance).values().toArray()));
+      assertThat(instance.hashCode()).isEqualTo(ModelUtils.hashFieldValues(instance));
+    }
+  }
 }
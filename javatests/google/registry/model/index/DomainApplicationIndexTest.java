@@ -18,13 +18,16 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.index.DomainApplicationIndex.createUpdatedInstance;
 import static google.registry.model.index.DomainApplicationIndex.createWithSpecifiedKeys;
 import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
 import google.registry.model.domain.DomainApplication;
@@ -118,4 +121,36 @@ public class DomainApplicationIndexTest extends EntityTestCase {
     assertThat(loadActiveApplicationsByDomainName("example.com", DateTime.now(UTC)))
         .containsExactly(application1);
   }
+
+  @Test
+  public void testSuccess_loadActiveApplicationsByDomainNames() {
+    createTld("net");
+    DomainApplication application1 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application2 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application3 = persistSimpleResource(newDomainApplication("example.net"));
+    DomainApplication deletedApplication =
+        persistSimpleResource(
+            newDomainApplication("other.com")
+                .asBuilder()
+                .setDeletionTime(DateTime.now(UTC).minusDays(30))
+                .build());
+    persistResource(createUpdatedInstance(application1));
+    persistResource(createUpdatedInstance(application2));
+    persistResource(createUpdatedInstance(application3));
+    persistResource(createUpdatedInstance(deletedApplication));
+    ImmutableSetMultimap<String, DomainApplication> applications =
+        loadActiveApplicationsByDomainNames(
+            ImmutableList.of("example.com", "example.net", "other.com", "missing.com"),
+            DateTime.now(UTC));
+    assertThat(applications.get("example.com")).containsExactly(application1, application2);
+    assertThat(applications.get("example.net")).containsExactly(application3);
+    assertThat(applications.keySet()).containsExactly("example.com", "example.net");
+  }
+
+  @Test
+  public void testSuccess_loadActiveApplicationsByDomainNames_noNames() {
+    assertThat(
+            loadActiveApplicationsByDomainNames(ImmutableList.<String>of(), DateTime.now(UTC)))
+        .isEmpty();
+  }
 }
@@ -0,0 +1,179 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.appengine.api.datastore.EntityTranslator.convertToPb;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Work;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.Period;
+import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.eppcommon.Trid;
+import google.registry.model.reporting.HistoryEntry;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CommitLogMutationCodec}. */
+@RunWith(JUnit4.class)
+public class CommitLogMutationCodecTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private static final String XML_TEMPLATE = ""
+      + "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+      + "<epp xmlns=\"urn:ietf:params:xml:ns:epp-1.0\">\n"
+      + "  <command>\n"
+      + "    <create>\n"
+      + "      <domain:create\n"
+      + "       xmlns:domain=\"urn:ietf:params:xml:ns:domain-1.0\">\n"
+      + "        <domain:name>%NAME%</domain:name>\n"
+      + "        <domain:period unit=\"y\">2</domain:period>\n"
+      + "        <domain:ns>\n"
+      + "          <domain:hostObj>ns1.example.net</domain:hostObj>\n"
+      + "          <domain:hostObj>ns2.example.net</domain:hostObj>\n"
+      + "        </domain:ns>\n"
+      + "        <domain:registrant>jd1234</domain:registrant>\n"
+      + "        <domain:contact type=\"admin\">sh8013</domain:contact>\n"
+      + "        <domain:contact type=\"tech\">sh8013</domain:contact>\n"
+      + "        <domain:authInfo>\n"
+      + "          <domain:pw>2fooBAR</domain:pw>\n"
+      + "        </domain:authInfo>\n"
+      + "      </domain:create>\n"
+      + "    </create>\n"
+      + "    <clTRID>ABC-%NAME%</clTRID>\n"
+      + "  </command>\n"
+      + "</epp>\n";
+
+  private ImmutableList<byte[]> corpus;
+
+  @Before
+  public void before() {
+    createTld("tld");
+    final ContactResource contact = persistActiveContact("jd1234");
+    // Needs to be in a transaction so that saving to raw entities will work.
+    corpus = ofy().transact(new Work<ImmutableList<byte[]>>() {
+      @Override
+      public ImmutableList<byte[]> run() {
+        ImmutableList.Builder<byte[]> builder = new ImmutableList.Builder<>();
+        for (int i = 0; i < 20; i++) {
+          String name = "example" + i + ".tld";
+          DomainResource domain = newDomainResource(name, contact).asBuilder()
+              .setStatusValues(ImmutableSet.of(StatusValue.CLIENT_HOLD))
+              .setLastEppUpdateClientId("TheRegistrar")
+              .setLastEppUpdateTime(DateTime.parse("2017-01-01T00:00:00Z").plusMinutes(i))
+              .build();
+          HistoryEntry historyEntry = new HistoryEntry.Builder()
+              .setParent(domain)
+              .setType(HistoryEntry.Type.DOMAIN_CREATE)
+              .setPeriod(Period.create(2, Period.Unit.YEARS))
+              .setXmlBytes(XML_TEMPLATE.replace("%NAME%", name).getBytes(UTF_8))
+              .setModificationTime(DateTime.parse("2017-01-01T00:00:00Z").plusMinutes(i))
+              .setClientId("TheRegistrar")
+              .setTrid(Trid.create("ABC-" + name, "server-trid-" + i))
+              .setBySuperuser(false)
+              .setRequestedByRegistrar(true)
+              .build();
+          builder.add(convertToPb(ofy().save().toEntity(domain)).toByteArray());
+          builder.add(convertToPb(ofy().save().toEntity(historyEntry)).toByteArray());
+        }
+        return builder.build();
+      }});
+  }
+
+  @Test
+  public void testNone_roundTrips() {
+    for (byte[] bytes : corpus) {
+      assertThat(CommitLogMutationCodec.NONE.encode(bytes)).isEqualTo(bytes);
+      assertThat(CommitLogMutationCodec.NONE.decode(bytes)).isEqualTo(bytes);
+    }
+  }
+
+  @Test
+  public void testDeflateV1_roundTrips() {
+    for (byte[] bytes : corpus) {
+      byte[] encoded = CommitLogMutationCodec.DEFLATE_V1.encode(bytes);
+      assertThat(CommitLogMutationCodec.DEFLATE_V1.decode(encoded)).isEqualTo(bytes);
+    }
+  }
+
+  @Test
+  public void testDeflateV1_roundTripsEmptyBytes() {
+    byte[] encoded = CommitLogMutationCodec.DEFLATE_V1.encode(new byte[0]);
+    assertThat(CommitLogMutationCodec.DEFLATE_V1.decode(encoded)).isEmpty();
+  }
+
+  @Test
+  public void testDeflateV1_savesAtLeastHalfOnRepresentativeEntities() {
+    long rawSize = 0;
+    long encodedSize = 0;
+    long withoutDictionarySize = 0;
+    for (byte[] bytes : corpus) {
+      rawSize += bytes.length;
+      encodedSize += CommitLogMutationCodec.DEFLATE_V1.encode(bytes).length;
+      withoutDictionarySize += deflateWithoutDictionary(bytes).length;
+    }
+    assertThat(encodedSize * 2).isLessThan(rawSize);
+    assertThat(encodedSize).isLessThan(withoutDictionarySize);
+  }
+
+  @Test
+  public void testFailure_deflateV1_corruptBytes() {
+    byte[] encoded = CommitLogMutationCodec.DEFLATE_V1.encode(corpus.get(0));
+    encoded[encoded.length / 2] ^= (byte) 0xff;
+    encoded[encoded.length / 2 + 1] ^= (byte) 0xff;
+    thrown.expect(IllegalArgumentException.class, "corrupt");
+    CommitLogMutationCodec.DEFLATE_V1.decode(encoded);
+  }
+
+  @Test
+  public void testFailure_deflateV1_truncatedBytes() {
+    byte[] encoded = CommitLogMutationCodec.DEFLATE_V1.encode(corpus.get(0));
+    thrown.expect(IllegalArgumentException.class, "truncated");
+    CommitLogMutationCodec.DEFLATE_V1.decode(Arrays.copyOf(encoded, encoded.length / 2));
+  }
+
+  private static byte[] deflateWithoutDictionary(byte[] input) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(input);
+    deflater.finish();
+    byte[] buffer = new byte[input.length + 64];
+    int length = deflater.deflate(buffer);
+    deflater.end();
+    return Arrays.copyOf(buffer, length);
+  }
+}
@@ -14,10 +14,13 @@
 
 package google.registry.model.ofy;
 
+import static com.google.appengine.api.datastore.EntityTranslator.convertToPb;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.api.datastore.KeyFactory;
@@ -92,6 +95,50 @@ public class CommitLogMutationTest {
         .isEqualTo(rawEntity);
   }
 
+  @Test
+  public void test_create_storesOtherKindsAsIs() {
+    Entity rawEntity = convertToEntityInTxn(someObject);
+    CommitLogMutation mutation = CommitLogMutation.createFromRaw(manifestKey, rawEntity);
+    assertThat(mutation.getCodec()).isEqualTo(CommitLogMutationCodec.NONE);
+    assertThat(mutation.codec).isNull();
+    assertThat(mutation.entityProtoBytes).isEqualTo(convertToPb(rawEntity).toByteArray());
+  }
+
+  @Test
+  public void test_create_compressesDomains() {
+    Entity rawEntity = convertToEntityInTxn(newDomainResource("example.tld"));
+    CommitLogMutation mutation = CommitLogMutation.createFromRaw(manifestKey, rawEntity);
+    assertThat(mutation.getCodec()).isEqualTo(CommitLogMutationCodec.DEFLATE_V1);
+    assertThat(mutation.entityProtoBytes.length)
+        .isLessThan(convertToPb(rawEntity).toByteArray().length);
+    assertThat(mutation.getEntity()).isEqualTo(rawEntity);
+    assertThat(mutation.getEntityProtoBytes()).isEqualTo(convertToPb(rawEntity).toByteArray());
+  }
+
+  @Test
+  public void test_load_readsMutationsStoredWithEveryCodec() throws Exception {
+    Entity rawEntity = convertToEntityInTxn(someObject);
+    for (CommitLogMutationCodec codec : CommitLogMutationCodec.values()) {
+      CommitLogMutation mutation =
+          CommitLogMutation.createFromRaw(manifestKey, rawEntity, codec);
+      ofy().saveWithoutBackup().entity(mutation).now();
+      ofy().clearSessionCache();
+      CommitLogMutation loaded = ofy().load().entity(mutation).now();
+      assertThat(loaded.getCodec()).isEqualTo(codec);
+      assertThat(loaded.getEntity()).isEqualTo(rawEntity);
+    }
+  }
+
+  @Test
+  public void test_save_mutationStoredAsIs_hasNoCodecProperty() throws Exception {
+    CommitLogMutation mutation =
+        CommitLogMutation.createFromRaw(manifestKey, convertToEntityInTxn(someObject));
+    ofy().saveWithoutBackup().entity(mutation).now();
+    Entity savedMutation = DatastoreServiceFactory.getDatastoreService()
+        .get(Key.create(mutation).getRaw());
+    assertThat(savedMutation.hasProperty("codec")).isFalse();
+  }
+
   private static Entity convertToEntityInTxn(final ImmutableObject object) {
     return ofy().transact(new Work<Entity>() {
       @Override
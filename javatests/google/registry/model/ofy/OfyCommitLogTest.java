@@ -21,6 +21,7 @@ import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
@@ -31,9 +32,12 @@ import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.DatastoreRpcCounter;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
+import java.util.ArrayList;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -391,6 +395,145 @@ public class OfyCommitLogTest {
         .getUpdateAutoTimestamp().getTimestamp()).isEqualTo(clock.nowUtc().minusMillis(1));
   }
 
+  @Test
+  public void testReadingRootWithTimestampInversion_throws() throws Exception {
+    persistRootWithoutCommitLog(1);
+    thrown.expect(TimestampInversionException.class, "Root(1)");
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().load().key(Key.create(getCrossTldKey(), Root.class, 1)).now();
+        ofy().save().entity(Root.create(2, getCrossTldKey()));
+      }});
+  }
+
+  @Test
+  public void testReadingRootWithTimestampInversion_excludedFromCheck_succeeds() throws Exception {
+    persistRootWithoutCommitLog(1);
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        Key<Root> key = Key.create(getCrossTldKey(), Root.class, 1);
+        ofy().load().key(key).now();
+        ofy().excludeReadsFromTimestampCheck(ImmutableList.of(key));
+        ofy().save().entity(Root.create(2, getCrossTldKey()));
+      }});
+    assertThat(ofy().load().type(CommitLogManifest.class)).hasSize(1);
+  }
+
+  @Test
+  public void testSavingRootWithTimestampInversion_excludedFromCheck_stillThrows()
+      throws Exception {
+    persistRootWithoutCommitLog(1);
+    thrown.expect(TimestampInversionException.class, "Root(1)");
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        Key<Root> key = Key.create(getCrossTldKey(), Root.class, 1);
+        ofy().load().key(key).now();
+        ofy().excludeReadsFromTimestampCheck(ImmutableList.of(key));
+        ofy().save().entity(new Child());  // All Child objects are under Root(1).
+      }});
+  }
+
+  @Test
+  public void testTransact_datastoreGetsDontGrowWithSessionSize() throws Exception {
+    persistRootsWithChildren(100);
+    assertThat(countDatastoreGets(readChildrenAndSaveUnrelatedRoot(getChildKeys(100))))
+        .isEqualTo(countDatastoreGets(readChildrenAndSaveUnrelatedRoot(getChildKeys(1))));
+  }
+
+  @Test
+  public void testTransact_rootsAlreadyInSession_areNotLoadedAgain() throws Exception {
+    persistRootsWithChildren(100);
+    final List<Key<Root>> rootKeys = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      rootKeys.add(Key.create(getCrossTldKey(), Root.class, i));
+    }
+    // Loading the roots takes one get, and the commit log reuses them rather than adding another.
+    assertThat(countDatastoreGets(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().load().keys(rootKeys);
+            ofy().save().entity(Root.create(0, getCrossTldKey()));
+          }}))
+        .isEqualTo(countDatastoreGets(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().save().entity(Root.create(0, getCrossTldKey()));
+          }}) + 1);
+  }
+
+  @Test
+  public void testTransact_readsExcludedFromCheck_rootsAreNotLoaded() throws Exception {
+    persistRootsWithChildren(100);
+    final List<Key<Child>> childKeys = getChildKeys(100);
+    assertThat(countDatastoreGets(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().load().keys(childKeys);
+            ofy().excludeReadsFromTimestampCheck(childKeys);
+            ofy().save().entity(Root.create(0, getCrossTldKey()));
+          }}))
+        .isEqualTo(countDatastoreGets(readChildrenAndSaveUnrelatedRoot(childKeys)) - 1);
+  }
+
+  /** Saves a root in a transaction at the current time, without writing a commit log for it. */
+  private void persistRootWithoutCommitLog(final long id) {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().saveWithoutBackup().entity(Root.create(id, getCrossTldKey()));
+      }});
+    ofy().clearSessionCache();
+  }
+
+  /** Saves roots 1 through {@code count}, each with one child, and then advances the clock. */
+  private void persistRootsWithChildren(final int count) {
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        for (int i = 1; i <= count; i++) {
+          ofy().save().entities(Root.create(i, getCrossTldKey()), Child.create(i));
+        }
+      }});
+    clock.advanceOneMilli();
+  }
+
+  private static List<Key<Child>> getChildKeys(int count) {
+    List<Key<Child>> childKeys = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      childKeys.add(Key.create(Child.create(i)));
+    }
+    return childKeys;
+  }
+
+  /** Returns work that reads the given children in one batch and saves a root unrelated to them. */
+  private static VoidWork readChildrenAndSaveUnrelatedRoot(final List<Key<Child>> childKeys) {
+    return new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().load().keys(childKeys);
+        ofy().save().entity(Root.create(0, getCrossTldKey()));
+      }};
+  }
+
+  /**
+   * Runs some work in a transaction, starting with an empty session cache, and returns the number
+   * of datastore gets it made.
+   */
+  private int countDatastoreGets(VoidWork work) {
+    ofy().clearSessionCache();
+    DatastoreRpcCounter counter = DatastoreRpcCounter.install();
+    try {
+      ofy().transact(work);
+    } finally {
+      counter.uninstall();
+    }
+    clock.advanceOneMilli();
+    return counter.getCount("Get");
+  }
+
   @Entity
   static class Root extends BackupGroupRoot {
 
@@ -418,5 +561,11 @@ public class OfyCommitLogTest {
 
     @Id
     long id = 1;
+
+    static Child create(long rootId) {
+      Child result = new Child();
+      result.parent = Key.create(getCrossTldKey(), Root.class, rootId);
+      return result;
+    }
   }
 }
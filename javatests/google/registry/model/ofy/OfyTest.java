@@ -48,11 +48,18 @@ import google.registry.model.eppcommon.Trid;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.DatastoreHelper;
+import google.registry.testing.DatastoreRpcCounter;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.FakeSleeper;
+import google.registry.testing.InjectRule;
 import google.registry.util.SystemClock;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -71,20 +78,31 @@ public class OfyTest {
   @Rule
   public final ExceptionRule thrown = new ExceptionRule();
 
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private ContactResource parentContact;
+
   /** An entity to use in save and delete tests. */
   private HistoryEntry someObject;
 
   @Before
   public void init() {
     createTld("tld");
-    someObject = new HistoryEntry.Builder()
+    parentContact = persistActiveContact("parentContact");
+    someObject = newHistoryEntry();
+    // This can't be initialized earlier because namespaces need the AppEngineRule to work.
+  }
+
+  /** Returns a new history entry, with a new id, in the same entity group as the others. */
+  private HistoryEntry newHistoryEntry() {
+    return new HistoryEntry.Builder()
         .setClientId("client id")
         .setModificationTime(START_OF_TIME)
-        .setParent(persistActiveContact("parentContact"))
+        .setParent(parentContact)
         .setTrid(Trid.create("client", "server"))
         .setXmlBytes("<xml></xml>".getBytes(UTF_8))
         .build();
-    // This can't be initialized earlier because namespaces need the AppEngineRule to work.
   }
 
   private void doBackupGroupRootTimestampInversionTest(VoidWork work) {
@@ -324,6 +342,246 @@ public class OfyTest {
     ofy().transactCommitLoggedWork(commitLoggedWork);
   }
 
+  @Test
+  public void testTransact_datastoreTimeoutException_beforeCommit_retries() {
+    final AtomicInteger attempts = new AtomicInteger();
+    VoidWork work = new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().save().entity(someObject);
+      }};
+    // A commit logged work whose first attempt saves its commit log and then fails, so that the
+    // transaction is rolled back along with the commit log marker.
+    CommitLoggedWork<Void> commitLoggedWork = new CommitLoggedWork<Void>(work, new SystemClock()) {
+      @Override
+      public void vrun() {
+        super.vrun();
+        if (attempts.incrementAndGet() == 1) {
+          throw new DatastoreTimeoutException("");
+        }
+      }};
+    ofy().transactCommitLoggedWork(commitLoggedWork);
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(ofy().load().type(CommitLogManifest.class)).hasSize(1);
+    assertThat(ofy().load().type(CommitLogMarker.class)).hasSize(1);
+  }
+
+  @Test
+  public void testTransact_datastoreTimeoutException_beforeAndAfterCommit_returnsSuccess() {
+    final AtomicInteger attempts = new AtomicInteger();
+    VoidWork work = new VoidWork() {
+      @Override
+      public void vrun() {
+        assertThat(attempts.incrementAndGet()).named("attempt").isAtMost(2);
+        ofy().save().entity(someObject);
+      }};
+    // A commit logged work that fails before committing on its first attempt, and after
+    // committing on its second.
+    CommitLoggedWork<Void> commitLoggedWork = new CommitLoggedWork<Void>(work, new SystemClock()) {
+      boolean firstCallToGetResult = true;
+
+      @Override
+      public void vrun() {
+        super.vrun();
+        if (attempts.get() == 1) {
+          throw new DatastoreFailureException("");
+        }
+      }
+
+      @Override
+      public Void getResult() {
+        if (firstCallToGetResult) {
+          firstCallToGetResult = false;
+          throw new DatastoreTimeoutException("");
+        }
+        return null;
+      }};
+    ofy().transactCommitLoggedWork(commitLoggedWork);
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(ofy().load().type(CommitLogManifest.class)).hasSize(1);
+    assertThat(ofy().load().type(CommitLogMarker.class)).hasSize(1);
+  }
+
+  @Test
+  public void testRunAfterCommit_runsOnceCommitted() {
+    final List<Boolean> ranInTransaction = new ArrayList<>();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().save().entity(someObject);
+        ofy().runAfterCommit(new Runnable() {
+          @Override
+          public void run() {
+            ranInTransaction.add(ofy().inTransaction());
+            assertThat(ofy().load().entity(someObject).now()).isNotNull();
+          }});
+        assertThat(ranInTransaction).isEmpty();
+      }});
+    assertThat(ranInTransaction).containsExactly(false);
+  }
+
+  @Test
+  public void testRunAfterCommit_nestedTransact_runsOnceOuterTransactionCommits() {
+    final List<String> events = new ArrayList<>();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().transact(new VoidWork() {
+          @Override
+          public void vrun() {
+            ofy().runAfterCommit(new Runnable() {
+              @Override
+              public void run() {
+                events.add("action");
+              }});
+          }});
+        events.add("outer work done");
+      }});
+    assertThat(events).containsExactly("outer work done", "action").inOrder();
+  }
+
+  @Test
+  public void testRunAfterCommit_failedAttemptsDropped() {
+    final AtomicInteger attempts = new AtomicInteger();
+    final AtomicInteger actionRuns = new AtomicInteger();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().runAfterCommit(new Runnable() {
+          @Override
+          public void run() {
+            actionRuns.incrementAndGet();
+          }});
+        if (attempts.incrementAndGet() < 3) {
+          throw new TransientFailureException("");
+        }
+      }});
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(actionRuns.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRunAfterCommit_rolledBack_doesntRun() {
+    final AtomicInteger actionRuns = new AtomicInteger();
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+              actionRuns.incrementAndGet();
+            }});
+          throw new IllegalArgumentException();
+        }});
+      fail("Should have thrown");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    assertThat(actionRuns.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRunAfterCommit_failingActionDoesntFailTransaction() {
+    final AtomicInteger actionRuns = new AtomicInteger();
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().save().entity(someObject);
+        ofy().runAfterCommit(new Runnable() {
+          @Override
+          public void run() {
+            throw new IllegalStateException();
+          }});
+        ofy().runAfterCommit(new Runnable() {
+          @Override
+          public void run() {
+            actionRuns.incrementAndGet();
+          }});
+      }});
+    assertThat(actionRuns.get()).isEqualTo(1);
+    assertThat(ofy().load().entity(someObject).now()).isNotNull();
+  }
+
+  @Test
+  public void testRunAfterCommit_outsideTransaction_fails() {
+    thrown.expect(IllegalStateException.class, "Must be called in a transaction");
+    ofy().runAfterCommit(new Runnable() {
+      @Override
+      public void run() {}});
+  }
+
+  @Test
+  public void testTransact_datastoreTimeoutException_afterCommit_detectsSuccessWithOneRead() {
+    assertThat(countDatastoreGetsToDetectSuccess(1)).isEqualTo(1);
+    assertThat(countDatastoreGetsToDetectSuccess(20)).isEqualTo(1);
+  }
+
+  /**
+   * Runs a transaction that saves {@code count} entities and then fails with a timeout after
+   * committing, and returns the number of datastore gets it took to find out that it committed.
+   */
+  private int countDatastoreGetsToDetectSuccess(final int count) {
+    VoidWork work = new VoidWork() {
+      @Override
+      public void vrun() {
+        for (int i = 0; i < count; i++) {
+          ofy().save().entity(newHistoryEntry());
+        }
+      }};
+    final DatastoreRpcCounter[] counter = new DatastoreRpcCounter[1];
+    CommitLoggedWork<Void> commitLoggedWork = new CommitLoggedWork<Void>(work, new SystemClock()) {
+      @Override
+      public Void getResult() {
+        if (counter[0] == null) {
+          // Start counting once the transaction has committed, and then fail.
+          counter[0] = DatastoreRpcCounter.install();
+          throw new DatastoreTimeoutException("");
+        }
+        counter[0].uninstall();
+        return null;
+      }};
+    ofy().transactCommitLoggedWork(commitLoggedWork);
+    return counter[0].getCount("Get");
+  }
+
+  @Test
+  public void testTransact_retriesStopWhenTimeBudgetRunsOut() {
+    final FakeClock clock = new FakeClock(DateTime.parse("2000-01-01TZ"));
+    inject.setStaticField(Ofy.class, "sleeper", new FakeSleeper(clock));
+    final AtomicInteger attempts = new AtomicInteger();
+    try {
+      new Ofy(clock).transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          attempts.incrementAndGet();
+          clock.advanceBy(Duration.standardSeconds(10));
+          throw new TransientFailureException("");
+        }});
+      fail("Expected TransientFailureException");
+    } catch (TransientFailureException e) {
+      // Expected.
+    }
+    // The budget is 25 seconds, so there is no time for a retry after the third attempt.
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testGetRetryBackoff_doublesWithEachAttempt() {
+    Duration base = Duration.millis(100);
+    assertThat(Ofy.getRetryBackoff(base, 0, 0)).isEqualTo(Duration.millis(100));
+    assertThat(Ofy.getRetryBackoff(base, 1, 0)).isEqualTo(Duration.millis(200));
+    assertThat(Ofy.getRetryBackoff(base, 3, 0)).isEqualTo(Duration.millis(800));
+  }
+
+  @Test
+  public void testGetRetryBackoff_jitterTakesOffUpToHalf() {
+    Duration base = Duration.millis(100);
+    assertThat(Ofy.getRetryBackoff(base, 3, 0.5)).isEqualTo(Duration.millis(600));
+    assertThat(Ofy.getRetryBackoff(base, 3, 0.9999)).isEqualTo(Duration.millis(401));
+    assertThat(Ofy.getRetryBackoff(Duration.ZERO, 3, 0.5)).isEqualTo(Duration.ZERO);
+  }
+
   void doReadOnlyRetryTest(final RuntimeException e) {
     assertThat(ofy().transactNewReadOnly(new Work<Integer>() {
 
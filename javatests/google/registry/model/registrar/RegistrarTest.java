@@ -28,6 +28,7 @@ import static google.registry.testing.DatastoreHelper.persistSimpleResources;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
 import google.registry.model.EntityTestCase;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.model.registrar.Registrar.State;
@@ -128,6 +129,29 @@ public class RegistrarTest extends EntityTestCase {
     verifyIndexing(registrar, "registrarName", "ianaIdentifier");
   }
 
+  @Test
+  public void testGetCompiledIpAddressWhitelist() throws Exception {
+    assertThat(registrar.getCompiledIpAddressWhitelist().getBlocks())
+        .isEqualTo(registrar.getIpAddressWhitelist());
+    assertThat(registrar.getCompiledIpAddressWhitelist()
+        .contains(InetAddresses.forString("192.168.1.0"))).isTrue();
+    assertThat(registrar.getCompiledIpAddressWhitelist()
+        .contains(InetAddresses.forString("10.255.0.1"))).isTrue();
+    assertThat(registrar.getCompiledIpAddressWhitelist()
+        .contains(InetAddresses.forString("192.168.1.2"))).isFalse();
+  }
+
+  @Test
+  public void testGetCompiledIpAddressWhitelist_isBuiltOncePerInstance() throws Exception {
+    assertThat(registrar.getCompiledIpAddressWhitelist())
+        .isSameAs(registrar.getCompiledIpAddressWhitelist());
+    Registrar updated = registrar.asBuilder()
+        .setIpAddressWhitelist(ImmutableList.of(CidrAddressBlock.create("1.2.3.4/32")))
+        .build();
+    assertThat(updated.getCompiledIpAddressWhitelist().getBlocks())
+        .containsExactly(CidrAddressBlock.create("1.2.3.4/32"));
+  }
+
   @Test
   public void testFailure_passwordNull() throws Exception {
     thrown.expect(IllegalArgumentException.class, "Password must be [6,16] characters long.");
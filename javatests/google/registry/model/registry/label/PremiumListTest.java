@@ -15,6 +15,7 @@
 package google.registry.model.registry.label;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.label.PremiumList.getPremiumPrice;
 import static google.registry.testing.DatastoreHelper.createTld;
@@ -30,6 +31,7 @@ import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList.PremiumListEntry;
 import google.registry.model.registry.label.PremiumList.PremiumListRevision;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.DatastoreRpcCounter;
 import google.registry.testing.ExceptionRule;
 import java.util.Map;
 import org.joda.money.Money;
@@ -260,13 +262,142 @@ public class PremiumListTest {
             .isNotEqualTo(pl.getRevisionKey());
   }
 
-  /** Persists a premium list with a specified number of nonsense entries. */
-  private PremiumList persistHumongousPremiumList(String name, int size) {
+  /** Reloads a premium list from Datastore, bypassing the caches. */
+  private static PremiumList reload(String name) {
+    ofy().clearSessionCache();
+    return ofy().load().type(PremiumList.class).parent(getCrossTldKey()).id(name).now();
+  }
+
+  private static int countEntries(Key<PremiumListRevision> revisionKey) {
+    return ofy().load().type(PremiumListEntry.class).ancestor(revisionKey).count();
+  }
+
+  @Test
+  public void testSaveIncrementally_onlyWritesChangedEntries() throws Exception {
+    PremiumList pl = persistHumongousPremiumList("tld", 500);
+    PremiumList updated = pl.saveIncrementally(ImmutableList.<String>builder()
+        .add("0,USD 200 # blahz")
+        .add("1,USD 100 # changed comment")
+        .add("new,USD 50")
+        .addAll(ImmutableList.copyOf(generateEntries(500)).subList(3, 500))
+        .build());
+    assertThat(updated.getRevisionKey()).isNotEqualTo(pl.getRevisionKey());
+    assertThat(updated.getAllRevisionKeys())
+        .containsExactly(pl.getRevisionKey(), updated.getRevisionKey())
+        .inOrder();
+    // Two changed, one added and one removed.
+    assertThat(countEntries(updated.getRevisionKey())).isEqualTo(4);
+    assertThat(countEntries(pl.getRevisionKey())).isEqualTo(500);
+    for (PremiumList list : ImmutableList.of(updated, reload("tld"))) {
+      assertThat(list.getPremiumListEntries()).hasSize(500);
+      assertThat(list.getPremiumPrice("0")).hasValue(Money.parse("USD 200"));
+      assertThat(list.getPremiumListEntries().get("1").comment).isEqualTo("changed comment");
+      assertThat(list.getPremiumPrice("2")).isAbsent();
+      assertThat(list.getPremiumPrice("new")).hasValue(Money.parse("USD 50"));
+      assertThat(list.getPremiumPrice("499")).hasValue(Money.parse("USD 100"));
+    }
+    assertThat(getPremiumPrice("2", "tld")).isAbsent();
+    assertThat(getPremiumPrice("new", "tld")).hasValue(Money.parse("USD 50"));
+  }
+
+  @Test
+  public void testSaveIncrementally_removedLabelCanBeAddedBack() throws Exception {
+    PremiumList pl = persistPremiumList("tld", "genius,USD 10", "dolt,JPY 1000");
+    pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10"));
+    assertThat(reload("tld").getPremiumPrice("dolt")).isAbsent();
+    pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10", "dolt,JPY 2000"));
+    assertThat(pl.getAllRevisionKeys()).hasSize(3);
+    assertThat(reload("tld").getPremiumPrice("dolt")).hasValue(Money.parse("JPY 2000"));
+    assertThat(reload("tld").getPremiumListEntries().keySet()).containsExactly("genius", "dolt");
+  }
+
+  @Test
+  public void testSaveIncrementally_noChanges_keepsRevision() throws Exception {
+    PremiumList pl = persistPremiumList("tld", "genius,USD 10", "dolt,JPY 1000");
+    PremiumList updated = pl.saveIncrementally(ImmutableList.of("dolt,JPY 1000", "genius,USD 10"));
+    assertThat(updated.getRevisionKey()).isEqualTo(pl.getRevisionKey());
+    assertThat(updated.getAllRevisionKeys()).containsExactly(pl.getRevisionKey());
+    assertThat(countEntries(pl.getRevisionKey())).isEqualTo(2);
+    assertThat(reload("tld").getPremiumListEntries()).isEqualTo(pl.getPremiumListEntries());
+  }
+
+  @Test
+  public void testSaveIncrementally_rewritesWholeListAfterMaxRevisions() throws Exception {
+    PremiumList pl = persistPremiumList("tld", "genius,USD 10", "dolt,JPY 1000");
+    Key<PremiumListRevision> originalRevision = pl.getRevisionKey();
+    for (int i = 1; i < PremiumList.MAX_REVISION_LAYERS; i++) {
+      pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10", "dolt,JPY " + i));
+      assertThat(pl.getAllRevisionKeys()).hasSize(i + 1);
+    }
+    ImmutableList<Key<PremiumListRevision>> oldRevisions = pl.getAllRevisionKeys();
+    pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10", "dolt,JPY 99"));
+    assertThat(pl.getAllRevisionKeys()).containsExactly(pl.getRevisionKey());
+    assertThat(countEntries(pl.getRevisionKey())).isEqualTo(2);
+    assertThat(countEntries(originalRevision)).isEqualTo(0);
+    for (Key<PremiumListRevision> oldRevision : oldRevisions) {
+      assertThat(countEntries(oldRevision)).isEqualTo(0);
+    }
+    assertThat(reload("tld").getPremiumPrice("dolt")).hasValue(Money.parse("JPY 99"));
+  }
+
+  @Test
+  public void testLoad_queriesAreBoundedByMaxRevisions() throws Exception {
+    PremiumList pl = persistPremiumList("tld", "genius,USD 10", "dolt,JPY 1000");
+    for (int i = 1; i <= 3 * PremiumList.MAX_REVISION_LAYERS; i++) {
+      pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10", "dolt,JPY " + i));
+      assertThat(pl.getAllRevisionKeys().size()).isAtMost(PremiumList.MAX_REVISION_LAYERS);
+      DatastoreRpcCounter counter = DatastoreRpcCounter.install();
+      try {
+        assertThat(reload("tld").getPremiumPrice("dolt")).hasValue(Money.parse("JPY " + i));
+      } finally {
+        counter.uninstall();
+      }
+      assertThat(counter.getCount("RunQuery")).isEqualTo(pl.getAllRevisionKeys().size());
+      assertThat(counter.getCount("RunQuery")).isAtMost(PremiumList.MAX_REVISION_LAYERS);
+    }
+  }
+
+  @Test
+  public void testDelete_incrementallySavedList_deletesAllRevisions() throws Exception {
+    PremiumList pl = persistPremiumList("gtld1", "trombone,USD 10", "tuba,USD 20");
+    pl = pl.saveIncrementally(ImmutableList.of("trombone,USD 15"));
+    ImmutableList<Key<PremiumListRevision>> revisions = pl.getAllRevisionKeys();
+    assertThat(revisions).hasSize(2);
+    pl.delete();
+    assertThat(PremiumList.get("gtld1")).isAbsent();
+    for (Key<PremiumListRevision> revision : revisions) {
+      assertThat(countEntries(revision)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testSaveAndUpdateEntries_afterIncrementalSave_replacesAllRevisions()
+      throws Exception {
+    PremiumList pl = persistPremiumList("tld", "genius,USD 10", "dolt,JPY 1000");
+    pl = pl.saveIncrementally(ImmutableList.of("genius,USD 10"));
+    ImmutableList<Key<PremiumListRevision>> oldRevisions = pl.getAllRevisionKeys();
+    pl = pl.asBuilder()
+        .setPremiumListMapFromLines(ImmutableList.of("savant,USD 90"))
+        .build()
+        .saveAndUpdateEntries();
+    assertThat(pl.getAllRevisionKeys()).containsExactly(pl.getRevisionKey());
+    for (Key<PremiumListRevision> oldRevision : oldRevisions) {
+      assertThat(countEntries(oldRevision)).isEqualTo(0);
+    }
+    assertThat(reload("tld").getPremiumListEntries().keySet()).containsExactly("savant");
+  }
+
+  private static String[] generateEntries(int size) {
     String[] entries = new String[size];
     for (int i = 0; i < size; i++) {
       entries[i] = String.format("%d,USD 100 # blahz", i);
     }
-    return persistPremiumList(name, entries);
+    return entries;
+  }
+
+  /** Persists a premium list with a specified number of nonsense entries. */
+  private PremiumList persistHumongousPremiumList(String name, int size) {
+    return persistPremiumList(name, generateEntries(size));
   }
 
   /** Gets the label of a premium list entry. */
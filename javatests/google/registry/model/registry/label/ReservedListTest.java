@@ -18,9 +18,11 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static google.registry.model.registry.label.ReservationType.ALLOWED_IN_SUNRISE;
 import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
+import static google.registry.model.registry.label.ReservationType.NAME_COLLISION;
 import static google.registry.model.registry.label.ReservationType.RESERVED_FOR_ANCHOR_TENANT;
 import static google.registry.model.registry.label.ReservationType.UNRESERVED;
 import static google.registry.model.registry.label.ReservedList.getReservation;
+import static google.registry.model.registry.label.ReservedList.getReservations;
 import static google.registry.model.registry.label.ReservedList.matchesAnchorTenantReservation;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistReservedList;
@@ -28,6 +30,7 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
 import com.googlecode.objectify.Key;
@@ -159,6 +162,27 @@ public class ReservedListTest {
     assertThat(getReservation("doge", "tld")).isEqualTo(UNRESERVED);
   }
 
+  @Test
+  public void testGetReservations_matchesGetReservation() throws Exception {
+    ReservedList rl1 = persistReservedList(
+        "reserved1",
+        "lol,FULLY_BLOCKED",
+        "cat,ALLOWED_IN_SUNRISE");
+    ReservedList rl2 = persistReservedList(
+        "reserved2",
+        "cat,NAME_COLLISION",
+        "roflcopter,RESERVED_FOR_ANCHOR_TENANT,foo");
+    createTld("tld");
+    persistResource(Registry.get("tld").asBuilder().setReservedLists(rl1, rl2).build());
+    ImmutableList<String> labels = ImmutableList.of("lol", "cat", "roflcopter", "doge", "");
+    ImmutableMap<String, ReservationType> reservations = getReservations(labels, "tld");
+    assertThat(reservations.keySet()).containsExactlyElementsIn(labels).inOrder();
+    for (String label : labels) {
+      assertThat(reservations.get(label)).isEqualTo(getReservation(label, "tld"));
+    }
+    assertThat(reservations.get("cat")).isEqualTo(NAME_COLLISION);
+  }
+
   @Test
   public void testGetReservation_worksAfterReservedListRemovedUsingSet() throws Exception {
     ReservedList rl1 = persistReservedList(
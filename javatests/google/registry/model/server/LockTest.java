@@ -14,13 +14,24 @@
 
 package google.registry.model.server;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Ordering;
 import google.registry.model.ofy.Ofy;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.Duration;
 import org.junit.Rule;
 import org.junit.Test;
@@ -34,6 +45,7 @@ public class LockTest {
   private static final String RESOURCE_NAME = "foo";
   private static final Duration ONE_DAY = Duration.standardDays(1);
   private static final Duration TWO_MILLIS = Duration.millis(2);
+  private static final Duration TEN_SECONDS = Duration.standardSeconds(10);
 
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder()
@@ -109,4 +121,263 @@ public class LockTest {
     thrown.expect(IllegalArgumentException.class, "resourceName cannot be null or empty");
     Lock.acquire(String.class, "", "", TWO_MILLIS);
   }
+
+  @Test
+  public void testFencingTokens_increaseAcrossAcquisitions() throws Exception {
+    Lock first = Lock.acquire(getClass(), RESOURCE_NAME, "", ONE_DAY);
+    first.release();
+    Lock second = Lock.acquire(getClass(), RESOURCE_NAME, "", ONE_DAY);
+    assertThat(second.getFencingToken()).isGreaterThan(first.getFencingToken());
+    // Locks for other tlds have their own sequence of tokens.
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "a", ONE_DAY).getFencingToken())
+        .isEqualTo(first.getFencingToken());
+  }
+
+  @Test
+  public void testFencingTokens_increaseAfterExpiration() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock first = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceBy(TWO_MILLIS);
+    Lock second = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    assertThat(second.getFencingToken()).isEqualTo(first.getFencingToken() + 1);
+    // Releasing the expired lock doesn't release the lock that replaced it.
+    first.release();
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNull();
+  }
+
+  @Test
+  public void testRenew() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceOneMilli();
+    Lock renewedLock = lock.renew(TWO_MILLIS);
+    assertThat(renewedLock).isNotNull();
+    assertThat(renewedLock.getFencingToken()).isEqualTo(lock.getFencingToken());
+    // The original lease would have run out by now, but the renewed one hasn't.
+    clock.advanceOneMilli();
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNull();
+    clock.advanceOneMilli();
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNotNull();
+  }
+
+  @Test
+  public void testRenew_failsOnceLockIsTakenOver() throws Exception {
+    FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    Lock lock = Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS);
+    clock.advanceBy(TWO_MILLIS);
+    assertThat(lock.renew(TWO_MILLIS)).isNull();
+    assertThat(Lock.acquire(getClass(), RESOURCE_NAME, "", TWO_MILLIS)).isNotNull();
+    assertThat(lock.renew(TWO_MILLIS)).isNull();
+  }
+
+  @Test
+  public void testExecuteWithLocks_exposesFencingToken() throws Exception {
+    final List<Optional<Long>> tokens = new ArrayList<>();
+    Callable<Void> callable = new Callable<Void>() {
+      @Override
+      public Void call() {
+        tokens.add(Lock.getHeldFencingToken(RESOURCE_NAME, "tld"));
+        return null;
+      }};
+    assertThat(Lock.executeWithLocks(callable, null, "tld", TEN_SECONDS, RESOURCE_NAME)).isTrue();
+    assertThat(Lock.executeWithLocks(callable, null, "tld", TEN_SECONDS, RESOURCE_NAME)).isTrue();
+    assertThat(tokens.get(0).get()).isLessThan(tokens.get(1).get());
+    assertThat(Lock.getHeldFencingToken(RESOURCE_NAME, "tld")).isAbsent();
+  }
+
+  @Test
+  public void testExecuteWithLocks_nestedCallIsContended() throws Exception {
+    final AtomicBoolean nestedResult = new AtomicBoolean(true);
+    assertThat(
+        Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                nestedResult.set(
+                    Lock.executeWithLocks(
+                        new Callable<Void>() {
+                          @Override
+                          public Void call() {
+                            throw new AssertionError("Should not run");
+                          }},
+                        null,
+                        "tld",
+                        TEN_SECONDS,
+                        RESOURCE_NAME));
+                return null;
+              }},
+            null,
+            "tld",
+            TEN_SECONDS,
+            RESOURCE_NAME))
+        .isTrue();
+    assertThat(nestedResult.get()).isFalse();
+  }
+
+  @Test
+  public void testExecuteWithReentrantLocks_nestedCallReusesLease() throws Exception {
+    final List<Optional<Long>> tokens =
+        Collections.synchronizedList(new ArrayList<Optional<Long>>());
+    assertThat(
+        Lock.executeWithReentrantLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                tokens.add(Lock.getHeldFencingToken(RESOURCE_NAME, "tld"));
+                assertThat(
+                    Lock.executeWithReentrantLocks(
+                        new Callable<Void>() {
+                          @Override
+                          public Void call() {
+                            tokens.add(Lock.getHeldFencingToken(RESOURCE_NAME, "tld"));
+                            return null;
+                          }},
+                        null,
+                        "tld",
+                        TEN_SECONDS,
+                        RESOURCE_NAME))
+                    .isTrue();
+                // The nested call didn't release the lock out from under us.
+                assertThat(Lock.acquire(null, RESOURCE_NAME, "tld", TEN_SECONDS)).isNull();
+                return null;
+              }},
+            null,
+            "tld",
+            ONE_DAY,
+            RESOURCE_NAME))
+        .isTrue();
+    assertThat(tokens).hasSize(2);
+    assertThat(tokens.get(1)).isEqualTo(tokens.get(0));
+    // Once the outermost call returns, the lock is free again.
+    assertThat(Lock.acquire(null, RESOURCE_NAME, "tld", TEN_SECONDS)).isNotNull();
+  }
+
+  @Test
+  public void testExecuteWithLocks_localHolderBlocksOtherThreads() throws Exception {
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread holder = currentRequestThreadFactory().newThread(new Runnable() {
+      @Override
+      public void run() {
+        Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                acquired.countDown();
+                done.await(5, SECONDS);
+                return null;
+              }},
+            null,
+            "tld",
+            TEN_SECONDS,
+            RESOURCE_NAME);
+      }});
+    holder.start();
+    assertThat(acquired.await(5, SECONDS)).isTrue();
+    assertThat(
+        Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                throw new AssertionError("Should not run");
+              }},
+            null,
+            "tld",
+            TEN_SECONDS,
+            RESOURCE_NAME))
+        .isFalse();
+    done.countDown();
+    holder.join();
+  }
+
+  @Test
+  public void testExecuteWithLocks_localLeaseExpiresWithOfyClock() throws Exception {
+    final FakeClock clock = new FakeClock();
+    inject.setStaticField(Ofy.class, "clock", clock);
+    final CountDownLatch acquired = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread holder = currentRequestThreadFactory().newThread(new Runnable() {
+      @Override
+      public void run() {
+        Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                acquired.countDown();
+                done.await(5, SECONDS);
+                return null;
+              }},
+            null,
+            "tld",
+            TEN_SECONDS,
+            RESOURCE_NAME);
+      }});
+    holder.start();
+    assertThat(acquired.await(5, SECONDS)).isTrue();
+    // The holder is still running, but its lease has run out by the clock that set it, so the lock
+    // is neither held locally nor in datastore.
+    clock.advanceBy(TEN_SECONDS.plus(TWO_MILLIS));
+    final AtomicBoolean ran = new AtomicBoolean();
+    assertThat(
+        Lock.executeWithLocks(
+            new Callable<Void>() {
+              @Override
+              public Void call() {
+                ran.set(true);
+                return null;
+              }},
+            null,
+            "tld",
+            TEN_SECONDS,
+            RESOURCE_NAME))
+        .isTrue();
+    assertThat(ran.get()).isTrue();
+    done.countDown();
+    holder.join();
+  }
+
+  @Test
+  public void testExecuteWithLocks_manyWorkersCompetingForOneTldLock() throws Exception {
+    final int numWorkers = 8;
+    final int runsPerWorker = 5;
+    final AtomicInteger activeHolders = new AtomicInteger();
+    final AtomicBoolean sawOverlap = new AtomicBoolean();
+    final List<Long> tokens = Collections.synchronizedList(new ArrayList<Long>());
+    final Callable<Void> work = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        if (activeHolders.incrementAndGet() > 1) {
+          sawOverlap.set(true);
+        }
+        // Tokens are appended while holding the lock, so the list is in acquisition order.
+        tokens.add(Lock.getHeldFencingToken(RESOURCE_NAME, "tld").get());
+        Thread.sleep(1);
+        activeHolders.decrementAndGet();
+        return null;
+      }};
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < numWorkers; i++) {
+      workers.add(currentRequestThreadFactory().newThread(new Runnable() {
+        @Override
+        public void run() {
+          for (int successes = 0; successes < runsPerWorker; ) {
+            if (Lock.executeWithLocks(work, null, "tld", TEN_SECONDS, RESOURCE_NAME)) {
+              successes++;
+            }
+          }
+        }}));
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertThat(sawOverlap.get()).isFalse();
+    assertThat(tokens).hasSize(numWorkers * runsPerWorker);
+    assertThat(Ordering.natural().isStrictlyOrdered(tokens)).isTrue();
+  }
 }
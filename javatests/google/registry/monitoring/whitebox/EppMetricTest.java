@@ -46,6 +46,7 @@ public class EppMetricTest {
             .setEppTarget("target")
             .setStatus(Code.COMMAND_USE_ERROR)
             .incrementAttempts()
+            .setDatastoreLoads(3)
             .build();
 
     assertThat(metric.getBigQueryRowEncoding())
@@ -60,6 +61,7 @@ public class EppMetricTest {
                 .put("eppTarget", "target")
                 .put("eppStatus", "2002")
                 .put("attempts", "1")
+                .put("datastoreLoads", "3")
                 .build());
   }
 
@@ -76,6 +78,7 @@ public class EppMetricTest {
             .setEppTarget("target")
             .setStatus(Code.COMMAND_USE_ERROR)
             .incrementAttempts()
+            .setDatastoreLoads(3)
             .build();
     ImmutableSet.Builder<String> schemaFieldNames = new ImmutableSet.Builder<>();
     for (TableFieldSchema schemaField : metric.getSchemaFields()) {
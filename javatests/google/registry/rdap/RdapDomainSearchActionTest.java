@@ -707,6 +707,15 @@ public class RdapDomainSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(200);
   }
 
+  @Test
+  public void testNameserverMatchWithWildcard_tooManyHostsForIndex_found() throws Exception {
+    inject.setStaticField(RdapHostNameIndex.class, "maxHosts", 1);
+    assertThat(generateActualJson(RequestType.NS_LDH_NAME, "ns2.cat.l*"))
+        .isEqualTo(
+            generateExpectedJsonForDomain("cat.lol", null, "C-LOL", "rdap_domain.json"));
+    assertThat(response.getStatus()).isEqualTo(200);
+  }
+
   @Test
   public void testNameserverMatchWithWildcardAndTldSuffix_notFound() throws Exception {
     generateActualJson(RequestType.NS_LDH_NAME, "ns2.cat*.lol");
@@ -851,6 +860,16 @@ public class RdapDomainSearchActionTest {
     checkNumberOfDomainsInResult(obj, 3);
   }
 
+  @Test
+  public void testNameserverMatchManyNameserversForTheSameDomains_tooManyHostsForIndex()
+      throws Exception {
+    inject.setStaticField(RdapHostNameIndex.class, "maxHosts", 1);
+    createManyDomainsAndHosts(3, 1, 40);
+    Object obj = generateActualJson(RequestType.NS_LDH_NAME, "ns1.domain1.l*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    checkNumberOfDomainsInResult(obj, 3);
+  }
+
   @Test
   public void testNameserverMatchManyNameserversForTheSameDomainsWithSuffix() throws Exception {
     // Same as above, except that we find all 40 nameservers because of the wildcard. But we
@@ -0,0 +1,164 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rdap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedHost;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
+import google.registry.model.host.HostResource;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.InjectRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RdapHostNameIndex}. */
+@RunWith(JUnit4.class)
+public class RdapHostNameIndexTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private static Key<HostResource> key(String name) {
+    return Key.create(HostResource.class, name.toUpperCase() + "-ROID");
+  }
+
+  private static RdapHostNameIndex createIndex(String... names) {
+    ImmutableMap.Builder<String, Key<HostResource>> builder = new ImmutableMap.Builder<>();
+    for (String name : names) {
+      builder.put(name, key(name));
+    }
+    return RdapHostNameIndex.create(builder.build());
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    RdapHostNameIndex index = createIndex();
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.countWithPrefix("ns")).isEqualTo(0);
+    assertThat(index.getKeysWithPrefix("ns", 10)).isEmpty();
+    assertThat(index.getKey("ns1.cat.lol")).isNull();
+  }
+
+  @Test
+  public void testPrefixSearch_returnsMatchesInNameOrder() throws Exception {
+    RdapHostNameIndex index =
+        createIndex("ns2.cat.lol", "ns1.cat2.lol", "ns1.cat.lol", "ns1.dog.lol", "ns1.cat");
+    assertThat(index.size()).isEqualTo(5);
+    assertThat(index.countWithPrefix("ns1.cat")).isEqualTo(3);
+    assertThat(index.getKeysWithPrefix("ns1.cat", 10))
+        .containsExactly(key("ns1.cat"), key("ns1.cat.lol"), key("ns1.cat2.lol"))
+        .inOrder();
+    assertThat(index.countWithPrefix("ns")).isEqualTo(5);
+    assertThat(index.countWithPrefix("ns1.cat.l")).isEqualTo(1);
+    assertThat(index.countWithPrefix("ns1.cat.lol")).isEqualTo(1);
+    assertThat(index.countWithPrefix("ns1.cat.lolz")).isEqualTo(0);
+    assertThat(index.countWithPrefix("ns3")).isEqualTo(0);
+    assertThat(index.countWithPrefix("xy")).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrefixSearch_respectsLimit() throws Exception {
+    RdapHostNameIndex index = createIndex("ns1.cat.lol", "ns2.cat.lol", "ns3.cat.lol");
+    assertThat(index.getKeysWithPrefix("ns", 2))
+        .containsExactly(key("ns1.cat.lol"), key("ns2.cat.lol"))
+        .inOrder();
+    assertThat(index.getKeysWithPrefix("ns", 0)).isEmpty();
+    assertThat(index.countWithPrefix("ns")).isEqualTo(3);
+  }
+
+  @Test
+  public void testPrefixSearch_respectsOffset() throws Exception {
+    RdapHostNameIndex index =
+        createIndex("ns1.cat.lol", "ns1.cat.lol.example", "ns2.cat.lol", "ns3.cat.lol", "xy.lol");
+    assertThat(index.getKeysWithPrefix("ns", 1, 2))
+        .containsExactly(key("ns1.cat.lol.example"), key("ns2.cat.lol"))
+        .inOrder();
+    assertThat(index.getKeysWithPrefix("ns", 3, 10)).containsExactly(key("ns3.cat.lol"));
+    assertThat(index.getKeysWithPrefix("ns", 4, 10)).isEmpty();
+    assertThat(index.getKeysWithPrefix("ns2", 1, 10)).isEmpty();
+    assertThat(index.getKeysWithPrefix("", 4, 10)).containsExactly(key("xy.lol"));
+  }
+
+  @Test
+  public void testGetKey_onlyMatchesWholeNames() throws Exception {
+    RdapHostNameIndex index = createIndex("ns1.cat.lol", "ns1.cat.lol.example");
+    assertThat(index.getKey("ns1.cat.lol")).isEqualTo(key("ns1.cat.lol"));
+    assertThat(index.getKey("ns1.cat.lol.example")).isEqualTo(key("ns1.cat.lol.example"));
+    assertThat(index.getKey("ns1.cat")).isNull();
+    assertThat(index.getKey("ns1.cat.lol.")).isNull();
+    assertThat(index.getKey("ns1.dog.lol")).isNull();
+  }
+
+  @Test
+  public void testManyNames_matchesSortedMap() throws Exception {
+    TreeMap<String, Key<HostResource>> names = new TreeMap<>();
+    for (int i = 0; i < 2000; i++) {
+      String name = String.format("ns%d.example%d.lol", i % 7, i);
+      names.put(name, key(name));
+    }
+    RdapHostNameIndex index = RdapHostNameIndex.create(names);
+    assertThat(index.size()).isEqualTo(2000);
+    for (String prefix : ImmutableList.of("ns", "ns3", "ns3.example1", "ns3.example19", "ns9")) {
+      List<Key<HostResource>> expected = new ArrayList<>();
+      for (Map.Entry<String, Key<HostResource>> entry : names.entrySet()) {
+        if (entry.getKey().startsWith(prefix)) {
+          expected.add(entry.getValue());
+        }
+      }
+      assertThat(index.countWithPrefix(prefix)).isEqualTo(expected.size());
+      assertThat(index.getKeysWithPrefix(prefix, 5000))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void testGet_loadsActiveHostsFromDatastore() throws Exception {
+    createTld("lol");
+    HostResource host1 = persistActiveHost("ns1.cat.lol");
+    HostResource host2 = persistActiveHost("ns2.cat.lol");
+    persistDeletedHost("ns3.cat.lol", DateTime.parse("2000-01-01T00:00:00Z"));
+    RdapHostNameIndex index = RdapHostNameIndex.get().get();
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.getKeysWithPrefix("ns", 10))
+        .containsExactly(Key.create(host1), Key.create(host2))
+        .inOrder();
+    assertThat(index.getKey("ns3.cat.lol")).isNull();
+  }
+
+  @Test
+  public void testGet_tooManyHosts_isAbsent() throws Exception {
+    inject.setStaticField(RdapHostNameIndex.class, "maxHosts", 2);
+    createTld("lol");
+    persistActiveHost("ns1.cat.lol");
+    persistActiveHost("ns2.cat.lol");
+    assertThat(RdapHostNameIndex.get().get().size()).isEqualTo(2);
+    persistActiveHost("ns3.cat.lol");
+    assertThat(RdapHostNameIndex.get().isPresent()).isFalse();
+  }
+}
@@ -26,6 +26,7 @@ import static google.registry.testing.FullFieldsTestEntityHelper.makeHostResourc
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrar;
 import static google.registry.testing.FullFieldsTestEntityHelper.makeRegistrarContacts;
 import static google.registry.testing.TestDataHelper.loadFileWithSubstitutions;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -35,12 +36,15 @@ import com.google.common.net.InetAddresses;
 import com.googlecode.objectify.Key;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.InjectRule;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 import org.json.simple.JSONValue;
@@ -194,6 +198,13 @@ public class RdapNameserverSearchActionTest {
     return builder.build();
   }
 
+  /** Asserts how many nameservers the last search returned, and whether it was truncated. */
+  private void assertSearchResults(int numHosts, boolean isTruncated) {
+    Map<?, ?> json = (Map<?, ?>) JSONValue.parse(response.getPayload());
+    assertThat((List<?>) json.get("nameserverSearchResults")).hasSize(numHosts);
+    assertThat(response.getPayload().contains("result set truncated")).isEqualTo(isTruncated);
+  }
+
   private void createManyHosts(int numHosts) {
     ImmutableList.Builder<HostResource> hostsBuilder = new ImmutableList.Builder<>();
     ImmutableSet.Builder<String> subordinateHostsBuilder = new ImmutableSet.Builder<>();
@@ -380,6 +391,48 @@ public class RdapNameserverSearchActionTest {
     assertThat(response.getStatus()).isEqualTo(200);
   }
 
+  @Test
+  public void testNameMatch_prefixWithoutSuffix_truncatedResultSet() throws Exception {
+    // There are five hosts starting with ns1.cat, in the lol, external, 1.test and IDN TLDs.
+    generateActualJsonWithName("ns1.cat*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertSearchResults(4, true);
+  }
+
+  @Test
+  public void testNameMatch_prefixWithoutSuffix_skipsHostsDeletedSinceIndexBuilt()
+      throws Exception {
+    makeAndPersistHostResource("ns1.cat3.lol", null, null, clock.nowUtc().minusYears(1));
+    // Leave the host's foreign key index active, as if the host were deleted after the host name
+    // index was built. Five hosts are left, so the results must still be truncated.
+    HostResource deletedHost = persistResource(
+        hostNs1Cat2Lol.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    persistResource(ForeignKeyIndex.create(deletedHost, END_OF_TIME));
+    generateActualJsonWithName("ns1.cat*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertSearchResults(4, true);
+    assertThat(response.getPayload()).doesNotContain("ns1.cat2.lol");
+  }
+
+  @Test
+  public void testNameMatch_prefixWithoutSuffix_tooManyHostsForIndex() throws Exception {
+    inject.setStaticField(RdapHostNameIndex.class, "maxHosts", 1);
+    generateActualJsonWithName("ns1.cat*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertSearchResults(4, true);
+  }
+
+  @Test
+  public void testNameMatch_prefixWithoutSuffix_tooManyHostsForIndex_nontruncated()
+      throws Exception {
+    inject.setStaticField(RdapHostNameIndex.class, "maxHosts", 1);
+    persistResource(
+        hostNs1Cat2Lol.asBuilder().setDeletionTime(clock.nowUtc().minusDays(1)).build());
+    generateActualJsonWithName("ns1.cat*");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertSearchResults(4, false);
+  }
+
   @Test
   public void testNameMatchDeletedHost_foundTheOtherHost() throws Exception {
     persistResource(
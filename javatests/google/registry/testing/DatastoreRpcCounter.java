@@ -0,0 +1,130 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.testing;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.logging.LogRecord;
+
+/**
+ * Counts the datastore RPCs made through the App Engine API proxy while installed, by API method,
+ * e.g. "Get", "RunQuery" or "Commit".
+ *
+ * <p>Calls made on every thread are counted together, which is what {@link #getCounts} returns.
+ * The calls made on one thread can also be counted on their own between
+ * {@link #startCountingThread} and {@link #stopCountingThread}, so as to attribute them to one of
+ * several operations running concurrently.
+ */
+public final class DatastoreRpcCounter implements Delegate<Environment> {
+
+  private final Delegate<Environment> delegate;
+  private final Multiset<String> counts = ConcurrentHashMultiset.create();
+  private final ThreadLocal<Multiset<String>> threadCounts = new ThreadLocal<>();
+
+  private DatastoreRpcCounter(Delegate<Environment> delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Starts counting datastore RPCs, until {@link #uninstall} is called. */
+  @SuppressWarnings("unchecked")
+  public static DatastoreRpcCounter install() {
+    DatastoreRpcCounter counter = new DatastoreRpcCounter(ApiProxy.getDelegate());
+    ApiProxy.setDelegate(counter);
+    return counter;
+  }
+
+  public void uninstall() {
+    ApiProxy.setDelegate(delegate);
+  }
+
+  /** Returns the number of calls made on any thread so far, by method. */
+  public ImmutableMultiset<String> getCounts() {
+    return ImmutableMultiset.copyOf(counts);
+  }
+
+  /** Returns the number of calls made to the given method on any thread so far. */
+  public int getCount(String methodName) {
+    return counts.count(methodName);
+  }
+
+  /** Returns the number of calls made to any method on any thread so far. */
+  public int getTotalCount() {
+    return counts.size();
+  }
+
+  /** Starts counting the calls made on this thread on their own. */
+  public void startCountingThread() {
+    threadCounts.set(HashMultiset.<String>create());
+  }
+
+  /** Stops counting the calls made on this thread, and returns their counts by method. */
+  public ImmutableMultiset<String> stopCountingThread() {
+    Multiset<String> result = threadCounts.get();
+    threadCounts.remove();
+    return result == null ? ImmutableMultiset.<String>of() : ImmutableMultiset.copyOf(result);
+  }
+
+  private void record(String packageName, String methodName) {
+    if (!packageName.equals("datastore_v3")) {
+      return;
+    }
+    counts.add(methodName);
+    Multiset<String> countsForThread = threadCounts.get();
+    if (countsForThread != null) {
+      countsForThread.add(methodName);
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(
+      Environment environment, String packageName, String methodName, byte[] request) {
+    record(packageName, methodName);
+    return delegate.makeSyncCall(environment, packageName, methodName, request);
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(
+      Environment environment,
+      String packageName,
+      String methodName,
+      byte[] request,
+      ApiConfig apiConfig) {
+    record(packageName, methodName);
+    return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+}
@@ -15,11 +15,22 @@
 package google.registry.tldconfig.idn;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 import static google.registry.tldconfig.idn.IdnLabelValidator.findValidIdnTableForTld;
+import static google.registry.tldconfig.idn.IdnTableTest.loadCodepointsAsRangeSet;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
 import google.registry.testing.InjectRule;
+import google.registry.util.Idn;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -114,4 +125,71 @@ public class IdnLabelValidatorTest {
     assertThat(findValidIdnTableForTld("foo", "tld")).isPresent();
     assertThat(findValidIdnTableForTld("みんな",  "tld")).isAbsent();
   }
+
+  @Test
+  public void testRandomLabels_matchCheckingEachTableInTurn() throws Exception {
+    Map<IdnTableEnum, RangeSet<Integer>> rangeSets = new EnumMap<>(IdnTableEnum.class);
+    List<Integer> tableCodepoints = new ArrayList<>();
+    for (IdnTableEnum idnTable : IdnTableEnum.values()) {
+      rangeSets.put(idnTable, loadCodepointsAsRangeSet(idnTable));
+      for (Range<Integer> range : rangeSets.get(idnTable).asRanges()) {
+        for (int codepoint = range.lowerEndpoint();
+            codepoint <= range.upperEndpoint();
+            codepoint++) {
+          tableCodepoints.add(codepoint);
+        }
+      }
+    }
+    Random random = new Random(1234);
+    for (ImmutableList<IdnTableEnum> idnTables : ImmutableList.of(
+        ImmutableList.of(IdnTableEnum.EXTENDED_LATIN, IdnTableEnum.JA),
+        ImmutableList.of(IdnTableEnum.JA, IdnTableEnum.EXTENDED_LATIN),
+        ImmutableList.of(IdnTableEnum.JA))) {
+      inject.setStaticField(
+          IdnLabelValidator.class, "idnTableListsPerTld", ImmutableMap.of("tld", idnTables));
+      for (int i = 0; i < 20000; i++) {
+        StringBuilder label = new StringBuilder();
+        for (int length = 1 + random.nextInt(20); length > 0; length--) {
+          int codepoint;
+          switch (random.nextInt(10)) {
+            case 0:
+              // Any codepoint, other than a lone surrogate.
+              do {
+                codepoint = random.nextInt(Character.MAX_CODE_POINT + 1);
+              } while (Character.getType(codepoint) == Character.SURROGATE);
+              break;
+            case 1:
+              // One of the characters that the Japanese language rules single out.
+              codepoint = "\u30fb\u3006\u30fc".codePointAt(random.nextInt(3));
+              break;
+            default:
+              codepoint = tableCodepoints.get(random.nextInt(tableCodepoints.size()));
+          }
+          label.appendCodePoint(codepoint);
+        }
+        String labelString = label.toString();
+        assertWithMessage(labelString)
+            .that(findValidIdnTableForTld(labelString, "tld"))
+            .isEqualTo(findValidIdnTableByCheckingEachTable(labelString, idnTables, rangeSets));
+      }
+    }
+  }
+
+  /** Finds the valid IDN table for a label the way {@link IdnLabelValidator} used to. */
+  private static Optional<String> findValidIdnTableByCheckingEachTable(
+      String label, List<IdnTableEnum> idnTables, Map<IdnTableEnum, RangeSet<Integer>> rangeSets) {
+    String unicodeString = Idn.toUnicode(label);
+    for (IdnTableEnum idnTable : idnTables) {
+      boolean allCodepointsValid = true;
+      for (int i = 0; i < unicodeString.length(); ) {
+        int codepoint = unicodeString.codePointAt(i);
+        allCodepointsValid &= rangeSets.get(idnTable).contains(codepoint);
+        i += Character.charCount(codepoint);
+      }
+      if (allCodepointsValid && idnTable.getTable().isValidLabelForLanguage(unicodeString)) {
+        return Optional.of(idnTable.getTable().getName());
+      }
+    }
+    return Optional.absent();
+  }
 }
@@ -14,11 +14,20 @@
 
 package google.registry.tldconfig.idn;
 
+import static com.google.common.io.Resources.readLines;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Ascii;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.io.Resources;
 import google.registry.testing.ExceptionRule;
+import java.io.IOException;
 import java.net.URI;
 import org.junit.Rule;
 import org.junit.Test;
@@ -93,6 +102,23 @@ public class IdnTableTest {
     assertThat(idnTable.isValidLabel("𠜎567𠜱")).isTrue();
   }
 
+  @Test
+  public void testContainsCodepoint_matchesRangeSetOfTableFile_forAllCodepoints()
+      throws Exception {
+    for (IdnTableEnum idnTable : IdnTableEnum.values()) {
+      RangeSet<Integer> expected = loadCodepointsAsRangeSet(idnTable);
+      for (int codepoint = Character.MIN_CODE_POINT;
+          codepoint <= Character.MAX_CODE_POINT;
+          codepoint++) {
+        if (idnTable.getTable().containsCodepoint(codepoint) != expected.contains(codepoint)) {
+          assertWithMessage(String.format("%s U+%04X", idnTable, codepoint))
+              .that(idnTable.getTable().containsCodepoint(codepoint))
+              .isEqualTo(expected.contains(codepoint));
+        }
+      }
+    }
+  }
+
   @Test
   public void testSpecialComments_getParsed() {
     ImmutableList<String> of = ImmutableList.<String>of(
@@ -119,4 +145,23 @@ public class IdnTableTest {
     thrown.expect(NullPointerException.class, "sloth missing '# Policy:");
     IdnTable.createFrom("sloth", of, Optional.<LanguageValidator>absent());
   }
+
+  /**
+   * Reads the codepoints of an IDN table file into a {@link RangeSet}, which is how
+   * {@link IdnTable} used to hold them, to check the current implementation against.
+   */
+  static RangeSet<Integer> loadCodepointsAsRangeSet(IdnTableEnum idnTable) throws IOException {
+    ImmutableRangeSet.Builder<Integer> rangeSet = new ImmutableRangeSet.Builder<>();
+    for (String line : readLines(
+        Resources.getResource(
+            IdnTableEnum.class, Ascii.toLowerCase(idnTable.name()) + ".txt"),
+        UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      rangeSet.add(Range.singleton(Integer.valueOf(line.substring(2).split("\\s")[0], 16)));
+    }
+    return rangeSet.build();
+  }
 }
@@ -14,9 +14,12 @@
 
 package google.registry.tools;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.request.JsonResponse.JSON_SAFETY_PREFIX;
+import static google.registry.tools.server.ListObjectsAction.CURSOR_PARAM;
 import static google.registry.tools.server.ListObjectsAction.FIELDS_PARAM;
 import static google.registry.tools.server.ListObjectsAction.FULL_FIELD_NAMES_PARAM;
+import static google.registry.tools.server.ListObjectsAction.LIMIT_PARAM;
 import static google.registry.tools.server.ListObjectsAction.PRINT_HEADER_ROW_PARAM;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
@@ -172,4 +175,53 @@ public abstract class ListObjectsCommandTestCase<C extends ListObjectsCommand>
     verifySent(
         "fieldName,otherFieldName,*", Optional.of(Boolean.TRUE), Optional.of(Boolean.TRUE));
   }
+
+  @Test
+  public void testRun_pageSize_fetchesPagesUntilNoCursor() throws Exception {
+    when(
+        connection.send(
+            eq(getTaskPath()),
+            anyMapOf(String.class, Object.class),
+            eq(MediaType.PLAIN_TEXT_UTF_8),
+            any(byte[].class)))
+        .thenReturn(
+            JSON_SAFETY_PREFIX
+                + "{\"status\":\"success\",\"lines\":[\"a\",\"b\"],\"cursor\":\"Yg\"}",
+            JSON_SAFETY_PREFIX + "{\"status\":\"success\",\"lines\":[\"c\"]}");
+    if (tldsParameter == null) {
+      runCommand("--page_size=2");
+    } else {
+      runCommand("--page_size=2", tldsParameter);
+    }
+    ImmutableMap.Builder<String, Object> params = new ImmutableMap.Builder<>();
+    if (!getTlds().isEmpty()) {
+      params.put("tlds", Joiner.on(',').join(getTlds()));
+    }
+    params.put(LIMIT_PARAM, 2);
+    ImmutableMap<String, Object> firstPageParams = params.build();
+    verify(connection).send(
+        eq(getTaskPath()),
+        eq(firstPageParams),
+        eq(MediaType.PLAIN_TEXT_UTF_8),
+        eq(new byte[0]));
+    verify(connection).send(
+        eq(getTaskPath()),
+        eq(new ImmutableMap.Builder<String, Object>()
+            .putAll(firstPageParams)
+            .put(CURSOR_PARAM, "Yg")
+            .build()),
+        eq(MediaType.PLAIN_TEXT_UTF_8),
+        eq(new byte[0]));
+    assertThat(getStdoutAsLines()).containsExactly("a", "b", "c").inOrder();
+  }
+
+  @Test
+  public void testRun_pageSize_mustBePositive() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "--page_size must be positive");
+    if (tldsParameter == null) {
+      runCommand("--page_size=0");
+    } else {
+      runCommand("--page_size=0", tldsParameter);
+    }
+  }
 }
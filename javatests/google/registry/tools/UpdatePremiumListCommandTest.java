@@ -14,17 +14,28 @@
 
 package google.registry.tools;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.request.JsonResponse.JSON_SAFETY_PREFIX;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.MediaType;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.testing.UriParameters;
 import google.registry.tools.ServerSideCommand.Connection;
+import google.registry.tools.server.CommitLabelListUploadAction;
+import google.registry.tools.server.StageLabelListChunkAction;
 import google.registry.tools.server.UpdatePremiumListAction;
+import java.util.List;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -76,4 +87,53 @@ public class UpdatePremiumListCommandTest<C extends UpdatePremiumListCommand>
         ImmutableMap.of(
             "name", "example_premium_terms", "inputData", generateInputData(premiumTermsPath)));
   }
+
+  @Test
+  public void testRun_chunked() throws Exception {
+    when(connection.send(
+        eq(StageLabelListChunkAction.PATH),
+        anyMapOf(String.class, Object.class),
+        any(MediaType.class),
+        any(byte[].class)))
+            .thenReturn(JSON_SAFETY_PREFIX + "{\"status\":\"success\",\"staged\":true}");
+    when(connection.send(
+        eq(CommitLabelListUploadAction.PATH),
+        anyMapOf(String.class, Object.class),
+        any(MediaType.class),
+        any(byte[].class)))
+            .thenReturn(JSON_SAFETY_PREFIX + "{\"status\":\"success\",\"message\":\"Saved\"}");
+    runCommandForced("-i=" + premiumTermsPath, "-n=foo", "--chunk_size=32");
+    verify(connection, times(3)).send(
+        eq(StageLabelListChunkAction.PATH),
+        urlParamCaptor.capture(),
+        eq(MediaType.FORM_DATA),
+        requestBodyCaptor.capture());
+    StringBuilder contents = new StringBuilder();
+    List<ImmutableMap<String, String>> params =
+        ImmutableList.copyOf(urlParamCaptor.getAllValues());
+    for (int i = 0; i < params.size(); i++) {
+      // Params are captured as passed, before the connection converts them to strings.
+      Map<String, ?> stageParams = params.get(i);
+      assertThat(stageParams.get("sequence")).isEqualTo(i);
+      String data =
+          UriParameters.parse(new String(requestBodyCaptor.getAllValues().get(i), UTF_8))
+              .get("inputData").get(0);
+      assertThat(data.length()).isAtMost(32);
+      assertThat(stageParams.get("checksum"))
+          .isEqualTo(StagedLabelListChunk.computeChecksum(data));
+      contents.append(data);
+    }
+    assertThat(contents.toString()).isEqualTo(generateInputData(premiumTermsPath));
+    verify(connection).send(
+        eq(CommitLabelListUploadAction.PATH),
+        urlParamCaptor.capture(),
+        eq(MediaType.FORM_DATA),
+        any(byte[].class));
+    assertThat(urlParamCaptor.getValue()).containsExactly(
+        "uploadId", params.get(0).get("uploadId"),
+        "name", "foo",
+        "listType", "PREMIUM",
+        "chunkCount", 3,
+        "checksum", StagedLabelListChunk.computeChecksum(generateInputData(premiumTermsPath)));
+  }
 }
@@ -16,17 +16,56 @@ package google.registry.tools;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED;
+import static google.registry.request.JsonResponse.JSON_SAFETY_PREFIX;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.net.MediaType;
 import google.registry.model.registry.label.ReservedList;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.testing.UriParameters;
+import google.registry.tools.ServerSideCommand.Connection;
+import google.registry.tools.server.CommitLabelListUploadAction;
+import google.registry.tools.server.StageLabelListChunkAction;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
 
 /** Unit tests for {@link UpdateReservedListCommand}. */
 public class UpdateReservedListCommandTest extends
     CreateOrUpdateReservedListCommandTestCase<UpdateReservedListCommand> {
 
+  @Mock
+  Connection connection;
+
+  @Captor
+  ArgumentCaptor<ImmutableMap<String, ?>> urlParamCaptor;
+
+  @Captor
+  ArgumentCaptor<byte[]> requestBodyCaptor;
+
+  @Before
+  public void setConnection() throws Exception {
+    command.setConnection(connection);
+  }
+
   private void populateInitialReservedList(boolean shouldPublish) {
     persistResource(
         new ReservedList.Builder()
@@ -94,4 +133,83 @@ public class UpdateReservedListCommandTest extends
     thrown.expect(IllegalArgumentException.class, errorMessage);
     runCommand("--force", "--name=xn--q9jyb4c_poobah", "--input=" + reservedTermsPath);
   }
+
+  @Test
+  public void testSuccess_chunked() throws Exception {
+    populateInitialReservedList(true);
+    when(connection.send(
+        eq(StageLabelListChunkAction.PATH),
+        anyMapOf(String.class, Object.class),
+        any(MediaType.class),
+        any(byte[].class)))
+            .thenReturn(JSON_SAFETY_PREFIX + "{\"status\":\"success\",\"staged\":true}");
+    when(connection.send(
+        eq(CommitLabelListUploadAction.PATH),
+        anyMapOf(String.class, Object.class),
+        any(MediaType.class),
+        any(byte[].class)))
+            .thenReturn(JSON_SAFETY_PREFIX + "{\"status\":\"success\",\"message\":\"Saved\"}");
+    runCommandForced("--input=" + reservedTermsPath, "--chunk_size=40");
+    assertInStdout("Saved");
+    verify(connection, times(2)).send(
+        eq(StageLabelListChunkAction.PATH),
+        urlParamCaptor.capture(),
+        eq(MediaType.FORM_DATA),
+        requestBodyCaptor.capture());
+    String reservedTerms = Files.toString(new File(reservedTermsPath), UTF_8);
+    StringBuilder contents = new StringBuilder();
+    List<ImmutableMap<String, ?>> params = ImmutableList.copyOf(urlParamCaptor.getAllValues());
+    for (int i = 0; i < params.size(); i++) {
+      Map<String, ?> stageParams = params.get(i);
+      assertThat(stageParams.get("sequence")).isEqualTo(i);
+      String data =
+          UriParameters.parse(new String(requestBodyCaptor.getAllValues().get(i), UTF_8))
+              .get("inputData").get(0);
+      assertThat(data.length()).isAtMost(40);
+      assertThat(stageParams.get("checksum"))
+          .isEqualTo(StagedLabelListChunk.computeChecksum(data));
+      contents.append(data);
+    }
+    assertThat(contents.toString()).isEqualTo(reservedTerms);
+    verify(connection).send(
+        eq(CommitLabelListUploadAction.PATH),
+        urlParamCaptor.capture(),
+        eq(MediaType.FORM_DATA),
+        any(byte[].class));
+    assertThat(urlParamCaptor.getValue()).containsExactly(
+        "uploadId", params.get(0).get("uploadId"),
+        "name", "xn--q9jyb4c_common-reserved",
+        "listType", "RESERVED",
+        "chunkCount", 2,
+        "checksum", StagedLabelListChunk.computeChecksum(reservedTerms));
+    // The server saves the list, so the command itself leaves it alone.
+    assertThat(ReservedList.get("xn--q9jyb4c_common-reserved").get().getReservedListEntries())
+        .hasSize(1);
+  }
+
+  @Test
+  public void testFailure_chunked_shouldPublish() throws Exception {
+    populateInitialReservedList(true);
+    thrown.expect(
+        IllegalArgumentException.class, "--should_publish can't be changed in a chunked upload");
+    runCommandForced(
+        "--input=" + reservedTermsPath, "--chunk_size=40", "--should_publish=false");
+  }
+
+  @Test
+  public void testFailure_chunked_invalidList_sendsNothing() throws Exception {
+    persistResource(
+        new ReservedList.Builder()
+            .setName("reserved-terms-wontparse")
+            .setReservedListMapFromLines(ImmutableList.of("helicopter,FULLY_BLOCKED"))
+            .setCreationTime(START_OF_TIME)
+            .setLastUpdateTime(START_OF_TIME)
+            .build());
+    try {
+      runCommandForced("--input=" + invalidReservedTermsPath, "--chunk_size=40");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      verifyZeroInteractions(connection);
+    }
+  }
 }
@@ -15,9 +15,13 @@
 package google.registry.tools;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import google.registry.rde.RdeTestData;
 import google.registry.xml.XmlException;
+import java.io.File;
+import java.io.Writer;
+import java.nio.file.Files;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -27,77 +31,156 @@ import org.junit.runners.JUnit4;
 public class ValidateEscrowDepositCommandTest
     extends CommandTestCase<ValidateEscrowDepositCommand> {
 
+  private static final int LARGE_DEPOSIT_DOMAINS = 10000;
+
+  private static final String DEPOSIT_FULL_OUTPUT = ""
+      + "ID: 20101017001\n"
+      + "Previous ID: 20101010001\n"
+      + "Type: FULL\n"
+      + "Watermark: 2010-10-17T00:00:00.000Z\n"
+      + "RDE Version: 1.0\n"
+      + "\n"
+      + "RDE Object URIs:\n"
+      + "  - urn:ietf:params:xml:ns:rdeContact-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeDomain-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeEppParams-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeHeader-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeHost-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeIDN-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeNNDN-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeRegistrar-1.0\n"
+      + "\n"
+      + "Contents:\n"
+      + "  - XjcRdeContact: 1 entry\n"
+      + "  - XjcRdeDomain: 2 entries\n"
+      + "  - XjcRdeEppParams: 1 entry\n"
+      + "  - XjcRdeHeader: 1 entry\n"
+      + "  - XjcRdeHost: 2 entries\n"
+      + "  - XjcRdeIdn: 1 entry\n"
+      + "  - XjcRdeNndn: 1 entry\n"
+      + "  - XjcRdePolicy: 1 entry\n"
+      + "  - XjcRdeRegistrar: 1 entry\n"
+      + "\n"
+      + "RDE deposit is XML schema valid\n";
+
+  private static final String DEPOSIT_FULL_BADREF_OUTPUT = ""
+      + "ID: 20101017001\n"
+      + "Previous ID: 20101010001\n"
+      + "Type: FULL\n"
+      + "Watermark: 2010-10-17T00:00:00.000Z\n"
+      + "RDE Version: 1.0\n"
+      + "\n"
+      + "RDE Object URIs:\n"
+      + "  - urn:ietf:params:xml:ns:rdeContact-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeDomain-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeEppParams-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeHeader-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeHost-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeIDN-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeNNDN-1.0\n"
+      + "  - urn:ietf:params:xml:ns:rdeRegistrar-1.0\n"
+      + "\n"
+      + "Contents:\n"
+      + "  - XjcRdeContact: 1 entry\n"
+      + "  - XjcRdeDomain: 2 entries\n"
+      + "  - XjcRdeEppParams: 1 entry\n"
+      + "  - XjcRdeHeader: 1 entry\n"
+      + "  - XjcRdeHost: 2 entries\n"
+      + "  - XjcRdeIdn: 1 entry\n"
+      + "  - XjcRdeNndn: 1 entry\n"
+      + "  - XjcRdePolicy: 1 entry\n"
+      + "  - XjcRdeRegistrar: 1 entry\n"
+      + "\n"
+      + "Bad host refs: ns1.LAFFO.com\n"
+      + "RDE deposit is XML schema valid but has bad references\n";
+
   @Test
   public void testRun_plainXml() throws Exception {
     String file = writeToTmpFile(RdeTestData.get("deposit_full.xml").read());
     runCommand("--input=" + file);
-    assertThat(getStdoutAsString()).isEqualTo(""
-        + "ID: 20101017001\n"
-        + "Previous ID: 20101010001\n"
-        + "Type: FULL\n"
-        + "Watermark: 2010-10-17T00:00:00.000Z\n"
-        + "RDE Version: 1.0\n"
-        + "\n"
-        + "RDE Object URIs:\n"
-        + "  - urn:ietf:params:xml:ns:rdeContact-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeDomain-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeEppParams-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeHeader-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeHost-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeIDN-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeNNDN-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeRegistrar-1.0\n"
-        + "\n"
-        + "Contents:\n"
-        + "  - XjcRdeContact: 1 entry\n"
-        + "  - XjcRdeDomain: 2 entries\n"
-        + "  - XjcRdeEppParams: 1 entry\n"
-        + "  - XjcRdeHeader: 1 entry\n"
-        + "  - XjcRdeHost: 2 entries\n"
-        + "  - XjcRdeIdn: 1 entry\n"
-        + "  - XjcRdeNndn: 1 entry\n"
-        + "  - XjcRdePolicy: 1 entry\n"
-        + "  - XjcRdeRegistrar: 1 entry\n"
-        + "\n"
-        + "RDE deposit is XML schema valid\n");
+    assertThat(getStdoutAsString()).isEqualTo(DEPOSIT_FULL_OUTPUT);
   }
 
   @Test
   public void testRun_plainXml_badReference() throws Exception {
     String file = writeToTmpFile(RdeTestData.get("deposit_full_badref.xml").read());
     runCommand("--input=" + file);
-    assertThat(getStdoutAsString()).isEqualTo(""
-        + "ID: 20101017001\n"
-        + "Previous ID: 20101010001\n"
-        + "Type: FULL\n"
-        + "Watermark: 2010-10-17T00:00:00.000Z\n"
-        + "RDE Version: 1.0\n"
-        + "\n"
-        + "RDE Object URIs:\n"
-        + "  - urn:ietf:params:xml:ns:rdeContact-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeDomain-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeEppParams-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeHeader-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeHost-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeIDN-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeNNDN-1.0\n"
-        + "  - urn:ietf:params:xml:ns:rdeRegistrar-1.0\n"
-        + "\n"
-        + "Contents:\n"
-        + "  - XjcRdeContact: 1 entry\n"
-        + "  - XjcRdeDomain: 2 entries\n"
-        + "  - XjcRdeEppParams: 1 entry\n"
-        + "  - XjcRdeHeader: 1 entry\n"
-        + "  - XjcRdeHost: 2 entries\n"
-        + "  - XjcRdeIdn: 1 entry\n"
-        + "  - XjcRdeNndn: 1 entry\n"
-        + "  - XjcRdePolicy: 1 entry\n"
-        + "  - XjcRdeRegistrar: 1 entry\n"
-        + "\n"
+    assertThat(getStdoutAsString()).isEqualTo(DEPOSIT_FULL_BADREF_OUTPUT);
+  }
+
+  @Test
+  public void testRun_streaming_plainXml_matchesNonStreaming() throws Exception {
+    String file = writeToTmpFile(RdeTestData.get("deposit_full.xml").read());
+    runCommand("--streaming", "--input=" + file);
+    assertThat(getStdoutAsString()).isEqualTo(DEPOSIT_FULL_OUTPUT);
+  }
+
+  @Test
+  public void testRun_streaming_plainXml_badReference_matchesNonStreaming() throws Exception {
+    String file = writeToTmpFile(RdeTestData.get("deposit_full_badref.xml").read());
+    runCommand("--streaming", "--input=" + file);
+    assertThat(getStdoutAsString()).isEqualTo(DEPOSIT_FULL_BADREF_OUTPUT);
+  }
+
+  @Test
+  public void testRun_streaming_skipSchemaValidation() throws Exception {
+    String file = writeToTmpFile(RdeTestData.get("deposit_full_badref.xml").read());
+    runCommand("--streaming", "--skip_schema_validation", "--input=" + file);
+    assertThat(getStdoutAsString()).endsWith(""
         + "Bad host refs: ns1.LAFFO.com\n"
+        + "RDE deposit has bad references (XML schema validation was skipped)\n");
+  }
+
+  @Test
+  public void testRun_streaming_schemaInvalidObject() throws Exception {
+    String file = writeToTmpFile(RdeTestData.loadUtf8("deposit_full.xml")
+        .replace("<rdeDom:roid>Dexample1-TEST</rdeDom:roid>", ""));
+    thrown.expect(XmlException.class);
+    runCommand("--streaming", "--input=" + file);
+  }
+
+  @Test
+  public void testRun_streaming_largeDeposit() throws Exception {
+    // Copies the first domain of the test deposit many times over. The deposit is written to disk
+    // as it is generated, and only ever read back as a stream, so nothing here holds all of it.
+    String deposit = RdeTestData.loadUtf8("deposit_full.xml");
+    int domainsStart = deposit.indexOf("    <!-- Domain: example1.test -->");
+    int domainsEnd = deposit.indexOf("    <!-- Domain: example2.test -->");
+    String domain = deposit.substring(domainsStart, domainsEnd);
+    File file = tmpDir.newFile("large_deposit.xml");
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+      writer.write(deposit.substring(0, domainsStart));
+      for (int i = 0; i < LARGE_DEPOSIT_DOMAINS; i++) {
+        writer.write(domain
+            .replace("example1.test</rdeDom:name>", "large" + i + ".test</rdeDom:name>")
+            .replace("Dexample1-TEST", "D" + i + "-TEST"));
+      }
+      writer.write(domain.replace("ns1.example1.test</domain:hostObj>",
+          "ns1.missing.test</domain:hostObj>"));
+      writer.write(deposit.substring(domainsEnd));
+    }
+    runCommand("--streaming", "--input=" + file.getPath());
+    assertThat(getStdoutAsString()).contains(
+        String.format("  - XjcRdeDomain: %,d entries\n", LARGE_DEPOSIT_DOMAINS + 2));
+    assertThat(getStdoutAsString()).endsWith(""
+        + "Bad host refs: ns1.missing.test\n"
         + "RDE deposit is XML schema valid but has bad references\n");
   }
 
+  @Test
+  public void testRun_streaming_badXml() throws Exception {
+    String file = writeToTmpFile(RdeTestData.loadUtf8("deposit_full.xml").substring(0, 2000));
+    thrown.expect(XmlException.class, "Syntax error at line 46, column 38");
+    runCommand("--streaming", "--input=" + file);
+  }
+
+  @Test
+  public void testRun_skipSchemaValidationWithoutStreaming_fails() throws Exception {
+    String file = writeToTmpFile(RdeTestData.get("deposit_full.xml").read());
+    thrown.expect(IllegalArgumentException.class, "can only be used with --streaming");
+    runCommand("--skip_schema_validation", "--input=" + file);
+  }
+
   @Test
   public void testRun_badXml() throws Exception {
     String file = writeToTmpFile(RdeTestData.loadUtf8("deposit_full.xml").substring(0, 2000));
@@ -0,0 +1,198 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.label.StagedLabelListChunk.computeChecksum;
+import static google.registry.testing.DatastoreHelper.persistPremiumList;
+import static google.registry.testing.DatastoreHelper.persistReservedList;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import google.registry.model.registry.label.PremiumList;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import google.registry.model.registry.label.ReservationType;
+import google.registry.model.registry.label.ReservedList;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeJsonResponse;
+import google.registry.tools.server.CommitLabelListUploadAction.ListType;
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CommitLabelListUploadAction}. */
+@RunWith(JUnit4.class)
+public class CommitLabelListUploadActionTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2017-01-01T00:00:00Z"));
+  private FakeJsonResponse response;
+  private List<String> premiumLines;
+
+  @Before
+  public void init() throws Exception {
+    premiumLines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      premiumLines.add(String.format("label%d,USD %d", i, 10 + i));
+    }
+    persistPremiumList("foo", premiumLines.toArray(new String[0]));
+  }
+
+  /** Splits lines into chunks of {@code linesPerChunk} lines, each line followed by a newline. */
+  private static ImmutableList<String> toChunks(List<String> lines, int linesPerChunk) {
+    ImmutableList.Builder<String> chunks = new ImmutableList.Builder<>();
+    for (int i = 0; i < lines.size(); i += linesPerChunk) {
+      chunks.add(
+          Joiner.on('\n').join(lines.subList(i, Math.min(i + linesPerChunk, lines.size()))) + "\n");
+    }
+    return chunks.build();
+  }
+
+  private void stageChunk(String uploadId, int sequence, String data) {
+    persistResource(
+        StagedLabelListChunk.create(
+            uploadId, sequence, computeChecksum(data), data, clock.nowUtc()));
+  }
+
+  private void runAction(String name, ListType listType, int chunkCount, String checksum) {
+    CommitLabelListUploadAction action = new CommitLabelListUploadAction();
+    response = new FakeJsonResponse();
+    action.response = response;
+    action.clock = clock;
+    action.uploadId = "upload";
+    action.name = name;
+    action.listType = listType;
+    action.chunkCount = chunkCount;
+    action.checksum = checksum;
+    action.run();
+  }
+
+  private void assertError(String expectedError) {
+    assertThat(response.getResponseMap().get("status")).isEqualTo("error");
+    assertThat((String) response.getResponseMap().get("error")).contains(expectedError);
+  }
+
+  @Test
+  public void testSuccess_premiumList_onlyWritesChanges() throws Exception {
+    PremiumList original = PremiumList.get("foo").get();
+    List<String> newLines = new ArrayList<>(premiumLines);
+    newLines.set(10, "label10,USD 1000");
+    newLines.remove(500);
+    newLines.add("brandnew,USD 5");
+    ImmutableList<String> chunks = toChunks(newLines, 100);
+    for (int i = 0; i < chunks.size(); i++) {
+      stageChunk("upload", i, chunks.get(i));
+    }
+    runAction("foo", ListType.PREMIUM, chunks.size(), computeChecksum(Joiner.on("").join(chunks)));
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    assertThat(response.getResponseMap().get("message"))
+        .isEqualTo("Saved premium list foo with 1000 entries.\n");
+    PremiumList updated = PremiumList.get("foo").get();
+    assertThat(updated.getRevisionKey()).isNotEqualTo(original.getRevisionKey());
+    // Only the changed, removed and added entries are written, under the new revision.
+    assertThat(
+            ofy().load().type(PremiumListEntry.class).ancestor(updated.getRevisionKey()).count())
+        .isEqualTo(3);
+    assertThat(updated.getPremiumPrice("label10")).hasValue(Money.parse("USD 1000"));
+    assertThat(updated.getPremiumPrice("label500")).isAbsent();
+    assertThat(updated.getPremiumPrice("brandnew")).hasValue(Money.parse("USD 5"));
+    assertThat(updated.getPremiumPrice("label999")).hasValue(Money.parse("USD 1009"));
+    assertThat(StagedLabelListChunk.loadAllKeys("upload")).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_resumedAfterInterruptedUpload() throws Exception {
+    ImmutableList<String> chunks = toChunks(ImmutableList.of("rich,USD 75", "poor,USD 1"), 1);
+    String checksum = computeChecksum(Joiner.on("").join(chunks));
+    stageChunk("upload", 1, chunks.get(1));
+    runAction("foo", ListType.PREMIUM, 2, checksum);
+    assertError("Upload upload is missing chunks [0]");
+    assertThat(PremiumList.get("foo").get().getPremiumListEntries()).hasSize(1000);
+    // The chunk that was already staged is kept, so only the missing one needs to be sent.
+    assertThat(StagedLabelListChunk.loadAllKeys("upload")).hasSize(1);
+    stageChunk("upload", 0, chunks.get(0));
+    runAction("foo", ListType.PREMIUM, 2, checksum);
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    assertThat(PremiumList.get("foo").get().getPremiumListEntries().keySet())
+        .containsExactly("rich", "poor");
+  }
+
+  @Test
+  public void testFailure_checksumMismatch_changesNothing() throws Exception {
+    stageChunk("upload", 0, "rich,USD 75\n");
+    runAction("foo", ListType.PREMIUM, 1, computeChecksum("rich,USD 76\n"));
+    assertError("Upload upload does not match its checksum");
+    assertThat(PremiumList.get("foo").get().getPremiumListEntries()).hasSize(1000);
+    assertThat(StagedLabelListChunk.loadAllKeys("upload")).hasSize(1);
+  }
+
+  @Test
+  public void testFailure_extraChunks() throws Exception {
+    stageChunk("upload", 0, "rich,USD 75\n");
+    stageChunk("upload", 1, "poor,USD 1\n");
+    runAction("foo", ListType.PREMIUM, 1, computeChecksum("rich,USD 75\n"));
+    assertError("Upload upload has more than 1 chunks");
+  }
+
+  @Test
+  public void testFailure_invalidList_changesNothing() throws Exception {
+    stageChunk("upload", 0, "rich,USD 75,extra\n");
+    runAction("foo", ListType.PREMIUM, 1, computeChecksum("rich,USD 75,extra\n"));
+    assertError("Could not parse line in premium list");
+    assertThat(PremiumList.get("foo").get().getPremiumListEntries()).hasSize(1000);
+  }
+
+  @Test
+  public void testFailure_listDoesNotExist() throws Exception {
+    stageChunk("upload", 0, "rich,USD 75\n");
+    runAction("bamboozle", ListType.PREMIUM, 1, computeChecksum("rich,USD 75\n"));
+    assertError("Could not update premium list bamboozle because it doesn't exist.");
+  }
+
+  @Test
+  public void testSuccess_reservedList() throws Exception {
+    persistReservedList("xn--q9jyb4c-reserved", "lol,FULLY_BLOCKED");
+    stageChunk("upload", 0, "lol,NAME_COLLISION\n");
+    stageChunk("upload", 1, "cat,FULLY_BLOCKED\n");
+    runAction(
+        "xn--q9jyb4c-reserved",
+        ListType.RESERVED,
+        2,
+        computeChecksum("lol,NAME_COLLISION\ncat,FULLY_BLOCKED\n"));
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    ofy().clearSessionCache();
+    ReservedList reservedList =
+        ofy().load().entity(ReservedList.get("xn--q9jyb4c-reserved").get()).now();
+    assertThat(reservedList.getReservedListEntries().keySet()).containsExactly("lol", "cat");
+    assertThat(reservedList.getReservedListEntries().get("lol").getValue())
+        .isEqualTo(ReservationType.NAME_COLLISION);
+    assertThat(reservedList.getLastUpdateTime()).isEqualTo(clock.nowUtc());
+    assertThat(StagedLabelListChunk.loadAllKeys("upload")).isEmpty();
+  }
+}
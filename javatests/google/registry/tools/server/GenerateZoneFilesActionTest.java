@@ -35,7 +35,9 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
 import google.registry.testing.FakeClock;
@@ -123,5 +125,102 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+    // The lines above have the blank lines dropped, so check the raw file as well. Each record ends
+    // with a newline and each stanza with a blank line. Only the order of the stanzas, and of the
+    // nameservers within them, may differ from the golden file.
+    String rawFile = generatedFile.replaceAll("\t", " ");
+    String goldenRawFile = readResourceUtf8(getClass(), "testdata/tld.zone") + "\n";
+    assertThat(rawFile).startsWith("$ORIGIN tld.\n\n");
+    assertThat(rawFile).endsWith("\n\n");
+    assertThat(rawFile).doesNotContain("\n\n\n");
+    assertThat(rawFile.length()).isEqualTo(goldenRawFile.length());
+    assertThat(getStanzas(rawFile)).containsExactlyElementsIn(getStanzas(goldenRawFile));
+  }
+
+  /** Returns the stanzas of a zone file, each as the sorted set of its lines. */
+  private static ImmutableList<ImmutableSortedSet<String>> getStanzas(String zoneFile) {
+    ImmutableList.Builder<ImmutableSortedSet<String>> stanzas = new ImmutableList.Builder<>();
+    for (String stanza : Splitter.on("\n\n").split(zoneFile)) {
+      stanzas.add(ImmutableSortedSet.copyOf(Splitter.on('\n').split(stanza)));
+    }
+    return stanzas.build();
+  }
+
+  @Test
+  public void testGenerate_streaming_sortedAndSpilledToGcs() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+
+    createTld("tld");
+    createTld("com");
+
+    ImmutableSet<InetAddress> ips =
+        ImmutableSet.of(InetAddress.getByName("127.0.0.1"), InetAddress.getByName("::1"));
+    HostResource host1 =
+        persistResource(newHostResource("ns.foo.tld").asBuilder().addInetAddresses(ips).build());
+    HostResource host2 =
+        persistResource(newHostResource("ns.bar.tld").asBuilder().addInetAddresses(ips).build());
+    // Glue records come from the subordinate hosts of the domains on the TLD.
+    persistResource(newDomainResource("foo.tld").asBuilder()
+        .addSubordinateHost("ns.foo.tld")
+        .build());
+    persistResource(newDomainResource("bar.tld").asBuilder()
+        .addSubordinateHost("ns.bar.tld")
+        .build());
+
+    ImmutableSet<Key<HostResource>> nameservers =
+        ImmutableSet.of(Key.create(host1), Key.create(host2));
+    persistResource(newDomainResource("ns-and-ds.tld").asBuilder()
+        .addNameservers(nameservers)
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+    persistResource(newDomainResource("ns-only.tld").asBuilder()
+        .addNameservers(nameservers)
+        .build());
+    persistResource(newDomainResource("ds-only.tld").asBuilder()
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+
+    // These should be ignored, as in the mapreduce.
+    persistActiveContact("ignored_contact");
+    persistActiveDomainApplication("ignored_application.tld");
+    persistActiveHost("ignored.host.tld");  // No ips.
+    persistActiveDomain("ignored_domain.tld");  // No hosts or DS data.
+    persistResource(newHostResource("ignored.foo.com").asBuilder().addInetAddresses(ips).build());
+    persistResource(newDomainResource("ignored.com")
+        .asBuilder()
+        .addNameservers(nameservers)
+        .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
+        .build());
+
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.bucket = "zonefiles-bucket";
+    action.gcsUtils = new GcsUtils(gcsService, 123);
+    action.datastoreRetention = standardDays(29);
+    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
+    // Force the records to be sorted in several runs that have to be merged.
+    action.maxRecordsInMemory = 3;
+
+    Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "streaming", true));
+    assertThat(response).doesNotContainKey("jobPath");
+    assertThat(response).containsEntry(
+        "filenames",
+        ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone"));
+
+    GcsFilename gcsFilename =
+        new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now));
+    String generatedFile = new String(readGcsFile(gcsService, gcsFilename), UTF_8);
+    Splitter splitter = Splitter.on('\n').omitEmptyStrings();
+    // Unlike the mapreduce, the output is in a stable, sorted order.
+    assertThat(splitter.split(generatedFile.replaceAll("\t", " ")))
+        .containsExactlyElementsIn(
+            splitter.split(readResourceUtf8(getClass(), "testdata/tld_sorted.zone")))
+        .inOrder();
+    // The temporary sorted runs are cleaned up.
+    assertThat(gcsService.getMetadata(
+            new GcsFilename("zonefiles-bucket", String.format("tmp/tld-%s.zone-0", now))))
+        .isNull();
   }
 }
@@ -36,6 +36,7 @@ import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMarker;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.mapreduce.MapreduceTestCase;
@@ -54,7 +55,8 @@ public class KillAllCommitLogsActionTest extends MapreduceTestCase<KillAllCommit
       CommitLogCheckpoint.class,
       CommitLogCheckpointRoot.class,
       CommitLogMutation.class,
-      CommitLogManifest.class);
+      CommitLogManifest.class,
+      CommitLogMarker.class);
 
   private void runMapreduce() throws Exception {
     action = new KillAllCommitLogsAction();
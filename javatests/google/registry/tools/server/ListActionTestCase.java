@@ -40,6 +40,9 @@ public class ListActionTestCase {
 
   private FakeJsonResponse response;
 
+  /** The cursor returned by the last call to {@link #runPage}. */
+  Optional<String> nextCursor = Optional.absent();
+
   private void runAction(
       ListObjectsAction<?> action,
       Optional<String> fields,
@@ -73,6 +76,28 @@ public class ListActionTestCase {
     }
   }
 
+  /**
+   * Runs the action for a single page of at most {@code limit} objects, checks that it succeeded,
+   * and returns the lines it listed. The cursor it returned, if any, is left in
+   * {@link #nextCursor}.
+   */
+  List<String> runPage(
+      ListObjectsAction<?> action,
+      Optional<String> fields,
+      Optional<Boolean> printHeaderRow,
+      int limit,
+      Optional<String> cursor) {
+    action.limit = Optional.of(limit);
+    action.cursor = cursor;
+    runAction(action, fields, printHeaderRow, Optional.<Boolean>absent());
+    assertThat(response.getStatus()).isEqualTo(SC_OK);
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    nextCursor = Optional.fromNullable((String) response.getResponseMap().get("cursor"));
+    @SuppressWarnings("unchecked")
+    List<String> lines = (List<String>) response.getResponseMap().get("lines");
+    return lines;
+  }
+
   void testRunError(
       ListObjectsAction<?> action,
       Optional<String> fields,
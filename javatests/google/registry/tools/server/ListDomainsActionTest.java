@@ -14,14 +14,21 @@
 
 package google.registry.tools.server;
 
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.createTlds;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
+import static google.registry.testing.DatastoreHelper.persistResource;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import google.registry.model.domain.DomainResource;
 import google.registry.testing.FakeClock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -235,4 +242,130 @@ public class ListDomainsActionTest extends ListActionTestCase {
         "^Field 'badfield' not found - recognized fields are:",
         SC_BAD_REQUEST);
   }
+
+  /** Lists all of the domains a page at a time, and returns the trimmed lines of every page. */
+  private List<String> listAllPages(int limit) {
+    List<String> lines = new ArrayList<>();
+    Optional<String> cursor = Optional.absent();
+    do {
+      List<String> page = runPage(action, Optional.<String>absent(), null, limit, cursor);
+      assertThat(page.size()).isAtMost(limit);
+      for (String line : page) {
+        lines.add(line.trim());
+      }
+      cursor = nextCursor;
+    } while (cursor.isPresent());
+    return lines;
+  }
+
+  @Test
+  public void testRun_paged_acrossTlds() throws Exception {
+    createTlds("bar", "baz");
+    action.tlds = ImmutableSet.of("foo", "bar", "baz");
+    persistActiveDomain("example1.foo");
+    persistActiveDomain("example2.bar");
+    persistActiveDomain("example1.baz");
+    persistActiveDomain("example3.foo");
+    persistActiveDomain("example1.bar");
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, Optional.<String>absent()))
+        .containsExactly("example1.bar", "example1.baz")
+        .inOrder();
+    assertThat(nextCursor.isPresent()).isTrue();
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, nextCursor))
+        .containsExactly("example1.foo", "example2.bar")
+        .inOrder();
+    assertThat(nextCursor.isPresent()).isTrue();
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, nextCursor))
+        .containsExactly("example3.foo");
+    assertThat(nextCursor.isPresent()).isFalse();
+  }
+
+  @Test
+  public void testRun_paged_lastPageFull_hasNoCursor() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    persistActiveDomain("example1.foo");
+    persistActiveDomain("example2.foo");
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, Optional.<String>absent()))
+        .containsExactly("example1.foo", "example2.foo")
+        .inOrder();
+    assertThat(nextCursor.isPresent()).isFalse();
+  }
+
+  @Test
+  public void testRun_paged_headerOnlyOnFirstPage() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    persistActiveDomain("example1.foo");
+    persistActiveDomain("example3.foo");
+    List<String> lines =
+        runPage(action, Optional.of("repoId"), null, 1, Optional.<String>absent());
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(0)).containsMatch("^fullyQualifiedDomainName\\s+repoId\\s*$");
+    assertThat(lines.get(1)).containsMatch("^-+\\s+-+\\s*$");
+    assertThat(lines.get(2)).containsMatch("^example1.foo\\s+2-FOO\\s*$");
+    lines = runPage(action, Optional.of("repoId"), null, 1, nextCursor);
+    assertThat(lines).hasSize(1);
+    assertThat(lines.get(0)).containsMatch("^example3.foo\\s+4-FOO\\s*$");
+  }
+
+  @Test
+  public void testRun_paged_skipsDeletedDomains() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    persistActiveDomain("example1.foo");
+    persistDeletedDomain("example2.foo", DateTime.parse("1999-01-01TZ"));
+    persistDeletedDomain("example3.foo", DateTime.parse("1999-01-01TZ"));
+    persistActiveDomain("example4.foo");
+    assertThat(listAllPages(1)).containsExactly("example1.foo", "example4.foo").inOrder();
+  }
+
+  @Test
+  public void testRun_paged_cursorIsStableWhenDomainsChangeBetweenPages() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    persistActiveDomain("example1.foo");
+    persistActiveDomain("example2.foo");
+    DomainResource example3 = persistActiveDomain("example3.foo");
+    persistActiveDomain("example4.foo");
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, Optional.<String>absent()))
+        .containsExactly("example1.foo", "example2.foo")
+        .inOrder();
+    // Domains created before the cursor aren't listed, and ones after it are, while deleting a
+    // domain doesn't move the rest of the listing.
+    persistActiveDomain("example0.foo");
+    persistActiveDomain("example25.foo");
+    persistResource(
+        example3.asBuilder().setDeletionTime(DateTime.parse("1999-01-01TZ")).build());
+    assertThat(runPage(action, Optional.<String>absent(), null, 2, nextCursor))
+        .containsExactly("example25.foo", "example4.foo")
+        .inOrder();
+    assertThat(nextCursor.isPresent()).isFalse();
+  }
+
+  @Test
+  public void testRun_paged_manyDomains_matchesUnpagedListing() throws Exception {
+    createTld("bar");
+    action.tlds = ImmutableSet.of("foo", "bar");
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      String domainName = String.format("example%03d.%s", i, (i % 3 == 0) ? "bar" : "foo");
+      persistActiveDomain(domainName);
+      expected.add(domainName);
+    }
+    Collections.sort(expected);
+    assertThat(listAllPages(7)).containsExactlyElementsIn(expected).inOrder();
+    assertThat(listAllPages(1000)).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void testRun_paged_invalidLimit_returnsError() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    action.limit = Optional.of(0);
+    testRunError(action, null, null, null, "^Limit must be positive$", SC_BAD_REQUEST);
+  }
+
+  @Test
+  public void testRun_paged_invalidCursor_returnsError() throws Exception {
+    action.tlds = ImmutableSet.of("foo");
+    action.limit = Optional.of(10);
+    action.cursor = Optional.of("%%%");
+    testRunError(action, null, null, null, "^Invalid cursor: %%%$", SC_BAD_REQUEST);
+  }
 }
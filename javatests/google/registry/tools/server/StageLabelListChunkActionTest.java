@@ -0,0 +1,118 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.label.StagedLabelListChunk.computeChecksum;
+
+import com.google.common.base.Strings;
+import google.registry.model.registry.label.StagedLabelListChunk;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.FakeJsonResponse;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StageLabelListChunkAction}. */
+@RunWith(JUnit4.class)
+public class StageLabelListChunkActionTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2017-01-01T00:00:00Z"));
+  private FakeJsonResponse response;
+
+  private void runAction(int sequence, String checksum, String inputData) {
+    StageLabelListChunkAction action = new StageLabelListChunkAction();
+    response = new FakeJsonResponse();
+    action.response = response;
+    action.clock = clock;
+    action.uploadId = "upload";
+    action.sequence = sequence;
+    action.checksum = checksum;
+    action.inputData = inputData;
+    action.run();
+  }
+
+  private static StagedLabelListChunk loadChunk(int sequence) {
+    ofy().clearSessionCache();
+    return ofy().load().key(StagedLabelListChunk.createKey("upload", sequence)).now();
+  }
+
+  private String getError() {
+    assertThat(response.getResponseMap().get("status")).isEqualTo("error");
+    return (String) response.getResponseMap().get("error");
+  }
+
+  @Test
+  public void testSuccess() throws Exception {
+    String data = "rich,USD 75\npoor,USD 0.99\n";
+    runAction(3, computeChecksum(data), data);
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    assertThat(response.getResponseMap().get("staged")).isEqualTo(true);
+    StagedLabelListChunk chunk = loadChunk(3);
+    assertThat(chunk.getSequence()).isEqualTo(3);
+    assertThat(chunk.getChecksum()).isEqualTo(computeChecksum(data));
+    assertThat(chunk.getData()).isEqualTo(data);
+    assertThat(chunk.getCreationTime()).isEqualTo(clock.nowUtc());
+  }
+
+  @Test
+  public void testSuccess_sameChunkAgain_isNotRewritten() throws Exception {
+    String data = "rich,USD 75\n";
+    runAction(0, computeChecksum(data), data);
+    runAction(0, computeChecksum(data), data);
+    assertThat(response.getResponseMap().get("status")).isEqualTo("success");
+    assertThat(response.getResponseMap().get("staged")).isEqualTo(false);
+    assertThat(loadChunk(0).getData()).isEqualTo(data);
+  }
+
+  @Test
+  public void testFailure_corruptChunk_isRejected() throws Exception {
+    runAction(0, computeChecksum("rich,USD 75\n"), "rich,USD 7\n");
+    assertThat(getError()).contains("Chunk 0 of upload upload does not match its checksum");
+    assertThat(loadChunk(0)).isNull();
+  }
+
+  @Test
+  public void testFailure_differentChunkWithSameSequence_isRejected() throws Exception {
+    runAction(1, computeChecksum("rich,USD 75\n"), "rich,USD 75\n");
+    runAction(1, computeChecksum("rich,USD 80\n"), "rich,USD 80\n");
+    assertThat(getError())
+        .contains("Chunk 1 of upload upload was already staged with different contents");
+    assertThat(loadChunk(1).getData()).isEqualTo("rich,USD 75\n");
+  }
+
+  @Test
+  public void testFailure_chunkTooLarge() throws Exception {
+    String data = Strings.repeat("a", StageLabelListChunkAction.MAX_CHUNK_BYTES + 1);
+    runAction(0, computeChecksum(data), data);
+    assertThat(getError()).contains("is larger than");
+    assertThat(loadChunk(0)).isNull();
+  }
+
+  @Test
+  public void testFailure_negativeSequence() throws Exception {
+    runAction(-1, computeChecksum("rich,USD 75\n"), "rich,USD 75\n");
+    assertThat(getError()).contains("Chunk sequence number must not be negative");
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.net.InetAddresses;
+import google.registry.model.domain.secdns.DelegationSignerData;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ZoneFileRecordBuilder}. */
+@RunWith(JUnit4.class)
+public class ZoneFileRecordBuilderTest {
+
+  private final ZoneFileRecordBuilder builder = new ZoneFileRecordBuilder();
+
+  @Test
+  public void testRecords_matchStringFormat() throws Exception {
+    builder
+        .appendNs("foo.tld", 180, "ns.example.com")
+        .appendDs(
+            "foo.tld",
+            86400,
+            DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2, (byte) 0xab}))
+        .appendAddress("ns.foo.tld", 3600, InetAddresses.forString("127.0.0.1"))
+        .appendAddress("ns.foo.tld", 3600, InetAddresses.forString("::1"));
+    assertThat(builder.toString())
+        .isEqualTo(
+            String.format("%s\t%d\tIN\tNS\t%s.\n", "foo.tld", 180, "ns.example.com")
+                + String.format(
+                    "%s\t%d\tIN\tDS\t%d %d %d %s\n", "foo.tld", 86400, 1, 2, 3, "000102AB")
+                + String.format("%s\t%d\tIN\t%s\t%s\n", "ns.foo.tld", 3600, "A", "127.0.0.1")
+                + String.format(
+                    "%s\t%d\tIN\t%s\t%s\n", "ns.foo.tld", 3600, "AAAA", "0:0:0:0:0:0:0:1"));
+  }
+
+  @Test
+  public void testDrainTo_splitsRecordsAndResets() throws Exception {
+    List<String> records = new ArrayList<>();
+    builder.appendNs("foo.tld", 180, "ns1.example.com").appendNs("foo.tld", 180, "ns2.example.com");
+    builder.drainTo(records);
+    assertThat(builder.isEmpty()).isTrue();
+    builder.appendNs("bar.tld", 180, "ns3.example.com").drainTo(records);
+    assertThat(records)
+        .containsExactly(
+            "foo.tld\t180\tIN\tNS\tns1.example.com.",
+            "foo.tld\t180\tIN\tNS\tns2.example.com.",
+            "bar.tld\t180\tIN\tNS\tns3.example.com.")
+        .inOrder();
+  }
+
+  @Test
+  public void testDrainTo_empty() throws Exception {
+    List<String> records = new ArrayList<>();
+    builder.drainTo(records);
+    assertThat(records).isEmpty();
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CidrAddressBlockSet}. */
+@RunWith(JUnit4.class)
+public class CidrAddressBlockSetTest {
+
+  private final Random random = new Random(1234);
+
+  private static CidrAddressBlockSet compile(String... blocks) {
+    ImmutableList.Builder<CidrAddressBlock> builder = new ImmutableList.Builder<>();
+    for (String block : blocks) {
+      builder.add(CidrAddressBlock.create(block));
+    }
+    return CidrAddressBlock.compile(builder.build());
+  }
+
+  private static InetAddress address(String address) {
+    return InetAddresses.forString(address);
+  }
+
+  @Test
+  public void testEmpty_containsNothing() {
+    CidrAddressBlockSet set = compile();
+    assertThat(set.isEmpty()).isTrue();
+    assertThat(set.contains(address("1.2.3.4"))).isFalse();
+    assertThat(set.contains(address("::1"))).isFalse();
+  }
+
+  @Test
+  public void testContains_null() {
+    assertThat(compile("0.0.0.0/0").contains(null)).isFalse();
+  }
+
+  @Test
+  public void testContains_ipv4() {
+    CidrAddressBlockSet set = compile("10.0.0.0/8", "192.168.1.0/31", "1.2.3.4");
+    assertThat(set.isEmpty()).isFalse();
+    assertThat(set.contains(address("10.0.0.0"))).isTrue();
+    assertThat(set.contains(address("10.255.255.255"))).isTrue();
+    assertThat(set.contains(address("11.0.0.0"))).isFalse();
+    assertThat(set.contains(address("9.255.255.255"))).isFalse();
+    assertThat(set.contains(address("192.168.1.1"))).isTrue();
+    assertThat(set.contains(address("192.168.1.2"))).isFalse();
+    assertThat(set.contains(address("1.2.3.4"))).isTrue();
+    assertThat(set.contains(address("1.2.3.5"))).isFalse();
+  }
+
+  @Test
+  public void testContains_ipv6() {
+    CidrAddressBlockSet set = compile("2001:db8::/32", "2001:db9::1", "fe80::/65");
+    assertThat(set.contains(address("2001:db8::"))).isTrue();
+    assertThat(set.contains(address("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"))).isTrue();
+    assertThat(set.contains(address("2001:db9::1"))).isTrue();
+    assertThat(set.contains(address("2001:db9::2"))).isFalse();
+    assertThat(set.contains(address("fe80::7fff:ffff:ffff:ffff"))).isTrue();
+    assertThat(set.contains(address("fe80::8000:0:0:0"))).isFalse();
+  }
+
+  @Test
+  public void testContains_wholeAddressSpaces() {
+    CidrAddressBlockSet set = compile("0.0.0.0/0", "::/0");
+    assertThat(set.contains(address("0.0.0.0"))).isTrue();
+    assertThat(set.contains(address("255.255.255.255"))).isTrue();
+    assertThat(set.contains(address("::"))).isTrue();
+    assertThat(set.contains(address("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"))).isTrue();
+  }
+
+  @Test
+  public void testContains_familiesAreSeparate() {
+    assertThat(compile("0.0.0.0/0").contains(address("::1"))).isFalse();
+    assertThat(compile("::/0").contains(address("1.2.3.4"))).isFalse();
+  }
+
+  @Test
+  public void testContains_ipv4MappedIpv6Address_matchesIpv4Blocks() {
+    CidrAddressBlockSet set = compile("192.0.2.0/24");
+    assertThat(set.contains(address("::ffff:192.0.2.1"))).isTrue();
+    assertThat(CidrAddressBlock.create("192.0.2.0/24").contains(address("::ffff:192.0.2.1")))
+        .isTrue();
+  }
+
+  @Test
+  public void testContains_nestedAndDuplicateBlocks() {
+    CidrAddressBlockSet set =
+        compile("10.1.2.0/24", "10.0.0.0/8", "10.1.0.0/16", "10.0.0.0/8", "10.0.0.0/32");
+    assertThat(set.getBlocks()).hasSize(5);
+    assertThat(set.contains(address("10.200.0.1"))).isTrue();
+    assertThat(set.contains(address("11.0.0.0"))).isFalse();
+  }
+
+  @Test
+  public void testContains_matchesLinearContains_smallWhitelists() throws Exception {
+    for (int i = 0; i < 500; i++) {
+      checkMatchesLinearContains(1 + random.nextInt(20), 20);
+    }
+  }
+
+  @Test
+  public void testContains_matchesLinearContains_largeWhitelists() throws Exception {
+    checkMatchesLinearContains(1000, 2000);
+    checkMatchesLinearContains(10000, 500);
+  }
+
+  /**
+   * Builds a random whitelist of IPv4 and IPv6 blocks, and checks that the compiled set agrees with
+   * checking each block in turn, for random addresses both inside and outside of the blocks.
+   */
+  private void checkMatchesLinearContains(int blockCount, int addressCount)
+      throws UnknownHostException {
+    List<CidrAddressBlock> blocks = new ArrayList<>();
+    for (int i = 0; i < blockCount; i++) {
+      InetAddress ip = randomAddress();
+      int maxNetmask = ip.getAddress().length * 8;
+      // Favor long netmasks, as in real whitelists, but sometimes allow very short ones.
+      int netmask = random.nextInt(4) == 0
+          ? random.nextInt(maxNetmask + 1)
+          : maxNetmask - random.nextInt(Math.min(maxNetmask, 16));
+      blocks.add(CidrAddressBlock.create(ip, netmask));
+    }
+    CidrAddressBlockSet set = CidrAddressBlock.compile(blocks);
+    for (int i = 0; i < addressCount; i++) {
+      InetAddress ip = random.nextBoolean()
+          ? randomAddress()
+          : randomAddressNear(blocks.get(random.nextInt(blocks.size())));
+      boolean expected = false;
+      for (CidrAddressBlock block : blocks) {
+        if (block.contains(ip)) {
+          expected = true;
+          break;
+        }
+      }
+      assertWithMessage(ip.toString()).that(set.contains(ip)).isEqualTo(expected);
+    }
+  }
+
+  private InetAddress randomAddress() throws UnknownHostException {
+    byte[] bytes = new byte[random.nextBoolean() ? 4 : 16];
+    random.nextBytes(bytes);
+    if (bytes.length == 16 && random.nextInt(10) == 0) {
+      // Make an IPv4-mapped IPv6 address, which InetAddress turns into an IPv4 address.
+      for (int i = 0; i < 10; i++) {
+        bytes[i] = 0;
+      }
+      bytes[10] = (byte) 0xff;
+      bytes[11] = (byte) 0xff;
+    }
+    return InetAddress.getByAddress(bytes);
+  }
+
+  /** Returns an address at, or one past, either end of the given block. */
+  private InetAddress randomAddressNear(CidrAddressBlock block) throws UnknownHostException {
+    return random.nextBoolean()
+        ? offset(block.getInetAddress(), -random.nextInt(2))
+        : offset(block.getAllOnesAddress(), random.nextInt(2));
+  }
+
+  /** Adds {@code delta} to an address, wrapping around at either end of its address space. */
+  private static InetAddress offset(InetAddress ip, int delta) throws UnknownHostException {
+    int length = ip.getAddress().length;
+    byte[] value = new BigInteger(1, ip.getAddress())
+        .add(BigInteger.valueOf(delta))
+        .mod(BigInteger.ONE.shiftLeft(length * 8))
+        .toByteArray();
+    // Drop the sign byte, or pad with leading zeros, to get back to the length of the address.
+    byte[] bytes = new byte[length];
+    int copy = Math.min(length, value.length);
+    System.arraycopy(value, value.length - copy, bytes, length - copy, copy);
+    return InetAddress.getByAddress(bytes);
+  }
+}
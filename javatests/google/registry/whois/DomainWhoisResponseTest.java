@@ -14,12 +14,14 @@
 
 package google.registry.whois;
 
+import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.whois.WhoisHelper.loadWhoisTestFile;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -34,9 +36,11 @@ import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -53,6 +57,9 @@ public class DomainWhoisResponseTest {
       .withDatastore()
       .build();
 
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
   HostResource hostResource1;
   HostResource hostResource2;
   ContactResource registrant;
@@ -64,6 +71,9 @@ public class DomainWhoisResponseTest {
 
   @Before
   public void setUp() {
+    DomainWhoisResponseCache.clear();
+    inject.setStaticField(Ofy.class, "clock", clock);
+
     // Update the registrar to have an IANA ID.
     persistResource(
         Registrar.loadByClientId("NewRegistrar").asBuilder().setIanaIdentifier(5555555L).build());
@@ -251,4 +261,96 @@ public class DomainWhoisResponseTest {
     assertThat(domainWhoisResponse.getPlainTextOutput(false, "Doodle Disclaimer"))
         .contains("Domain Status: ok");
   }
+
+  @Test
+  public void getPlainTextOutputTest_cachedBody_stillUsesCurrentTimestamp() {
+    CacheStats before = DomainWhoisResponseCache.getStats();
+    new DomainWhoisResponse(domainResource, clock.nowUtc().minusDays(1))
+        .getPlainTextOutput(false, "Doodle Disclaimer");
+    assertThat(new DomainWhoisResponse(domainResource, clock.nowUtc())
+            .getPlainTextOutput(false, "Doodle Disclaimer"))
+        .isEqualTo(loadWhoisTestFile("whois_domain.txt"));
+    CacheStats stats = DomainWhoisResponseCache.getStats().minus(before);
+    assertThat(stats.missCount()).isEqualTo(1);
+    assertThat(stats.hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void getPlainTextOutputTest_differentDisclaimerOrUnicodePreference_misses() {
+    CacheStats before = DomainWhoisResponseCache.getStats();
+    new DomainWhoisResponse(domainResource, clock.nowUtc())
+        .getPlainTextOutput(false, "Doodle Disclaimer");
+    assertThat(new DomainWhoisResponse(domainResource, clock.nowUtc())
+            .getPlainTextOutput(false, "Another Disclaimer"))
+        .endsWith("\r\nAnother Disclaimer\r\n");
+    new DomainWhoisResponse(domainResource, clock.nowUtc())
+        .getPlainTextOutput(true, "Doodle Disclaimer");
+    assertThat(DomainWhoisResponseCache.getStats().minus(before).missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void getPlainTextOutputTest_changedContact_isNotServedFromCache() {
+    new DomainWhoisResponse(domainResource, clock.nowUtc())
+        .getPlainTextOutput(false, "Doodle Disclaimer");
+    clock.advanceOneMilli();
+    persistResource(techContact.asBuilder().setEmailAddress("new@example.tld").build());
+    assertThat(new DomainWhoisResponse(domainResource, clock.nowUtc())
+            .getPlainTextOutput(false, "Doodle Disclaimer"))
+        .contains("Tech Email: new@example.tld");
+  }
+
+  @Test
+  public void getPlainTextOutputTest_changedRegistrar_isNotServedFromCache() {
+    new DomainWhoisResponse(domainResource, clock.nowUtc())
+        .getPlainTextOutput(false, "Doodle Disclaimer");
+    clock.advanceOneMilli();
+    persistResource(
+        Registrar.loadByClientId("NewRegistrar").asBuilder().setIanaIdentifier(7777777L).build());
+    assertThat(new DomainWhoisResponse(domainResource, clock.nowUtc())
+            .getPlainTextOutput(false, "Doodle Disclaimer"))
+        .contains("Sponsoring Registrar IANA ID: 7777777");
+  }
+
+  @Test
+  public void getPlainTextOutputTest_gracePeriodEndsBetweenQueries_isNotServedFromCache() {
+    clock.advanceOneMilli();
+    DomainResource domain = persistResource(domainResource.asBuilder()
+        .setGracePeriods(ImmutableSet.of(
+            GracePeriod.create(GracePeriodStatus.ADD, clock.nowUtc().plusDays(1), "", null)))
+        .build());
+    assertThat(new DomainWhoisResponse(domain.cloneProjectedAtTime(clock.nowUtc()), clock.nowUtc())
+            .getPlainTextOutput(false, "Doodle Disclaimer"))
+        .contains("Domain Status: addPeriod");
+    DateTime later = clock.nowUtc().plusDays(2);
+    assertThat(new DomainWhoisResponse(domain.cloneProjectedAtTime(later), later)
+            .getPlainTextOutput(false, "Doodle Disclaimer"))
+        .doesNotContain("addPeriod");
+  }
+
+  @Test
+  public void getPlainTextOutputTest_skewedQueries_mostlyHitCache() {
+    ImmutableList.Builder<DomainResource> builder = new ImmutableList.Builder<>();
+    for (int i = 0; i < 10; i++) {
+      builder.add(persistResource(domainResource.asBuilder()
+          .setFullyQualifiedDomainName("a" + i + ".tld")
+          .setRepoId((10 + i) + "-TLD")
+          .build()));
+    }
+    ImmutableList<DomainResource> domains = builder.build();
+    CacheStats before = DomainWhoisResponseCache.getStats();
+    // Replay a geometric distribution: half of the queries are for the most popular domain, a
+    // quarter for the next one, and so on.
+    for (int i = 1; i <= 1000; i++) {
+      DomainResource domain = domains.get(Math.min(9, Integer.numberOfTrailingZeros(i)));
+      assertThat(new DomainWhoisResponse(domain, clock.nowUtc())
+              .getPlainTextOutput(false, "Doodle Disclaimer"))
+          .contains("Domain Name: " + domain.getFullyQualifiedDomainName());
+    }
+    CacheStats stats = DomainWhoisResponseCache.getStats().minus(before);
+    assertThat(stats.missCount()).isEqualTo(10);
+    assertThat(stats.hitCount()).isEqualTo(990);
+    assertThat(getOnlyElement(DomainWhoisResponseCache.hitRate.getTimestampedValues()).value())
+        .isWithin(1e-9)
+        .of(DomainWhoisResponseCache.getStats().hitRate());
+  }
 }
@@ -78,6 +78,9 @@ public class WhoisHttpServerTest {
   public void setUp() throws Exception {
     createTlds("lol", "xn--q9jyb4c", "1.test");
     inject.setStaticField(Ofy.class, "clock", clock);
+    // Every test saves its entities under the same keys at the same time, so responses cached by
+    // one test must not be served to the next.
+    DomainWhoisResponseCache.clear();
   }
 
   @After
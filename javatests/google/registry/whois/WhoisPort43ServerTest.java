@@ -0,0 +1,253 @@
+// Copyright 2017 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.whois;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTlds;
+import static google.registry.whois.WhoisHelper.loadWhoisTestFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import google.registry.util.FormattingLogger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link WhoisPort43Server}. */
+@RunWith(JUnit4.class)
+public class WhoisPort43ServerTest {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final InjectRule inject = new InjectRule();
+
+  private static final WhoisPort43Server.QueryHandler ECHO_HANDLER =
+      new WhoisPort43Server.QueryHandler() {
+        @Override
+        public String handle(String query) {
+          return "Response to " + query + "\r\n";
+        }};
+
+  /** Lets the test wait for the selector thread to accept connections and read bytes. */
+  private static final class RecordingListener implements WhoisPort43Server.SelectorListener {
+    final Semaphore accepted = new Semaphore(0);
+    final Semaphore reads = new Semaphore(0);
+
+    @Override
+    public void connectionAccepted() {
+      accepted.release();
+    }
+
+    @Override
+    public void queryBytesRead() {
+      reads.release();
+    }
+  }
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2009-06-29T20:13:00Z"));
+  private final RecordingListener listener = new RecordingListener();
+  private ExecutorService executor;
+  private WhoisPort43Server server;
+
+  @Before
+  public void setUp() throws Exception {
+    createTlds("lol");
+    inject.setStaticField(Ofy.class, "clock", clock);
+    // Worker threads need the test's App Engine environment to be able to query datastore.
+    final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+            runnable.run();
+          }});
+      }});
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+    executor.shutdownNow();
+  }
+
+  private void startServer(WhoisPort43Server.QueryHandler handler, int maxConnectionsPerIp)
+      throws IOException {
+    server = new WhoisPort43Server(
+        handler,
+        executor,
+        clock,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        maxConnectionsPerIp,
+        Duration.standardMinutes(1),
+        Duration.standardSeconds(30));
+    server.listener = listener;
+    server.start();
+  }
+
+  /** Sends {@code query} and returns everything the server sends back before closing. */
+  private String sendQuery(String query) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      socket.setSoTimeout(10000);
+      OutputStream output = socket.getOutputStream();
+      output.write(query.getBytes(UTF_8));
+      output.flush();
+      return new String(ByteStreams.toByteArray(socket.getInputStream()), UTF_8);
+    }
+  }
+
+  @Test
+  public void testQuery_returnsResponseAndClosesConnection() throws Exception {
+    startServer(ECHO_HANDLER, 100);
+    assertThat(sendQuery("domain cat.lol\r\n")).isEqualTo("Response to domain cat.lol\r\n");
+  }
+
+  @Test
+  public void testQuery_waitsForNewline() throws Exception {
+    startServer(ECHO_HANDLER, 100);
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      socket.setSoTimeout(10000);
+      OutputStream output = socket.getOutputStream();
+      output.write("domain ".getBytes(UTF_8));
+      output.flush();
+      // Only send the rest once the server has read the first part and found no newline in it.
+      assertThat(listener.reads.tryAcquire(10, SECONDS)).isTrue();
+      output.write("cat.lol\r\n".getBytes(UTF_8));
+      output.flush();
+      assertThat(new String(ByteStreams.toByteArray(socket.getInputStream()), UTF_8))
+          .isEqualTo("Response to domain cat.lol\r\n");
+    }
+  }
+
+  @Test
+  public void testQuery_realHandler_matchesHttpServer() throws Exception {
+    startServer(WhoisPort43Server.createWhoisQueryHandler(clock, "Doodle Disclaimer"), 100);
+    assertThat(sendQuery("domain cat.lol\r\n"))
+        .isEqualTo(loadWhoisTestFile("whois_server_domain_not_found.txt"));
+  }
+
+  @Test
+  public void testQuery_tooLong_isRejected() throws Exception {
+    startServer(ECHO_HANDLER, 100);
+    assertThat(sendQuery(Strings.repeat("a", WhoisPort43Server.MAX_QUERY_BYTES)))
+        .isEqualTo(WhoisPort43Server.QUERY_TOO_LONG_RESPONSE);
+  }
+
+  @Test
+  public void testRateLimit_perIpLimitEnforced_andResetAfterWindow() throws Exception {
+    startServer(ECHO_HANDLER, 2);
+    assertThat(sendQuery("a\r\n")).isEqualTo("Response to a\r\n");
+    assertThat(sendQuery("b\r\n")).isEqualTo("Response to b\r\n");
+    assertThat(sendQuery("c\r\n")).isEqualTo(WhoisPort43Server.RATE_LIMITED_RESPONSE);
+    clock.advanceBy(Duration.standardMinutes(1));
+    assertThat(sendQuery("d\r\n")).isEqualTo("Response to d\r\n");
+  }
+
+  @Test
+  public void testTimeout_idleConnectionIsClosed() throws Exception {
+    startServer(ECHO_HANDLER, 100);
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      socket.setSoTimeout(10000);
+      // The deadline is set when the server accepts the connection, so wait for that first.
+      assertThat(listener.accepted.tryAcquire(10, SECONDS)).isTrue();
+      clock.advanceBy(Duration.standardSeconds(31));
+      // The server closes the connection without responding, so this reads end of stream.
+      assertThat(socket.getInputStream().read()).isEqualTo(-1);
+    }
+  }
+
+  /**
+   * Runs many concurrent clients against the server and reports its throughput and latency.
+   *
+   * <p>The numbers are logged rather than checked against thresholds, since they depend on the
+   * machine running the test. The handler echoes the query so that the measurement covers the
+   * server itself rather than datastore.
+   */
+  @Test
+  public void testLoad_manyConcurrentClients() throws Exception {
+    final int numQueries = 1000;
+    startServer(ECHO_HANDLER, numQueries);
+    ExecutorService clients = Executors.newFixedThreadPool(50);
+    try {
+      List<Future<Long>> latencies = new ArrayList<>();
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < numQueries; i++) {
+        final String query = "domain example" + i + ".lol";
+        latencies.add(clients.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            long queryStartNanos = System.nanoTime();
+            assertThat(sendQuery(query + "\r\n")).isEqualTo("Response to " + query + "\r\n");
+            return System.nanoTime() - queryStartNanos;
+          }}));
+      }
+      long[] latencyNanos = new long[numQueries];
+      for (int i = 0; i < numQueries; i++) {
+        latencyNanos[i] = latencies.get(i).get();
+      }
+      long elapsedNanos = System.nanoTime() - startNanos;
+      Arrays.sort(latencyNanos);
+      double throughput = numQueries / (elapsedNanos / 1e9);
+      logger.infofmt(
+          "%d queries from 50 clients: %.0f queries/s, latency p50 %.2f ms, p99 %.2f ms, "
+              + "max %.2f ms",
+          numQueries,
+          throughput,
+          latencyNanos[numQueries / 2] / 1e6,
+          latencyNanos[numQueries * 99 / 100] / 1e6,
+          latencyNanos[numQueries - 1] / 1e6);
+      assertThat(throughput).isGreaterThan(0.0);
+      assertThat(latencyNanos[0]).isGreaterThan(0L);
+    } finally {
+      clients.shutdownNow();
+    }
+  }
+}